@@ -0,0 +1,211 @@
+package org.example.chatappclient.client.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark parse/build message của Protocol trên các payload nóng:
+ * MESSAGE_SEND, MESSAGE_RECEIVE và lịch sử 50 tin nhắn
+ * - Mỗi phép đo có bản legacy*: cách cũ (String.split(Pattern.quote(...)), String.format)
+ *   để so sánh trực tiếp trong cùng một lần chạy
+ * - Bytes/op: chạy với -prof gc, xem gc.alloc.rate.norm
+ * Protocol phía server là cùng code (MUST BE IDENTICAL TO CLIENT PROTOCOL) nên số đo dùng cho cả hai
+ *
+ *   mvn -P jmh test-compile exec:exec
+ *   mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc ProtocolBenchmark.parseDataList"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final int HISTORY_SIZE = 50;
+
+    /**
+     * Các field một tin nhắn mà MessageHandler phía server ghi vào payload
+     */
+    private record HistoryMessage(String messageId, String senderId, String senderName, String content,
+                                  String messageType, String mediaUrl, LocalDateTime timestamp, boolean read,
+                                  String senderAvatar, String fileName, long fileSize) {
+    }
+
+    private String messageSend;
+    private String messageReceive;
+    private String historyResponse;
+    private String historyData;
+    private List<HistoryMessage> history;
+
+    private final Protocol.MessageBuilder builder = new Protocol.MessageBuilder();
+
+    @Setup
+    public void setUp() {
+        String content = "Chào cả nhóm, tối nay 8h họp online nhé, nhớ chuẩn bị slide phần của mình";
+
+        messageSend = Protocol.buildRequest(Protocol.MESSAGE_SEND,
+                "conv_1a2b3c4d5e", "user_9f8e7d6c5b", content, "TEXT", "");
+
+        messageReceive = Protocol.buildRequest(Protocol.MESSAGE_RECEIVE,
+                "msg_0011223344", "conv_1a2b3c4d5e", "user_9f8e7d6c5b", content, "TEXT", "",
+                "Nguyễn Văn An", "https://res.cloudinary.com/demo/image/upload/avatar_an.jpg", "", "0", "");
+
+        history = new ArrayList<>(HISTORY_SIZE);
+        LocalDateTime start = LocalDateTime.of(2024, 5, 1, 20, 0);
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            boolean image = i % 10 == 0;
+            history.add(new HistoryMessage(
+                    "msg_" + (1000000 + i),
+                    i % 2 == 0 ? "user_9f8e7d6c5b" : "user_1234abcd99",
+                    i % 2 == 0 ? "Nguyễn Văn An" : "Trần Thị Bình",
+                    image ? "" : content + " #" + i,
+                    image ? "IMAGE" : "TEXT",
+                    image ? "https://res.cloudinary.com/demo/image/upload/photo_" + i + ".jpg" : "",
+                    start.plusSeconds(37L * i),
+                    i < HISTORY_SIZE - 5,
+                    "https://res.cloudinary.com/demo/image/upload/avatar_" + (i % 2) + ".jpg",
+                    image ? "photo_" + i + ".jpg" : "",
+                    image ? 245_760 : 0));
+        }
+
+        historyResponse = buildHistory();
+        historyData = Protocol.getData(historyResponse);
+
+        if (!historyResponse.equals(legacyBuildHistory())) {
+            throw new IllegalStateException("MessageBuilder và String.format cho payload khác nhau");
+        }
+        for (String message : new String[]{messageSend, messageReceive, historyResponse}) {
+            if (!List.of(Protocol.parseMessage(message)).equals(List.of(legacySplit(message, Protocol.DELIMITER)))) {
+                throw new IllegalStateException("parseMessage khác String.split: " + message);
+            }
+        }
+        if (!Protocol.parseDataList(historyData).equals(legacyParseDataList(historyData))) {
+            throw new IllegalStateException("parseDataList khác String.split");
+        }
+    }
+
+    // ==================== MESSAGE_SEND ====================
+
+    @Benchmark
+    public String[] parseMessageSend() {
+        return Protocol.parseMessage(messageSend);
+    }
+
+    @Benchmark
+    public String[] legacyParseMessageSend() {
+        return legacySplit(messageSend, Protocol.DELIMITER);
+    }
+
+    // ==================== MESSAGE_RECEIVE ====================
+
+    @Benchmark
+    public String[] parseMessageReceive() {
+        return Protocol.parseMessage(messageReceive);
+    }
+
+    @Benchmark
+    public String[] legacyParseMessageReceive() {
+        return legacySplit(messageReceive, Protocol.DELIMITER);
+    }
+
+    // ==================== HISTORY ====================
+
+    @Benchmark
+    public String getCommandHistory() {
+        return Protocol.getCommand(historyResponse);
+    }
+
+    @Benchmark
+    public String legacyGetCommandHistory() {
+        String[] parts = legacySplit(historyResponse, Protocol.DELIMITER);
+        return parts.length > 0 ? parts[0] : "";
+    }
+
+    @Benchmark
+    public List<String> parseDataList() {
+        return Protocol.parseDataList(historyData);
+    }
+
+    @Benchmark
+    public List<String> legacyParseDataList() {
+        return legacyParseDataList(historyData);
+    }
+
+    @Benchmark
+    public String buildHistory() {
+        builder.start(Protocol.SUCCESS).param("Message history retrieved").beginParam();
+        for (int i = 0; i < history.size(); i++) {
+            if (i > 0) builder.nextItem();
+            HistoryMessage message = history.get(i);
+            builder.field(message.messageId())
+                    .field(message.senderId())
+                    .field(message.senderName())
+                    .field(message.content())
+                    .field(message.messageType())
+                    .field(message.mediaUrl())
+                    .field(message.timestamp())
+                    .field(message.read())
+                    .field(message.senderAvatar())
+                    .field(message.fileName())
+                    .field(message.fileSize());
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public String legacyBuildHistory() {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < history.size(); i++) {
+            if (i > 0) data.append(Protocol.FIELD_DELIMITER);
+            HistoryMessage message = history.get(i);
+            data.append(String.format("%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s",
+                    message.messageId(), Protocol.LIST_DELIMITER,
+                    message.senderId(), Protocol.LIST_DELIMITER,
+                    message.senderName(), Protocol.LIST_DELIMITER,
+                    message.content(), Protocol.LIST_DELIMITER,
+                    message.messageType(), Protocol.LIST_DELIMITER,
+                    message.mediaUrl(), Protocol.LIST_DELIMITER,
+                    message.timestamp().toString(), Protocol.LIST_DELIMITER,
+                    message.read(), Protocol.LIST_DELIMITER,
+                    message.senderAvatar(), Protocol.LIST_DELIMITER,
+                    message.fileName(), Protocol.LIST_DELIMITER,
+                    message.fileSize()));
+        }
+
+        StringBuilder sb = new StringBuilder(Protocol.SUCCESS);
+        sb.append(Protocol.DELIMITER).append("Message history retrieved");
+        sb.append(Protocol.DELIMITER).append(data);
+        return sb.toString();
+    }
+
+    // ==================== LEGACY ====================
+
+    private static String[] legacySplit(String text, String delimiter) {
+        return text.split(Pattern.quote(delimiter), -1);
+    }
+
+    private static List<String> legacyParseDataList(String data) {
+        List<String> list = new ArrayList<>();
+        for (String item : data.split(Pattern.quote(Protocol.FIELD_DELIMITER))) {
+            if (item != null && !item.trim().isEmpty()) {
+                list.add(item);
+            }
+        }
+        return list;
+    }
+}
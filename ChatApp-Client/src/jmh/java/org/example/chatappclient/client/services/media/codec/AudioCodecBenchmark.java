@@ -0,0 +1,79 @@
+package org.example.chatappclient.client.services.media.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU mã hóa/giải mã một frame 32 ms của từng codec trên audio tổng hợp giống giọng nói (SpeechSamples)
+ * - Mỗi lần gọi lấy frame kế tiếp trong 20 giây audio, như luồng gửi/nhận của cuộc gọi
+ * - Byte mỗi packet và SNR được kiểm tra trong AudioCodecTest
+ *
+ *   mvn -P jmh test-compile exec:exec -Djmh.args="AudioCodecBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioCodecBenchmark {
+
+    private static final int FRAME_BYTES = SpeechSamples.FRAME_BYTES;
+
+    @Param({"ima-adpcm", "pcmu", "pcma", "pcm"})
+    public String codec;
+
+    private byte[] pcm;
+    private int frames;
+    private AudioCodec encoder;
+    private AudioCodec decoder;
+    private byte[] encoded;
+    private int[] lengths;
+    private int maxEncoded;
+    private byte[] decoded;
+    private int encodeFrame;
+    private int decodeFrame;
+
+    @Setup
+    public void setUp() {
+        pcm = SpeechSamples.synthesize(20);
+        frames = pcm.length / FRAME_BYTES;
+        encoder = AudioCodecs.create(codec);
+        decoder = AudioCodecs.create(codec);
+        maxEncoded = encoder.maxEncodedSize(FRAME_BYTES);
+        encoded = new byte[frames * maxEncoded];
+        lengths = new int[frames];
+        decoded = new byte[FRAME_BYTES];
+
+        // Dữ liệu cho decode(): toàn bộ audio đã mã hóa sẵn
+        AudioCodec setupEncoder = AudioCodecs.create(codec);
+        for (int f = 0; f < frames; f++) {
+            lengths[f] = setupEncoder.encode(pcm, f * FRAME_BYTES, FRAME_BYTES, encoded, f * maxEncoded);
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        int f = encodeFrame;
+        encodeFrame = f + 1 == frames ? 0 : f + 1;
+        return encoder.encode(pcm, f * FRAME_BYTES, FRAME_BYTES, encoded, f * maxEncoded);
+    }
+
+    @Benchmark
+    public int decode() {
+        int f = decodeFrame;
+        decodeFrame = f + 1 == frames ? 0 : f + 1;
+        return decoder.decode(encoded, f * maxEncoded, lengths[f], decoded, 0);
+    }
+}
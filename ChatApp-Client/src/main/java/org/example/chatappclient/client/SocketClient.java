@@ -1,6 +1,9 @@
 package org.example.chatappclient.client;
 
 import org.example.chatappclient.client.config.AppConfig;
+import org.example.chatappclient.client.protocol.Frame;
+import org.example.chatappclient.client.protocol.FrameInputStream;
+import org.example.chatappclient.client.protocol.FrameOutputStream;
 import org.example.chatappclient.client.protocol.Protocol;
 import org.example.chatappclient.client.services.ConversationService;
 import org.example.chatappclient.client.utils.network.ZeroTierHelper;
@@ -8,7 +11,15 @@ import org.example.chatappclient.client.utils.network.ZeroTierHelper;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
@@ -24,6 +35,16 @@ public class SocketClient {
     private boolean isConnected;
     private boolean isRunning;
 
+    // ===== Protocol v2 (frame) =====
+    private volatile boolean framed;
+    private DataInputStream frameIn;
+    private OutputStream frameOut;
+    private FrameInputStream dataIn;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Consumer<String>> pendingRequests = new ConcurrentHashMap<>();
+    private final List<BlockingQueue<String>> messageTaps = new CopyOnWriteArrayList<>();
+
     private Thread listenerThread;
     private ConcurrentHashMap<String, Consumer<String>> responseHandlers;
     private Consumer<String> messageCallback;
@@ -103,6 +124,11 @@ public class SocketClient {
             isConnected = true;
             isRunning = true;
 
+            framed = false;
+            if (config.getProtocolVersion() >= 2) {
+                negotiateFrameProtocol();
+            }
+
             startListening();
             System.out.println("✅ Kết nối đến server thành công!");
 
@@ -124,12 +150,55 @@ public class SocketClient {
         }
     }
 
+    /**
+     * Thương lượng protocol v2: gửi HELLO|||2, chờ server trả HELLO|||2.
+     * Server cũ trả ERROR -> giữ nguyên v1 (text).
+     */
+    private void negotiateFrameProtocol() throws IOException {
+        writer.println(Protocol.HELLO + Protocol.DELIMITER + Protocol.PROTOCOL_V2);
+
+        String reply;
+        int previousTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(5000);
+        try {
+            reply = reader.readLine();
+        } catch (SocketTimeoutException e) {
+            reply = null;
+        } finally {
+            socket.setSoTimeout(previousTimeout);
+        }
+
+        if ((Protocol.HELLO + Protocol.DELIMITER + Protocol.PROTOCOL_V2).equals(reply)) {
+            // Server không gửi gì thêm trước frame đầu tiên của client,
+            // nên reader không thể đã đọc trước byte nào của frame
+            this.frameIn = new DataInputStream(new BufferedInputStream(rawInputStream, 8192));
+            this.frameOut = new BufferedOutputStream(rawOutputStream, 8192);
+            this.dataIn = new FrameInputStream(config.getReadTimeout());
+            this.framed = true;
+            System.out.println("✅ Protocol v2 (frame) đã được bật");
+        } else {
+            System.out.println("ℹ️ Server không hỗ trợ protocol v2, dùng v1 (text): " + reply);
+        }
+    }
+
     /**
      * Bắt đầu lắng nghe tin nhắn từ server
      */
     private void startListening() {
         listenerThread = new Thread(() -> {
             try {
+                if (framed) {
+                    Frame frame;
+                    while (isRunning && (frame = Frame.read(frameIn)) != null) {
+                        handleFrame(frame);
+                    }
+                    dataIn.end();
+                    if (isRunning) {
+                        handleDisconnection();
+                    }
+                    return;
+                }
+
                 String message;
                 while (isRunning && (message = reader.readLine()) != null) {
                     handleMessage(message);
@@ -215,6 +284,34 @@ public class SocketClient {
 //        }
 //    }
 
+    /**
+     * Xử lý frame nhận được (protocol v2)
+     * - DATA: dữ liệu file, chuyển cho getRawInputStream()
+     * - MESSAGE có requestId: phản hồi đúng request đang chờ
+     */
+    private void handleFrame(Frame frame) {
+        if (frame.isData()) {
+            dataIn.offer(frame.getPayload());
+            return;
+        }
+
+        String message = frame.toText();
+        for (BlockingQueue<String> tap : messageTaps) {
+            tap.offer(message);
+        }
+
+        if (frame.getRequestId() != 0) {
+            Consumer<String> pending = pendingRequests.remove(frame.getRequestId());
+            if (pending != null) {
+                System.out.println("📩 Nhận (#" + frame.getRequestId() + "): " + message);
+                pending.accept(message);
+                return;
+            }
+        }
+
+        handleMessage(message);
+    }
+
     private void handleMessage(String message) {
         System.out.println("📩 Nhận: " + message);
 
@@ -228,6 +325,11 @@ public class SocketClient {
             return;
         }
 
+        if (Protocol.USER_STATUS_BATCH.equals(command)) {
+            handleUserStatusBatch(message);
+            return;
+        }
+
         if (Protocol.MESSAGE_RECEIVE.equals(command)) {
             System.out.println("→ Processing MESSAGE_RECEIVE");
             // Xử lý tin nhắn nhận được
@@ -276,33 +378,11 @@ public class SocketClient {
         try {
             System.out.println("→ Parsing USER_STATUS_CHANGED: " + message);
 
-            String[] parts = message.split("\\|\\|\\|"); // Escape regex
+            // Giữ phần rỗng ở cuối (lastSeen có thể rỗng)
+            String[] parts = Protocol.parseMessage(message);
 
             if (parts.length >= 5) {
-                String userId = parts[1];
-                boolean isOnline = Boolean.parseBoolean(parts[2]);
-                String statusText = parts[3];
-                String lastSeen = parts[4];
-
-                System.out.println("  → UserID: " + userId);
-                System.out.println("  → IsOnline: " + isOnline);
-                System.out.println("  → StatusText: " + statusText);
-                System.out.println("  → LastSeen: " + lastSeen);
-
-                // Gọi handler nếu có
-                Consumer<String> statusHandler = responseHandlers.get(Protocol.USER_STATUS_CHANGED);
-                if (statusHandler != null) {
-                    // Gửi data đã parse về handler
-                    String statusData = userId + Protocol.DELIMITER +
-                            isOnline + Protocol.DELIMITER +
-                            statusText + Protocol.DELIMITER +
-                            lastSeen;
-
-                    statusHandler.accept(statusData);
-                    System.out.println("  ✅ Handler executed");
-                } else {
-                    System.out.println("  ⚠️ No handler registered for USER_STATUS_CHANGED");
-                }
+                dispatchUserStatus(parts[1], Boolean.parseBoolean(parts[2]), parts[3], parts[4]);
             } else {
                 System.err.println("  ⚠️ Invalid USER_STATUS_CHANGED format: " + parts.length + " parts");
             }
@@ -312,7 +392,47 @@ public class SocketClient {
         }
     }
 
+    /**
+     * Nhiều thay đổi trạng thái gom trong một message
+     * Format: USER_STATUS_BATCH|||userId,isOnline,statusText,lastSeen::userId,...
+     */
+    private void handleUserStatusBatch(String message) {
+        try {
+            for (String item : Protocol.parseDataList(Protocol.part(message, 1))) {
+                String[] fields = Protocol.parseFields(item);
+                if (fields.length >= 4) {
+                    dispatchUserStatus(fields[0], Boolean.parseBoolean(fields[1]),
+                            Protocol.decode(fields[2]), fields[3]);
+                } else {
+                    System.err.println("  ⚠️ Invalid USER_STATUS_BATCH item: " + item);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Lỗi xử lý user status batch: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gửi một thay đổi trạng thái về handler USER_STATUS_CHANGED
+     * (data: userId|||isOnline|||statusText|||lastSeen)
+     */
+    private void dispatchUserStatus(String userId, boolean isOnline, String statusText, String lastSeen) {
+        System.out.println("  → " + userId + ": " + (isOnline ? "online" : "offline"));
+
+        Consumer<String> statusHandler = responseHandlers.get(Protocol.USER_STATUS_CHANGED);
+        if (statusHandler != null) {
+            statusHandler.accept(String.join(Protocol.DELIMITER,
+                    userId, String.valueOf(isOnline), statusText, lastSeen));
+        } else {
+            System.out.println("  ⚠️ No handler registered for USER_STATUS_CHANGED");
+        }
+    }
+
     public String sendRequest(String request, long timeoutMillis) {
+        if (framed) {
+            return sendFramedRequest(request, timeoutMillis);
+        }
+
         if (!sendMessage(request)) {
             return null;
         }
@@ -343,6 +463,82 @@ public class SocketClient {
         return response[0];
     }
 
+    /**
+     * Request v2: phản hồi được ghép đúng theo requestId
+     */
+    private String sendFramedRequest(String request, long timeoutMillis) {
+        int requestId = nextRequestId.incrementAndGet();
+        BlockingQueue<String> response = new LinkedBlockingQueue<>(1);
+        pendingRequests.put(requestId, response::offer);
+
+        try {
+            if (!writeFrame(requestId, request)) {
+                return null;
+            }
+            return response.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            pendingRequests.remove(requestId);
+        }
+    }
+
+    /**
+     * Request v2 kèm dữ liệu nhị phân (vd. FILE_UPLOAD_CHUNK): tin và các DATA frame
+     * được ghi liền trong writeLock, nên không lẫn với lượt gửi của thread khác.
+     * null nếu không phải v2, lỗi ghi hoặc hết thời gian chờ phản hồi.
+     */
+    public String sendRequestWithData(String request, byte[] data, int off, int len, long timeoutMillis) {
+        if (!framed || !isConnected) {
+            return null;
+        }
+
+        int requestId = nextRequestId.incrementAndGet();
+        BlockingQueue<String> response = new LinkedBlockingQueue<>(1);
+        pendingRequests.put(requestId, response::offer);
+
+        writeLock.lock();
+        try {
+            frameOut.write(Frame.encodeText(requestId, request));
+            for (int sent = 0; sent < len; sent += Frame.DATA_CHUNK_SIZE) {
+                Frame.writeData(frameOut, 0, data, off + sent, Math.min(Frame.DATA_CHUNK_SIZE, len - sent));
+            }
+            frameOut.flush();
+            System.out.println("📤 Gửi (#" + requestId + "): " + request + " + " + len + " bytes");
+        } catch (IOException e) {
+            System.err.println("⚠️ Lỗi khi gửi dữ liệu: " + e.getMessage());
+            pendingRequests.remove(requestId);
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+
+        try {
+            return response.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            pendingRequests.remove(requestId);
+        }
+    }
+
+    private boolean writeFrame(int requestId, String message) {
+        writeLock.lock();
+        try {
+            frameOut.write(Frame.encodeText(requestId, message));
+            frameOut.flush();
+            System.out.println("📤 Gửi (#" + requestId + "): " + message);
+            return true;
+        } catch (IOException e) {
+            System.err.println("⚠️ Lỗi khi gửi tin nhắn: " + e.getMessage());
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     /**
      * Gửi tin nhắn đến server
      */
@@ -352,6 +548,10 @@ public class SocketClient {
             return false;
         }
 
+        if (framed) {
+            return writeFrame(0, message);
+        }
+
         try {
             writer.println(message);
             System.out.println("📤 Gửi: " + message);
@@ -364,15 +564,50 @@ public class SocketClient {
 
     // ==================== FILE TRANSFER ====================
     public InputStream getRawInputStream() {
-        return rawInputStream;
+        return framed ? dataIn : rawInputStream;
     }
 
+    /**
+     * v2: mỗi lần ghi thành DATA frame, nhớ flush() khi gửi xong
+     */
     public OutputStream getRawOutputStream() {
-        return rawOutputStream;
+        return framed ? new FrameOutputStream(frameOut, writeLock, 0) : rawOutputStream;
     }
 
     public String receiveMessage() throws IOException {
-        return reader.readLine();
+        if (!framed) {
+            return reader.readLine();
+        }
+
+        // v2: listener thread đọc frame, ở đây chỉ nhận bản sao tin tiếp theo
+        BlockingQueue<String> tap = new LinkedBlockingQueue<>();
+        messageTaps.add(tap);
+        try {
+            return tap.poll(config.getReadTimeout(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            messageTaps.remove(tap);
+        }
+    }
+
+    public boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * v2: nhận bản sao mọi tin từ lúc gọi (không lỡ broadcast đến ngay sau một phản hồi),
+     * nhớ gọi closeMessageTap khi xong
+     */
+    public BlockingQueue<String> openMessageTap() {
+        BlockingQueue<String> tap = new LinkedBlockingQueue<>();
+        messageTaps.add(tap);
+        return tap;
+    }
+
+    public void closeMessageTap(BlockingQueue<String> tap) {
+        messageTaps.remove(tap);
     }
 
     /**
@@ -453,6 +688,7 @@ public class SocketClient {
         isConnected = false;
 
         try {
+            if (dataIn != null) dataIn.end();
             if (reader != null) reader.close();
             if (writer != null) writer.close();
             if (socket != null) socket.close();
@@ -4,12 +4,13 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Cursor;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import org.example.chatappclient.client.models.Message;
+import org.example.chatappclient.client.services.FileDownloadService;
+import org.example.chatappclient.client.utils.helpers.ImageUtil;
 import org.example.chatappclient.client.utils.ui.AlertUtil;
 
 import java.awt.Desktop;
@@ -17,6 +18,7 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -26,6 +28,8 @@ import java.nio.file.StandardCopyOption;
  */
 public class FileViewerComponent extends VBox {
 
+    private static final int TEXT_PREVIEW_BYTES = 2048;
+
     private final Message message;
     private final String fileUrl;
     private final String fileName;
@@ -73,19 +77,12 @@ public class FileViewerComponent extends VBox {
         imageView.setPreserveRatio(true);
         imageView.setStyle("-fx-background-radius: 8;");
 
-        // Load image async
-        new Thread(() -> {
-            try {
-                Image image = new Image(fileUrl, true);
-                javafx.application.Platform.runLater(() -> {
-                    imageView.setImage(image);
-                });
-            } catch (Exception e) {
-                javafx.application.Platform.runLater(() -> {
-                    addGenericFilePreview();
-                });
-            }
-        }).start();
+        // Load thumbnail async (ảnh gốc khi mở viewer)
+        try {
+            ImageUtil.loadInto(imageView, ImageUtil.getPreviewUrl(fileUrl, message.getThumbnailUrl()), 280);
+        } catch (Exception e) {
+            addGenericFilePreview();
+        }
 
         imageView.setCursor(Cursor.HAND);
         imageView.setOnMouseClicked(e -> openImageViewer());
@@ -173,6 +170,45 @@ public class FileViewerComponent extends VBox {
         container.setOnMouseClicked(e -> downloadAndOpen());
 
         getChildren().add(container);
+
+        if (fileName.toLowerCase().endsWith(".txt")) {
+            addTextPreview();
+        }
+    }
+
+    /**
+     * Xem trước vài KB đầu của file text (chỉ tải khoảng byte đầu, không tải cả file)
+     */
+    private void addTextPreview() {
+        FileDownloadService downloads = FileDownloadService.getInstance();
+        if (!downloads.canDownload(fileUrl)) {
+            return;
+        }
+
+        Label preview = new Label();
+        preview.setWrapText(true);
+        preview.setMaxWidth(280);
+        preview.setMaxHeight(120);
+        preview.setStyle("-fx-text-fill: #444; -fx-font-size: 11px; -fx-font-family: monospace;");
+        preview.setVisible(false);
+        preview.setManaged(false);
+        getChildren().add(preview);
+
+        new Thread(() -> {
+            try {
+                byte[] head = downloads.readHead(fileUrl, TEXT_PREVIEW_BYTES);
+                String text = new String(head, StandardCharsets.UTF_8);
+                boolean truncated = fileSize > head.length;
+
+                javafx.application.Platform.runLater(() -> {
+                    preview.setText(truncated ? text + "…" : text);
+                    preview.setVisible(true);
+                    preview.setManaged(true);
+                });
+            } catch (Exception e) {
+                System.err.println("⚠️ Không xem trước được " + fileName + ": " + e.getMessage());
+            }
+        }).start();
     }
 
     // ==================== ARCHIVE PREVIEW ====================
@@ -324,7 +360,20 @@ public class FileViewerComponent extends VBox {
         }
     }
 
-    private void downloadFileToPath(String urlStr, Path destination) throws IOException {
+    private void downloadFileToPath(String urlStr, Path destination) throws Exception {
+        FileDownloadService downloads = FileDownloadService.getInstance();
+        if (downloads.canDownload(urlStr)) {
+            downloads.downloadToFile(urlStr, destination, received -> {
+                if (fileSize > 0) {
+                    double progress = (double) received / fileSize;
+                    javafx.application.Platform.runLater(() ->
+                            downloadProgress.setProgress(progress)
+                    );
+                }
+            });
+            return;
+        }
+
         URL url = new URL(urlStr);
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
         conn.setRequestMethod("GET");
@@ -13,6 +13,7 @@ public class AppConfig {
     private int serverPort;
     private int connectionTimeout;
     private int readTimeout;
+    private int protocolVersion;
 
     // Cấu hình ZeroTier
     private boolean useZeroTier;
@@ -77,6 +78,7 @@ public class AppConfig {
         properties.setProperty("server.port", "8888");
         properties.setProperty("server.connection.timeout", "30000");
         properties.setProperty("server.read.timeout", "30000");
+        properties.setProperty("server.protocol.version", "2");
 
         properties.setProperty("zerotier.enabled", "true");
         properties.setProperty("zerotier.network_id", "8d1c312afae2a81b");
@@ -106,6 +108,7 @@ public class AppConfig {
         serverPort = getIntProperty("server.port", 8888);
         connectionTimeout = getIntProperty("server.connection.timeout", 30000);
         readTimeout = getIntProperty("server.read.timeout", 30000);
+        protocolVersion = getIntProperty("server.protocol.version", 2);
 
         useZeroTier = getBooleanProperty("zerotier.enabled", true);
         zeroTierNetworkId = properties.getProperty("zerotier.network_id", "8d1c312afae2a81b");
@@ -153,6 +156,7 @@ public class AppConfig {
     public int getServerPort() { return serverPort; }
     public int getConnectionTimeout() { return connectionTimeout; }
     public int getReadTimeout() { return readTimeout; }
+    public int getProtocolVersion() { return protocolVersion; }
     public boolean isUseZeroTier() { return useZeroTier; }
     public String getZeroTierNetworkId() { return zeroTierNetworkId; }
     public String getZeroTierNetworkName() { return zeroTierNetworkName; }
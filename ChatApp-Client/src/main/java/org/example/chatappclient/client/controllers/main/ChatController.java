@@ -3,6 +3,7 @@ package org.example.chatappclient.client.controllers.main;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.layout.*;
@@ -13,6 +14,7 @@ import org.example.chatappclient.client.controllers.main.handlers.UIComponentFac
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -20,6 +22,7 @@ import java.util.List;
  * ✅ Tự động cuộn mượt mà không giật lag
  * ✅ Luôn hiển thị tin nhắn mới nhất khi vào chat
  * ✅ Tự động cuộn khi có tin nhắn mới
+ * ✅ Cuộn lên đầu thì tải thêm trang tin cũ hơn (cursor nextCursor của trang trước)
  */
 public class ChatController {
 
@@ -35,6 +38,10 @@ public class ChatController {
     // Debounce scroll để tránh giật
     private volatile boolean isScrolling = false;
 
+    // Cursor trang tin cũ hơn (null: đã hết lịch sử); chỉ đọc/ghi trên FX thread
+    private String olderCursor;
+    private boolean loadingOlder = false;
+
     public ChatController(VBox chatMessagesContainer,
                           ScrollPane chatScrollPane,
                           String currentUserId) {
@@ -66,10 +73,17 @@ public class ChatController {
 
         // ✅ QUAN TRỌNG: Đợi layout hoàn tất trước khi cuộn
         chatMessagesContainer.heightProperty().addListener((obs, oldVal, newVal) -> {
-            if (!isScrolling && chatMessagesContainer.getChildren().size() > 0) {
+            if (!isScrolling && !loadingOlder && chatMessagesContainer.getChildren().size() > 0) {
                 smoothScrollToBottom();
             }
         });
+
+        // Cuộn lên đầu: tải trang tin cũ hơn
+        chatScrollPane.vvalueProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal.doubleValue() <= 0.0 && oldVal.doubleValue() > 0.0) {
+                loadOlderMessages();
+            }
+        });
     }
 
     /**
@@ -90,14 +104,116 @@ public class ChatController {
      * ✅ Load tin nhắn và tự động cuộn xuống cuối
      */
     private void loadMessages() {
+        String conversationId = currentConversationId;
         try {
-            List<Message> messages = messageService.getMessages(currentConversationId);
-            displayMessages(messages);
+            MessageService.MessagePage page = messageService.getMessagePage(conversationId, null, MessageService.PAGE_SIZE);
+            displayMessagePage(conversationId, page);
         } catch (Exception e) {
             Platform.runLater(() -> showErrorMessage("Không thể tải tin nhắn: " + e.getMessage()));
         }
     }
 
+    /**
+     * Hiển thị trang mới nhất và nhớ cursor để cuộn lên tải tin cũ hơn
+     */
+    public void displayMessagePage(String conversationId, MessageService.MessagePage page) {
+        Platform.runLater(() -> {
+            currentConversationId = conversationId;
+            olderCursor = page.getNextCursor();
+            loadingOlder = false;
+        });
+        displayMessages(page.getMessages());
+    }
+
+    /**
+     * Tải trang tin cũ hơn và chèn lên đầu, giữ nguyên vị trí đang xem
+     */
+    private void loadOlderMessages() {
+        if (loadingOlder || olderCursor == null || currentConversationId == null) {
+            return;
+        }
+        loadingOlder = true;
+        String conversationId = currentConversationId;
+        String cursor = olderCursor;
+
+        Thread loader = new Thread(() -> {
+            try {
+                MessageService.MessagePage page = messageService.getMessagePage(conversationId, cursor, MessageService.PAGE_SIZE);
+                Platform.runLater(() -> {
+                    // Đã chuyển sang conversation khác trong lúc tải
+                    if (!conversationId.equals(currentConversationId)) {
+                        loadingOlder = false;
+                        return;
+                    }
+                    olderCursor = page.getNextCursor();
+                    prependMessages(page.getMessages());
+                });
+            } catch (Exception e) {
+                System.err.println("❌ Error loading older messages: " + e.getMessage());
+                Platform.runLater(() -> loadingOlder = false);
+            }
+        }, "LoadOlderMessages");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Chèn tin cũ lên đầu danh sách; loadingOlder giữ đến khi khôi phục xong vị trí cuộn
+     * để listener chiều cao không kéo xuống cuối
+     */
+    private void prependMessages(List<Message> messages) {
+        if (messages.isEmpty()) {
+            loadingOlder = false;
+            return;
+        }
+        messages.sort((m1, m2) -> m1.getTimestamp().compareTo(m2.getTimestamp()));
+
+        List<Node> children = chatMessagesContainer.getChildren();
+        List<Node> older = new ArrayList<>();
+        String lastDate = null;
+        String lastSenderId = null;
+        for (Message msg : messages) {
+            String msgDate = extractDate(msg.getTimestamp());
+            if (!msgDate.equals(lastDate)) {
+                older.add(createDateSeparator(msgDate));
+                lastDate = msgDate;
+                lastSenderId = null;
+            }
+            HBox messageBubble = createMessageBubble(msg, msg.getSenderId().equals(lastSenderId));
+            messageBubble.setUserData(msg);
+            older.add(messageBubble);
+            lastSenderId = msg.getSenderId();
+        }
+
+        // Trang cũ kết thúc cùng ngày với tin đầu đang hiển thị: bỏ separator trùng
+        Message firstShown = null;
+        for (Node node : children) {
+            if (node.getUserData() instanceof Message) {
+                firstShown = (Message) node.getUserData();
+                break;
+            }
+        }
+        if (firstShown != null && !children.isEmpty() && !(children.get(0).getUserData() instanceof Message)
+                && extractDate(firstShown.getTimestamp()).equals(lastDate)) {
+            children.remove(0);
+        }
+
+        double oldHeight = chatMessagesContainer.getHeight();
+        children.addAll(0, older);
+
+        chatMessagesContainer.applyCss();
+        chatMessagesContainer.layout();
+        chatScrollPane.applyCss();
+        chatScrollPane.layout();
+
+        double newHeight = chatMessagesContainer.getHeight();
+        double scrollable = newHeight - chatScrollPane.getViewportBounds().getHeight();
+        if (scrollable > 0) {
+            chatScrollPane.setVvalue(Math.min(1.0, (newHeight - oldHeight) / scrollable));
+        }
+        Platform.runLater(() -> loadingOlder = false);
+    }
+
     /**
      * ✅ Hiển thị tin nhắn với auto-scroll mượt mà
      */
@@ -173,6 +289,34 @@ public class ChatController {
         });
     }
 
+    /**
+     * Đổi media URL/thumbnail của tin đang hiển thị (MESSAGE_UPDATE) và vẽ lại bubble
+     */
+    public void updateMessageMedia(Message update) {
+        Platform.runLater(() -> {
+            List<Node> children = chatMessagesContainer.getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                Object data = children.get(i).getUserData();
+                if (!(data instanceof Message) || !update.getMessageId().equals(((Message) data).getMessageId())) {
+                    continue;
+                }
+
+                Message message = (Message) data;
+                message.setMediaUrl(update.getMediaUrl());
+                message.setThumbnailUrl(update.getThumbnailUrl());
+
+                Object previous = i > 0 ? children.get(i - 1).getUserData() : null;
+                boolean isConsecutive = previous instanceof Message
+                        && message.getSenderId().equals(((Message) previous).getSenderId());
+
+                HBox messageBubble = createMessageBubble(message, isConsecutive);
+                messageBubble.setUserData(message);
+                children.set(i, messageBubble);
+                return;
+            }
+        });
+    }
+
     /**
      * ✅ Thêm loading view (cho file upload)
      */
@@ -395,6 +539,8 @@ public class ChatController {
             chatMessagesContainer.getChildren().clear();
             currentConversation = null;
             currentConversationId = null;
+            olderCursor = null;
+            loadingOlder = false;
         });
     }
 }
\ No newline at end of file
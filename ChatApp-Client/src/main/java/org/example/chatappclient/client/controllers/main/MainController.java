@@ -13,6 +13,7 @@ import org.example.chatappclient.client.models.*;
 import org.example.chatappclient.client.services.*;
 import org.example.chatappclient.client.utils.ui.ConversationInfoBuilder;
 import org.example.chatappclient.client.utils.ui.EmojiStickerDialog;
+import org.example.chatappclient.client.utils.ui.MessageSearchDialog;
 import org.example.chatappclient.client.utils.data.StickerData;
 
 import java.util.HashSet;
@@ -219,10 +220,24 @@ public class MainController {
         audioCallButton.setOnAction(e -> callHandler.startAudioCall());
         videoCallButton.setOnAction(e -> callHandler.startVideoCall());
 
+        // Search in chat
+        searchInChatBtn.setOnAction(e -> showMessageSearchDialog());
+
         // Chat info
         chatInfoButton.setOnAction(e -> toggleInfoSidebar());
     }
 
+    /**
+     * Tìm tin nhắn trong conversation đang mở
+     */
+    private void showMessageSearchDialog() {
+        if (currentConversationId == null) {
+            System.out.println("⚠️ Chưa chọn conversation");
+            return;
+        }
+        new MessageSearchDialog(currentConversationId).show();
+    }
+
     /**
      * Hiển thị Emoji/Sticker Dialog
      */
@@ -336,10 +351,18 @@ public class MainController {
         chatController.displayMessages(messages);
     }
 
+    public void displayMessagePage(String conversationId, MessageService.MessagePage page) {
+        chatController.displayMessagePage(conversationId, page);
+    }
+
     public void addMessageToUI(Message msg) {
         chatController.addNewMessage(msg);
     }
 
+    public void updateMessageMedia(Message update) {
+        chatController.updateMessageMedia(update);
+    }
+
     public void updateChatHeader(Conversation conv) {
         Platform.runLater(() -> {
             chatPartnerName.setText(conv.getName());
@@ -332,6 +332,13 @@ public class ConversationHandler {
             });
         });
 
+        // Thumbnail xong / ảnh đã lên kho ngoài: cập nhật bubble nếu đang mở conversation
+        conversationService.setOnMessageMediaUpdated((conversationId, update) -> {
+            if (conversationId.equals(mainController.getCurrentConversationId())) {
+                mainController.updateMessageMedia(update);
+            }
+        });
+
         // ✅ NEW: Lắng nghe conversation restored
         conversationService.setOnConversationRestored(this::handleConversationRestored);
 
@@ -14,12 +14,15 @@ import org.example.chatappclient.client.SocketClient;
 import org.example.chatappclient.client.controllers.main.MainController;
 import org.example.chatappclient.client.models.Message;
 import org.example.chatappclient.client.protocol.Protocol;
+import org.example.chatappclient.client.services.ChunkedUploadService;
 import org.example.chatappclient.client.utils.ui.AlertUtil;
 
 import java.io.*;
 import java.time.LocalDateTime;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -34,6 +37,7 @@ public class FileHandler {
     private final MainController mainController;
     private final SocketClient socketClient;
     private final ExecutorService executor;
+    private final ChunkedUploadService uploadService;
 
     // File size limits
     private static final long MAX_IMAGE_SIZE = 10 * 1024 * 1024;
@@ -42,10 +46,13 @@ public class FileHandler {
     private static final long MAX_DOCUMENT_SIZE = 50 * 1024 * 1024;
     private static final long MAX_ARCHIVE_SIZE = 100 * 1024 * 1024;
 
+    private static final String UPLOAD_STATUS_ID = "upload-status";
+
     public FileHandler(MainController mainController) {
         this.mainController = mainController;
         this.socketClient = SocketClient.getInstance();
         this.executor = Executors.newCachedThreadPool();
+        this.uploadService = ChunkedUploadService.getInstance();
     }
 
     public void selectImage() {
@@ -130,25 +137,32 @@ public class FileHandler {
         // ✅ STEP 3: Upload trong background thread
         executor.submit(() -> {
             try {
-                // Gửi request
-                String request = Protocol.buildRequest(
-                        Protocol.FILE_UPLOAD,
-                        conversationId,
-                        userId,
-                        file.getName(),
-                        type.name().toLowerCase(),
-                        String.valueOf(file.length())
-                );
-
-                socketClient.sendMessage(request);
-                Thread.sleep(100);
-
-                // Gửi file data
-                sendFileData(file);
-                System.out.println("✅ File data sent");
-
-                // ✅ STEP 4: CHỜ MESSAGE_RECEIVE (tin nhắn thật từ server)
-                String messageReceive = waitForMessageReceive(20);
+                String messageReceive;
+
+                if (uploadService.canResume()) {
+                    // Upload theo khối, tự nối tiếp khi mất kết nối
+                    messageReceive = uploadInChunks(file, type, conversationId, userId, loadingView);
+                } else {
+                    // Gửi request
+                    String request = Protocol.buildRequest(
+                            Protocol.FILE_UPLOAD,
+                            conversationId,
+                            userId,
+                            file.getName(),
+                            type.name().toLowerCase(),
+                            String.valueOf(file.length())
+                    );
+
+                    socketClient.sendMessage(request);
+                    Thread.sleep(100);
+
+                    // Gửi file data
+                    sendFileData(file);
+                    System.out.println("✅ File data sent");
+
+                    // ✅ STEP 4: CHỜ MESSAGE_RECEIVE (tin nhắn thật từ server)
+                    messageReceive = waitForMessageReceive(20);
+                }
 
                 if (messageReceive == null) {
                     throw new Exception("Timeout: Không nhận được MESSAGE_RECEIVE");
@@ -186,6 +200,40 @@ public class FileHandler {
         });
     }
 
+    /**
+     * Upload qua ChunkedUploadService, cập nhật % trên loading view.
+     * Tap mở trước khi hoàn tất để không lỡ MESSAGE_RECEIVE đến ngay sau phản hồi.
+     */
+    private String uploadInChunks(File file, FileType type, String conversationId, String userId,
+                                  VBox loadingView) throws Exception {
+        Label statusLabel = (Label) loadingView.lookup("#" + UPLOAD_STATUS_ID);
+        long fileSize = Math.max(1, file.length());
+
+        BlockingQueue<String> tap = socketClient.openMessageTap();
+        try {
+            String fileUrl = uploadService.upload(file, conversationId, userId, type.name().toLowerCase(),
+                    received -> Platform.runLater(() -> {
+                        if (statusLabel != null) {
+                            statusLabel.setText("⏳ Đang gửi... " + (received * 100 / fileSize) + "%");
+                        }
+                    }));
+            System.out.println("✅ File uploaded: " + fileUrl);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                String resp = tap.poll(remaining, TimeUnit.MILLISECONDS);
+                if (resp != null && resp.startsWith(Protocol.MESSAGE_RECEIVE)
+                        && fileUrl.equals(Protocol.part(resp, 6))) {
+                    return resp;
+                }
+            }
+            return null;
+        } finally {
+            socketClient.closeMessageTap(tap);
+        }
+    }
+
     /**
      * ✅ Chờ MESSAGE_RECEIVE từ server
      */
@@ -304,6 +352,7 @@ public class FileHandler {
 
         // ✅ Status label với animation
         Label statusLabel = new Label("⏳ Đang gửi...");
+        statusLabel.setId(UPLOAD_STATUS_ID);
         statusLabel.setStyle(
                 "-fx-font-size: 12px; " +
                         "-fx-text-fill: #1976D2; " +
@@ -384,12 +384,12 @@ public class MessageHandler {
         try {
             System.out.println("📥 Loading messages for conversation: " + conversationId);
 
-            List<Message> messages = messageService.getMessages(conversationId);
+            MessageService.MessagePage page = messageService.getMessagePage(conversationId, null, MessageService.PAGE_SIZE);
 
-            System.out.println("✅ Loaded " + messages.size() + " messages");
+            System.out.println("✅ Loaded " + page.getMessages().size() + " messages");
 
             Platform.runLater(() -> {
-                mainController.displayMessages(messages);
+                mainController.displayMessagePage(conversationId, page);
             });
 
         } catch (Exception e) {
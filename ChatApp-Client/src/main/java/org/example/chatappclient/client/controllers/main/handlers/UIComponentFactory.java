@@ -11,6 +11,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import org.example.chatappclient.client.models.Conversation;
 import org.example.chatappclient.client.models.Message;
+import org.example.chatappclient.client.utils.helpers.ImageUtil;
 import org.example.chatappclient.client.utils.ui.ConversationInfoBuilder;
 
 import java.time.LocalDateTime;
@@ -306,7 +307,7 @@ public class UIComponentFactory {
 
         if (msg.getMediaUrl() != null) {
             try {
-                img.setImage(new Image(msg.getMediaUrl(), true));
+                ImageUtil.loadInto(img, ImageUtil.getPreviewUrl(msg.getMediaUrl(), msg.getThumbnailUrl()), 250);
             } catch (Exception e) {
                 Label error = new Label("Không thể tải ảnh");
                 error.setStyle("-fx-text-fill: #dc3545;");
@@ -0,0 +1,313 @@
+package org.example.chatappclient.client.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame - Wire format v2 (length-prefixed, binary)
+ * MUST BE IDENTICAL TO CLIENT PROTOCOL
+ *
+ * Layout (big-endian):
+ *   int32  length      số byte phía sau trường length
+ *   byte   type        TYPE_MESSAGE | TYPE_DATA
+ *   int32  requestId   0 = push từ server; phản hồi mang lại requestId của request
+ *   body
+ *
+ * MESSAGE body: uint16 fieldCount, mỗi field = byte tag + giá trị
+ *   FIELD_NULL   -
+ *   FIELD_STRING int32 len + UTF-8
+ *   FIELD_LONG   int64
+ *   FIELD_BYTES  int32 len + bytes
+ * DATA body: payload nhị phân (file), không escape, không cần BufferedReader
+ *
+ * Thương lượng: client gửi dòng text "HELLO|||2", server trả "HELLO|||2"
+ * rồi cả hai chuyển sang frame. Server cũ trả ERROR -> client giữ v1.
+ */
+public final class Frame {
+
+    public static final byte TYPE_MESSAGE = 1;
+    public static final byte TYPE_DATA = 2;
+
+    public static final byte FIELD_NULL = 0;
+    public static final byte FIELD_STRING = 1;
+    public static final byte FIELD_LONG = 2;
+    public static final byte FIELD_BYTES = 3;
+
+    public static final int LENGTH_SIZE = 4;
+    public static final int HEADER_SIZE = 5; // type + requestId
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    public static final int DATA_CHUNK_SIZE = 64 * 1024;
+
+    private final byte type;
+    private final int requestId;
+    private final Object[] fields;
+    private final byte[] payload;
+
+    private Frame(byte type, int requestId, Object[] fields, byte[] payload) {
+        this.type = type;
+        this.requestId = requestId;
+        this.fields = fields;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public boolean isData() {
+        return type == TYPE_DATA;
+    }
+
+    public Object[] getFields() {
+        return fields;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Các field dạng String, tương đương Protocol.parseMessage() của v1
+     */
+    public String[] toParts() {
+        String[] parts = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            Object field = fields[i];
+            if (field == null) {
+                parts[i] = "";
+            } else if (field instanceof byte[]) {
+                parts[i] = new String((byte[]) field, StandardCharsets.UTF_8);
+            } else {
+                parts[i] = field.toString();
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Ghép lại thành chuỗi v1 (COMMAND|||a|||b) cho code xử lý dạng text
+     */
+    public String toText() {
+        return String.join(Protocol.DELIMITER, toParts());
+    }
+
+    // ==================== ENCODE ====================
+
+    /**
+     * Encode MESSAGE frame với các field có kiểu (String, Long/Integer, byte[], null)
+     */
+    public static byte[] encodeMessage(int requestId, Object... fields) {
+        if (fields.length > 0xFFFF) {
+            throw new IllegalArgumentException("Too many fields: " + fields.length);
+        }
+        byte[][] encoded = new byte[fields.length][];
+        int bodySize = 2;
+        for (int i = 0; i < fields.length; i++) {
+            Object field = fields[i];
+            if (field == null) {
+                bodySize += 1;
+            } else if (field instanceof Long || field instanceof Integer) {
+                bodySize += 1 + 8;
+            } else if (field instanceof byte[]) {
+                encoded[i] = (byte[]) field;
+                bodySize += 1 + 4 + encoded[i].length;
+            } else {
+                encoded[i] = field.toString().getBytes(StandardCharsets.UTF_8);
+                bodySize += 1 + 4 + encoded[i].length;
+            }
+        }
+
+        byte[] frame = new byte[LENGTH_SIZE + HEADER_SIZE + bodySize];
+        int pos = writeHeader(frame, TYPE_MESSAGE, requestId, HEADER_SIZE + bodySize);
+        frame[pos++] = (byte) (fields.length >>> 8);
+        frame[pos++] = (byte) fields.length;
+
+        for (int i = 0; i < fields.length; i++) {
+            Object field = fields[i];
+            if (field == null) {
+                frame[pos++] = FIELD_NULL;
+            } else if (field instanceof Long || field instanceof Integer) {
+                frame[pos++] = FIELD_LONG;
+                pos = putLong(frame, pos, ((Number) field).longValue());
+            } else {
+                frame[pos++] = field instanceof byte[] ? FIELD_BYTES : FIELD_STRING;
+                pos = putInt(frame, pos, encoded[i].length);
+                System.arraycopy(encoded[i], 0, frame, pos, encoded[i].length);
+                pos += encoded[i].length;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Encode một chuỗi v1 (COMMAND|||a|||b) thành MESSAGE frame.
+     * Tách bằng indexOf, không dùng regex.
+     */
+    public static byte[] encodeText(int requestId, String message) {
+        return encodeMessage(requestId, (Object[]) splitText(message));
+    }
+
+    public static String[] splitText(String message) {
+        return Protocol.split(message, Protocol.DELIMITER);
+    }
+
+    /**
+     * Ghi một DATA frame
+     */
+    public static void writeData(OutputStream out, int requestId, byte[] data, int off, int len) throws IOException {
+        out.write(encodeDataHeader(requestId, len));
+        out.write(data, off, len);
+    }
+
+    /**
+     * Phần đầu của DATA frame mang payloadLength byte (payload gửi riêng, vd. transferTo)
+     */
+    public static byte[] encodeDataHeader(int requestId, int payloadLength) {
+        byte[] header = new byte[LENGTH_SIZE + HEADER_SIZE];
+        writeHeader(header, TYPE_DATA, requestId, HEADER_SIZE + payloadLength);
+        return header;
+    }
+
+    private static int writeHeader(byte[] frame, byte type, int requestId, int length) {
+        int pos = putInt(frame, 0, length);
+        frame[pos++] = type;
+        return putInt(frame, pos, requestId);
+    }
+
+    // ==================== DECODE ====================
+
+    /**
+     * Đọc một frame từ stream. Trả về null nếu stream kết thúc ngay ở ranh giới frame.
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+
+        byte[] body = new byte[length];
+        try {
+            in.readFully(body);
+        } catch (EOFException e) {
+            throw new EOFException("Truncated frame (" + length + " bytes expected)");
+        }
+        return decodeBody(body, 0, length);
+    }
+
+    /**
+     * Kích thước toàn bộ frame (kể cả length) nếu buffer đã chứa đủ, ngược lại -1
+     */
+    public static int completeFrameSize(byte[] buf, int off, int available) throws IOException {
+        if (available < LENGTH_SIZE) {
+            return -1;
+        }
+        int length = getInt(buf, off);
+        checkLength(length);
+        return available >= LENGTH_SIZE + length ? LENGTH_SIZE + length : -1;
+    }
+
+    /**
+     * Decode frame hoàn chỉnh bắt đầu tại off (gồm cả trường length)
+     */
+    public static Frame decode(byte[] buf, int off) throws IOException {
+        int length = getInt(buf, off);
+        checkLength(length);
+        return decodeBody(buf, off + LENGTH_SIZE, length);
+    }
+
+    private static Frame decodeBody(byte[] buf, int off, int length) throws IOException {
+        int end = off + length;
+        byte type = buf[off];
+        int requestId = getInt(buf, off + 1);
+        int pos = off + HEADER_SIZE;
+
+        if (type == TYPE_DATA) {
+            byte[] payload = new byte[end - pos];
+            System.arraycopy(buf, pos, payload, 0, payload.length);
+            return new Frame(type, requestId, new Object[0], payload);
+        }
+        if (type != TYPE_MESSAGE) {
+            throw new IOException("Unknown frame type: " + type);
+        }
+
+        int count = ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+        pos += 2;
+        Object[] fields = new Object[count];
+
+        for (int i = 0; i < count; i++) {
+            if (pos >= end) {
+                throw new IOException("Truncated frame");
+            }
+            byte tag = buf[pos++];
+            switch (tag) {
+                case FIELD_NULL:
+                    fields[i] = null;
+                    break;
+                case FIELD_LONG:
+                    fields[i] = getLong(buf, pos);
+                    pos += 8;
+                    break;
+                case FIELD_STRING:
+                case FIELD_BYTES: {
+                    int len = getInt(buf, pos);
+                    pos += 4;
+                    if (len < 0 || pos + len > end) {
+                        throw new IOException("Invalid field length: " + len);
+                    }
+                    if (tag == FIELD_STRING) {
+                        fields[i] = new String(buf, pos, len, StandardCharsets.UTF_8);
+                    } else {
+                        byte[] bytes = new byte[len];
+                        System.arraycopy(buf, pos, bytes, 0, len);
+                        fields[i] = bytes;
+                    }
+                    pos += len;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown field tag: " + tag);
+            }
+        }
+        return new Frame(type, requestId, fields, null);
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    // ==================== BYTE HELPERS ====================
+
+    private static int putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+        return pos + 4;
+    }
+
+    private static int putLong(byte[] b, int pos, long v) {
+        putInt(b, pos, (int) (v >>> 32));
+        return putInt(b, pos + 4, (int) v);
+    }
+
+    private static int getInt(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16)
+                | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] b, int pos) {
+        return ((long) getInt(b, pos) << 32) | (getInt(b, pos + 4) & 0xFFFFFFFFL);
+    }
+}
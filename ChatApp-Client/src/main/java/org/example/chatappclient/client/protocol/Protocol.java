@@ -2,7 +2,6 @@ package org.example.chatappclient.client.protocol;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
 
 public class Protocol {
 
@@ -27,6 +26,8 @@ public class Protocol {
     public static final String USER_GET_ONLINE_STATUS = "USER_GET_ONLINE_STATUS";
     // Trong class Protocol
     public static final String USER_STATUS_CHANGED = "USER_STATUS_CHANGED";
+    // Nhiều thay đổi trạng thái trong một message: userId,isOnline,statusText,lastSeen::...
+    public static final String USER_STATUS_BATCH = "USER_STATUS_BATCH";
     public static final String MESSAGE_NEW = "MESSAGE_NEW";
 
 
@@ -48,9 +49,19 @@ public class Protocol {
     public static final String MESSAGE_DELETE = "MESSAGE_DELETE";
     public static final String MESSAGE_EDIT = "MESSAGE_EDIT";
     public static final String MESSAGE_RECALL = "MESSAGE_RECALL";
+    // Server -> client: messageId|||conversationId|||mediaUrl|||thumbnailUrl (thumbnail xong, ảnh đã lên kho ngoài)
+    public static final String MESSAGE_UPDATE = "MESSAGE_UPDATE";
     public static final String MESSAGE_FORWARD = "MESSAGE_FORWARD";
     public static final String MESSAGE_REACT = "MESSAGE_REACT";
     public static final String MESSAGE_GET_HISTORY = "MESSAGE_GET_HISTORY";
+    // Phân trang theo cursor: conversationId|||before/after|||cursor|||limit -> ...|||messages|||nextCursor
+    public static final String MESSAGE_GET_HISTORY_PAGE = "MESSAGE_GET_HISTORY_PAGE";
+    public static final String HISTORY_BEFORE = "before";
+    public static final String HISTORY_AFTER = "after";
+    // Tìm trong conversation: conversationId|||keyword|||relevance/time|||cursor|||limit -> ...|||messages|||nextCursor
+    public static final String MESSAGE_SEARCH = "MESSAGE_SEARCH";
+    public static final String SEARCH_BY_RELEVANCE = "relevance";
+    public static final String SEARCH_BY_TIME = "time";
     public static final String MESSAGE_MARK_READ = "MESSAGE_MARK_READ";
     public static final String MESSAGE_DELIVERED = "MESSAGE_DELIVERED";
     public static final String MESSAGE_READ = "MESSAGE_READ";
@@ -88,6 +99,8 @@ public class Protocol {
     // Call events
     public static final String CALL_INCOMING = "CALL_INCOMING";
     public static final String CALL_ANSWERED = "CALL_ANSWERED";
+    // Codec audio của cuộc gọi đổi (người mới vào không giải mã được codec đang dùng)
+    public static final String CALL_CODEC = "CALL_CODEC";
     public static final String CALL_REJECTED = "CALL_REJECTED";
     public static final String CALL_ENDED = "CALL_ENDED";
     public static final String CALL_ERROR = "CALL_ERROR";
@@ -109,6 +122,17 @@ public class Protocol {
     public static final String CALL_HISTORY_STATS = "CALL_HISTORY_STATS";
     // ==================== FILE COMMANDS ====================
     public static final String FILE_UPLOAD = "FILE_UPLOAD";
+    // Upload nhiều khối, nối tiếp được sau khi mất kết nối:
+    // INIT conv|||sender|||fileName|||fileType|||fileSize[|||sha256] -> uploadId|||receivedOffset|||chunkSize
+    //      (server đã có blob cùng sha256: uploadId rỗng, thêm |||fileUrl và tin nhắn đã được gửi)
+    // STATUS uploadId -> receivedOffset|||fileSize
+    // CHUNK uploadId|||offset|||length|||crc32, rồi length byte dữ liệu -> receivedOffset
+    // COMPLETE uploadId -> fileUrl
+    public static final String FILE_UPLOAD_INIT = "FILE_UPLOAD_INIT";
+    public static final String FILE_UPLOAD_STATUS = "FILE_UPLOAD_STATUS";
+    public static final String FILE_UPLOAD_CHUNK = "FILE_UPLOAD_CHUNK";
+    public static final String FILE_UPLOAD_COMPLETE = "FILE_UPLOAD_COMPLETE";
+    // url[|||offset|||length[|||crc]] -> SUCCESS|||msg|||count|||totalSize|||offset[|||crc32], rồi count byte dữ liệu
     public static final String FILE_DOWNLOAD = "FILE_DOWNLOAD";
     public static final String FILE_DELETE = "FILE_DELETE";
     public static final String FILE_GET_INFO = "FILE_GET_INFO";
@@ -136,6 +160,11 @@ public class Protocol {
     public static final String LIST_DELIMITER = ",";
     public static final String END_OF_MESSAGE = "\n";
 
+    // ==================== PROTOCOL VERSION ====================
+    // Client gửi HELLO|||2 ngay sau khi kết nối; server trả HELLO|||2 nếu hỗ trợ frame v2
+    public static final String HELLO = "HELLO";
+    public static final String PROTOCOL_V2 = "2";
+
 
     // ==================== UTILITY METHODS ====================
 
@@ -143,9 +172,15 @@ public class Protocol {
      * Build request message
      */
     public static String buildRequest(String command, String... params) {
-        StringBuilder sb = new StringBuilder(command);
+        int length = command.length();
         for (String param : params) {
-            sb.append(DELIMITER).append(param != null ? param : "");
+            length += DELIMITER.length() + (param != null ? param.length() : 0);
+        }
+
+        StringBuilder sb = new StringBuilder(length).append(command);
+        for (String param : params) {
+            sb.append(DELIMITER);
+            if (param != null) sb.append(param);
         }
         return sb.toString();
     }
@@ -154,10 +189,16 @@ public class Protocol {
      * Build response message
      */
     public static String buildResponse(String status, String message, String... data) {
-        StringBuilder sb = new StringBuilder(status);
-        sb.append(DELIMITER).append(message != null ? message : "");
+        int length = status.length() + DELIMITER.length() + (message != null ? message.length() : 0);
         for (String item : data) {
-            sb.append(DELIMITER).append(item != null ? item : "");
+            length += DELIMITER.length() + (item != null ? item.length() : 0);
+        }
+
+        StringBuilder sb = new StringBuilder(length).append(status).append(DELIMITER);
+        if (message != null) sb.append(message);
+        for (String item : data) {
+            sb.append(DELIMITER);
+            if (item != null) sb.append(item);
         }
         return sb.toString();
     }
@@ -169,23 +210,65 @@ public class Protocol {
         if (message == null || message.isEmpty()) {
             return new String[0];
         }
-        return message.split(Pattern.quote(DELIMITER), -1);
+        return split(message, DELIMITER);
+    }
+
+    /**
+     * Tách chuỗi theo delimiter bằng indexOf (không regex), giữ phần rỗng ở cuối
+     * như String.split(..., -1)
+     */
+    public static String[] split(String text, String delimiter) {
+        int count = 1;
+        for (int i = text.indexOf(delimiter); i >= 0; i = text.indexOf(delimiter, i + delimiter.length())) {
+            count++;
+        }
+
+        String[] parts = new String[count];
+        int start = 0;
+        for (int i = 0; i < count - 1; i++) {
+            int end = text.indexOf(delimiter, start);
+            parts[i] = text.substring(start, end);
+            start = end + delimiter.length();
+        }
+        parts[count - 1] = text.substring(start);
+        return parts;
+    }
+
+    /**
+     * Lấy phần thứ index (tính từ 0) mà không tách cả chuỗi. Trả về null nếu không có.
+     */
+    public static String part(String message, int index) {
+        if (message == null || message.isEmpty()) {
+            return null;
+        }
+
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            int next = message.indexOf(DELIMITER, start);
+            if (next < 0) {
+                return null;
+            }
+            start = next + DELIMITER.length();
+        }
+
+        int end = message.indexOf(DELIMITER, start);
+        return end < 0 ? message.substring(start) : message.substring(start, end);
     }
 
     /**
      * Get command from message
      */
     public static String getCommand(String message) {
-        String[] parts = parseMessage(message);
-        return parts.length > 0 ? parts[0] : "";
+        String command = part(message, 0);
+        return command != null ? command : "";
     }
 
     /**
      * Get status from response
      */
     public static String getStatus(String response) {
-        String[] parts = parseMessage(response);
-        return parts.length > 0 ? parts[0] : "";
+        String status = part(response, 0);
+        return status != null ? status : "";
     }
 
     /**
@@ -206,16 +289,16 @@ public class Protocol {
      * Get error message from response
      */
     public static String getErrorMessage(String response) {
-        String[] parts = parseMessage(response);
-        return parts.length > 1 ? parts[1] : "Unknown error";
+        String error = part(response, 1);
+        return error != null ? error : "Unknown error";
     }
 
     /**
      * Get data from response (3rd part onwards)
      */
     public static String getData(String response) {
-        String[] parts = parseMessage(response);
-        return parts.length > 2 ? parts[2] : "";
+        String data = part(response, 2);
+        return data != null ? data : "";
     }
 
     /**
@@ -227,11 +310,17 @@ public class Protocol {
             return list;
         }
 
-        String[] items = data.split(Pattern.quote(FIELD_DELIMITER));
-        for (String item : items) {
-            if (item != null && !item.trim().isEmpty()) {
+        int start = 0;
+        while (start <= data.length()) {
+            int end = data.indexOf(FIELD_DELIMITER, start);
+            if (end < 0) {
+                end = data.length();
+            }
+            String item = data.substring(start, end);
+            if (!item.isBlank()) {
                 list.add(item);
             }
+            start = end + FIELD_DELIMITER.length();
         }
         return list;
     }
@@ -243,7 +332,7 @@ public class Protocol {
         if (data == null || data.isEmpty()) {
             return new String[0];
         }
-        return data.split(Pattern.quote(LIST_DELIMITER), -1);
+        return split(data, LIST_DELIMITER);
     }
 
     /**
@@ -277,14 +366,148 @@ public class Protocol {
      * Extract all data parts from response
      */
     public static List<String> getAllDataParts(String response) {
-        String[] parts = parseMessage(response);
         List<String> dataParts = new ArrayList<>();
-        for (int i = 2; i < parts.length; i++) {
-            dataParts.add(parts[i]);
+        if (response == null || response.isEmpty()) {
+            return dataParts;
+        }
+
+        int start = 0;
+        for (int i = 0; i < 2 && start >= 0; i++) {
+            int next = response.indexOf(DELIMITER, start);
+            start = next < 0 ? -1 : next + DELIMITER.length();
+        }
+        while (start >= 0) {
+            int end = response.indexOf(DELIMITER, start);
+            if (end < 0) {
+                dataParts.add(response.substring(start));
+                break;
+            }
+            dataParts.add(response.substring(start, end));
+            start = end + DELIMITER.length();
         }
         return dataParts;
     }
 
+    // ==================== MESSAGE BUILDER ====================
+
+    /**
+     * Builder dùng lại được cho payload lớn (lịch sử, danh sách):
+     * một StringBuilder cho cả message, không String.format, không mảng varargs.
+     *
+     *   builder.start(SUCCESS).param("ok").beginParam()
+     *          .field(id).field(name).nextItem().field(id2)...
+     *   -> SUCCESS|||ok|||id,name::id2
+     */
+    public static final class MessageBuilder {
+        private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+        private StringBuilder sb;
+        private boolean fieldStart;
+
+        public MessageBuilder() {
+            this(256);
+        }
+
+        public MessageBuilder(int capacity) {
+            this.sb = new StringBuilder(capacity);
+        }
+
+        /**
+         * Bắt đầu message mới (command hoặc status)
+         */
+        public MessageBuilder start(String head) {
+            if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+                // Không giữ buffer lớn sau một payload lịch sử dài
+                sb = new StringBuilder(256);
+            } else {
+                sb.setLength(0);
+            }
+            sb.append(head);
+            fieldStart = true;
+            return this;
+        }
+
+        /**
+         * Thêm một phần: |||value
+         */
+        public MessageBuilder param(String value) {
+            beginParam();
+            if (value != null) sb.append(value);
+            return this;
+        }
+
+        public MessageBuilder param(long value) {
+            beginParam();
+            sb.append(value);
+            return this;
+        }
+
+        /**
+         * Mở một phần mới để ghi các field/item vào đó
+         */
+        public MessageBuilder beginParam() {
+            sb.append(DELIMITER);
+            fieldStart = true;
+            return this;
+        }
+
+        /**
+         * Item tiếp theo trong danh sách: ::
+         */
+        public MessageBuilder nextItem() {
+            sb.append(FIELD_DELIMITER);
+            fieldStart = true;
+            return this;
+        }
+
+        /**
+         * Field trong một item: value,value,...
+         */
+        public MessageBuilder field(String value) {
+            separateField();
+            if (value != null) sb.append(value);
+            return this;
+        }
+
+        public MessageBuilder field(long value) {
+            separateField();
+            sb.append(value);
+            return this;
+        }
+
+        public MessageBuilder field(boolean value) {
+            separateField();
+            sb.append(value);
+            return this;
+        }
+
+        public MessageBuilder field(Object value) {
+            separateField();
+            if (value != null) sb.append(value);
+            return this;
+        }
+
+        private void separateField() {
+            if (!fieldStart) {
+                sb.append(LIST_DELIMITER);
+            }
+            fieldStart = false;
+        }
+
+        public int length() {
+            return sb.length();
+        }
+
+        public String build() {
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+    }
+
     // Private constructor to prevent instantiation
     private Protocol() {
         throw new AssertionError("Cannot instantiate Protocol class");
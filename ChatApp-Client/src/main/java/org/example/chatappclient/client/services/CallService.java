@@ -3,6 +3,7 @@ package org.example.chatappclient.client.services;
 import org.example.chatappclient.client.SocketClient;
 import org.example.chatappclient.client.protocol.Protocol;
 import org.example.chatappclient.client.services.media.UdpMediaClient;
+import org.example.chatappclient.client.services.media.codec.AudioCodecs;
 
 /**
  * Service xử lý cuộc gọi thoại/video qua UDP
@@ -96,6 +97,19 @@ public class CallService {
             }
         });
 
+        // Server chọn lại codec audio cho cuộc gọi
+        socketClient.registerHandler(Protocol.CALL_CODEC, message -> {
+            try {
+                String[] parts = Protocol.parseMessage(message);
+                if (parts.length >= 3 && mediaClient != null) {
+                    System.out.println("CODEC AUDIO ĐỔI: " + parts[2] + " (cuộc gọi " + parts[1] + ")");
+                    mediaClient.setAudioCodec(parts[2]);
+                }
+            } catch (Exception e) {
+                System.err.println("Lỗi khi đổi codec cuộc gọi: " + e.getMessage());
+            }
+        });
+
         // Cuộc gọi bị từ chối
         socketClient.registerHandler(Protocol.CALL_REJECTED, message -> {
             try {
@@ -153,7 +167,8 @@ public class CallService {
 
     // ==================== THAO TÁC CUỘC GỌI ====================
     public String startCall(String conversationId, String callerId, String callType) throws Exception {
-        String request = Protocol.buildRequest(Protocol.CALL_START, conversationId, callerId, callType);
+        String request = Protocol.buildRequest(Protocol.CALL_START, conversationId, callerId, callType,
+                AudioCodecs.getSupportedNames());
         String response = socketClient.sendRequest(request, 15000);
 
         if (response == null) {
@@ -163,25 +178,29 @@ public class CallService {
             throw new Exception(Protocol.getErrorMessage(response));
         }
 
-        // Phân tích phản hồi: SUCCESS|||message|||callId|||serverIP|||udpPort
+        // Phân tích phản hồi: SUCCESS|||message|||callId|||serverIP|||udpPort|||mediaToken|||audioCodec
         String[] parts = Protocol.parseMessage(response);
         if (parts.length >= 5) {
             String callId = parts[2];
             String serverIP = parts[3];
             int udpPort = Integer.parseInt(parts[4]);
+            int mediaToken = parts.length > 5 ? Integer.parseInt(parts[5]) : 0;
+            String audioCodec = parts.length > 6 ? parts[6] : "pcm";
 
             System.out.println("Bắt đầu cuộc gọi thành công:");
             System.out.println(" ID cuộc gọi: " + callId);
             System.out.println(" Server media: " + serverIP + ":" + udpPort);
+            System.out.println(" Codec audio: " + audioCodec);
 
-            initializeMediaClient(serverIP, udpPort, callType);
+            initializeMediaClient(serverIP, udpPort, callType, mediaToken, audioCodec);
             return callId;
         }
         throw new Exception("Định dạng phản hồi không hợp lệ");
     }
 
     public boolean answerCall(String callId, String userId) throws Exception {
-        String request = Protocol.buildRequest(Protocol.CALL_ANSWER, callId, userId);
+        String request = Protocol.buildRequest(Protocol.CALL_ANSWER, callId, userId,
+                AudioCodecs.getSupportedNames());
         String response = socketClient.sendRequest(request, 10000);
 
         if (response == null) {
@@ -191,18 +210,21 @@ public class CallService {
             throw new Exception(Protocol.getErrorMessage(response));
         }
 
-        // Phân tích thông tin UDP: SUCCESS|||message|||serverIP|||udpPort|||callType
+        // Phân tích thông tin UDP: SUCCESS|||message|||serverIP|||udpPort|||callType|||mediaToken|||audioCodec
         String[] parts = Protocol.parseMessage(response);
         if (parts.length >= 5) {
             String serverIP = parts[2];
             int udpPort = Integer.parseInt(parts[3]);
             String callType = parts[4];
+            int mediaToken = parts.length > 5 ? Integer.parseInt(parts[5]) : 0;
+            String audioCodec = parts.length > 6 ? parts[6] : "pcm";
 
             System.out.println("Chấp nhận cuộc gọi thành công:");
             System.out.println(" Server media: " + serverIP + ":" + udpPort);
             System.out.println(" Loại cuộc gọi: " + callType);
+            System.out.println(" Codec audio: " + audioCodec);
 
-            initializeMediaClient(serverIP, udpPort, callType);
+            initializeMediaClient(serverIP, udpPort, callType, mediaToken, audioCodec);
             return true;
         }
         return false;
@@ -261,13 +283,13 @@ public class CallService {
     }
 
     // ==================== QUẢN LÝ MEDIA CLIENT ====================
-    private void initializeMediaClient(String serverIP, int udpPort, String callType) {
+    private void initializeMediaClient(String serverIP, int udpPort, String callType, int mediaToken, String audioCodec) {
         try {
             // Dừng client cũ nếu đang tồn tại
             stopMediaClient();
 
             boolean isVideo = "video".equals(callType);
-            mediaClient = new UdpMediaClient(serverIP, udpPort, isVideo);
+            mediaClient = new UdpMediaClient(serverIP, udpPort, isVideo, mediaToken, audioCodec);
             mediaClient.start();
 
             System.out.println("Đã khởi động UDP Media Client:");
@@ -0,0 +1,189 @@
+package org.example.chatappclient.client.services;
+
+import org.example.chatappclient.client.SocketClient;
+import org.example.chatappclient.client.protocol.Protocol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Service upload file theo khối, nối tiếp được (FILE_UPLOAD_INIT/STATUS/CHUNK/COMPLETE)
+ * - Mỗi khối kèm CRC32; server chỉ nhận đúng tại offset nó đang giữ
+ * - Mất kết nối: chờ kết nối lại, hỏi FILE_UPLOAD_STATUS rồi gửi tiếp từ offset đó
+ * - uploadId được nhớ theo file: gửi lại cùng file sau khi thất bại thì không gửi lại phần đã có
+ * - SHA-256 gửi ngay trong INIT: server đã có nội dung này thì không phải truyền gì
+ * - Cần protocol v2 (dữ liệu khối đi bằng DATA frame ngay sau tin CHUNK)
+ */
+public class ChunkedUploadService {
+
+    private static volatile ChunkedUploadService instance;
+    private final SocketClient socketClient;
+
+    private static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long CHUNK_TIMEOUT = 30000;
+    private static final long RECONNECT_WAIT = 60000;
+    private static final int MAX_RETRIES = 5;
+
+    // file + conversation -> uploadId đang dở
+    private final Map<String, String> pendingUploads = new ConcurrentHashMap<>();
+
+    private ChunkedUploadService() {
+        socketClient = SocketClient.getInstance();
+    }
+
+    public static ChunkedUploadService getInstance() {
+        if (instance == null) {
+            synchronized (ChunkedUploadService.class) {
+                if (instance == null) {
+                    instance = new ChunkedUploadService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean canResume() {
+        return socketClient.isFramed();
+    }
+
+    /**
+     * Upload file, trả về URL server cấp; progress nhận số byte server đã xác nhận
+     */
+    public String upload(File file, String conversationId, String userId, String fileType,
+                         LongConsumer progress) throws Exception {
+        long fileSize = file.length();
+        String key = file.getAbsolutePath() + "|" + fileSize + "|" + file.lastModified() + "|" + conversationId;
+
+        String uploadId = pendingUploads.get(key);
+        long offset = uploadId != null ? queryOffset(uploadId) : -1;
+        int chunkSize = MAX_CHUNK_SIZE;
+
+        if (offset < 0) {
+            String response = socketClient.sendRequest(Protocol.buildRequest(
+                    Protocol.FILE_UPLOAD_INIT,
+                    conversationId,
+                    userId,
+                    file.getName(),
+                    fileType,
+                    String.valueOf(fileSize),
+                    sha256(file)
+            ), 10000);
+
+            if (response == null) throw new Exception("Server không phản hồi");
+            if (!Protocol.isSuccess(response)) throw new Exception(Protocol.getErrorMessage(response));
+
+            // Server đã có file cùng SHA-256: tin nhắn đã được gửi, không cần truyền dữ liệu
+            String existingUrl = Protocol.part(response, 5);
+            if (existingUrl != null && !existingUrl.isEmpty()) {
+                System.out.println("✓ Server đã có nội dung này, bỏ qua truyền " + fileSize + " bytes");
+                if (progress != null) {
+                    progress.accept(fileSize);
+                }
+                return existingUrl;
+            }
+
+            uploadId = Protocol.part(response, 2);
+            offset = Long.parseLong(Protocol.part(response, 3));
+            chunkSize = (int) Math.min(MAX_CHUNK_SIZE, Long.parseLong(Protocol.part(response, 4)));
+            pendingUploads.put(key, uploadId);
+        } else {
+            System.out.println("→ Nối tiếp upload " + uploadId + " từ " + offset + "/" + fileSize);
+        }
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[chunkSize];
+            CRC32 crc = new CRC32();
+            int failures = 0;
+
+            while (offset < fileSize) {
+                int length = (int) Math.min(chunkSize, fileSize - offset);
+                in.seek(offset);
+                in.readFully(buffer, 0, length);
+                crc.reset();
+                crc.update(buffer, 0, length);
+
+                String request = Protocol.buildRequest(Protocol.FILE_UPLOAD_CHUNK,
+                        uploadId, String.valueOf(offset), String.valueOf(length), String.valueOf(crc.getValue()));
+                String response = socketClient.sendRequestWithData(request, buffer, 0, length, CHUNK_TIMEOUT);
+
+                if (response != null && Protocol.isSuccess(response)) {
+                    offset = Long.parseLong(Protocol.getData(response));
+                    failures = 0;
+                    if (progress != null) {
+                        progress.accept(offset);
+                    }
+                    continue;
+                }
+
+                if (++failures > MAX_RETRIES) {
+                    throw new IOException(response != null
+                            ? Protocol.getErrorMessage(response)
+                            : "Mất kết nối khi upload (" + offset + "/" + fileSize + " bytes)");
+                }
+
+                // Khối bị từ chối hoặc mất kết nối: lấy lại offset server đang giữ
+                System.err.println("⚠️ Khối tại " + offset + " chưa được nhận, thử lại (" + failures + ")");
+                awaitConnection();
+                offset = queryOffset(uploadId);
+                if (offset < 0) {
+                    pendingUploads.remove(key);
+                    throw new IOException("Phiên upload không còn trên server");
+                }
+            }
+        }
+
+        String response = socketClient.sendRequest(
+                Protocol.buildRequest(Protocol.FILE_UPLOAD_COMPLETE, uploadId), 60000);
+        if (response == null) throw new Exception("Server không phản hồi");
+
+        pendingUploads.remove(key);
+        if (!Protocol.isSuccess(response)) throw new Exception(Protocol.getErrorMessage(response));
+        return Protocol.getData(response);
+    }
+
+    /**
+     * Offset server đã nhận, -1 nếu phiên không còn (hết hạn, đã hoàn tất) hoặc không hỏi được
+     */
+    private long queryOffset(String uploadId) {
+        String response = socketClient.sendRequest(
+                Protocol.buildRequest(Protocol.FILE_UPLOAD_STATUS, uploadId), 10000);
+        if (response == null || !Protocol.isSuccess(response)) {
+            return -1;
+        }
+        return Long.parseLong(Protocol.getData(response));
+    }
+
+    /**
+     * Chờ SocketClient tự kết nối lại (auto reconnect) trước khi gửi tiếp
+     */
+    private void awaitConnection() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + RECONNECT_WAIT;
+        while (!socketClient.isConnected() || !socketClient.isFramed()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Không kết nối lại được server");
+            }
+            Thread.sleep(500);
+        }
+    }
+
+    private static String sha256(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -25,6 +25,7 @@ public class ConversationService {
     // Callbacks
     private BiConsumer<String, Message> onNewMessage;
     private TriConsumer<String, Boolean, String> onUserOnlineStatus;
+    private BiConsumer<String, Message> onMessageMediaUpdated;
 
     private ConversationService() {
         socketClient = SocketClient.getInstance();
@@ -245,6 +246,27 @@ public class ConversationService {
             handleNewMessage(message);
         });
 
+        // Thumbnail xong / ảnh đã lên kho ngoài: messageId|||conversationId|||mediaUrl|||thumbnailUrl
+        socketClient.registerHandler(Protocol.MESSAGE_UPDATE, message -> {
+            String[] parts = message.split("\\|\\|\\|");
+            if (parts.length < 4) {
+                System.err.println("❌ Invalid MESSAGE_UPDATE format, parts: " + parts.length);
+                return;
+            }
+
+            Message update = new Message();
+            update.setMessageId(parts[1]);
+            update.setConversationId(parts[2]);
+            update.setMediaUrl(parts[3]);
+            if (parts.length > 4 && !parts[4].isEmpty()) {
+                update.setThumbnailUrl(parts[4]);
+            }
+
+            if (onMessageMediaUpdated != null) {
+                onMessageMediaUpdated.accept(update.getConversationId(), update);
+            }
+        });
+
         // ✅ Handler cho CONVERSATION_RESTORED
         socketClient.registerHandler(Protocol.CONVERSATION_RESTORED, message -> {
             System.out.println("→ ConversationService nhận CONVERSATION_RESTORED");
@@ -303,6 +325,10 @@ public class ConversationService {
                 } catch (Exception ignored) {}
             }
 
+            if (parts.length > 11 && !parts[11].isEmpty()) {
+                message.setThumbnailUrl(parts[11]);
+            }
+
             message.setTimestamp(LocalDateTime.now());
 
             System.out.println("✅ ConversationService parsed message:");
@@ -375,6 +401,13 @@ public class ConversationService {
         System.out.println("✅ Đã đăng ký callback cho user status changes");
     }
 
+    /**
+     * Đăng ký callback khi media/thumbnail của tin nhắn đổi (chỉ có id, mediaUrl, thumbnailUrl)
+     */
+    public void setOnMessageMediaUpdated(BiConsumer<String, Message> callback) {
+        this.onMessageMediaUpdated = callback;
+    }
+
     // ==================== FUNCTIONAL INTERFACE ====================
 
     @FunctionalInterface
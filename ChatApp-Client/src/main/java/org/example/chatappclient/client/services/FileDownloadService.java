@@ -0,0 +1,200 @@
+package org.example.chatappclient.client.services;
+
+import org.example.chatappclient.client.SocketClient;
+import org.example.chatappclient.client.protocol.Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Service tải file lưu trên server qua socket (FILE_DOWNLOAD)
+ * - Hỗ trợ khoảng byte: xem trước phần đầu file lớn mà không tải hết
+ * - Cần protocol v2: dữ liệu đi bằng DATA frame, không lẫn với tin text
+ * - Mỗi lúc chỉ một lượt tải (dùng chung luồng dữ liệu nhị phân của kết nối)
+ * - downloadToFile: tải theo khoảng có CRC32, nối tiếp từ file .partial sau khi mất kết nối
+ */
+public class FileDownloadService {
+
+    private static volatile FileDownloadService instance;
+    private final SocketClient socketClient;
+    private final Object transferLock = new Object();
+
+    // Khoảng tải mỗi lượt khi tải nối tiếp (giữ trong bộ nhớ tới khi kiểm CRC xong)
+    private static final int RANGE_SIZE = 4 * 1024 * 1024;
+    private static final long RECONNECT_WAIT = 60000;
+    private static final int MAX_RETRIES = 5;
+    private static final String DOWNLOAD_WITH_CRC = "crc";
+
+    private FileDownloadService() {
+        socketClient = SocketClient.getInstance();
+    }
+
+    public static FileDownloadService getInstance() {
+        if (instance == null) {
+            synchronized (FileDownloadService.class) {
+                if (instance == null) {
+                    instance = new FileDownloadService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * File nằm trên server chat (không phải Cloudinary) và kết nối đang dùng v2
+     */
+    public boolean canDownload(String fileUrl) {
+        return fileUrl != null && fileUrl.contains("/uploads/") && socketClient.isFramed();
+    }
+
+    /**
+     * Tải length byte từ offset (length < 0: tới hết file) vào out
+     * progress nhận số byte đã nhận, trả về tổng số byte
+     */
+    public long download(String fileUrl, long offset, long length, OutputStream out,
+                         LongConsumer progress) throws Exception {
+        synchronized (transferLock) {
+            return transferRange(fileUrl, offset, length, out, progress, false)[0];
+        }
+    }
+
+    /**
+     * Tải cả file về target, nối tiếp được:
+     * - Từng khoảng RANGE_SIZE kèm CRC32 của server; chỉ khoảng khớp CRC mới ghi vào target.partial
+     * - Mất kết nối thì chờ kết nối lại và tải tiếp từ độ dài file .partial
+     *   (kể cả lần tải sau nếu lần này thất bại hẳn)
+     * progress nhận số byte đã có trong file
+     */
+    public long downloadToFile(String fileUrl, Path target, LongConsumer progress) throws Exception {
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+
+        synchronized (transferLock) {
+            try (FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long offset = out.size();
+                long total = -1;
+                int failures = 0;
+                ByteArrayOutputStream range = new ByteArrayOutputStream(RANGE_SIZE);
+
+                if (offset > 0) {
+                    System.out.println("→ Tải tiếp " + target.getFileName() + " từ " + offset + " bytes");
+                }
+
+                while (total < 0 || offset < total) {
+                    range.reset();
+                    try {
+                        long[] result = transferRange(fileUrl, offset, RANGE_SIZE, range, null, true);
+                        total = result[1];
+
+                        byte[] bytes = range.toByteArray();
+                        CRC32 crc = new CRC32();
+                        crc.update(bytes, 0, bytes.length);
+                        if (crc.getValue() != result[2]) {
+                            throw new IOException("CRC32 không khớp tại offset " + offset);
+                        }
+
+                        ByteBuffer data = ByteBuffer.wrap(bytes);
+                        while (data.hasRemaining()) {
+                            out.write(data, offset + data.position());
+                        }
+                        offset += result[0];
+                        failures = 0;
+                        if (progress != null) {
+                            progress.accept(offset);
+                        }
+                        if (result[0] == 0) {
+                            break;
+                        }
+                    } catch (IOException e) {
+                        if (++failures > MAX_RETRIES) {
+                            throw e;
+                        }
+                        System.err.println("⚠️ Tải khoảng tại " + offset + " lỗi, thử lại (" + failures + "): "
+                                + e.getMessage());
+                        awaitConnection();
+                    } catch (Exception e) {
+                        // File .partial cũ không khớp file trên server (vd. dài hơn): tải lại từ đầu
+                        if (total >= 0 || offset == 0) {
+                            throw e;
+                        }
+                        out.truncate(0);
+                        offset = 0;
+                    }
+                }
+                out.force(false);
+            }
+
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+            return Files.size(target);
+        }
+    }
+
+    /**
+     * Một lượt FILE_DOWNLOAD; trả về {số byte, kích thước file, crc32 (nếu withCrc)}
+     */
+    private long[] transferRange(String fileUrl, long offset, long length, OutputStream out,
+                                 LongConsumer progress, boolean withCrc) throws Exception {
+        String request = withCrc
+                ? Protocol.buildRequest(Protocol.FILE_DOWNLOAD, fileUrl,
+                        String.valueOf(offset), String.valueOf(length), DOWNLOAD_WITH_CRC)
+                : Protocol.buildRequest(Protocol.FILE_DOWNLOAD, fileUrl,
+                        String.valueOf(offset), String.valueOf(length));
+        String response = socketClient.sendRequest(request, 10000);
+
+        if (response == null) throw new IOException("Server không phản hồi");
+        if (!Protocol.isSuccess(response)) throw new Exception(Protocol.getErrorMessage(response));
+
+        long count = Long.parseLong(Protocol.getData(response));
+        long total = Long.parseLong(Protocol.part(response, 3));
+        long crc = withCrc ? Long.parseLong(Protocol.part(response, 5)) : 0;
+
+        InputStream in = socketClient.getRawInputStream();
+        byte[] buffer = new byte[64 * 1024];
+        long received = 0;
+
+        while (received < count) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count - received));
+            if (read == -1) {
+                throw new IOException("Mất kết nối. Đã nhận " + received + "/" + count + " bytes");
+            }
+            out.write(buffer, 0, read);
+            received += read;
+            if (progress != null) {
+                progress.accept(received);
+            }
+        }
+        out.flush();
+        return new long[]{received, total, crc};
+    }
+
+    /**
+     * Chờ SocketClient tự kết nối lại (auto reconnect) trước khi tải tiếp
+     */
+    private void awaitConnection() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + RECONNECT_WAIT;
+        while (!socketClient.isConnected() || !socketClient.isFramed()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Không kết nối lại được server");
+            }
+            Thread.sleep(500);
+        }
+    }
+
+    /**
+     * Đọc tối đa maxBytes đầu tiên của file (xem trước)
+     */
+    public byte[] readHead(String fileUrl, int maxBytes) throws Exception {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(maxBytes);
+        download(fileUrl, 0, maxBytes, head, null);
+        return head.toByteArray();
+    }
+}
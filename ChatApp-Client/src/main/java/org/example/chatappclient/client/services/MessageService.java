@@ -43,6 +43,9 @@ public class MessageService {
 
     // ==================== GET MESSAGES ====================
 
+    // Số tin mỗi trang lịch sử (trang đầu khi mở chat và mỗi lần cuộn lên đầu)
+    public static final int PAGE_SIZE = 50;
+
     public List<Message> getMessages(String conversationId, int offset, int limit) throws Exception {
         String request = Protocol.buildRequest(Protocol.MESSAGE_GET_HISTORY,
                 conversationId, String.valueOf(offset), String.valueOf(limit));
@@ -54,6 +57,59 @@ public class MessageService {
         return parseMessages(Protocol.getData(response));
     }
 
+    /**
+     * Một trang lịch sử/kết quả tìm kiếm theo cursor,
+     * nextCursor truyền lại để lấy trang sau (null khi hết)
+     */
+    public static class MessagePage {
+        private final List<Message> messages;
+        private final String nextCursor;
+
+        public MessagePage(List<Message> messages, String nextCursor) {
+            this.messages = messages;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Message> getMessages() { return messages; }
+        public String getNextCursor() { return nextCursor; }
+        public boolean hasMore() { return nextCursor != null; }
+    }
+
+    /**
+     * Lấy các tin cũ hơn cursor (cursor = null: trang mới nhất)
+     */
+    public MessagePage getMessagePage(String conversationId, String cursor, int limit) throws Exception {
+        String request = Protocol.buildRequest(Protocol.MESSAGE_GET_HISTORY_PAGE,
+                conversationId, Protocol.HISTORY_BEFORE, cursor != null ? cursor : "", String.valueOf(limit));
+        String response = socketClient.sendRequest(request, 10000);
+
+        if (response == null) throw new Exception("Server không phản hồi");
+        if (!Protocol.isSuccess(response)) throw new Exception(Protocol.getErrorMessage(response));
+
+        String nextCursor = Protocol.part(response, 3);
+        return new MessagePage(parseMessages(Protocol.getData(response)),
+                nextCursor != null && !nextCursor.isEmpty() ? nextCursor : null);
+    }
+
+    /**
+     * Tìm tin nhắn trong conversation (cursor = null: trang đầu)
+     */
+    public MessagePage searchMessages(String conversationId, String keyword, boolean byRelevance,
+                                      String cursor, int limit) throws Exception {
+        String request = Protocol.buildRequest(Protocol.MESSAGE_SEARCH,
+                conversationId, Protocol.encode(keyword),
+                byRelevance ? Protocol.SEARCH_BY_RELEVANCE : Protocol.SEARCH_BY_TIME,
+                cursor != null ? cursor : "", String.valueOf(limit));
+        String response = socketClient.sendRequest(request, 10000);
+
+        if (response == null) throw new Exception("Server không phản hồi");
+        if (!Protocol.isSuccess(response)) throw new Exception(Protocol.getErrorMessage(response));
+
+        String nextCursor = Protocol.part(response, 3);
+        return new MessagePage(parseMessages(Protocol.getData(response)),
+                nextCursor != null && !nextCursor.isEmpty() ? nextCursor : null);
+    }
+
     // ==================== SEND MESSAGES ====================
 
     public Message sendMessage(String conversationId, String senderId, String content,
@@ -197,6 +253,7 @@ public class MessageService {
         if (f.length > 8) m.setSenderAvatar(f[8]);
         if (f.length > 9) m.setFileName(f[9]);
         if (f.length > 10) m.setFileSize(parseLong(f[10]));
+        if (f.length > 11 && !f[11].isEmpty()) m.setThumbnailUrl(f[11]);
         return m;
     }
 
@@ -260,10 +317,10 @@ public class MessageService {
         }
     }
 
-    // Lấy tin nhắn cho conversation
+    // Lấy trang tin nhắn mới nhất cho conversation (tin cũ hơn: getMessagePage với nextCursor)
     public List<Message> getMessages(String conversationId) {
         try {
-            return getMessages(conversationId, 0, 50);
+            return getMessagePage(conversationId, null, PAGE_SIZE).getMessages();
         } catch (Exception e) {
             e.printStackTrace();
             return new ArrayList<>();
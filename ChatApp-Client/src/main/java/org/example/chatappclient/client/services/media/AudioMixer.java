@@ -0,0 +1,120 @@
+package org.example.chatappclient.client.services.media;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trộn audio nhiều người gửi trong call nhóm
+ * - Mỗi nguồn (sourceId do server gắn khi relay) có JitterBuffer riêng: sequence number và đồng hồ
+ *   của từng người gửi độc lập, dùng chung một buffer thì frame của người này bị coi là trễ/trùng của người kia
+ * - poll(): lấy một frame từ mỗi nguồn rồi cộng mẫu PCM 16-bit (kẹp trong khoảng short)
+ * - Nguồn im lặng quá SOURCE_TIMEOUT_MS và không còn frame thì bị bỏ (người đó đã rời call)
+ * Thời gian truyền vào qua tham số nên chạy giả lập được (JitterBufferTest)
+ */
+public class AudioMixer {
+
+    private static final long SOURCE_TIMEOUT_MS = 5000;
+
+    private static final class Source {
+        final JitterBuffer buffer;
+        volatile long lastOfferMillis;
+
+        Source(JitterBuffer buffer, long now) {
+            this.buffer = buffer;
+            this.lastOfferMillis = now;
+        }
+    }
+
+    private final int frameBytes;
+    private final int frameMillis;
+    private final int minDepth;
+    private final int maxDepth;
+
+    private final ConcurrentHashMap<Integer, Source> sources = new ConcurrentHashMap<>();
+
+    // Chỉ thread phát dùng
+    private final byte[] frame;
+    private final int[] mix;
+
+    private volatile long removedSources;
+
+    public AudioMixer(int frameBytes, int frameMillis, int minDepth, int maxDepth) {
+        this.frameBytes = frameBytes;
+        this.frameMillis = frameMillis;
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+        this.frame = new byte[frameBytes];
+        this.mix = new int[frameBytes / 2];
+    }
+
+    /**
+     * Frame nhận được từ nguồn sourceId (0 = server không gắn nguồn)
+     */
+    public void offer(int sourceId, int seq, long timestampMillis, byte[] data, int offset, int length, long arrivalMillis) {
+        Source source = sources.computeIfAbsent(sourceId,
+                id -> new Source(new JitterBuffer(frameBytes, frameMillis, minDepth, maxDepth), arrivalMillis));
+        source.lastOfferMillis = arrivalMillis;
+        source.buffer.offer(seq, timestampMillis, data, offset, length, arrivalMillis);
+    }
+
+    /**
+     * Ghi frame đã trộn vào out; trả về số nguồn có frame thật (PLAYED) trong lần này
+     */
+    public int poll(byte[] out, long nowMillis) {
+        Arrays.fill(mix, 0);
+        int played = 0;
+
+        for (Iterator<Map.Entry<Integer, Source>> it = sources.entrySet().iterator(); it.hasNext(); ) {
+            Source source = it.next().getValue();
+            if (nowMillis - source.lastOfferMillis > SOURCE_TIMEOUT_MS && source.buffer.getBuffered() == 0) {
+                it.remove();
+                removedSources++;
+                continue;
+            }
+
+            JitterBuffer.Result result = source.buffer.poll(frame);
+            if (result == JitterBuffer.Result.SILENCE) {
+                continue;
+            }
+            if (result == JitterBuffer.Result.PLAYED) {
+                played++;
+            }
+            for (int i = 0; i < mix.length; i++) {
+                mix[i] += (short) ((frame[2 * i] & 0xFF) | (frame[2 * i + 1] << 8));
+            }
+        }
+
+        for (int i = 0; i < mix.length; i++) {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            out[2 * i] = (byte) sample;
+            out[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return played;
+    }
+
+    // ==================== STATS ====================
+
+    public int getSourceCount() {
+        return sources.size();
+    }
+
+    /**
+     * Jitter buffer của một nguồn (null nếu chưa nhận hoặc đã bỏ)
+     */
+    public JitterBuffer getBuffer(int sourceId) {
+        Source source = sources.get(sourceId);
+        return source != null ? source.buffer : null;
+    }
+
+    public String getStats() {
+        if (sources.isEmpty()) {
+            return "Audio mixer: no sources (" + removedSources + " removed)";
+        }
+        StringBuilder stats = new StringBuilder("Audio mixer: " + sources.size() + " source(s), "
+                + removedSources + " removed");
+        sources.forEach((id, source) -> stats.append("\n   [").append(id).append("] ").append(source.buffer.getStats()));
+        return stats.toString();
+    }
+}
@@ -0,0 +1,269 @@
+package org.example.chatappclient.client.services.media;
+
+import java.util.Arrays;
+
+/**
+ * Jitter buffer cho audio PCM 16-bit mono
+ * - offer(): thread nhận đưa frame vào theo sequence number (sắp lại thứ tự, bỏ trùng, bỏ frame đến trễ)
+ * - poll(): thread phát lấy đúng một frame mỗi chu kỳ; thiếu frame thì che bằng frame trước giảm dần âm lượng
+ * - Độ trễ mục tiêu (số frame giữ lại) tính từ jitter đo được kiểu RFC 3550: J += (|D| - J) / 16;
+ *   đệm ít hơn mục tiêu thì thiếu frame được chờ thêm (trễ tăng), đệm quá nhiều thì bỏ bớt frame (trễ giảm)
+ * Thời gian truyền vào qua tham số nên chạy giả lập được (JitterBufferTest)
+ */
+public class JitterBuffer {
+
+    public enum Result { PLAYED, CONCEALED, SILENCE }
+
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    // Che tối đa bấy nhiêu frame liên tiếp, sau đó dừng phát và đệm lại
+    private static final int MAX_CONCEAL = 5;
+    // Độ trễ mục tiêu = khoảng cách frame + JITTER_FACTOR * jitter
+    private static final double JITTER_FACTOR = 3.0;
+
+    private final int frameBytes;
+    private final int frameMillis;
+    private final int minDepth;
+    private final int maxDepth;
+
+    private final byte[][] slots = new byte[CAPACITY][];
+    private final int[] slotLength = new int[CAPACITY];
+    private final int[] slotSeq = new int[CAPACITY];
+    private final boolean[] present = new boolean[CAPACITY];
+
+    private final byte[] lastFrame;
+    private int lastLength;
+    private int concealRun;
+
+    private int buffered;
+    private int nextSeq;
+    private int highestSeq;
+    private boolean hasBase;
+    private boolean playing;
+    // Đã phát từ lần đồng bộ gần nhất: frame có sequence < nextSeq là đến trễ
+    private boolean started;
+
+    // Ước lượng jitter (ms)
+    private double jitter;
+    private long lastTransit;
+    private boolean hasTransit;
+    private int targetDepth;
+
+    // Thống kê
+    private long received;
+    private long played;
+    private long late;
+    private long duplicate;
+    private long lost;
+    private long concealed;
+    private long trimmed;
+    private long rebuffered;
+
+    public JitterBuffer(int frameBytes, int frameMillis, int minDepth, int maxDepth) {
+        this.frameBytes = frameBytes;
+        this.frameMillis = frameMillis;
+        this.minDepth = Math.max(1, minDepth);
+        this.maxDepth = Math.min(CAPACITY / 2, Math.max(this.minDepth, maxDepth));
+        this.targetDepth = this.minDepth;
+        this.lastFrame = new byte[frameBytes];
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new byte[frameBytes];
+        }
+    }
+
+    // ==================== RECEIVE ====================
+
+    /**
+     * Frame nhận được; timestampMillis theo đồng hồ bên gửi, arrivalMillis theo đồng hồ bên nhận
+     */
+    public synchronized void offer(int seq, long timestampMillis, byte[] data, int offset, int length, long arrivalMillis) {
+        received++;
+        updateJitter(timestampMillis, arrivalMillis);
+
+        if (!hasBase) {
+            nextSeq = seq;
+            highestSeq = seq;
+            hasBase = true;
+        }
+
+        int distance = seq - nextSeq;
+        if (distance < 0) {
+            if (started) {
+                // Đã qua thời điểm phát (đã che hoặc bỏ qua)
+                late++;
+                return;
+            }
+            // Chưa phát: frame cũ hơn đến sau vẫn dùng được nếu còn chỗ
+            if (highestSeq - seq >= CAPACITY) {
+                late++;
+                return;
+            }
+            nextSeq = seq;
+            distance = 0;
+        }
+
+        if (distance >= CAPACITY) {
+            // Bên gửi khởi động lại hoặc mất quá nhiều: đồng bộ lại từ frame này
+            reset(seq);
+            distance = 0;
+        }
+
+        int slot = seq & MASK;
+        if (present[slot]) {
+            duplicate++;
+            return;
+        }
+
+        int copy = Math.min(length, frameBytes);
+        System.arraycopy(data, offset, slots[slot], 0, copy);
+        slotLength[slot] = copy;
+        slotSeq[slot] = seq;
+        present[slot] = true;
+        buffered++;
+        if (buffered == 1 || seq - highestSeq > 0) {
+            highestSeq = seq;
+        }
+    }
+
+    private void updateJitter(long timestampMillis, long arrivalMillis) {
+        long transit = arrivalMillis - timestampMillis;
+        if (hasTransit) {
+            long d = Math.abs(transit - lastTransit);
+            jitter += (d - jitter) / 16.0;
+        }
+        lastTransit = transit;
+        hasTransit = true;
+
+        int depth = 1 + (int) Math.ceil(JITTER_FACTOR * jitter / frameMillis);
+        targetDepth = Math.max(minDepth, Math.min(maxDepth, depth));
+    }
+
+    // ==================== PLAYOUT ====================
+
+    /**
+     * Ghi frame kế tiếp vào out (frameBytes byte); gọi đều mỗi frameMillis
+     */
+    public synchronized Result poll(byte[] out) {
+        if (!playing) {
+            if (buffered < targetDepth) {
+                Arrays.fill(out, 0, frameBytes, (byte) 0);
+                return Result.SILENCE;
+            }
+            playing = true;
+            started = true;
+            skipToBuffered();
+        }
+
+        // Đệm nhiều hơn mục tiêu (jitter đã giảm): bỏ frame cũ nhất để rút ngắn độ trễ
+        if (buffered > targetDepth + 2) {
+            int slot = nextSeq & MASK;
+            if (present[slot]) {
+                present[slot] = false;
+                buffered--;
+                trimmed++;
+            } else {
+                lost++;
+            }
+            nextSeq++;
+        }
+
+        int slot = nextSeq & MASK;
+        if (present[slot] && slotSeq[slot] == nextSeq) {
+            int length = slotLength[slot];
+            System.arraycopy(slots[slot], 0, out, 0, length);
+            if (length < frameBytes) {
+                Arrays.fill(out, length, frameBytes, (byte) 0);
+            }
+            System.arraycopy(out, 0, lastFrame, 0, frameBytes);
+            lastLength = frameBytes;
+            present[slot] = false;
+            buffered--;
+            nextSeq++;
+            concealRun = 0;
+            played++;
+            return Result.PLAYED;
+        }
+
+        // Thiếu frame: đến trễ hoặc mất
+        concealRun++;
+
+        if (concealRun > MAX_CONCEAL && buffered == 0) {
+            // Bên kia ngừng gửi: dừng phát, đợi đủ targetDepth frame rồi phát lại
+            playing = false;
+            rebuffered++;
+            Arrays.fill(out, 0, frameBytes, (byte) 0);
+            return Result.SILENCE;
+        }
+
+        if (buffered >= targetDepth) {
+            // Đã đủ frame phía sau: coi như mất, bỏ qua
+            lost++;
+            nextSeq++;
+        }
+        // Ngược lại giữ nguyên nextSeq: frame còn có thể đến, độ trễ phát tăng thêm một frame về phía mục tiêu
+
+        conceal(out);
+        concealed++;
+        return Result.CONCEALED;
+    }
+
+    /**
+     * Lặp lại frame trước, mỗi lần che liên tiếp giảm một nửa âm lượng
+     */
+    private void conceal(byte[] out) {
+        if (lastLength == 0 || concealRun > MAX_CONCEAL) {
+            Arrays.fill(out, 0, frameBytes, (byte) 0);
+            return;
+        }
+        int shift = Math.min(concealRun, 15);
+        for (int i = 0; i + 1 < frameBytes; i += 2) {
+            short sample = (short) ((lastFrame[i] & 0xFF) | (lastFrame[i + 1] << 8));
+            int scaled = sample >> shift;
+            out[i] = (byte) scaled;
+            out[i + 1] = (byte) (scaled >> 8);
+        }
+    }
+
+    /**
+     * Bắt đầu phát từ frame có sequence nhỏ nhất đang đệm
+     */
+    private void skipToBuffered() {
+        for (int i = 0; i < CAPACITY && buffered > 0; i++) {
+            if (present[(nextSeq + i) & MASK]) {
+                nextSeq += i;
+                return;
+            }
+        }
+    }
+
+    private void reset(int seq) {
+        Arrays.fill(present, false);
+        buffered = 0;
+        nextSeq = seq;
+        highestSeq = seq;
+        playing = false;
+        started = false;
+        concealRun = 0;
+        rebuffered++;
+    }
+
+    // ==================== STATS ====================
+
+    public synchronized int getBuffered() { return buffered; }
+    public synchronized int getTargetDepth() { return targetDepth; }
+    public synchronized double getJitterMillis() { return jitter; }
+    public synchronized long getReceived() { return received; }
+    public synchronized long getPlayed() { return played; }
+    public synchronized long getLate() { return late; }
+    public synchronized long getDuplicate() { return duplicate; }
+    public synchronized long getLost() { return lost; }
+    public synchronized long getConcealed() { return concealed; }
+    public synchronized long getTrimmed() { return trimmed; }
+
+    public synchronized String getStats() {
+        return String.format("Jitter buffer: %d received, %d played, %d late, %d duplicate, %d lost, " +
+                        "%d concealed, %d trimmed, %d rebuffered | jitter %.1f ms, target %d frames (%d ms)",
+                received, played, late, duplicate, lost, concealed, trimmed, rebuffered,
+                jitter, targetDepth, targetDepth * frameMillis);
+    }
+}
@@ -1,5 +1,8 @@
 package org.example.chatappclient.client.services.media;
 
+import org.example.chatappclient.client.services.media.codec.AudioCodec;
+import org.example.chatappclient.client.services.media.codec.AudioCodecs;
+
 import javax.imageio.ImageIO;
 import javax.sound.sampled.*;
 import java.awt.image.BufferedImage;
@@ -8,17 +11,26 @@ import java.io.ByteArrayOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ✅ UDP Media Client - ENHANCED với Video Streaming 2-way
+ * Packet gửi: [0x7E][mediaToken 4 byte] + type(1) + seq(4) + timestamp(8) + length(4) + payload;
+ * server định tuyến theo token rồi thay 5 byte đầu bằng [0x7D][sourceId 4 byte] (server cũ: bỏ đi)
+ * Audio nhận về vào JitterBuffer riêng của từng nguồn (AudioMixer), thread AudioPlayout trộn và phát đúng nhịp;
+ * video bỏ frame cũ theo sequence của từng nguồn
+ * Byte type: 4 bit thấp = loại media (0x01 audio, 0x02 video), 4 bit cao = id codec audio (0 = PCM)
  */
 public class UdpMediaClient {
     private final String serverIP;
     private final int serverPort;
     private final boolean isVideo;
+    private final int mediaToken;
     private DatagramSocket socket;
     private InetAddress serverAddress;
     private AudioFormat audioFormat;
@@ -33,10 +45,33 @@ public class UdpMediaClient {
     // ✅ Video frame callback
     private VideoFrameCallback onVideoFrameReceived;
 
+    // Sequence number riêng cho audio (chỉ AudioSender ghi) và video (nhiều task gửi)
+    private int audioSeq;
+    private final AtomicInteger videoSeq = new AtomicInteger();
+    // sourceId -> sequence video đã hiển thị gần nhất (chỉ MediaReceiver dùng)
+    private final Map<Integer, Integer> lastVideoSeq = new HashMap<>();
+
+    private final AudioMixer mixer;
+
+    // Codec gửi do server chọn (đổi qua CALL_CODEC); bên nhận giải mã theo id codec trong từng packet
+    private volatile AudioCodec encoder;
+    // Chỉ AudioSender dùng
+    private byte[] encodedBuffer;
+    private final AudioCodec[] decoders = new AudioCodec[16];
+    private final byte[] decodedBuffer = new byte[AUDIO_BUFFER_SIZE * 4];
+
     private static final int AUDIO_BUFFER_SIZE = 1024;
     private static final int SPEAKER_BUFFER_SIZE = 2048;
     private static final int MAX_PACKET_SIZE = 65507;
     private static final float SAMPLE_RATE = 16000.0f;
+    private static final int HEADER_SIZE = 17;
+    // 1024 byte PCM 16-bit mono 16 kHz = 32 ms mỗi frame
+    private static final int FRAME_MILLIS = (int) (AUDIO_BUFFER_SIZE * 1000L / (2 * (long) SAMPLE_RATE));
+    private static final int JITTER_MIN_FRAMES = 2;
+    private static final int JITTER_MAX_FRAMES = 12;
+    private static final int TOKEN_MAGIC = 0x7E;
+    private static final int SOURCE_MAGIC = 0x7D;
+    private static final int SOURCE_PREFIX_SIZE = 5;
 
     // ✅ Video settings
     private static final int VIDEO_WIDTH = 640;
@@ -44,14 +79,26 @@ public class UdpMediaClient {
     private static final float VIDEO_QUALITY = 0.5f; // JPEG compression quality
 
     public UdpMediaClient(String serverIP, int serverPort, boolean isVideo) {
+        this(serverIP, serverPort, isVideo, 0);
+    }
+
+    public UdpMediaClient(String serverIP, int serverPort, boolean isVideo, int mediaToken) {
+        this(serverIP, serverPort, isVideo, mediaToken, null);
+    }
+
+    public UdpMediaClient(String serverIP, int serverPort, boolean isVideo, int mediaToken, String audioCodec) {
         this.serverIP = serverIP;
         this.serverPort = serverPort;
         this.isVideo = isVideo;
-        this.executor = Executors.newFixedThreadPool(isVideo ? 5 : 3);
+        this.mediaToken = mediaToken;
+        this.executor = Executors.newFixedThreadPool(isVideo ? 6 : 4);
         this.running = new AtomicBoolean(false);
         this.muted = new AtomicBoolean(false);
         this.speakerEnabled = new AtomicBoolean(true);
         this.videoEnabled = new AtomicBoolean(isVideo);
+        this.mixer = new AudioMixer(AUDIO_BUFFER_SIZE, FRAME_MILLIS, JITTER_MIN_FRAMES, JITTER_MAX_FRAMES);
+        this.encoder = AudioCodecs.create(audioCodec);
+        this.encodedBuffer = new byte[encoder.maxEncodedSize(AUDIO_BUFFER_SIZE)];
         setupAudioFormat();
     }
 
@@ -136,9 +183,14 @@ public class UdpMediaClient {
         receiveThread.setPriority(Thread.MAX_PRIORITY);
         executor.submit(receiveThread);
 
+        Thread playoutThread = new Thread(this::playoutLoop, "AudioPlayout");
+        playoutThread.setPriority(Thread.MAX_PRIORITY);
+        executor.submit(playoutThread);
+
         System.out.println("✅ UDP Media Client started");
         System.out.println("   Server: " + serverIP + ":" + serverPort);
         System.out.println("   Video: " + (isVideo ? "ENABLED" : "DISABLED"));
+        System.out.println("   Audio codec: " + encoder.getName());
     }
 
     public void stop() {
@@ -164,6 +216,7 @@ public class UdpMediaClient {
         executor.shutdownNow();
 
         System.out.println("✅ UDP Media Client stopped");
+        System.out.println("   " + mixer.getStats());
     }
 
     // ==================== ✅ SEND VIDEO ====================
@@ -184,7 +237,7 @@ public class UdpMediaClient {
                 byte[] imageData = baos.toByteArray();
 
                 // Check size limit
-                if (imageData.length > MAX_PACKET_SIZE - 20) {
+                if (imageData.length > MAX_PACKET_SIZE - HEADER_SIZE - 5) {
                     System.err.println("⚠️ Video frame too large: " + imageData.length + " bytes");
                     return;
                 }
@@ -209,7 +262,9 @@ public class UdpMediaClient {
     private byte[] createVideoPacket(byte[] videoData) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
+            writeTokenPrefix(baos);
             baos.write(0x02); // VIDEO type
+            baos.write(intToBytes(videoSeq.getAndIncrement()));
             baos.write(longToBytes(System.currentTimeMillis()));
             baos.write(intToBytes(videoData.length));
             baos.write(videoData);
@@ -243,7 +298,12 @@ public class UdpMediaClient {
                     }
                 }
 
-                byte[] packet = createAudioPacket(dataToSend, AUDIO_BUFFER_SIZE);
+                AudioCodec codec = encoder;
+                if (encodedBuffer.length < codec.maxEncodedSize(AUDIO_BUFFER_SIZE)) {
+                    encodedBuffer = new byte[codec.maxEncodedSize(AUDIO_BUFFER_SIZE)];
+                }
+                int encodedLength = codec.encode(dataToSend, 0, AUDIO_BUFFER_SIZE, encodedBuffer, 0);
+                byte[] packet = createAudioPacket(codec, encodedBuffer, encodedLength);
                 DatagramPacket dgPacket = new DatagramPacket(
                         packet, packet.length, serverAddress, serverPort
                 );
@@ -267,10 +327,12 @@ public class UdpMediaClient {
         System.out.println("🎤 Audio sender stopped. Total: " + packetsSent);
     }
 
-    private byte[] createAudioPacket(byte[] audioData, int length) {
+    private byte[] createAudioPacket(AudioCodec codec, byte[] audioData, int length) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            baos.write(0x01); // AUDIO type
+            writeTokenPrefix(baos);
+            baos.write((codec.getId() << 4) | 0x01); // AUDIO type + codec
+            baos.write(intToBytes(audioSeq++));
             baos.write(longToBytes(System.currentTimeMillis()));
             baos.write(intToBytes(length));
             baos.write(audioData, 0, length);
@@ -298,14 +360,22 @@ public class UdpMediaClient {
                 int offset = packet.getOffset();
                 int length = packet.getLength();
 
-                if (length < 13) continue;
+                // Tiền tố nguồn do server gắn khi relay (không có: một nguồn duy nhất 0)
+                int sourceId = 0;
+                if (length >= SOURCE_PREFIX_SIZE + HEADER_SIZE && data[offset] == SOURCE_MAGIC) {
+                    sourceId = bytesToInt(data, offset + 1);
+                    offset += SOURCE_PREFIX_SIZE;
+                    length -= SOURCE_PREFIX_SIZE;
+                }
+
+                if (length < HEADER_SIZE) continue;
 
                 byte type = data[offset];
 
-                if (type == 0x01) {
+                if ((type & 0x0F) == 0x01) {
                     // ✅ AUDIO PACKET
                     audioPackets++;
-                    processAudioPacket(data, offset, length);
+                    processAudioPacket(sourceId, data, offset, length, (type >> 4) & 0x0F);
 
                     if (audioPackets % 500 == 0) {
                         String status = speakerEnabled.get() ? "PLAYING" : "MUTED";
@@ -316,7 +386,7 @@ public class UdpMediaClient {
                 } else if (type == 0x02) {
                     // ✅ VIDEO PACKET
                     videoPackets++;
-                    processVideoPacket(data, offset, length);
+                    processVideoPacket(sourceId, data, offset, length);
 
                     if (videoPackets % 30 == 0) {
                         System.out.println(String.format("📥 Video frames received: %d",
@@ -338,30 +408,87 @@ public class UdpMediaClient {
         System.out.println("   Video frames: " + videoPackets);
     }
 
-    private void processAudioPacket(byte[] data, int offset, int length) {
+    private void processAudioPacket(int sourceId, byte[] data, int offset, int length, int codecId) {
         try {
-            int audioLength = bytesToInt(data, offset + 9);
-            int audioOffset = offset + 13;
+            int seq = bytesToInt(data, offset + 1);
+            long timestamp = bytesToLong(data, offset + 5);
+            int audioLength = bytesToInt(data, offset + 13);
+            int audioOffset = offset + HEADER_SIZE;
 
-            if (audioOffset + audioLength <= offset + length) {
-                if (speakerEnabled.get() && speakers != null) {
-                    speakers.write(data, audioOffset, audioLength);
+            if (audioLength < 0 || audioLength > AUDIO_BUFFER_SIZE || audioOffset + audioLength > offset + length) {
+                return;
+            }
+
+            AudioCodec decoder = decoders[codecId];
+            if (decoder == null) {
+                decoder = AudioCodecs.createById(codecId);
+                if (decoder == null) {
+                    System.err.println("⚠️ Unsupported audio codec id: " + codecId);
+                    return;
                 }
+                decoders[codecId] = decoder;
+            }
+
+            int pcmLength = decoder.decode(data, audioOffset, audioLength, decodedBuffer, 0);
+            if (pcmLength > 0) {
+                mixer.offer(sourceId, seq, timestamp, decodedBuffer, 0, pcmLength, System.currentTimeMillis());
             }
         } catch (Exception e) {
             System.err.println("⚠️ Error processing audio: " + e.getMessage());
         }
     }
 
+    /**
+     * Lấy một frame đã trộn từ mọi nguồn; speakers.write chặn theo nhịp của thiết bị nên giữ đúng chu kỳ phát
+     */
+    private void playoutLoop() {
+        byte[] frame = new byte[AUDIO_BUFFER_SIZE];
+        long frames = 0;
+
+        System.out.println("🔈 Audio playout started (" + FRAME_MILLIS + " ms/frame)");
+
+        while (running.get()) {
+            try {
+                mixer.poll(frame, System.currentTimeMillis());
+
+                if (speakerEnabled.get() && speakers != null) {
+                    speakers.write(frame, 0, frame.length);
+                } else {
+                    Thread.sleep(FRAME_MILLIS);
+                }
+
+                if (++frames % 1000 == 0) {
+                    System.out.println("📊 " + mixer.getStats());
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                if (running.get()) {
+                    System.err.println("⚠️ Error playing audio: " + e.getMessage());
+                }
+            }
+        }
+
+        System.out.println("🔈 Audio playout stopped");
+    }
+
     /**
      * ✅ Xử lý video packet nhận được
      */
-    private void processVideoPacket(byte[] data, int offset, int length) {
+    private void processVideoPacket(int sourceId, byte[] data, int offset, int length) {
         try {
-            int videoLength = bytesToInt(data, offset + 9);
-            int videoOffset = offset + 13;
+            int seq = bytesToInt(data, offset + 1);
+            int videoLength = bytesToInt(data, offset + 13);
+            int videoOffset = offset + HEADER_SIZE;
+
+            // Frame cũ hơn frame đã hiển thị của cùng nguồn (đến sau do đảo thứ tự): bỏ
+            Integer last = lastVideoSeq.get(sourceId);
+            if (last != null && seq - last <= 0) {
+                return;
+            }
+            lastVideoSeq.put(sourceId, seq);
 
-            if (videoOffset + videoLength <= offset + length) {
+            if (videoLength >= 0 && videoOffset + videoLength <= offset + length) {
                 // Decode JPEG image
                 ByteArrayInputStream bais = new ByteArrayInputStream(
                         data, videoOffset, videoLength
@@ -389,6 +516,14 @@ public class UdpMediaClient {
         System.out.println(enabled ? "🔊 Speaker ON" : "🔇 Speaker OFF");
     }
 
+    /**
+     * Đổi codec gửi khi server chọn lại codec cho call (người mới vào không giải mã được codec cũ)
+     */
+    public void setAudioCodec(String audioCodec) {
+        this.encoder = AudioCodecs.create(audioCodec);
+        System.out.println("🎚️ Audio codec: " + encoder.getName());
+    }
+
     public void setVideoEnabled(boolean enabled) {
         this.videoEnabled.set(enabled);
         System.out.println(enabled ? "📹 Video ON" : "📷 Video OFF");
@@ -414,6 +549,16 @@ public class UdpMediaClient {
 
     // ==================== UTILITIES ====================
 
+    /**
+     * Token do server cấp khi CALL_START/CALL_ANSWER (0 = server cũ, gửi packet không token)
+     */
+    private void writeTokenPrefix(ByteArrayOutputStream baos) throws java.io.IOException {
+        if (mediaToken != 0) {
+            baos.write(TOKEN_MAGIC);
+            baos.write(intToBytes(mediaToken));
+        }
+    }
+
     private byte[] longToBytes(long value) {
         byte[] bytes = new byte[8];
         for (int i = 0; i < 8; i++) {
@@ -430,6 +575,14 @@ public class UdpMediaClient {
         return bytes;
     }
 
+    private long bytesToLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
     private int bytesToInt(byte[] bytes, int offset) {
         return ((bytes[offset] & 0xFF) << 24) |
                 ((bytes[offset + 1] & 0xFF) << 16) |
@@ -438,6 +591,7 @@ public class UdpMediaClient {
     }
 
     // Getters
+    public String getJitterStats() { return mixer.getStats(); }
     public boolean isMuted() { return muted.get(); }
     public boolean isSpeakerEnabled() { return speakerEnabled.get(); }
     public boolean isVideoEnabled() { return videoEnabled.get(); }
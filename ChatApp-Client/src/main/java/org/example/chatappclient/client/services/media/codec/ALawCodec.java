@@ -0,0 +1,82 @@
+package org.example.chatappclient.client.services.media.codec;
+
+/**
+ * G.711 A-law - mỗi mẫu 16-bit thành 1 byte (giảm một nửa)
+ */
+public class ALawCodec implements AudioCodec {
+
+    public static final String NAME = "pcma";
+
+    private static final int CLIP = 32635;
+
+    private static final byte[] EXPONENT = new byte[128];
+    private static final short[] DECODE = new short[256];
+
+    static {
+        for (int i = 1; i < 128; i++) {
+            EXPONENT[i] = (byte) (32 - Integer.numberOfLeadingZeros(i));
+        }
+        for (int i = 0; i < 256; i++) {
+            int a = i ^ 0x55;
+            int t = (a & 0x0F) << 4;
+            int segment = (a & 0x70) >> 4;
+            if (segment == 0) {
+                t += 8;
+            } else {
+                t = (t + 0x108) << (segment - 1);
+            }
+            DECODE[i] = (short) ((a & 0x80) != 0 ? t : -t);
+        }
+    }
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public int getId() { return 2; }
+
+    @Override
+    public int maxEncodedSize(int pcmBytes) {
+        return pcmBytes / 2;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset) {
+        int samples = pcmLength / 2;
+        for (int i = 0; i < samples; i++) {
+            int p = pcmOffset + i * 2;
+            out[outOffset + i] = encodeSample((short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8)));
+        }
+        return samples;
+    }
+
+    @Override
+    public int decode(byte[] data, int offset, int length, byte[] pcm, int pcmOffset) {
+        for (int i = 0; i < length; i++) {
+            short sample = DECODE[data[offset + i] & 0xFF];
+            pcm[pcmOffset + i * 2] = (byte) sample;
+            pcm[pcmOffset + i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return length * 2;
+    }
+
+    static byte encodeSample(int sample) {
+        // Bit dấu = 1 với mẫu dương
+        int sign = (~sample >> 8) & 0x80;
+        if (sign == 0) {
+            sample = -sample;
+        }
+        if (sample > CLIP) {
+            sample = CLIP;
+        }
+        int encoded;
+        if (sample >= 256) {
+            int exponent = EXPONENT[(sample >> 8) & 0x7F];
+            int mantissa = (sample >> (exponent + 3)) & 0x0F;
+            encoded = (exponent << 4) | mantissa;
+        } else {
+            encoded = sample >> 4;
+        }
+        return (byte) (encoded ^ (sign ^ 0x55));
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.chatappclient.client.services.media.codec;
+
+/**
+ * Codec audio cho cuộc gọi - vào/ra là PCM 16-bit signed little-endian, mono 16 kHz
+ * - getName(): tên dùng khi thương lượng trong CALL_START/CALL_ANSWER
+ * - getId(): 0..15, nằm ở 4 bit cao của byte type trong packet nên bên nhận giải mã theo từng packet
+ * Các codec hiện có giữ trạng thái trong packet (hoặc không có trạng thái); codec có trạng thái
+ * giữa các packet (Opus) cần một instance cho mỗi bên gửi - tạo qua AudioCodecs.create()
+ */
+public interface AudioCodec {
+
+    String getName();
+
+    int getId();
+
+    /**
+     * Số byte tối đa sau khi mã hóa pcmBytes byte PCM
+     */
+    int maxEncodedSize(int pcmBytes);
+
+    /**
+     * Mã hóa PCM vào out, trả về số byte đã ghi
+     */
+    int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset);
+
+    /**
+     * Giải mã vào pcm, trả về số byte PCM đã ghi (-1 nếu dữ liệu hỏng)
+     */
+    int decode(byte[] data, int offset, int length, byte[] pcm, int pcmOffset);
+}
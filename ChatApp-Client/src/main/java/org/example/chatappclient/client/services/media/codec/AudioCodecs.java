@@ -0,0 +1,62 @@
+package org.example.chatappclient.client.services.media.codec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Danh sách codec client hỗ trợ, theo thứ tự ưu tiên (ít băng thông trước)
+ * - getSupportedNames(): gửi kèm CALL_START/CALL_ANSWER, server chọn một codec cho cuộc gọi
+ * - create()/createById(): mỗi lần gọi một instance mới (codec có thể giữ trạng thái)
+ * Binding Opus sau này: register("opus", 4, OpusCodec::new) và thêm "opus" vào call.audio_codecs của server
+ */
+public final class AudioCodecs {
+
+    private static final Map<String, Supplier<AudioCodec>> BY_NAME = new LinkedHashMap<>();
+    // Id nằm trong 4 bit cao của byte type
+    private static final int MAX_IDS = 16;
+    private static final List<Supplier<AudioCodec>> BY_ID = new ArrayList<>(Collections.nCopies(MAX_IDS, null));
+
+    static {
+        register(ImaAdpcmCodec.NAME, 3, ImaAdpcmCodec::new);
+        register(MuLawCodec.NAME, 1, MuLawCodec::new);
+        register(ALawCodec.NAME, 2, ALawCodec::new);
+        register(PcmCodec.NAME, 0, PcmCodec::new);
+    }
+
+    private AudioCodecs() {}
+
+    public static synchronized void register(String name, int id, Supplier<AudioCodec> factory) {
+        if (id < 0 || id >= MAX_IDS) {
+            throw new IllegalArgumentException("Codec id must be 0.." + (MAX_IDS - 1));
+        }
+        BY_NAME.put(name, factory);
+        BY_ID.set(id, factory);
+    }
+
+    /**
+     * Codec theo tên; tên lạ thì dùng PCM
+     */
+    public static synchronized AudioCodec create(String name) {
+        Supplier<AudioCodec> factory = name != null ? BY_NAME.get(name.trim().toLowerCase()) : null;
+        return factory != null ? factory.get() : new PcmCodec();
+    }
+
+    /**
+     * Codec theo id trong byte type của packet, null nếu không hỗ trợ
+     */
+    public static synchronized AudioCodec createById(int id) {
+        Supplier<AudioCodec> factory = id >= 0 && id < MAX_IDS ? BY_ID.get(id) : null;
+        return factory != null ? factory.get() : null;
+    }
+
+    /**
+     * "ima-adpcm,pcmu,pcma,pcm"
+     */
+    public static synchronized String getSupportedNames() {
+        return String.join(",", BY_NAME.keySet());
+    }
+}
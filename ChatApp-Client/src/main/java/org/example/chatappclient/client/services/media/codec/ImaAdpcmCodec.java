@@ -0,0 +1,137 @@
+package org.example.chatappclient.client.services.media.codec;
+
+/**
+ * IMA-ADPCM 4 bit/mẫu (giảm gần 4 lần)
+ * Mỗi packet mở đầu bằng trạng thái bộ mã hóa: predictor (int16 LE) + step index (1 byte) + 1 byte trống,
+ * nên packet giải mã độc lập - mất packet không làm lệch các packet sau
+ */
+public class ImaAdpcmCodec implements AudioCodec {
+
+    public static final String NAME = "ima-adpcm";
+
+    private static final int HEADER_SIZE = 4;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+            253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+            1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+            3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+            12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    // Trạng thái bộ mã hóa nối tiếp giữa các packet (mỗi luồng gửi một instance)
+    private int predictor;
+    private int index;
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public int getId() { return 3; }
+
+    @Override
+    public int maxEncodedSize(int pcmBytes) {
+        return HEADER_SIZE + (pcmBytes / 2 + 1) / 2;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset) {
+        int samples = pcmLength / 2;
+        out[outOffset] = (byte) predictor;
+        out[outOffset + 1] = (byte) (predictor >> 8);
+        out[outOffset + 2] = (byte) index;
+        out[outOffset + 3] = 0;
+
+        int pred = predictor;
+        int idx = index;
+        int o = outOffset + HEADER_SIZE;
+        for (int i = 0; i < samples; i++) {
+            int p = pcmOffset + i * 2;
+            int sample = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+
+            int step = STEP_TABLE[idx];
+            int diff = sample - pred;
+            int nibble = 0;
+            if (diff < 0) {
+                nibble = 8;
+                diff = -diff;
+            }
+            int delta = step >> 3;
+            if (diff >= step) {
+                nibble |= 4;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                nibble |= 2;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                nibble |= 1;
+                delta += step;
+            }
+
+            pred = clamp16((nibble & 8) != 0 ? pred - delta : pred + delta);
+            idx = clampIndex(idx + INDEX_TABLE[nibble]);
+
+            // Nibble thấp trước
+            if ((i & 1) == 0) {
+                out[o] = (byte) nibble;
+            } else {
+                out[o++] |= (byte) (nibble << 4);
+            }
+        }
+
+        predictor = pred;
+        index = idx;
+        return HEADER_SIZE + (samples + 1) / 2;
+    }
+
+    @Override
+    public int decode(byte[] data, int offset, int length, byte[] pcm, int pcmOffset) {
+        if (length < HEADER_SIZE) {
+            return -1;
+        }
+        int pred = (short) ((data[offset] & 0xFF) | (data[offset + 1] << 8));
+        int idx = data[offset + 2] & 0xFF;
+        if (idx >= STEP_TABLE.length) {
+            return -1;
+        }
+
+        int samples = (length - HEADER_SIZE) * 2;
+        for (int i = 0; i < samples; i++) {
+            int b = data[offset + HEADER_SIZE + (i >> 1)];
+            int nibble = (i & 1) == 0 ? b & 0x0F : (b >> 4) & 0x0F;
+
+            int step = STEP_TABLE[idx];
+            int delta = step >> 3;
+            if ((nibble & 4) != 0) delta += step;
+            if ((nibble & 2) != 0) delta += step >> 1;
+            if ((nibble & 1) != 0) delta += step >> 2;
+
+            pred = clamp16((nibble & 8) != 0 ? pred - delta : pred + delta);
+            idx = clampIndex(idx + INDEX_TABLE[nibble]);
+
+            pcm[pcmOffset + i * 2] = (byte) pred;
+            pcm[pcmOffset + i * 2 + 1] = (byte) (pred >> 8);
+        }
+        return samples * 2;
+    }
+
+    private static int clamp16(int value) {
+        return value > Short.MAX_VALUE ? Short.MAX_VALUE : Math.max(value, Short.MIN_VALUE);
+    }
+
+    private static int clampIndex(int value) {
+        return value < 0 ? 0 : Math.min(value, STEP_TABLE.length - 1);
+    }
+}
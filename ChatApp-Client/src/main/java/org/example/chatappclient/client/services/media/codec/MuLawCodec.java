@@ -0,0 +1,72 @@
+package org.example.chatappclient.client.services.media.codec;
+
+/**
+ * G.711 μ-law - mỗi mẫu 16-bit thành 1 byte (giảm một nửa)
+ */
+public class MuLawCodec implements AudioCodec {
+
+    public static final String NAME = "pcmu";
+
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+
+    private static final byte[] EXPONENT = new byte[256];
+    private static final short[] DECODE = new short[256];
+
+    static {
+        for (int i = 1; i < 256; i++) {
+            EXPONENT[i] = (byte) (31 - Integer.numberOfLeadingZeros(i));
+        }
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xFF;
+            int exponent = (u >> 4) & 0x07;
+            int sample = ((((u & 0x0F) << 3) + BIAS) << exponent) - BIAS;
+            DECODE[i] = (short) ((u & 0x80) != 0 ? -sample : sample);
+        }
+    }
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public int getId() { return 1; }
+
+    @Override
+    public int maxEncodedSize(int pcmBytes) {
+        return pcmBytes / 2;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset) {
+        int samples = pcmLength / 2;
+        for (int i = 0; i < samples; i++) {
+            int p = pcmOffset + i * 2;
+            out[outOffset + i] = encodeSample((short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8)));
+        }
+        return samples;
+    }
+
+    @Override
+    public int decode(byte[] data, int offset, int length, byte[] pcm, int pcmOffset) {
+        for (int i = 0; i < length; i++) {
+            short sample = DECODE[data[offset + i] & 0xFF];
+            pcm[pcmOffset + i * 2] = (byte) sample;
+            pcm[pcmOffset + i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return length * 2;
+    }
+
+    static byte encodeSample(int sample) {
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) {
+            sample = -sample;
+        }
+        if (sample > CLIP) {
+            sample = CLIP;
+        }
+        sample += BIAS;
+        int exponent = EXPONENT[(sample >> 7) & 0xFF];
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.chatappclient.client.services.media.codec;
+
+/**
+ * PCM 16-bit không nén (id 0 - packet giống hệt trước khi có codec)
+ */
+public class PcmCodec implements AudioCodec {
+
+    public static final String NAME = "pcm";
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public int getId() { return 0; }
+
+    @Override
+    public int maxEncodedSize(int pcmBytes) {
+        return pcmBytes;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int pcmOffset, int pcmLength, byte[] out, int outOffset) {
+        System.arraycopy(pcm, pcmOffset, out, outOffset, pcmLength);
+        return pcmLength;
+    }
+
+    @Override
+    public int decode(byte[] data, int offset, int length, byte[] pcm, int pcmOffset) {
+        System.arraycopy(data, offset, pcm, pcmOffset, length);
+        return length;
+    }
+}
@@ -1,7 +1,53 @@
 package org.example.chatappclient.client.utils.helpers;
 
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import org.example.chatappclient.client.services.FileDownloadService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 public class ImageUtil {
 
+    // Ảnh qua socket tải lần lượt (FileDownloadService một lượt mỗi lúc): vài thread là đủ
+    private static final int LOADER_THREADS = 2;
+    private static final int LOADER_QUEUE_SIZE = 256;
+    // Xem trước không có thumbnail: ảnh gốc lớn hơn mức này thì không tải qua socket
+    private static final long PREVIEW_MAX_BYTES = 2 * 1024 * 1024;
+
+    private static final ExecutorService LOADERS = new ThreadPoolExecutor(
+            LOADER_THREADS, LOADER_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(LOADER_QUEUE_SIZE), r -> {
+                Thread t = new Thread(r, "image-loader");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // key đang tải -> các view chờ ảnh đó
+    private static final ConcurrentHashMap<String, List<ImageView>> inFlight = new ConcurrentHashMap<>();
+
+    // Ảnh đã tải qua socket, giữ lại để vẽ lại bubble không phải tải lại
+    private static final int SOCKET_IMAGE_CACHE_SIZE = 200;
+    private static final Map<String, Image> socketImages = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+                    return size() > SOCKET_IMAGE_CACHE_SIZE;
+                }
+            });
+
     public static boolean isValidImageUrl(String url) {
         if (url == null || url.isEmpty()) return false;
         String lower = url.toLowerCase();
@@ -40,4 +86,91 @@ public class ImageUtil {
         }
         return imageUrl;
     }
+
+    /**
+     * Ảnh dùng để xem trước: thumbnail server tạo nếu có, không thì ảnh gốc
+     */
+    public static String getPreviewUrl(String mediaUrl, String thumbnailUrl) {
+        return thumbnailUrl != null && !thumbnailUrl.isEmpty() ? thumbnailUrl : mediaUrl;
+    }
+
+    /**
+     * Nạp ảnh vào view, giải mã ở chiều rộng width (0 = kích thước gốc)
+     * - File trên server chat (/uploads/): tải qua socket trên pool nhỏ (các lượt tải vẫn lần lượt
+     *   qua FileDownloadService), cùng key đang tải thì chỉ chờ kết quả, không tải lại
+     * - Xem trước (width > 0): không kéo ảnh gốc quá PREVIEW_MAX_BYTES qua socket
+     * - URL khác (Cloudinary...): JavaFX tự tải nền
+     */
+    public static void loadInto(ImageView view, String url, double width) {
+        if (url == null || url.isEmpty()) return;
+
+        FileDownloadService downloads = FileDownloadService.getInstance();
+        if (!downloads.canDownload(url)) {
+            view.setImage(new Image(url, width, 0, true, true, true));
+            return;
+        }
+
+        String key = url + "@" + (int) width;
+        Image cached = socketImages.get(key);
+        if (cached != null) {
+            view.setImage(cached);
+            return;
+        }
+
+        List<ImageView> waiting = new ArrayList<>();
+        waiting.add(view);
+        List<ImageView> existing = inFlight.putIfAbsent(key, waiting);
+        if (existing != null) {
+            synchronized (existing) {
+                // Lượt tải đang chạy chưa giao kết quả: chờ chung
+                if (inFlight.get(key) == existing) {
+                    existing.add(view);
+                    return;
+                }
+            }
+            Image done = socketImages.get(key);
+            if (done != null) {
+                view.setImage(done);
+            }
+            return;
+        }
+
+        try {
+            LOADERS.execute(() -> load(key, url, width, downloads));
+        } catch (RejectedExecutionException e) {
+            // Hàng đợi đầy: bỏ lượt này, lần vẽ lại sau sẽ thử lại
+            inFlight.remove(key);
+        }
+    }
+
+    private static void load(String key, String url, double width, FileDownloadService downloads) {
+        Image image = null;
+        try {
+            long limit = width > 0 ? PREVIEW_MAX_BYTES + 1 : -1;
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            downloads.download(url, 0, limit, data, null);
+            if (width > 0 && data.size() > PREVIEW_MAX_BYTES) {
+                System.err.println("⚠️ Bỏ xem trước " + url + ": ảnh gốc lớn hơn " + PREVIEW_MAX_BYTES + " bytes");
+            } else {
+                Image decoded = new Image(new ByteArrayInputStream(data.toByteArray()), width, 0, true, true);
+                if (!decoded.isError()) {
+                    image = decoded;
+                    socketImages.put(key, image);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Không tải được ảnh " + url + ": " + e.getMessage());
+        }
+
+        List<ImageView> views = inFlight.get(key);
+        List<ImageView> targets;
+        synchronized (views) {
+            inFlight.remove(key);
+            targets = new ArrayList<>(views);
+        }
+        if (image != null) {
+            Image result = image;
+            Platform.runLater(() -> targets.forEach(target -> target.setImage(result)));
+        }
+    }
 }
@@ -22,6 +22,7 @@ import org.example.chatappclient.client.models.Conversation;
 import org.example.chatappclient.client.models.Message;
 import org.example.chatappclient.client.services.ConversationService;
 import org.example.chatappclient.client.services.MessageService;
+import org.example.chatappclient.client.utils.helpers.ImageUtil;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -386,8 +387,8 @@ public class ConversationInfoBuilder {
                 clip.setArcHeight(8);
                 imageView.setClip(clip);
 
-                Image image = new Image(message.getMediaUrl(), true);
-                imageView.setImage(image);
+                ImageUtil.loadInto(imageView,
+                        ImageUtil.getPreviewUrl(message.getMediaUrl(), message.getThumbnailUrl()), 80);
 
                 container.getChildren().add(imageView);
 
@@ -0,0 +1,233 @@
+package org.example.chatappclient.client.utils.ui;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.layout.*;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import javafx.stage.StageStyle;
+import org.example.chatappclient.client.models.Message;
+import org.example.chatappclient.client.services.MessageService;
+
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Dialog tìm tin nhắn trong cuộc trò chuyện hiện tại (MESSAGE_SEARCH)
+ * - Sắp xếp theo độ liên quan hoặc mới nhất
+ * - "Xem thêm" lấy trang tiếp theo bằng cursor server trả về
+ */
+public class MessageSearchDialog {
+
+    private static final int PAGE_SIZE = 30;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    private final String conversationId;
+
+    private Stage dialog;
+    private TextField searchField;
+    private ComboBox<String> sortBox;
+    private VBox resultContainer;
+    private Label statusLabel;
+    private Button moreButton;
+
+    // Truy vấn đang hiển thị
+    private String keyword;
+    private boolean byRelevance;
+    private String nextCursor;
+    private int resultCount;
+
+    public MessageSearchDialog(String conversationId) {
+        this.conversationId = conversationId;
+        createDialog();
+    }
+
+    private void createDialog() {
+        dialog = new Stage();
+        dialog.initModality(Modality.APPLICATION_MODAL);
+        dialog.initStyle(StageStyle.DECORATED);
+        dialog.setTitle("Tìm tin nhắn");
+        dialog.setWidth(500);
+        dialog.setHeight(600);
+
+        VBox root = new VBox(15);
+        root.setPadding(new Insets(20));
+        root.setStyle("-fx-background-color: #ffffff;");
+
+        Label titleLabel = new Label("Tìm trong cuộc trò chuyện");
+        titleLabel.setStyle("-fx-font-size: 18px; -fx-font-weight: bold;");
+
+        // Search field
+        HBox searchBox = new HBox(10);
+        searchBox.setAlignment(Pos.CENTER);
+
+        searchField = new TextField();
+        searchField.setPromptText("Nhập từ khóa...");
+        searchField.setPrefHeight(40);
+        HBox.setHgrow(searchField, Priority.ALWAYS);
+        searchField.setStyle(
+                "-fx-background-color: #f0f2f5;" +
+                        "-fx-background-radius: 20;" +
+                        "-fx-padding: 10 15;" +
+                        "-fx-font-size: 14px;"
+        );
+
+        sortBox = new ComboBox<>();
+        sortBox.getItems().addAll("Liên quan nhất", "Mới nhất");
+        sortBox.getSelectionModel().selectFirst();
+        sortBox.setPrefHeight(40);
+
+        Button searchButton = new Button("Tìm");
+        searchButton.setPrefHeight(40);
+        searchButton.setPrefWidth(70);
+        searchButton.setStyle(
+                "-fx-background-color: #0084ff;" +
+                        "-fx-text-fill: white;" +
+                        "-fx-background-radius: 20;" +
+                        "-fx-font-weight: bold;" +
+                        "-fx-cursor: hand;"
+        );
+        searchButton.setOnAction(e -> startSearch());
+
+        searchBox.getChildren().addAll(searchField, sortBox, searchButton);
+
+        statusLabel = new Label("");
+        statusLabel.setStyle("-fx-text-fill: #65676b; -fx-font-size: 12px;");
+
+        // Results container
+        ScrollPane scrollPane = new ScrollPane();
+        scrollPane.setFitToWidth(true);
+        scrollPane.setStyle("-fx-background-color: transparent;");
+        VBox.setVgrow(scrollPane, Priority.ALWAYS);
+
+        resultContainer = new VBox(8);
+        resultContainer.setPadding(new Insets(10));
+        resultContainer.setStyle("-fx-background-color: #f0f2f5; -fx-background-radius: 10;");
+        scrollPane.setContent(resultContainer);
+
+        moreButton = new Button("Xem thêm");
+        moreButton.setMaxWidth(Double.MAX_VALUE);
+        moreButton.setVisible(false);
+        moreButton.setManaged(false);
+        moreButton.setStyle(
+                "-fx-background-color: #e4e6eb;" +
+                        "-fx-text-fill: #050505;" +
+                        "-fx-background-radius: 5;" +
+                        "-fx-cursor: hand;"
+        );
+        moreButton.setOnAction(e -> loadPage());
+
+        root.getChildren().addAll(titleLabel, searchBox, statusLabel, scrollPane, moreButton);
+
+        searchField.setOnAction(e -> startSearch());
+        sortBox.setOnAction(e -> {
+            if (keyword != null) startSearch();
+        });
+
+        dialog.setScene(new Scene(root));
+    }
+
+    private void startSearch() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            statusLabel.setText("⚠️ Vui lòng nhập từ khóa");
+            statusLabel.setStyle("-fx-text-fill: #f44336;");
+            return;
+        }
+
+        keyword = query;
+        byRelevance = sortBox.getSelectionModel().getSelectedIndex() == 0;
+        nextCursor = null;
+        resultCount = 0;
+        resultContainer.getChildren().clear();
+        loadPage();
+    }
+
+    private void loadPage() {
+        String searchKeyword = keyword;
+        boolean searchByRelevance = byRelevance;
+        String cursor = nextCursor;
+
+        moreButton.setDisable(true);
+        statusLabel.setText("🔍 Đang tìm kiếm...");
+        statusLabel.setStyle("-fx-text-fill: #0084ff;");
+
+        new Thread(() -> {
+            try {
+                MessageService.MessagePage page = MessageService.getInstance().searchMessages(
+                        conversationId, searchKeyword, searchByRelevance, cursor, PAGE_SIZE);
+
+                Platform.runLater(() -> {
+                    // Bỏ kết quả của truy vấn cũ nếu người dùng đã tìm lại
+                    if (!searchKeyword.equals(keyword) || searchByRelevance != byRelevance) {
+                        return;
+                    }
+                    for (Message message : page.getMessages()) {
+                        resultContainer.getChildren().add(createResultCard(message));
+                    }
+                    resultCount += page.getMessages().size();
+                    nextCursor = page.getNextCursor();
+
+                    moreButton.setDisable(false);
+                    moreButton.setVisible(page.hasMore());
+                    moreButton.setManaged(page.hasMore());
+
+                    if (resultCount == 0) {
+                        statusLabel.setText("❌ Không tìm thấy tin nhắn nào");
+                        statusLabel.setStyle("-fx-text-fill: #f44336;");
+                    } else {
+                        statusLabel.setText("✅ " + resultCount + (page.hasMore() ? "+" : "") + " kết quả");
+                        statusLabel.setStyle("-fx-text-fill: #31a24c;");
+                    }
+                });
+
+            } catch (Exception e) {
+                Platform.runLater(() -> {
+                    moreButton.setDisable(false);
+                    statusLabel.setText("⚠️ Lỗi: " + e.getMessage());
+                    statusLabel.setStyle("-fx-text-fill: #f44336;");
+                });
+            }
+        }).start();
+    }
+
+    private VBox createResultCard(Message message) {
+        VBox card = new VBox(4);
+        card.setPadding(new Insets(10));
+        card.setStyle(
+                "-fx-background-color: white;" +
+                        "-fx-background-radius: 8;" +
+                        "-fx-border-color: #e4e6eb;" +
+                        "-fx-border-radius: 8;"
+        );
+
+        HBox header = new HBox(8);
+        header.setAlignment(Pos.CENTER_LEFT);
+
+        Label senderLabel = new Label(message.getSenderName() != null ? message.getSenderName() : "");
+        senderLabel.setStyle("-fx-font-weight: bold; -fx-font-size: 13px;");
+
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+
+        Label timeLabel = new Label(message.getTimestamp() != null
+                ? message.getTimestamp().format(TIME_FORMAT) : "");
+        timeLabel.setStyle("-fx-text-fill: #65676b; -fx-font-size: 11px;");
+
+        header.getChildren().addAll(senderLabel, spacer, timeLabel);
+
+        Label contentLabel = new Label(message.getContent());
+        contentLabel.setWrapText(true);
+        contentLabel.setStyle("-fx-font-size: 13px;");
+
+        card.getChildren().addAll(header, contentLabel);
+        return card;
+    }
+
+    public void show() {
+        dialog.show();
+        searchField.requestFocus();
+    }
+}
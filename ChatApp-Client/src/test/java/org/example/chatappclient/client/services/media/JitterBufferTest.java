@@ -0,0 +1,237 @@
+package org.example.chatappclient.client.services.media;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Giả lập mạng cho JitterBuffer/AudioMixer - không cần server hay thiết bị âm thanh
+ * - Bên gửi tạo frame đều mỗi FRAME_MILLIS, mạng thêm trễ ngẫu nhiên, đảo thứ tự, mất và trùng packet
+ * - Bên phát gọi poll() đúng nhịp; mọi thời gian là thời gian giả lập nên kết quả lặp lại được (seed cố định)
+ * - Kiểm tra: frame phát ra đúng thứ tự, không phát trùng, mất/trễ/che nằm trong ngưỡng của từng kịch bản
+ * - Call nhóm: hai người gửi qua AudioMixer, sequence và đồng hồ mỗi người độc lập; mỗi nguồn phải đạt
+ *   cùng ngưỡng như khi nghe một mình, frame trộn giữ đúng thứ tự của từng nguồn, nguồn rời call bị bỏ
+ */
+class JitterBufferTest {
+
+    private static final int FRAME_BYTES = 1024;
+    private static final int FRAME_MILLIS = 32;
+    private static final int FRAMES = 3000;
+
+    @Test
+    void cleanNetwork() {
+        run(1, 40, 0, 0.0, 0.0, 0.0,
+                0, 0, 0);
+    }
+
+    @Test
+    void jitter0To80Millis() {
+        run(2, 40, 80, 0.0, 0.0, 0.0,
+                0.02, 0.02, 0.02);
+    }
+
+    @Test
+    void reorder10Percent() {
+        run(3, 40, 10, 0.10, 0.0, 0.0,
+                0.01, 0.01, 0.01);
+    }
+
+    @Test
+    void loss5Percent() {
+        run(4, 40, 10, 0.0, 0.05, 0.0,
+                0.07, 0, 0.07);
+    }
+
+    @Test
+    void reorderLossDuplicateAndJitter() {
+        run(5, 40, 60, 0.10, 0.05, 0.02,
+                0.08, 0.02, 0.08);
+    }
+
+    @Test
+    void twoSendersWithJitterAndLoss() {
+        runGroup(6, 60, 0.03, false,
+                0.05, 0.02, 0.07);
+    }
+
+    @Test
+    void secondSenderLeavesHalfway() {
+        runGroup(7, 40, 0.0, true,
+                0.02, 0.02, 0.02);
+    }
+
+    // ==================== SCENARIOS ====================
+
+    /**
+     * Một người gửi; maxLost/maxLate/maxConcealed là tỉ lệ tối đa trên tổng số frame
+     */
+    private static void run(long seed, int baseDelay, int jitterRange,
+                            double reorder, double loss, double duplicate,
+                            double maxLost, double maxLate, double maxConcealed) {
+        Random random = new Random(seed);
+        List<long[]> arrivals = new ArrayList<>();   // {arrivalMillis, seq}
+
+        for (int seq = 0; seq < FRAMES; seq++) {
+            long sentAt = (long) seq * FRAME_MILLIS;
+            if (random.nextDouble() < loss) {
+                continue;
+            }
+            long delay = baseDelay + (jitterRange > 0 ? random.nextInt(jitterRange + 1) : 0);
+            if (random.nextDouble() < reorder) {
+                // Đến sau 1-2 frame kế tiếp
+                delay += FRAME_MILLIS + random.nextInt(FRAME_MILLIS * 2);
+            }
+            arrivals.add(new long[]{sentAt + delay, seq});
+            if (random.nextDouble() < duplicate) {
+                arrivals.add(new long[]{sentAt + delay + random.nextInt(FRAME_MILLIS), seq});
+            }
+        }
+        arrivals.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        JitterBuffer buffer = new JitterBuffer(FRAME_BYTES, FRAME_MILLIS, 2, 12);
+        byte[] frame = new byte[FRAME_BYTES];
+        byte[] out = new byte[FRAME_BYTES];
+
+        int next = 0;
+        int lastPlayed = -1;
+        boolean ordered = true;
+        long endMillis = (long) FRAMES * FRAME_MILLIS + 2000;
+
+        // Nhịp phát lệch pha với nhịp gửi
+        // Dừng khi đã phát hết (không tính các frame che ở cuối cuộc gọi)
+        for (long now = 7; now < endMillis && (next < arrivals.size() || buffer.getBuffered() > 0); now += FRAME_MILLIS) {
+            while (next < arrivals.size() && arrivals.get(next)[0] <= now) {
+                int seq = (int) arrivals.get(next)[1];
+                writeSeq(frame, 0, seq);
+                buffer.offer(seq, (long) seq * FRAME_MILLIS, frame, 0, FRAME_BYTES, arrivals.get(next)[0]);
+                next++;
+            }
+
+            if (buffer.poll(out) == JitterBuffer.Result.PLAYED) {
+                int seq = readSeq(out, 0);
+                if (seq <= lastPlayed) {
+                    ordered = false;
+                }
+                lastPlayed = seq;
+            }
+        }
+
+        assertTrue(ordered, "frames played out of order");
+        assertWithinThresholds(buffer, FRAMES, maxLost, maxLate, maxConcealed);
+    }
+
+    /**
+     * Hai người gửi: A bắt đầu ở seq 0, B ở seq 40000 và đồng hồ lệch 1 giờ, B lệch pha nửa frame.
+     * Frame của A mang seq ở mẫu 0-1, của B ở mẫu 2-3 (phần còn lại 0) nên khi cả hai cùng PLAYED
+     * frame trộn đọc lại được seq của từng nguồn
+     */
+    private static void runGroup(long seed, int jitterRange, double loss, boolean secondLeaves,
+                                 double maxLost, double maxLate, double maxConcealed) {
+        Random random = new Random(seed);
+        int[] seqBase = {0, 40000};
+        long[] clockBase = {0, 3_600_000};
+        int[] sentFrames = {FRAMES, secondLeaves ? FRAMES / 2 : FRAMES};
+        List<long[]> arrivals = new ArrayList<>();   // {arrivalMillis, source, seq}
+
+        for (int source = 0; source < 2; source++) {
+            for (int i = 0; i < sentFrames[source]; i++) {
+                if (random.nextDouble() < loss) {
+                    continue;
+                }
+                long sentAt = (long) i * FRAME_MILLIS + source * (FRAME_MILLIS / 2);
+                long delay = 40 + (jitterRange > 0 ? random.nextInt(jitterRange + 1) : 0);
+                arrivals.add(new long[]{sentAt + delay, source, seqBase[source] + i});
+            }
+        }
+        arrivals.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        AudioMixer mixer = new AudioMixer(FRAME_BYTES, FRAME_MILLIS, 2, 12);
+        byte[] frame = new byte[FRAME_BYTES];
+        byte[] out = new byte[FRAME_BYTES];
+
+        int next = 0;
+        int[] lastPlayed = {-1, -1};
+        boolean ordered = true;
+        boolean mixedBoth = false;
+        long endMillis = (long) FRAMES * FRAME_MILLIS + 2000;
+        JitterBuffer[] buffers = new JitterBuffer[2];
+        // B rời call: 6 giây sau gói cuối của B chỉ còn A
+        long leaveCheckAt = (long) sentFrames[1] * FRAME_MILLIS + 6000;
+        int sourcesAfterLeave = -1;
+        boolean firstKept = false;
+
+        // Chạy thêm sau gói cuối để nguồn đã rời hết hạn và bị bỏ
+        for (long now = 7; now < endMillis + 6000; now += FRAME_MILLIS) {
+            while (next < arrivals.size() && arrivals.get(next)[0] <= now) {
+                long[] arrival = arrivals.get(next);
+                int source = (int) arrival[1];
+                int seq = (int) arrival[2];
+                Arrays.fill(frame, (byte) 0);
+                writeSeq(frame, source * 4, seq);
+                long timestamp = clockBase[source] + (long) (seq - seqBase[source]) * FRAME_MILLIS;
+                mixer.offer(source + 1, seq, timestamp, frame, 0, FRAME_BYTES, arrival[0]);
+                if (buffers[source] == null) {
+                    buffers[source] = mixer.getBuffer(source + 1);
+                }
+                next++;
+            }
+
+            if (secondLeaves && sourcesAfterLeave < 0 && now >= leaveCheckAt) {
+                sourcesAfterLeave = mixer.getSourceCount();
+                firstKept = buffers[0] != null && mixer.getBuffer(1) == buffers[0];
+            }
+
+            if (mixer.poll(out, now) == 2) {
+                mixedBoth = true;
+                for (int source = 0; source < 2; source++) {
+                    int seq = readSeq(out, source * 4);
+                    if (seq <= lastPlayed[source]) {
+                        ordered = false;
+                    }
+                    lastPlayed[source] = seq;
+                }
+            }
+        }
+
+        assertTrue(ordered, "frames of one sender played out of order");
+        assertTrue(mixedBoth, "senders were never mixed together");
+        for (int source = 0; source < 2; source++) {
+            assertNotNull(buffers[source], "no buffer for sender " + (source + 1));
+            assertWithinThresholds(buffers[source], sentFrames[source], maxLost, maxLate, maxConcealed);
+        }
+        // Nguồn rời call bị bỏ trong khi nguồn kia vẫn phát; hết call thì không còn nguồn nào
+        if (secondLeaves) {
+            assertEquals(1, sourcesAfterLeave, "sender that left was not dropped");
+            assertTrue(firstKept, "remaining sender lost its buffer");
+        }
+        assertEquals(0, mixer.getSourceCount(), "sources left after the call ended");
+    }
+
+    private static void assertWithinThresholds(JitterBuffer buffer, double frames,
+                                               double maxLost, double maxLate, double maxConcealed) {
+        String stats = buffer.getStats();
+        assertTrue(buffer.getLost() / frames <= maxLost, "lost over " + maxLost + ": " + stats);
+        assertTrue(buffer.getLate() / frames <= maxLate, "late over " + maxLate + ": " + stats);
+        assertTrue(buffer.getConcealed() / frames <= maxConcealed, "concealed over " + maxConcealed + ": " + stats);
+        assertTrue(buffer.getPlayed() >= frames * (1 - maxLost) - buffer.getTrimmed(), "too few played: " + stats);
+    }
+
+    private static void writeSeq(byte[] frame, int offset, int seq) {
+        frame[offset] = (byte) (seq >> 24);
+        frame[offset + 1] = (byte) (seq >> 16);
+        frame[offset + 2] = (byte) (seq >> 8);
+        frame[offset + 3] = (byte) seq;
+    }
+
+    private static int readSeq(byte[] frame, int offset) {
+        return ((frame[offset] & 0xFF) << 24) | ((frame[offset + 1] & 0xFF) << 16)
+                | ((frame[offset + 2] & 0xFF) << 8) | (frame[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.chatappclient.client.services.media.codec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Mỗi codec trên 20 giây audio tổng hợp (SpeechSamples): byte mỗi packet và SNR sau khi mã hóa/giải mã
+ * Tốc độ mã hóa/giải mã đo bằng AudioCodecBenchmark (profile jmh)
+ */
+class AudioCodecTest {
+
+    private static final byte[] PCM = SpeechSamples.synthesize(20);
+    private static final int FRAME_BYTES = SpeechSamples.FRAME_BYTES;
+
+    @ParameterizedTest
+    @CsvSource({
+            "ima-adpcm, 260, 28",
+            "pcmu,      512, 35",
+            "pcma,      512, 35",
+    })
+    void roundTripKeepsSpeech(String name, int frameBytes, double minSnr) {
+        byte[] decoded = roundTrip(name, frameBytes);
+
+        double snr = SpeechSamples.snr(PCM, decoded);
+        assertTrue(snr >= minSnr, name + " SNR " + snr + " dB, expected at least " + minSnr);
+    }
+
+    @Test
+    void pcmRoundTripIsLossless() {
+        assertArrayEquals(PCM, roundTrip(PcmCodec.NAME, FRAME_BYTES));
+    }
+
+    @Test
+    void everySupportedCodecResolvesById() {
+        for (String name : AudioCodecs.getSupportedNames().split(",")) {
+            AudioCodec codec = AudioCodecs.create(name);
+            assertEquals(name, codec.getName());
+            AudioCodec byId = AudioCodecs.createById(codec.getId());
+            assertNotNull(byId, name);
+            assertEquals(name, byId.getName());
+        }
+    }
+
+    @Test
+    void unknownNameFallsBackToPcm() {
+        assertEquals(PcmCodec.NAME, AudioCodecs.create("opus").getName());
+        assertEquals(PcmCodec.NAME, AudioCodecs.create(null).getName());
+    }
+
+    // ==================== HELPERS ====================
+
+    /**
+     * Mã hóa/giải mã từng frame như luồng gửi và nhận của cuộc gọi; mọi frame phải đúng frameBytes byte
+     */
+    private static byte[] roundTrip(String name, int frameBytes) {
+        AudioCodec encoder = AudioCodecs.create(name);
+        AudioCodec decoder = AudioCodecs.create(name);
+        byte[] encoded = new byte[encoder.maxEncodedSize(FRAME_BYTES)];
+        byte[] decoded = new byte[PCM.length];
+
+        for (int offset = 0; offset < PCM.length; offset += FRAME_BYTES) {
+            int length = encoder.encode(PCM, offset, FRAME_BYTES, encoded, 0);
+            assertEquals(frameBytes, length, name + " frame at " + offset);
+            assertEquals(FRAME_BYTES, decoder.decode(encoded, 0, length, decoded, offset),
+                    name + " decoded frame at " + offset);
+        }
+        return decoded;
+    }
+}
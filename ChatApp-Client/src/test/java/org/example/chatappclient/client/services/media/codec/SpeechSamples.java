@@ -0,0 +1,55 @@
+package org.example.chatappclient.client.services.media.codec;
+
+import java.util.Random;
+
+/**
+ * Audio tổng hợp giống giọng nói (seed cố định) cho AudioCodecTest và AudioCodecBenchmark
+ */
+final class SpeechSamples {
+
+    static final int SAMPLE_RATE = 16000;
+    static final int FRAME_BYTES = 1024;
+    static final int FRAME_MILLIS = FRAME_BYTES * 1000 / (2 * SAMPLE_RATE);
+
+    private SpeechSamples() {}
+
+    /**
+     * Nguyên âm tổng hợp: cao độ 100-250 Hz với các hài bậc cao, biên độ lên xuống theo âm tiết, thêm nhiễu.
+     * Độ dài làm tròn xuống bội số của FRAME_BYTES
+     */
+    static byte[] synthesize(int seconds) {
+        Random random = new Random(42);
+        int samples = seconds * SAMPLE_RATE;
+        samples -= samples % (FRAME_BYTES / 2);
+        byte[] pcm = new byte[samples * 2];
+
+        double phase = 0;
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double pitch = 175 + 75 * Math.sin(2 * Math.PI * 0.7 * t);
+            phase += 2 * Math.PI * pitch / SAMPLE_RATE;
+            double envelope = Math.max(0, Math.sin(2 * Math.PI * 2.5 * t));
+            double voice = 0;
+            for (int h = 1; h <= 12; h++) {
+                voice += Math.sin(h * phase) / h;
+            }
+            double value = envelope * 9000 * voice + random.nextGaussian() * 150;
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[i * 2] = (byte) sample;
+            pcm[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    static double snr(byte[] original, byte[] decoded) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i + 1 < original.length; i += 2) {
+            int a = (short) ((original[i] & 0xFF) | (original[i + 1] << 8));
+            int b = (short) ((decoded[i] & 0xFF) | (decoded[i + 1] << 8));
+            signal += (double) a * a;
+            noise += (double) (a - b) * (a - b);
+        }
+        return noise == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(signal / noise);
+    }
+}
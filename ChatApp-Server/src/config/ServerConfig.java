@@ -1,6 +1,8 @@
 package config;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 public class ServerConfig {
@@ -44,6 +46,266 @@ public class ServerConfig {
         return Integer.parseInt(serverProps.getProperty("server.timeout", "300000"));
     }
 
+    // ==================== CẤU HÌNH I/O ====================
+
+    /**
+     * blocking (mỗi client một thread), virtual (mỗi client một virtual thread)
+     * hoặc nio (selector)
+     */
+    public static String getServerIoMode() {
+        return serverProps.getProperty("server.io.mode", "blocking").trim();
+    }
+
+    public static int getNioEventLoops() {
+        int defaultLoops = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        return Integer.parseInt(serverProps.getProperty("server.nio.event_loops", String.valueOf(defaultLoops)));
+    }
+
+    public static int getNioWorkerThreads() {
+        return Integer.parseInt(serverProps.getProperty("server.nio.worker_threads", "32"));
+    }
+
+    public static int getNioReadBufferSize() {
+        return Integer.parseInt(serverProps.getProperty("server.nio.read_buffer_size", "65536"));
+    }
+
+    public static int getNioMaxInboundBytes() {
+        return Integer.parseInt(serverProps.getProperty("server.nio.max_inbound_bytes", "1048576"));
+    }
+
+    /**
+     * Cho phép client thương lượng protocol v2 (frame có độ dài)
+     */
+    public static boolean isProtocolV2Enabled() {
+        return Boolean.parseBoolean(serverProps.getProperty("server.protocol.v2.enabled", "true"));
+    }
+
+    // ==================== HÀNG ĐỢI GỬI (OUTBOUND) ====================
+
+    public static long getOutboundMaxQueuedBytes() {
+        return Long.parseLong(serverProps.getProperty("server.outbound.max_queued_bytes", "4194304"));
+    }
+
+    public static int getOutboundMaxMessages() {
+        return Integer.parseInt(serverProps.getProperty("server.outbound.max_messages", "10000"));
+    }
+
+    /**
+     * Vượt ngưỡng này thì bỏ sự kiện TYPING_* cho client đó
+     */
+    public static long getOutboundDropTypingAbove() {
+        return Long.parseLong(serverProps.getProperty("server.outbound.drop_typing_above", "262144"));
+    }
+
+    /**
+     * Hàng đợi không giảm trong khoảng này thì coi là client treo
+     */
+    public static long getOutboundStallTimeout() {
+        return Long.parseLong(serverProps.getProperty("server.outbound.stall_timeout", "30000"));
+    }
+
+    // ==================== GHI TIN NHẮN (WRITE-BEHIND) ====================
+
+    /**
+     * writebehind (journal + ghi theo lô) hoặc sync (INSERT từng tin như cũ)
+     */
+    public static String getMessagePersistenceMode() {
+        return serverProps.getProperty("message.persistence.mode", "writebehind").trim();
+    }
+
+    public static long getMessageFlushInterval() {
+        return Long.parseLong(serverProps.getProperty("message.flush.interval", "50"));
+    }
+
+    public static int getMessageFlushBatchSize() {
+        return Integer.parseInt(serverProps.getProperty("message.flush.batch_size", "200"));
+    }
+
+    public static int getMessageQueueMax() {
+        return Integer.parseInt(serverProps.getProperty("message.queue.max", "20000"));
+    }
+
+    public static String getMessageJournalPath() {
+        return serverProps.getProperty("message.journal.path", "data/message-journal.log").trim();
+    }
+
+    /**
+     * true: fsync journal trước khi ACK (chậm hơn, chịu được mất điện)
+     */
+    public static boolean isMessageJournalFsync() {
+        return Boolean.parseBoolean(serverProps.getProperty("message.journal.fsync", "false"));
+    }
+
+    /**
+     * Segment journal đạt bấy nhiêu byte thì chuyển sang segment mới
+     */
+    public static long getMessageJournalSegmentBytes() {
+        return Long.parseLong(serverProps.getProperty("message.journal.segment_bytes", "8388608").trim());
+    }
+
+    public static int getMessageContentMaxBytes() {
+        return Integer.parseInt(serverProps.getProperty("message.content.max_bytes", "65535").trim());
+    }
+
+    // ==================== PRESENCE ====================
+
+    /**
+     * Gom các thay đổi online/offline trong khoảng này (ms) trước khi phát
+     */
+    public static long getPresenceCoalesceMillis() {
+        return Long.parseLong(serverProps.getProperty("presence.coalesce_ms", "250"));
+    }
+
+    // ==================== TYPING ====================
+
+    /**
+     * Trạng thái đang nhập hết hạn sau khoảng này nếu không có TYPING_START mới (ngầm hiểu là dừng)
+     */
+    public static long getTypingTtlMillis() {
+        return Long.parseLong(serverProps.getProperty("typing.ttl_ms", "5000"));
+    }
+
+    /**
+     * Số TYPING_START tối đa gửi tới một client mỗi giây
+     */
+    public static int getTypingMaxPerRecipient() {
+        return Integer.parseInt(serverProps.getProperty("typing.max_per_recipient", "10"));
+    }
+
+    /**
+     * Client còn nhiều hơn số byte này chờ gửi thì không gửi sự kiện typing
+     */
+    public static long getTypingSkipBacklogBytes() {
+        return Long.parseLong(serverProps.getProperty("typing.skip_backlog_bytes", "65536"));
+    }
+
+    // ==================== FILE STORAGE ====================
+
+    public static String getUploadDir() {
+        return serverProps.getProperty("upload.dir", "uploads").trim();
+    }
+
+    /**
+     * Thư mục file đang nhận dở; cùng ổ đĩa với upload.dir để move nguyên tử
+     */
+    public static String getUploadTempDir() {
+        return serverProps.getProperty("upload.temp_dir", "uploads/.tmp").trim();
+    }
+
+    /**
+     * Buffer đọc socket -> file (mỗi worker thread một buffer dùng lại)
+     */
+    public static int getUploadBufferBytes() {
+        return Integer.parseInt(serverProps.getProperty("upload.buffer_bytes", "65536"));
+    }
+
+    /**
+     * Upload nhiều khối dở dang (<id>.part + <id>.meta), giữ qua lần khởi động lại
+     */
+    public static String getUploadPartialDir() {
+        return serverProps.getProperty("upload.partial_dir", "uploads/.partial").trim();
+    }
+
+    /**
+     * Kích thước khối server đề nghị cho upload/download nối tiếp
+     */
+    public static int getUploadChunkBytes() {
+        return Integer.parseInt(serverProps.getProperty("upload.chunk_bytes", "1048576"));
+    }
+
+    /**
+     * Phiên upload không nhận thêm khối nào sau số giờ này thì bị xóa
+     */
+    public static long getUploadPartialTtlHours() {
+        return Long.parseLong(serverProps.getProperty("upload.partial_ttl_hours", "24"));
+    }
+
+    /**
+     * Blob không còn tin nhắn tham chiếu phải chờ ít nhất bấy nhiêu phút mới bị xóa
+     */
+    public static long getBlobGcGraceMinutes() {
+        return Long.parseLong(serverProps.getProperty("upload.blob_gc_grace_minutes", "60"));
+    }
+
+    public static long getBlobGcIntervalMinutes() {
+        return Long.parseLong(serverProps.getProperty("upload.blob_gc_interval_minutes", "30"));
+    }
+
+    // ==================== MEDIA OFFLOAD ====================
+
+    /**
+     * Kho ngoài cho ảnh: cloudinary | local | none (none = ảnh giữ URL local)
+     */
+    public static String getMediaRemoteStore() {
+        return serverProps.getProperty("media.remote_store", "cloudinary").trim();
+    }
+
+    public static int getMediaOffloadThreads() {
+        return Integer.parseInt(serverProps.getProperty("media.offload_threads", "2"));
+    }
+
+    public static int getMediaOffloadQueueSize() {
+        return Integer.parseInt(serverProps.getProperty("media.offload_queue_size", "200"));
+    }
+
+    public static int getMediaOffloadMaxAttempts() {
+        return Integer.parseInt(serverProps.getProperty("media.offload_max_attempts", "5"));
+    }
+
+    /**
+     * Chờ trước lần thử lại đầu tiên, nhân đôi sau mỗi lần lỗi
+     */
+    public static long getMediaOffloadRetryBaseMillis() {
+        return Long.parseLong(serverProps.getProperty("media.offload_retry_base_ms", "2000"));
+    }
+
+    /**
+     * Cạnh dài nhất của thumbnail JPEG cho ảnh (0 = không tạo thumbnail)
+     */
+    public static int getMediaThumbnailMaxPx() {
+        return Integer.parseInt(serverProps.getProperty("media.thumbnail_max_px", "480"));
+    }
+
+    public static float getMediaThumbnailQuality() {
+        return Float.parseFloat(serverProps.getProperty("media.thumbnail_quality", "0.8"));
+    }
+
+    public static String getMediaLocalStoreDir() {
+        return serverProps.getProperty("media.local_store_dir", "uploads/remote").trim();
+    }
+
+    public static String getMediaLocalStoreUrl() {
+        return serverProps.getProperty("media.local_store_url", "http://localhost:8080/uploads/remote").trim();
+    }
+
+    public static long getMediaLocalStoreDelayMillis() {
+        return Long.parseLong(serverProps.getProperty("media.local_store_delay_ms", "0"));
+    }
+
+    /**
+     * Thông tin Cloudinary: lấy từ media.cloudinary.*, để trống thì đọc biến môi trường
+     * CLOUDINARY_CLOUD_NAME / CLOUDINARY_API_KEY / CLOUDINARY_API_SECRET (null nếu không có)
+     */
+    public static String getCloudinaryCloudName() {
+        return propertyOrEnv("media.cloudinary.cloud_name", "CLOUDINARY_CLOUD_NAME");
+    }
+
+    public static String getCloudinaryApiKey() {
+        return propertyOrEnv("media.cloudinary.api_key", "CLOUDINARY_API_KEY");
+    }
+
+    public static String getCloudinaryApiSecret() {
+        return propertyOrEnv("media.cloudinary.api_secret", "CLOUDINARY_API_SECRET");
+    }
+
+    private static String propertyOrEnv(String key, String envName) {
+        String value = serverProps.getProperty(key, "").trim();
+        if (value.isEmpty()) {
+            value = System.getenv(envName);
+        }
+        return value != null && !value.trim().isEmpty() ? value.trim() : null;
+    }
+
     // ==================== CẤU HÌNH UDP MEDIA SERVER ====================
 
     public static String getUdpServerIP() {
@@ -58,6 +320,38 @@ public class ServerConfig {
         return Boolean.parseBoolean(serverProps.getProperty("udp.auto.detect.ip", "true"));
     }
 
+    /**
+     * inline: relay ngay trên thread nhận (DatagramChannel) | executor: mỗi packet một task
+     */
+    public static String getUdpRelayMode() {
+        return serverProps.getProperty("udp.relay_mode", "inline").trim();
+    }
+
+    public static int getUdpSocketBufferBytes() {
+        return Integer.parseInt(serverProps.getProperty("udp.socket_buffer_bytes", "1048576"));
+    }
+
+    /**
+     * Số socket relay (cổng udp.base.port + i), 0 = mỗi core một socket
+     */
+    public static int getUdpRelayShards() {
+        int shards = Integer.parseInt(serverProps.getProperty("udp.relay_shards", "0").trim());
+        return shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Codec audio cho phép, theo thứ tự ưu tiên (call dùng codec đầu tiên mọi người đã vào đều hỗ trợ)
+     */
+    public static List<String> getCallAudioCodecs() {
+        List<String> codecs = new ArrayList<>();
+        for (String codec : serverProps.getProperty("call.audio_codecs", "ima-adpcm,pcmu,pcma,pcm").split(",")) {
+            if (!codec.trim().isEmpty()) {
+                codecs.add(codec.trim().toLowerCase());
+            }
+        }
+        return codecs;
+    }
+
     // ==================== CẤU HÌNH ZEROTIER ====================
 
     public static boolean isZeroTierEnabled() {
@@ -167,6 +461,29 @@ public class ServerConfig {
         return Integer.parseInt(dbProps.getProperty("db.pool.timeout", "30000"));
     }
 
+    public static long getDBPoolIdleTimeout() {
+        return Long.parseLong(dbProps.getProperty("db.pool.idleTimeout", "600000"));
+    }
+
+    public static long getDBPoolMaxLifetime() {
+        return Long.parseLong(dbProps.getProperty("db.pool.maxLifetime", "1800000"));
+    }
+
+    public static long getDBPoolLeakDetectionThreshold() {
+        return Long.parseLong(dbProps.getProperty("db.pool.leakDetectionThreshold", "60000"));
+    }
+
+    public static int getDBPoolValidationTimeout() {
+        return Integer.parseInt(dbProps.getProperty("db.pool.validationTimeout", "3"));
+    }
+
+    /**
+     * Cảnh báo khi một request tạo nhiều SQL statement hơn ngưỡng này (phát hiện N+1)
+     */
+    public static int getDBWarnStatementsPerRequest() {
+        return Integer.parseInt(dbProps.getProperty("db.warnStatementsPerRequest", "20"));
+    }
+
     // ==================== TẢI LẠI CẤU HÌNH ====================
 
     public static void reloadConfigs() {
@@ -182,8 +499,10 @@ public class ServerConfig {
         System.out.println("Phiên bản: " + getAppVersion());
         System.out.println("Port Server: " + getServerPort());
         System.out.println("Tối đa Clients: " + getMaxClients());
+        System.out.println("Chế độ I/O: " + getServerIoMode());
         System.out.println("\n========== CẤU HÌNH UDP MEDIA ==========");
         System.out.println("UDP Base Port: " + getUdpBasePort());
+        System.out.println("UDP Relay Shards: " + getUdpRelayShards());
         System.out.println("Auto Detect IP: " + (isUdpAutoDetectIP() ? "BẬT" : "TẮT"));
         System.out.println("\n========== CẤU HÌNH ZEROTIER ==========");
         System.out.println("Đã bật: " + isZeroTierEnabled());
@@ -196,6 +515,8 @@ public class ServerConfig {
         System.out.println("Host: " + getDBHost() + ":" + getDBPort());
         System.out.println("Database: " + getDBName());
         System.out.println("Username: " + getDBUsername());
+        System.out.println("Pool: " + getDBPoolMinSize() + "-" + getDBPoolMaxSize()
+                + " (timeout " + getDBPoolTimeout() + "ms)");
         System.out.println("==========================================\n");
     }
 }
\ No newline at end of file
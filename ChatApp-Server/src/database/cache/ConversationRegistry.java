@@ -0,0 +1,362 @@
+package database.cache;
+
+import database.connection.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConversationRegistry - Cache thành viên conversation trong bộ nhớ
+ * - conversationId -> (type, tập thành viên bất biến)
+ * - userId -> tập conversationId (reverse index, thay cho FIND_IN_SET)
+ * - Nạp lười từ DB, ConversationDAO cập nhật/xóa khi tạo, đổi thành viên, xóa conversation
+ * - Giới hạn số entry, vượt quá thì bỏ các entry lâu không dùng
+ *
+ * Chỉ đúng khi mọi thay đổi member_ids đi qua ConversationDAO (một server).
+ */
+public class ConversationRegistry {
+
+    private static final int DEFAULT_MAX_ENTRIES = 50_000;
+
+    private static ConversationRegistry instance;
+
+    /**
+     * Thông tin cache của một conversation
+     */
+    public static final class Entry {
+        private final String type;
+        private final Set<String> members;
+        private volatile long lastAccess;
+
+        Entry(String type, Set<String> members) {
+            this.type = type;
+            this.members = members;
+            this.lastAccess = System.nanoTime();
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Set<String> getMembers() {
+            return members;
+        }
+    }
+
+    private static final class UserEntry {
+        final Set<String> conversationIds = ConcurrentHashMap.newKeySet();
+        volatile long lastAccess = System.nanoTime();
+    }
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Entry> conversations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, UserEntry> userIndex = new ConcurrentHashMap<>();
+
+    // Tăng mỗi khi có thay đổi: kết quả nạp từ DB song song với thay đổi thì không cache
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private ConversationRegistry(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static synchronized ConversationRegistry getInstance() {
+        if (instance == null) {
+            instance = new ConversationRegistry(DEFAULT_MAX_ENTRIES);
+        }
+        return instance;
+    }
+
+    // ==================== LOOKUP ====================
+
+    /**
+     * Thông tin conversation đang active, null nếu không tồn tại
+     */
+    public Entry get(String conversationId) {
+        if (conversationId == null) {
+            return null;
+        }
+
+        Entry entry = conversations.get(conversationId);
+        if (entry != null) {
+            hits.incrementAndGet();
+            entry.lastAccess = System.nanoTime();
+            return entry;
+        }
+
+        misses.incrementAndGet();
+        long gen = generation.get();
+        entry = loadConversation(conversationId);
+        if (entry != null && generation.get() == gen) {
+            conversations.put(conversationId, entry);
+            if (generation.get() != gen) {
+                // Có thay đổi ngay lúc đang put -> không giữ bản có thể đã cũ
+                conversations.remove(conversationId, entry);
+            }
+            evictIfNeeded(conversations);
+        }
+        return entry;
+    }
+
+    /**
+     * Tập thành viên (bất biến), null nếu conversation không tồn tại
+     */
+    public Set<String> getMembers(String conversationId) {
+        Entry entry = get(conversationId);
+        return entry != null ? entry.members : null;
+    }
+
+    /**
+     * Chỉ đọc cache, không bao giờ xuống DB (null nếu chưa nạp)
+     */
+    public Set<String> peekMembers(String conversationId) {
+        Entry entry = conversationId != null ? conversations.get(conversationId) : null;
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        return entry.members;
+    }
+
+    public boolean isMember(String conversationId, String userId) {
+        Set<String> members = getMembers(conversationId);
+        return members != null && members.contains(userId);
+    }
+
+    /**
+     * Các conversation active mà user là thành viên
+     */
+    public Set<String> getUserConversationIds(String userId) {
+        UserEntry entry = userIndex.get(userId);
+        if (entry != null) {
+            hits.incrementAndGet();
+            entry.lastAccess = System.nanoTime();
+            return Collections.unmodifiableSet(entry.conversationIds);
+        }
+
+        misses.incrementAndGet();
+        long gen = generation.get();
+        UserEntry loaded = loadUserIndex(userId);
+        if (loaded == null) {
+            return Collections.emptySet();
+        }
+        if (generation.get() == gen) {
+            UserEntry existing = userIndex.putIfAbsent(userId, loaded);
+            if (existing != null) {
+                loaded = existing;
+            } else if (generation.get() != gen) {
+                userIndex.remove(userId, loaded);
+            }
+            evictIfNeeded(userIndex);
+        }
+        return Collections.unmodifiableSet(loaded.conversationIds);
+    }
+
+    // ==================== INVALIDATION ====================
+
+    /**
+     * Conversation mới được tạo
+     */
+    public void onCreated(String conversationId, String type, List<String> memberIds) {
+        generation.incrementAndGet();
+        Set<String> members = Collections.unmodifiableSet(new HashSet<>(memberIds));
+        conversations.put(conversationId, new Entry(type, members));
+        for (String memberId : members) {
+            UserEntry user = userIndex.get(memberId);
+            if (user != null) {
+                user.conversationIds.add(conversationId);
+            }
+        }
+        evictIfNeeded(conversations);
+    }
+
+    /**
+     * Thành viên thay đổi (addMember/removeMember)
+     */
+    public void onMembersChanged(String conversationId, String type, List<String> memberIds) {
+        generation.incrementAndGet();
+        Entry old = conversations.remove(conversationId);
+        Set<String> members = Collections.unmodifiableSet(new HashSet<>(memberIds));
+
+        if (old != null) {
+            for (String userId : old.members) {
+                if (!members.contains(userId)) {
+                    UserEntry user = userIndex.get(userId);
+                    if (user != null) {
+                        user.conversationIds.remove(conversationId);
+                    }
+                }
+            }
+        } else {
+            // Không biết danh sách cũ -> bỏ index của mọi user có chứa conversation này
+            for (Map.Entry<String, UserEntry> user : userIndex.entrySet()) {
+                if (!members.contains(user.getKey()) && user.getValue().conversationIds.contains(conversationId)) {
+                    user.getValue().conversationIds.remove(conversationId);
+                }
+            }
+        }
+
+        conversations.put(conversationId, new Entry(type, members));
+        for (String memberId : members) {
+            UserEntry user = userIndex.get(memberId);
+            if (user != null) {
+                user.conversationIds.add(conversationId);
+            }
+        }
+    }
+
+    /**
+     * Conversation bị xóa (soft/hard delete)
+     */
+    public void onDeleted(String conversationId) {
+        generation.incrementAndGet();
+        Entry old = conversations.remove(conversationId);
+        if (old != null) {
+            for (String userId : old.members) {
+                UserEntry user = userIndex.get(userId);
+                if (user != null) {
+                    user.conversationIds.remove(conversationId);
+                }
+            }
+        } else {
+            for (UserEntry user : userIndex.values()) {
+                user.conversationIds.remove(conversationId);
+            }
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        conversations.clear();
+        userIndex.clear();
+    }
+
+    public String getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        long total = h + m;
+        return "Conversation registry: " + conversations.size() + " conversations, "
+                + userIndex.size() + " users, hit rate "
+                + (total == 0 ? "-" : (h * 100 / total) + "%")
+                + ", evictions " + evictions.get();
+    }
+
+    // ==================== LOAD ====================
+
+    private Entry loadConversation(String conversationId) {
+        String sql = "SELECT type, member_ids FROM conversations " +
+                "WHERE conversation_id = ? AND is_active = TRUE";
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, conversationId);
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                return new Entry(rs.getString("type"), parseMembers(rs.getString("member_ids")));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error loading conversation members: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Một lần quét FIND_IN_SET cho mỗi user (khi chưa có trong cache),
+     * đồng thời nạp luôn thành viên của các conversation đó
+     */
+    private UserEntry loadUserIndex(String userId) {
+        String sql = "SELECT conversation_id, type, member_ids FROM conversations " +
+                "WHERE is_active = TRUE AND FIND_IN_SET(?, member_ids) > 0";
+
+        long gen = generation.get();
+        List<String[]> rows = new ArrayList<>();
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, userId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                rows.add(new String[]{
+                        rs.getString("conversation_id"), rs.getString("type"), rs.getString("member_ids")
+                });
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error loading user conversations: " + e.getMessage());
+            return null;
+        }
+
+        UserEntry entry = new UserEntry();
+        boolean unchanged = generation.get() == gen;
+        for (String[] row : rows) {
+            entry.conversationIds.add(row[0]);
+            if (unchanged) {
+                conversations.putIfAbsent(row[0], new Entry(row[1], parseMembers(row[2])));
+            }
+        }
+        if (unchanged) {
+            evictIfNeeded(conversations);
+        }
+        return entry;
+    }
+
+    private static Set<String> parseMembers(String memberIds) {
+        if (memberIds == null || memberIds.trim().isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(memberIds.split(","))));
+    }
+
+    // ==================== EVICTION ====================
+
+    /**
+     * Vượt maxEntries: bỏ khoảng 10% entry lâu không dùng nhất
+     */
+    private void evictIfNeeded(ConcurrentHashMap<String, ?> map) {
+        if (map.size() <= maxEntries) {
+            return;
+        }
+
+        synchronized (map) {
+            int excess = map.size() - maxEntries;
+            if (excess <= 0) {
+                return;
+            }
+            int toRemove = excess + maxEntries / 10;
+
+            List<Map.Entry<String, Long>> byAge = new ArrayList<>(map.size());
+            for (Map.Entry<String, ?> e : map.entrySet()) {
+                byAge.add(Map.entry(e.getKey(), lastAccessOf(e.getValue())));
+            }
+            byAge.sort(Map.Entry.comparingByValue());
+
+            for (int i = 0; i < toRemove && i < byAge.size(); i++) {
+                map.remove(byAge.get(i).getKey());
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static long lastAccessOf(Object value) {
+        if (value instanceof Entry) {
+            return ((Entry) value).lastAccess;
+        }
+        return ((UserEntry) value).lastAccess;
+    }
+}
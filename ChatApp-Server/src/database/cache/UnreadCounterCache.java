@@ -0,0 +1,143 @@
+package database.cache;
+
+import database.dao.UnreadCounterDAO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * UnreadCounterCache - Lớp nóng trước bảng conversation_unread
+ * - userId -> (conversationId -> số tin chưa đọc), nạp một lần mỗi user
+ * - Ghi (tin mới, đánh dấu đã đọc) vào DB trước rồi invalidate user liên quan
+ * - Version theo stripe: kết quả nạp song song với một lần ghi thì không cache
+ */
+public class UnreadCounterCache {
+
+    private static final int DEFAULT_MAX_USERS = 50_000;
+    private static final int STRIPES = 256;
+
+    private static UnreadCounterCache instance;
+
+    private static final class UserCounts {
+        final Map<String, Integer> counts;
+        volatile long lastAccess = System.nanoTime();
+
+        UserCounts(Map<String, Integer> counts) {
+            this.counts = counts;
+        }
+    }
+
+    private final int maxUsers;
+    private final ConcurrentHashMap<String, UserCounts> users = new ConcurrentHashMap<>();
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private UnreadCounterCache(int maxUsers) {
+        this.maxUsers = maxUsers;
+    }
+
+    public static synchronized UnreadCounterCache getInstance() {
+        if (instance == null) {
+            instance = new UnreadCounterCache(DEFAULT_MAX_USERS);
+        }
+        return instance;
+    }
+
+    /**
+     * Số tin chưa đọc của user trong conversation
+     */
+    public int getCount(String userId, String conversationId) {
+        return getCounts(userId).getOrDefault(conversationId, 0);
+    }
+
+    /**
+     * Mọi bộ đếm khác 0 của user (bất biến)
+     */
+    public Map<String, Integer> getCounts(String userId) {
+        UserCounts cached = users.get(userId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            cached.lastAccess = System.nanoTime();
+            return cached.counts;
+        }
+
+        misses.incrementAndGet();
+        int stripe = stripe(userId);
+        long version = versions.get(stripe);
+        Map<String, Integer> loaded = UnreadCounterDAO.getUnreadCounts(userId);
+        if (loaded == null) {
+            return Collections.emptyMap();
+        }
+
+        UserCounts entry = new UserCounts(Collections.unmodifiableMap(loaded));
+        if (versions.get(stripe) == version) {
+            users.put(userId, entry);
+            if (versions.get(stripe) != version) {
+                // Có ghi ngay lúc đang put -> bỏ bản có thể đã cũ
+                users.remove(userId, entry);
+            }
+            evictIfNeeded();
+        }
+        return entry.counts;
+    }
+
+    /**
+     * Gọi sau khi bộ đếm của các user này đã đổi trong DB
+     */
+    public void invalidate(Collection<String> userIds) {
+        for (String userId : userIds) {
+            invalidate(userId);
+        }
+    }
+
+    public void invalidate(String userId) {
+        versions.incrementAndGet(stripe(userId));
+        users.remove(userId);
+    }
+
+    public String getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        long total = h + m;
+        return "Unread counters: " + users.size() + " users cached, hit rate "
+                + (total == 0 ? "-" : (h * 100 / total) + "%");
+    }
+
+    private static int stripe(String userId) {
+        return (userId.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    /**
+     * Vượt maxUsers: bỏ khoảng 10% user lâu không dùng nhất
+     */
+    private void evictIfNeeded() {
+        if (users.size() <= maxUsers) {
+            return;
+        }
+
+        synchronized (users) {
+            int excess = users.size() - maxUsers;
+            if (excess <= 0) {
+                return;
+            }
+            List<Map.Entry<String, Long>> byAge = new ArrayList<>(users.size());
+            for (Map.Entry<String, UserCounts> e : users.entrySet()) {
+                byAge.add(Map.entry(e.getKey(), e.getValue().lastAccess));
+            }
+            byAge.sort(Map.Entry.comparingByValue());
+
+            int toRemove = excess + maxUsers / 10;
+            for (int i = 0; i < toRemove && i < byAge.size(); i++) {
+                users.remove(byAge.get(i).getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package database.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConnectionPool - Pool kết nối JDBC có giới hạn
+ * - Tối đa maxSize kết nối vật lý, chờ tối đa acquireTimeout khi pool cạn
+ * - Kiểm tra kết nối (isValid) trước khi cho mượn nếu đã idle một lúc
+ * - Đóng kết nối idle quá lâu / quá maxLifetime, luôn giữ ít nhất minSize
+ * - Cảnh báo khi một kết nối bị giữ quá leakDetectionThreshold
+ *
+ * Connection trả về là proxy: close() trả kết nối về pool thay vì đóng socket,
+ * nên các DAO dùng try-with-resources như cũ.
+ * Cùng một thread gọi getConnection() lồng nhau (DAO gọi DAO) sẽ dùng lại
+ * kết nối đang mượn, tránh deadlock khi pool cạn.
+ */
+public class ConnectionPool {
+
+    private static final long VALIDATE_AFTER_IDLE_MS = 500;
+    private static final long HOUSEKEEPING_INTERVAL_MS = 30000;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long leakDetectionMillis;
+    private final int validationTimeoutSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<PooledConnection> current = new ThreadLocal<>();
+    // Số statement tạo trên thread hiện tại (đo số truy vấn mỗi request)
+    private static final ThreadLocal<int[]> threadStatements = ThreadLocal.withInitial(() -> new int[1]);
+    private final ScheduledExecutorService housekeeper;
+
+    private int totalConnections;
+    private int waitingThreads;
+    private volatile boolean shutdown;
+
+    // ===== Metrics =====
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(String url, String username, String password,
+                          int minSize, int maxSize, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, long maxLifetimeMillis,
+                          long leakDetectionMillis, int validationTimeoutSeconds) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.execute(this::fillToMinimum);
+        housekeeper.scheduleWithFixedDelay(this::housekeep,
+                HOUSEKEEPING_INTERVAL_MS, HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // ==================== ACQUIRE / RELEASE ====================
+
+    /**
+     * Mượn một kết nối. Ném SQLTimeoutException nếu chờ quá acquireTimeout.
+     */
+    public Connection getConnection() throws SQLException {
+        if (shutdown) {
+            throw new SQLException("Connection pool is shut down");
+        }
+
+        PooledConnection entry = current.get();
+        if (entry != null) {
+            entry.holdCount++;
+            return entry.newHandle();
+        }
+
+        long start = System.nanoTime();
+        entry = borrow(start);
+        recordWait(System.nanoTime() - start);
+
+        entry.holdCount = 1;
+        entry.borrowedAt = System.currentTimeMillis();
+        entry.borrowThread = Thread.currentThread().getName();
+        entry.borrowTrace = leakDetectionMillis > 0 ? new Exception("Connection acquired here") : null;
+        entry.leakReported = false;
+        borrowed.add(entry);
+        current.set(entry);
+        acquireCount.incrementAndGet();
+
+        return entry.newHandle();
+    }
+
+    private PooledConnection borrow(long startNanos) throws SQLException {
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (idle.isEmpty() && totalConnections >= maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLTimeoutException("Connection pool timeout after " + acquireTimeoutMillis
+                                + "ms (active=" + borrowed.size() + ", max=" + maxSize + ")");
+                    }
+                    waitingThreads++;
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for connection", e);
+                    } finally {
+                        waitingThreads--;
+                    }
+                }
+
+                if (!idle.isEmpty()) {
+                    candidate = idle.pollFirst();
+                } else {
+                    totalConnections++;
+                    create = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    return createConnection();
+                } catch (SQLException e) {
+                    discard(null);
+                    throw e;
+                }
+            }
+
+            // Kết nối idle lâu có thể đã bị MySQL đóng (wait_timeout)
+            if (isUsable(candidate)) {
+                return candidate;
+            }
+            discard(candidate);
+        }
+    }
+
+    private boolean isUsable(PooledConnection entry) {
+        long now = System.currentTimeMillis();
+        if (maxLifetimeMillis > 0 && now - entry.createdAt > maxLifetimeMillis) {
+            return false;
+        }
+        if (now - entry.lastUsedAt < VALIDATE_AFTER_IDLE_MS) {
+            return true;
+        }
+        try {
+            return entry.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Trả kết nối về pool khi handle cuối cùng của thread được đóng
+     */
+    private void release(PooledConnection entry) {
+        if (current.get() == entry) {
+            current.remove();
+        }
+        borrowed.remove(entry);
+        entry.closeOpenStatements();
+
+        boolean healthy = !shutdown;
+        try {
+            if (healthy && entry.physical.isClosed()) {
+                healthy = false;
+            }
+            if (healthy && !entry.physical.getAutoCommit()) {
+                entry.physical.rollback();
+                entry.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            healthy = false;
+        }
+
+        if (!healthy) {
+            discard(entry);
+            return;
+        }
+
+        entry.lastUsedAt = System.currentTimeMillis();
+        lock.lock();
+        try {
+            idle.addFirst(entry);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Đóng kết nối vật lý và giải phóng một chỗ trong pool
+     */
+    private void discard(PooledConnection entry) {
+        if (entry != null) {
+            closePhysical(entry);
+        }
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PooledConnection createConnection() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, username, password);
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void closePhysical(PooledConnection entry) {
+        try {
+            entry.physical.close();
+        } catch (SQLException ignored) {
+        }
+        closedCount.incrementAndGet();
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // ==================== HOUSEKEEPING ====================
+
+    private void housekeep() {
+        try {
+            evictIdle();
+            fillToMinimum();
+            detectLeaks();
+        } catch (Exception e) {
+            System.err.println("⚠️ DB pool housekeeping error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Đóng kết nối idle quá idleTimeout hoặc quá maxLifetime (giữ tối thiểu minSize)
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> evicted = new ArrayList<>();
+
+        lock.lock();
+        try {
+            // Duyệt từ cuối deque: kết nối ít được dùng nhất
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection entry = it.next();
+                boolean expired = maxLifetimeMillis > 0 && now - entry.createdAt > maxLifetimeMillis;
+                boolean idleTooLong = idleTimeoutMillis > 0 && now - entry.lastUsedAt > idleTimeoutMillis
+                        && totalConnections > minSize;
+                if (expired || idleTooLong) {
+                    it.remove();
+                    totalConnections--;
+                    evicted.add(entry);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection entry : evicted) {
+            closePhysical(entry);
+        }
+    }
+
+    private void fillToMinimum() {
+        while (!shutdown) {
+            lock.lock();
+            try {
+                if (totalConnections >= minSize) {
+                    return;
+                }
+                totalConnections++;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                PooledConnection entry = createConnection();
+                lock.lock();
+                try {
+                    idle.addLast(entry);
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (SQLException e) {
+                discard(null);
+                System.err.println("⚠️ DB pool could not open connection: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        if (leakDetectionMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledConnection entry : borrowed) {
+            if (!entry.leakReported && now - entry.borrowedAt > leakDetectionMillis) {
+                entry.leakReported = true;
+                leakCount.incrementAndGet();
+                System.err.println("⚠️ Possible connection leak: held " + (now - entry.borrowedAt)
+                        + "ms by thread " + entry.borrowThread);
+                if (entry.borrowTrace != null) {
+                    entry.borrowTrace.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // ==================== SHUTDOWN / METRICS ====================
+
+    public void shutdown() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            toClose = new ArrayList<>(idle);
+            totalConnections -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection entry : toClose) {
+            closePhysical(entry);
+        }
+    }
+
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaitingThreads() {
+        lock.lock();
+        try {
+            return waitingThreads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Số statement thread hiện tại đã tạo từ lần reset gần nhất
+     */
+    public static int getThreadStatementCount() {
+        return threadStatements.get()[0];
+    }
+
+    public static void resetThreadStatementCount() {
+        threadStatements.get()[0] = 0;
+    }
+
+    public String getStats() {
+        long acquired = acquireCount.get();
+        double avgWaitMs = acquired == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / acquired;
+        return String.format(
+                "total=%d, active=%d, idle=%d, waiting=%d, max=%d | acquired=%d, created=%d, closed=%d, "
+                        + "timeouts=%d, leaks=%d, avgWait=%.2fms, maxWait=%.2fms",
+                getTotalConnections(), getActiveConnections(), getIdleConnections(), getWaitingThreads(), maxSize,
+                acquired, createdCount.get(), closedCount.get(),
+                timeoutCount.get(), leakCount.get(), avgWaitMs, maxWaitNanos.get() / 1_000_000.0);
+    }
+
+    // ==================== POOLED CONNECTION ====================
+
+    /**
+     * Kết nối vật lý + trạng thái mượn. holdCount chỉ được thread đang mượn truy cập.
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        final long createdAt;
+        final List<Statement> openStatements = new ArrayList<>();
+        volatile long lastUsedAt;
+        volatile long borrowedAt;
+        volatile String borrowThread;
+        volatile Exception borrowTrace;
+        volatile boolean leakReported;
+        int holdCount;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = createdAt;
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handle(this));
+        }
+
+        void closeOpenStatements() {
+            for (Statement statement : openStatements) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            openStatements.clear();
+        }
+    }
+
+    /**
+     * Handle mà DAO nhận được. close() chỉ trả kết nối về pool.
+     */
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection entry;
+        private boolean closed;
+
+        Handle(PooledConnection entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        if (--entry.holdCount == 0) {
+                            release(entry);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + entry.physical + "]";
+                default:
+                    break;
+            }
+
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+
+            try {
+                Object result = method.invoke(entry.physical, args);
+                if (result instanceof Statement) {
+                    // Statement quên đóng sẽ được đóng khi trả kết nối
+                    entry.openStatements.add((Statement) result);
+                    threadStatements.get()[0]++;
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -5,56 +5,91 @@ import java.sql.*;
 
 public class DBConnection {
 
-    private static Connection connection;
+    private static volatile ConnectionPool pool;
 
     /**
-     * Get database connection (singleton pattern)
+     * Get database connection from the pool.
+     * Luôn dùng với try-with-resources: close() trả kết nối về pool.
      */
-    public static Connection getConnection() {
-        try {
-            if (connection == null || connection.isClosed()) {
-                Class.forName("com.mysql.cj.jdbc.Driver");
-                connection = DriverManager.getConnection(
-                        ServerConfig.getDBUrl(),
-                        ServerConfig.getDBUsername(),
-                        ServerConfig.getDBPassword()
-                );
-                System.out.println("✓ Database connected successfully");
+    public static Connection getConnection() throws SQLException {
+        return getPool().getConnection();
+    }
+
+    /**
+     * Khởi tạo pool lần đầu (lazy)
+     */
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DBConnection.class) {
+                p = pool;
+                if (p == null) {
+                    try {
+                        Class.forName("com.mysql.cj.jdbc.Driver");
+                    } catch (ClassNotFoundException e) {
+                        System.err.println("MySQL JDBC Driver not found");
+                        e.printStackTrace();
+                    }
+                    p = new ConnectionPool(
+                            ServerConfig.getDBUrl(),
+                            ServerConfig.getDBUsername(),
+                            ServerConfig.getDBPassword(),
+                            ServerConfig.getDBPoolMinSize(),
+                            ServerConfig.getDBPoolMaxSize(),
+                            ServerConfig.getDBPoolTimeout(),
+                            ServerConfig.getDBPoolIdleTimeout(),
+                            ServerConfig.getDBPoolMaxLifetime(),
+                            ServerConfig.getDBPoolLeakDetectionThreshold(),
+                            ServerConfig.getDBPoolValidationTimeout()
+                    );
+                    pool = p;
+                    System.out.println("✓ Database connection pool created (max "
+                            + ServerConfig.getDBPoolMaxSize() + ")");
+                }
             }
-        } catch (ClassNotFoundException e) {
-            System.err.println("MySQL JDBC Driver not found");
-            e.printStackTrace();
-        } catch (SQLException e) {
-            System.err.println("Database connection failed");
-            e.printStackTrace();
         }
-        return connection;
+        return p;
+    }
+
+    /**
+     * Pool metrics
+     */
+    public static String getPoolStats() {
+        ConnectionPool p = pool;
+        return p != null ? p.getStats() : "not initialized";
+    }
+
+    /**
+     * Số SQL statement thread hiện tại đã tạo (ClientHandler đo theo từng request)
+     */
+    public static int getThreadStatementCount() {
+        return ConnectionPool.getThreadStatementCount();
+    }
+
+    public static void resetThreadStatementCount() {
+        ConnectionPool.resetThreadStatementCount();
     }
 
     /**
      * Test database connection
      */
     public static boolean testConnection() {
-        try {
-            Connection conn = getConnection();
-            return conn != null && !conn.isClosed();
+        try (Connection conn = getConnection()) {
+            return conn.isValid(ServerConfig.getDBPoolValidationTimeout());
         } catch (SQLException e) {
             return false;
         }
     }
 
     /**
-     * Close database connection
+     * Close all pooled connections
      */
     public static void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                System.out.println("✓ Database connection closed");
-            }
-        } catch (SQLException e) {
-            System.err.println("Error closing database connection");
-            e.printStackTrace();
+        ConnectionPool p = pool;
+        if (p != null) {
+            p.shutdown();
+            pool = null;
+            System.out.println("✓ Database connection pool closed");
         }
     }
 
@@ -74,8 +109,7 @@ public class DBConnection {
      * Initialize database tables if not exists
      */
     public static void initializeDatabase() {
-        try {
-            Connection conn = getConnection();
+        try (Connection conn = getConnection()) {
             Statement stmt = conn.createStatement();
 
             // Check if database exists
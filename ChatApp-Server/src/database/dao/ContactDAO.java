@@ -96,6 +96,32 @@ public class ContactDAO {
         return getContactsByStatus(userId, Contact.STATUS_ACCEPTED);
     }
 
+    /**
+     * Users who have userId as an accepted contact (presence audience).
+     * Reads only user_id via the contact_user_id index.
+     */
+    public static List<String> getWatcherIds(String userId) {
+        String sql = "SELECT user_id FROM contacts WHERE contact_user_id = ? AND status = ?";
+        List<String> ids = new ArrayList<>();
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, userId);
+            ps.setString(2, Contact.STATUS_ACCEPTED);
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                ids.add(rs.getString("user_id"));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error getting contact watchers: " + e.getMessage());
+        }
+
+        return ids;
+    }
+
     /**
      * Get pending friend requests
      */
@@ -1,5 +1,6 @@
 package database.dao;
 
+import database.cache.ConversationRegistry;
 import database.connection.DBConnection;
 import models.Conversation;
 
@@ -37,6 +38,10 @@ public class ConversationDAO {
 
             int result = ps.executeUpdate();
             System.out.println("✅ Conversation created: " + conversation.getConversationId());
+            if (result > 0) {
+                ConversationRegistry.getInstance().onCreated(conversation.getConversationId(),
+                        conversation.getType(), conversation.getMemberIds());
+            }
             return result > 0;
 
         } catch (SQLException e) {
@@ -108,33 +113,20 @@ public class ConversationDAO {
         return findById(conversationId);
     }
 
+    /**
+     * Tìm qua reverse index của ConversationRegistry thay vì quét FIND_IN_SET
+     */
     public static Conversation findPrivateConversation(String userId1, String userId2) {
-        String sql = "SELECT * FROM conversations " +
-                "WHERE type = ? AND is_active = TRUE " +
-                "AND FIND_IN_SET(?, member_ids) > 0 " +
-                "AND FIND_IN_SET(?, member_ids) > 0";
-
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setString(1, Conversation.TYPE_PRIVATE);
-            ps.setString(2, userId1);
-            ps.setString(3, userId2);
-
-            ResultSet rs = ps.executeQuery();
-
-            while (rs.next()) {
-                Conversation conv = mapResultSetToConversation(rs);
-
-                if (conv.getMemberCount() == 2 &&
-                        conv.hasMember(userId1) &&
-                        conv.hasMember(userId2)) {
-                    return conv;
-                }
+        ConversationRegistry registry = ConversationRegistry.getInstance();
+
+        for (String conversationId : registry.getUserConversationIds(userId1)) {
+            ConversationRegistry.Entry entry = registry.get(conversationId);
+            if (entry != null
+                    && Conversation.TYPE_PRIVATE.equals(entry.getType())
+                    && entry.getMembers().size() == 2
+                    && entry.getMembers().contains(userId2)) {
+                return findById(conversationId);
             }
-
-        } catch (SQLException e) {
-            System.err.println("❌ Error finding private conversation: " + e.getMessage());
         }
 
         return null;
@@ -144,9 +136,15 @@ public class ConversationDAO {
      * ✅ UPDATED: Lấy conversations của user, loại trừ những cái đã bị xóa
      */
     public static List<Conversation> getUserConversations(String userId) {
+        List<Conversation> conversations = new ArrayList<>();
+        List<String> ids = new ArrayList<>(ConversationRegistry.getInstance().getUserConversationIds(userId));
+        if (ids.isEmpty()) {
+            return conversations;
+        }
+
         String sql = "SELECT c.* FROM conversations c " +
-                "WHERE c.is_active = TRUE " +
-                "AND FIND_IN_SET(?, c.member_ids) > 0 " +
+                "WHERE c.conversation_id IN (" + placeholders(ids.size()) + ") " +
+                "AND c.is_active = TRUE " +
                 "AND NOT EXISTS (" +
                 "  SELECT 1 FROM conversation_deletions cd " +
                 "  WHERE cd.conversation_id = c.conversation_id " +
@@ -154,13 +152,11 @@ public class ConversationDAO {
                 ") " +
                 "ORDER BY c.updated_at DESC";
 
-        List<Conversation> conversations = new ArrayList<>();
-
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, userId);
-            ps.setString(2, userId);
+            int index = bindIds(ps, 1, ids);
+            ps.setString(index, userId);
             ResultSet rs = ps.executeQuery();
 
             while (rs.next()) {
@@ -178,9 +174,15 @@ public class ConversationDAO {
      * ✅ UPDATED: Lấy group conversations, loại trừ những cái đã bị xóa
      */
     public static List<Conversation> getUserGroupConversations(String userId) {
+        List<Conversation> conversations = new ArrayList<>();
+        List<String> ids = new ArrayList<>(ConversationRegistry.getInstance().getUserConversationIds(userId));
+        if (ids.isEmpty()) {
+            return conversations;
+        }
+
         String sql = "SELECT c.* FROM conversations c " +
-                "WHERE c.type = ? AND c.is_active = TRUE " +
-                "AND FIND_IN_SET(?, c.member_ids) > 0 " +
+                "WHERE c.conversation_id IN (" + placeholders(ids.size()) + ") " +
+                "AND c.type = ? AND c.is_active = TRUE " +
                 "AND NOT EXISTS (" +
                 "  SELECT 1 FROM conversation_deletions cd " +
                 "  WHERE cd.conversation_id = c.conversation_id " +
@@ -188,14 +190,12 @@ public class ConversationDAO {
                 ") " +
                 "ORDER BY c.updated_at DESC";
 
-        List<Conversation> conversations = new ArrayList<>();
-
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, Conversation.TYPE_GROUP);
-            ps.setString(2, userId);
-            ps.setString(3, userId);
+            int index = bindIds(ps, 1, ids);
+            ps.setString(index++, Conversation.TYPE_GROUP);
+            ps.setString(index, userId);
 
             ResultSet rs = ps.executeQuery();
 
@@ -214,9 +214,15 @@ public class ConversationDAO {
      * ✅ UPDATED: Search conversations, loại trừ những cái đã bị xóa
      */
     public static List<Conversation> searchConversations(String userId, String keyword) {
+        List<Conversation> conversations = new ArrayList<>();
+        List<String> ids = new ArrayList<>(ConversationRegistry.getInstance().getUserConversationIds(userId));
+        if (ids.isEmpty()) {
+            return conversations;
+        }
+
         String sql = "SELECT c.* FROM conversations c " +
-                "WHERE c.is_active = TRUE " +
-                "AND FIND_IN_SET(?, c.member_ids) > 0 " +
+                "WHERE c.conversation_id IN (" + placeholders(ids.size()) + ") " +
+                "AND c.is_active = TRUE " +
                 "AND c.name LIKE ? " +
                 "AND NOT EXISTS (" +
                 "  SELECT 1 FROM conversation_deletions cd " +
@@ -225,14 +231,12 @@ public class ConversationDAO {
                 ") " +
                 "ORDER BY c.updated_at DESC";
 
-        List<Conversation> conversations = new ArrayList<>();
-
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, userId);
-            ps.setString(2, "%" + keyword + "%");
-            ps.setString(3, userId);
+            int index = bindIds(ps, 1, ids);
+            ps.setString(index++, "%" + keyword + "%");
+            ps.setString(index, userId);
 
             ResultSet rs = ps.executeQuery();
 
@@ -306,7 +310,7 @@ public class ConversationDAO {
         if (conv.hasMember(userId)) return true;
 
         conv.addMember(userId);
-        return updateMembers(conversationId, conv.getMemberIdsAsString());
+        return updateMembers(conv);
     }
 
     public static boolean removeMember(String conversationId, String userId) {
@@ -316,21 +320,26 @@ public class ConversationDAO {
         if (!conv.hasMember(userId)) return true;
 
         conv.removeMember(userId);
-        return updateMembers(conversationId, conv.getMemberIdsAsString());
+        return updateMembers(conv);
     }
 
-    private static boolean updateMembers(String conversationId, String memberIds) {
+    private static boolean updateMembers(Conversation conv) {
         String sql = "UPDATE conversations SET member_ids = ?, updated_at = ? " +
                 "WHERE conversation_id = ?";
 
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, memberIds);
+            ps.setString(1, conv.getMemberIdsAsString());
             ps.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
-            ps.setString(3, conversationId);
+            ps.setString(3, conv.getConversationId());
 
-            return ps.executeUpdate() > 0;
+            boolean updated = ps.executeUpdate() > 0;
+            if (updated) {
+                ConversationRegistry.getInstance().onMembersChanged(conv.getConversationId(),
+                        conv.getType(), conv.getMemberIds());
+            }
+            return updated;
 
         } catch (SQLException e) {
             System.err.println("❌ Error updating members: " + e.getMessage());
@@ -353,7 +362,11 @@ public class ConversationDAO {
             ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
             ps.setString(2, conversationId);
 
-            return ps.executeUpdate() > 0;
+            boolean deleted = ps.executeUpdate() > 0;
+            if (deleted) {
+                ConversationRegistry.getInstance().onDeleted(conversationId);
+            }
+            return deleted;
 
         } catch (SQLException e) {
             System.err.println("❌ Error deleting conversation: " + e.getMessage());
@@ -375,7 +388,11 @@ public class ConversationDAO {
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setString(1, conversationId);
-            return ps.executeUpdate() > 0;
+            boolean deleted = ps.executeUpdate() > 0;
+            if (deleted) {
+                ConversationRegistry.getInstance().onDeleted(conversationId);
+            }
+            return deleted;
 
         } catch (SQLException e) {
             System.err.println("❌ Error hard deleting conversation: " + e.getMessage());
@@ -389,9 +406,14 @@ public class ConversationDAO {
      * ✅ UPDATED: Đếm conversations, loại trừ những cái đã bị xóa
      */
     public static int getUserConversationCount(String userId) {
+        List<String> ids = new ArrayList<>(ConversationRegistry.getInstance().getUserConversationIds(userId));
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
         String sql = "SELECT COUNT(*) FROM conversations c " +
-                "WHERE c.is_active = TRUE " +
-                "AND FIND_IN_SET(?, c.member_ids) > 0 " +
+                "WHERE c.conversation_id IN (" + placeholders(ids.size()) + ") " +
+                "AND c.is_active = TRUE " +
                 "AND NOT EXISTS (" +
                 "  SELECT 1 FROM conversation_deletions cd " +
                 "  WHERE cd.conversation_id = c.conversation_id " +
@@ -401,8 +423,8 @@ public class ConversationDAO {
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, userId);
-            ps.setString(2, userId);
+            int index = bindIds(ps, 1, ids);
+            ps.setString(index, userId);
 
             ResultSet rs = ps.executeQuery();
             if (rs.next()) return rs.getInt(1);
@@ -414,6 +436,24 @@ public class ConversationDAO {
         return 0;
     }
 
+    // ==================== HELPERS ====================
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
+    private static int bindIds(PreparedStatement ps, int index, List<String> ids) throws SQLException {
+        for (String id : ids) {
+            ps.setString(index++, id);
+        }
+        return index;
+    }
+
     // ==================== MAPPING ====================
 
     private static Conversation mapResultSetToConversation(ResultSet rs)
@@ -0,0 +1,190 @@
+package database.dao;
+
+import database.connection.DBConnection;
+import models.Message;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * File lưu theo nội dung (BlobStore) - bảng file_blobs + message_blobs
+ * - file_blobs: mỗi SHA-256 một dòng, một file trên đĩa
+ * - message_blobs: tin nhắn nào đang dùng blob nào - media và thumbnail (ON DELETE CASCADE theo messages),
+ *   nên xóa tin, xóa conversation hay xóa user đều tự bỏ tham chiếu
+ * - Blob không còn tham chiếu và lâu không dùng thì BlobStore thu gom
+ */
+public class FileBlobDAO {
+
+    // URL của blob: .../uploads/blobs/<2 ký tự đầu>/<sha256>
+    private static final Pattern BLOB_URL = Pattern.compile("/uploads/blobs/[0-9a-f]{2}/([0-9a-f]{64})$");
+
+    private static final String LINK_SQL =
+            "INSERT IGNORE INTO message_blobs (message_id, sha256) VALUES (?, ?)";
+
+    /**
+     * SHA-256 của blob trong media URL, null nếu không phải URL blob
+     */
+    public static String shaFromUrl(String mediaUrl) {
+        if (mediaUrl == null) {
+            return null;
+        }
+        Matcher matcher = BLOB_URL.matcher(mediaUrl);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Thêm blob hoặc đánh dấu vừa được dùng (upload mới, upload trùng nội dung)
+     */
+    public static boolean touch(String sha256, long size) {
+        String sql = "INSERT INTO file_blobs (sha256, size, created_at, last_used_at) VALUES (?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE last_used_at = VALUES(last_used_at)";
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            ps.setString(1, sha256);
+            ps.setLong(2, size);
+            ps.setTimestamp(3, now);
+            ps.setTimestamp(4, now);
+            ps.executeUpdate();
+            return true;
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error saving file blob: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Kích thước đã lưu của blob, -1 nếu chưa có
+     */
+    public static long findSize(String sha256) {
+        String sql = "SELECT size FROM file_blobs WHERE sha256 = ?";
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, sha256);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong("size") : -1;
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error finding file blob: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * messageId -> các sha256 blob mà tin dùng (media và thumbnail)
+     */
+    public static Map<String, List<String>> collectReferences(List<Message> messages) {
+        Map<String, List<String>> references = new LinkedHashMap<>();
+        for (Message message : messages) {
+            for (String url : new String[]{message.getMediaUrl(), message.getThumbnailUrl()}) {
+                String sha256 = shaFromUrl(url);
+                if (sha256 != null) {
+                    references.computeIfAbsent(message.getMessageId(), id -> new ArrayList<>()).add(sha256);
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Ghi tham chiếu trong transaction của người gọi (MessageDAO.createMessages)
+     */
+    public static void addReferences(Connection conn, Map<String, List<String>> references) throws SQLException {
+        if (references.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(LINK_SQL)) {
+            for (Map.Entry<String, List<String>> reference : references.entrySet()) {
+                for (String sha256 : reference.getValue()) {
+                    ps.setString(1, reference.getKey());
+                    ps.setString(2, sha256);
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+    }
+
+    public static boolean addReferences(Map<String, List<String>> references) {
+        try (Connection conn = DBConnection.getConnection()) {
+            addReferences(conn, references);
+            return true;
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error linking file blobs: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Tin không còn dùng blob (media đã chuyển lên kho ngoài), trong transaction của người gọi
+     */
+    public static void removeReference(Connection conn, String messageId, String sha256) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "DELETE FROM message_blobs WHERE message_id = ? AND sha256 = ?")) {
+            ps.setString(1, messageId);
+            ps.setString(2, sha256);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Blob không còn tin nào tham chiếu và không được dùng từ trước unusedSince
+     */
+    public static List<String> findUnreferenced(LocalDateTime unusedSince, int limit) {
+        String sql = "SELECT b.sha256 FROM file_blobs b " +
+                "WHERE b.last_used_at < ? " +
+                "AND NOT EXISTS (SELECT 1 FROM message_blobs mb WHERE mb.sha256 = b.sha256) " +
+                "LIMIT ?";
+        List<String> candidates = new ArrayList<>();
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setTimestamp(1, Timestamp.valueOf(unusedSince));
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    candidates.add(rs.getString("sha256"));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error finding unreferenced blobs: " + e.getMessage());
+        }
+        return candidates;
+    }
+
+    /**
+     * Xóa dòng blob nếu vẫn không có tham chiếu; true thì người gọi xóa file
+     */
+    public static boolean deleteIfUnreferenced(String sha256, LocalDateTime unusedSince) {
+        String sql = "DELETE FROM file_blobs WHERE sha256 = ? AND last_used_at < ? " +
+                "AND NOT EXISTS (SELECT 1 FROM message_blobs mb WHERE mb.sha256 = ?)";
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, sha256);
+            ps.setTimestamp(2, Timestamp.valueOf(unusedSince));
+            ps.setString(3, sha256);
+            return ps.executeUpdate() > 0;
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error deleting file blob: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package database.dao;
 
+import database.cache.ConversationRegistry;
+import database.cache.UnreadCounterCache;
 import database.connection.DBConnection;
-import models.Conversation;
+import database.persistence.MessagePersistence;
 import models.Message;
 
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * ✅ FIXED: Proper deletion filtering per user
@@ -55,9 +62,9 @@ public class MessageDAO {
             int result = ps.executeUpdate();
             System.out.println("✅ Message created: " + message.getMessageId());
 
-            Conversation conv = ConversationDAO.findById(message.getConversationId());
-            if (conv != null) {
-                for (String memberId : conv.getMemberIds()) {
+            Set<String> members = ConversationRegistry.getInstance().getMembers(message.getConversationId());
+            if (members != null) {
+                for (String memberId : members) {
                     if (!memberId.equals(message.getSenderId())) {
                         boolean wasDeleted = ConversationDeletionDAO.isConversationDeletedByUser(
                                 message.getConversationId(), memberId);
@@ -82,6 +89,16 @@ public class MessageDAO {
             ConversationDAO.updateLastMessage(message.getConversationId(),
                     message.getDisplayContent(), message.getTimestamp());
 
+            // Unread counters of the other members
+            Map<String, Map<String, Integer>> increments =
+                    UnreadCounterDAO.collectIncrements(Collections.singletonList(message));
+            if (UnreadCounterDAO.addUnread(increments)) {
+                invalidateUnread(increments);
+            }
+
+            // Tham chiếu tới file trong BlobStore (nếu media là blob)
+            FileBlobDAO.addReferences(FileBlobDAO.collectReferences(Collections.singletonList(message)));
+
             return result > 0;
 
         } catch (SQLException e) {
@@ -91,12 +108,162 @@ public class MessageDAO {
         }
     }
 
+    /**
+     * Ghi một lô tin nhắn trong một transaction (write-behind, MessagePersistence)
+     * - INSERT IGNORE nhiều dòng: replay journal chạy lại không lỗi trùng khóa
+     * - Side effect gộp theo conversation: restore deletion, last_message
+     * Không gọi lại MessagePersistence (chạy trên flusher thread).
+     * Ném SQLException (không nuốt lỗi như các DAO khác) để MessagePersistence phân biệt
+     * lỗi dữ liệu của một tin (cách ly tin đó) với lỗi kết nối (thử lại cả lô)
+     * mayExist: lô có tin replay chưa kiểm tra được với DB -> bỏ tin đã có trước khi ghi,
+     * để bộ đếm chưa đọc/tham chiếu blob chỉ cộng cho dòng thật sự được thêm
+     */
+    public static void createMessages(List<Message> messages, boolean mayExist) throws SQLException {
+        if (mayExist) {
+            messages = withoutExisting(messages);
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        StringBuilder sql = new StringBuilder(INSERT_COLUMNS.length() + messages.size() * 40)
+                .append("INSERT IGNORE INTO messages ").append(INSERT_COLUMNS).append(" VALUES ");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+
+        // Tin cuối và người gửi của từng conversation trong lô (giữ thứ tự)
+        Map<String, Message> lastByConversation = new LinkedHashMap<>();
+        Map<String, String> singleSender = new LinkedHashMap<>();
+        for (Message message : messages) {
+            String conversationId = message.getConversationId();
+            lastByConversation.put(conversationId, message);
+            if (!singleSender.containsKey(conversationId)) {
+                singleSender.put(conversationId, message.getSenderId());
+            } else if (!message.getSenderId().equals(singleSender.get(conversationId))) {
+                singleSender.put(conversationId, null);
+            }
+        }
+
+        // Bộ đếm chưa đọc (MessagePersistence không replay tin đã có trong DB)
+        Map<String, Map<String, Integer>> increments = UnreadCounterDAO.collectIncrements(messages);
+        Map<String, List<String>> blobReferences = FileBlobDAO.collectReferences(messages);
+
+        try (Connection conn = DBConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(sql.toString());
+                 PreparedStatement restoreOthers = conn.prepareStatement(
+                         "DELETE FROM conversation_deletions WHERE conversation_id = ? AND user_id <> ?");
+                 PreparedStatement restoreAll = conn.prepareStatement(
+                         "DELETE FROM conversation_deletions WHERE conversation_id = ?");
+                 PreparedStatement touchSender = conn.prepareStatement(
+                         "UPDATE conversation_deletions SET deleted_at = ? " +
+                                 "WHERE conversation_id = ? AND user_id = ?");
+                 PreparedStatement lastMessage = conn.prepareStatement(
+                         "UPDATE conversations SET last_message = ?, last_message_time = ?, updated_at = ? " +
+                                 "WHERE conversation_id = ? " +
+                                 "AND (last_message_time IS NULL OR last_message_time <= ?)")) {
+
+                int index = 1;
+                for (Message message : messages) {
+                    index = bindMessage(insert, index, message);
+                }
+                int inserted = insert.executeUpdate();
+
+                Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+                for (Map.Entry<String, Message> entry : lastByConversation.entrySet()) {
+                    String conversationId = entry.getKey();
+                    Message last = entry.getValue();
+                    String sender = singleSender.get(conversationId);
+
+                    if (sender != null) {
+                        // Như createMessage: thành viên khác được restore, người gửi cập nhật mốc xóa
+                        restoreOthers.setString(1, conversationId);
+                        restoreOthers.setString(2, sender);
+                        restoreOthers.addBatch();
+
+                        touchSender.setTimestamp(1, now);
+                        touchSender.setString(2, conversationId);
+                        touchSender.setString(3, sender);
+                        touchSender.addBatch();
+                    } else {
+                        // Nhiều người gửi: tin của người này restore cho người kia
+                        restoreAll.setString(1, conversationId);
+                        restoreAll.addBatch();
+                    }
+
+                    Timestamp lastTime = Timestamp.valueOf(last.getTimestamp());
+                    lastMessage.setString(1, last.getDisplayContent());
+                    lastMessage.setTimestamp(2, lastTime);
+                    lastMessage.setTimestamp(3, now);
+                    lastMessage.setString(4, conversationId);
+                    lastMessage.setTimestamp(5, lastTime);
+                    lastMessage.addBatch();
+                }
+
+                restoreOthers.executeBatch();
+                restoreAll.executeBatch();
+                touchSender.executeBatch();
+                lastMessage.executeBatch();
+                UnreadCounterDAO.addUnread(conn, increments);
+                FileBlobDAO.addReferences(conn, blobReferences);
+                conn.commit();
+                invalidateUnread(increments);
+
+                System.out.println("✅ Flushed " + messages.size() + " messages (" + inserted + " new, "
+                        + lastByConversation.size() + " conversations)");
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static void invalidateUnread(Map<String, Map<String, Integer>> increments) {
+        UnreadCounterCache cache = UnreadCounterCache.getInstance();
+        for (Map<String, Integer> byUser : increments.values()) {
+            cache.invalidate(byUser.keySet());
+        }
+    }
+
+    private static final String INSERT_COLUMNS = "(message_id, conversation_id, sender_id, " +
+            "sender_name, sender_avatar, content, message_type, media_url, file_name, " +
+            "file_size, thumbnail_url, media_duration, timestamp, is_read, is_delivered, " +
+            "is_edited, is_recalled, reply_to_message_id)";
+
+    private static int bindMessage(PreparedStatement ps, int index, Message message) throws SQLException {
+        ps.setString(index++, message.getMessageId());
+        ps.setString(index++, message.getConversationId());
+        ps.setString(index++, message.getSenderId());
+        ps.setString(index++, message.getSenderName());
+        ps.setString(index++, message.getSenderAvatar());
+        ps.setString(index++, message.getContent());
+        ps.setString(index++, message.getMessageType());
+        ps.setString(index++, message.getMediaUrl());
+        ps.setString(index++, message.getFileName());
+        ps.setLong(index++, message.getFileSize());
+        ps.setString(index++, message.getThumbnailUrl());
+        ps.setInt(index++, message.getMediaDuration());
+        ps.setTimestamp(index++, Timestamp.valueOf(message.getTimestamp()));
+        ps.setBoolean(index++, message.isRead());
+        ps.setBoolean(index++, message.isDelivered());
+        ps.setBoolean(index++, message.isEdited());
+        ps.setBoolean(index++, message.isRecalled());
+        ps.setString(index++, message.getReplyToMessageId());
+        return index;
+    }
+
     // ==================== READ ====================
 
     /**
      * Find message by ID
      */
     public static Message findById(String messageId) {
+        MessagePersistence.getInstance().awaitMessage(messageId);
         String sql = "SELECT * FROM messages WHERE message_id = ?";
 
         try (Connection conn = DBConnection.getConnection();
@@ -116,12 +283,78 @@ public class MessageDAO {
         return null;
     }
 
+    /**
+     * Các message_id đã có trong DB (lọc journal khi replay). null nếu lỗi.
+     */
+    public static Set<String> findExistingIds(List<String> messageIds) {
+        try (Connection conn = DBConnection.getConnection()) {
+            return findExistingIds(conn, messageIds);
+        } catch (SQLException e) {
+            System.err.println("❌ Error checking existing messages: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Set<String> findExistingIds(Connection conn, List<String> messageIds) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        int chunk = 500;
+
+        for (int from = 0; from < messageIds.size(); from += chunk) {
+            List<String> ids = messageIds.subList(from, Math.min(from + chunk, messageIds.size()));
+            StringBuilder sql = new StringBuilder("SELECT message_id FROM messages WHERE message_id IN (");
+            for (int i = 0; i < ids.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')');
+
+            try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                for (int i = 0; i < ids.size(); i++) {
+                    ps.setString(i + 1, ids.get(i));
+                }
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    existing.add(rs.getString("message_id"));
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Bỏ các tin đã có trong DB. Tin đã có được ghi cùng side effect trong một transaction
+     * (createMessages) nên không cần ghi lại phần nào của nó.
+     */
+    private static List<Message> withoutExisting(List<Message> messages) throws SQLException {
+        List<String> ids = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            ids.add(message.getMessageId());
+        }
+
+        Set<String> existing;
+        try (Connection conn = DBConnection.getConnection()) {
+            existing = findExistingIds(conn, ids);
+        }
+        if (existing.isEmpty()) {
+            return messages;
+        }
+
+        List<Message> pending = new ArrayList<>(messages.size() - existing.size());
+        for (Message message : messages) {
+            if (!existing.contains(message.getMessageId())) {
+                pending.add(message);
+            }
+        }
+        System.out.println("🔁 Bỏ " + existing.size() + " tin replay đã có trong DB");
+        return pending;
+    }
+
     /**
      * ✅ CORRECT: Get messages for specific user with deletion filtering
      * - User who deleted: See only messages AFTER deletion timestamp
      * - User who didn't delete: See ALL messages
      */
     public static List<Message> getMessagesForUser(String conversationId, String userId) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         LocalDateTime deletedAt = ConversationDeletionDAO.getDeletionTimestamp(conversationId, userId);
 
         // 🔍 DEBUG LOG
@@ -173,13 +406,72 @@ public class MessageDAO {
         return messages;
     }
 
+    /**
+     * Một trang lịch sử theo cursor (keyset), dùng index (conversation_id, timestamp, message_id)
+     * - before = true: tin cũ hơn cursor, mới nhất trước
+     * - before = false: tin mới hơn cursor, cũ nhất trước
+     * - cursorTime = null: bắt đầu từ đầu mới nhất (before) hoặc cũ nhất (after)
+     * Không bị chậm dần như OFFSET và không lệch trang khi có tin mới.
+     */
+    public static List<Message> getMessagesPageForUser(String conversationId, String userId,
+                                                       LocalDateTime cursorTime, String cursorId,
+                                                       boolean before, int limit) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
+        LocalDateTime deletedAt = ConversationDeletionDAO.getDeletionTimestamp(conversationId, userId);
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM messages WHERE conversation_id = ?");
+        if (deletedAt != null) {
+            sql.append(" AND timestamp > ?");
+        }
+        if (cursorTime != null) {
+            sql.append(before
+                    ? " AND (timestamp < ? OR (timestamp = ? AND message_id < ?))"
+                    : " AND (timestamp > ? OR (timestamp = ? AND message_id > ?))");
+        }
+        sql.append(before
+                ? " ORDER BY timestamp DESC, message_id DESC"
+                : " ORDER BY timestamp ASC, message_id ASC");
+        sql.append(" LIMIT ?");
+
+        List<Message> messages = new ArrayList<>();
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+
+            int index = 1;
+            ps.setString(index++, conversationId);
+            if (deletedAt != null) {
+                ps.setTimestamp(index++, Timestamp.valueOf(deletedAt));
+            }
+            if (cursorTime != null) {
+                Timestamp cursor = Timestamp.valueOf(cursorTime);
+                ps.setTimestamp(index++, cursor);
+                ps.setTimestamp(index++, cursor);
+                ps.setString(index++, cursorId);
+            }
+            ps.setInt(index, limit);
+
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                messages.add(mapResultSetToMessage(rs));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error getting message page: " + e.getMessage());
+        }
+
+        return messages;
+    }
+
     /**
      * ✅ Get paginated messages with deletion filtering
+     * OFFSET: chỉ giữ cho client cũ, dùng getMessagesPageForUser
      */
     public static List<Message> getMessagesPaginatedForUser(String conversationId,
                                                             int offset,
                                                             int limit,
                                                             String userId) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         LocalDateTime deletedAt = ConversationDeletionDAO.getDeletionTimestamp(conversationId, userId);
 
         String sql;
@@ -187,12 +479,12 @@ public class MessageDAO {
             sql = "SELECT * FROM messages " +
                     "WHERE conversation_id = ? " +
                     "AND timestamp > ? " +
-                    "ORDER BY timestamp DESC " +
+                    "ORDER BY timestamp DESC, message_id DESC " +
                     "LIMIT ? OFFSET ?";
         } else {
             sql = "SELECT * FROM messages " +
                     "WHERE conversation_id = ? " +
-                    "ORDER BY timestamp DESC " +
+                    "ORDER BY timestamp DESC, message_id DESC " +
                     "LIMIT ? OFFSET ?";
         }
 
@@ -230,6 +522,7 @@ public class MessageDAO {
      * Get messages after specific timestamp
      */
     public static List<Message> getMessagesAfter(String conversationId, LocalDateTime after) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         String sql = "SELECT * FROM messages " +
                 "WHERE conversation_id = ? AND timestamp > ? " +
                 "ORDER BY timestamp ASC";
@@ -255,44 +548,78 @@ public class MessageDAO {
     }
 
     /**
-     * ✅ Search messages with deletion filtering
+     * ✅ Search messages with deletion filtering (mới nhất trước)
      */
     public static List<Message> searchMessages(String conversationId,
                                                String keyword,
                                                int limit,
                                                String userId) {
+        return searchMessages(conversationId, userId, keyword, false, 0, null, null, limit);
+    }
+
+    /**
+     * Tìm tin nhắn trong conversation qua FULLTEXT index ft_content
+     * - Index do InnoDB cập nhật cùng transaction khi tạo/sửa/thu hồi tin
+     * - byRelevance: điểm MATCH giảm dần, trang theo offset
+     * - Theo thời gian: mới nhất trước, trang theo cursor (timestamp, message_id) như lịch sử
+     * - Từ khóa chỉ gồm từ ngắn hơn token của index: LIKE, vẫn theo thời gian
+     */
+    public static List<Message> searchMessages(String conversationId, String userId, String keyword,
+                                               boolean byRelevance, int offset,
+                                               LocalDateTime cursorTime, String cursorId, int limit) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         LocalDateTime deletionTime = ConversationDeletionDAO.getDeletionTimestamp(conversationId, userId);
 
-        String sql;
+        String normalized = MessageSearchQuery.normalize(keyword);
+        if (normalized.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String booleanQuery = MessageSearchQuery.toBooleanQuery(normalized);
+        boolean fullText = booleanQuery != null;
+        boolean ranked = byRelevance && fullText;
+
+        StringBuilder sql = new StringBuilder("SELECT *");
+        if (ranked) {
+            sql.append(", MATCH(content) AGAINST(? IN BOOLEAN MODE) AS score");
+        }
+        sql.append(" FROM messages WHERE conversation_id = ? AND is_recalled = FALSE");
         if (deletionTime != null) {
-            sql = "SELECT * FROM messages " +
-                    "WHERE conversation_id = ? " +
-                    "AND timestamp > ? " +
-                    "AND content LIKE ? " +
-                    "AND is_recalled = FALSE " +
-                    "ORDER BY timestamp DESC LIMIT ?";
-        } else {
-            sql = "SELECT * FROM messages " +
-                    "WHERE conversation_id = ? " +
-                    "AND content LIKE ? " +
-                    "AND is_recalled = FALSE " +
-                    "ORDER BY timestamp DESC LIMIT ?";
+            sql.append(" AND timestamp > ?");
+        }
+        sql.append(fullText
+                ? " AND MATCH(content) AGAINST(? IN BOOLEAN MODE)"
+                : " AND content LIKE ? ESCAPE '!'");
+        if (!byRelevance && cursorTime != null) {
+            sql.append(" AND (timestamp < ? OR (timestamp = ? AND message_id < ?))");
         }
+        sql.append(ranked
+                ? " ORDER BY score DESC, timestamp DESC, message_id DESC"
+                : " ORDER BY timestamp DESC, message_id DESC");
+        sql.append(byRelevance ? " LIMIT ? OFFSET ?" : " LIMIT ?");
 
         List<Message> messages = new ArrayList<>();
 
         try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setString(1, conversationId);
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
 
+            int index = 1;
+            if (ranked) {
+                ps.setString(index++, booleanQuery);
+            }
+            ps.setString(index++, conversationId);
             if (deletionTime != null) {
-                ps.setTimestamp(2, Timestamp.valueOf(deletionTime));
-                ps.setString(3, "%" + keyword + "%");
-                ps.setInt(4, limit);
-            } else {
-                ps.setString(2, "%" + keyword + "%");
-                ps.setInt(3, limit);
+                ps.setTimestamp(index++, Timestamp.valueOf(deletionTime));
+            }
+            ps.setString(index++, fullText ? booleanQuery : MessageSearchQuery.toLikePattern(normalized));
+            if (!byRelevance && cursorTime != null) {
+                Timestamp cursor = Timestamp.valueOf(cursorTime);
+                ps.setTimestamp(index++, cursor);
+                ps.setTimestamp(index++, cursor);
+                ps.setString(index++, cursorId);
+            }
+            ps.setInt(index++, limit);
+            if (byRelevance) {
+                ps.setInt(index, offset);
             }
 
             ResultSet rs = ps.executeQuery();
@@ -312,6 +639,7 @@ public class MessageDAO {
      * ✅ Get unread messages with deletion filtering
      */
     public static List<Message> getUnreadMessages(String conversationId, String userId) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         LocalDateTime deletionTime = ConversationDeletionDAO.getDeletionTimestamp(conversationId, userId);
 
         String sql;
@@ -361,6 +689,7 @@ public class MessageDAO {
      * Get media messages (images, files, etc.)
      */
     public static List<Message> getMediaMessages(String conversationId, String messageType) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         String sql = "SELECT * FROM messages " +
                 "WHERE conversation_id = ? " +
                 "AND message_type = ? " +
@@ -393,6 +722,7 @@ public class MessageDAO {
      * Mark message as delivered
      */
     public static boolean markAsDelivered(String messageId) {
+        MessagePersistence.getInstance().awaitMessage(messageId);
         String sql = "UPDATE messages SET is_delivered = TRUE WHERE message_id = ?";
 
         try (Connection conn = DBConnection.getConnection();
@@ -411,6 +741,7 @@ public class MessageDAO {
      * Mark message as read
      */
     public static boolean markAsRead(String messageId) {
+        MessagePersistence.getInstance().awaitMessage(messageId);
         String sql = "UPDATE messages SET is_read = TRUE, is_delivered = TRUE " +
                 "WHERE message_id = ?";
 
@@ -430,6 +761,7 @@ public class MessageDAO {
      * Mark all conversation messages as read for user
      */
     public static boolean markAllAsRead(String conversationId, String userId) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         String sql = "UPDATE messages SET is_read = TRUE, is_delivered = TRUE " +
                 "WHERE conversation_id = ? AND sender_id != ?";
 
@@ -438,7 +770,11 @@ public class MessageDAO {
 
             ps.setString(1, conversationId);
             ps.setString(2, userId);
-            return ps.executeUpdate() > 0;
+            boolean updated = ps.executeUpdate() > 0;
+
+            UnreadCounterDAO.resetUnread(conversationId, userId);
+            UnreadCounterCache.getInstance().invalidate(userId);
+            return updated;
 
         } catch (SQLException e) {
             System.err.println("❌ Error marking all as read: " + e.getMessage());
@@ -450,6 +786,7 @@ public class MessageDAO {
      * Edit message content
      */
     public static boolean editMessage(String messageId, String newContent) {
+        MessagePersistence.getInstance().awaitMessage(messageId);
         String sql = "UPDATE messages SET content = ?, is_edited = TRUE " +
                 "WHERE message_id = ? AND is_recalled = FALSE";
 
@@ -470,6 +807,7 @@ public class MessageDAO {
      * Recall message (thu hồi tin nhắn)
      */
     public static boolean recallMessage(String messageId) {
+        MessagePersistence.getInstance().awaitMessage(messageId);
         String sql = "UPDATE messages SET is_recalled = TRUE, " +
                 "content = 'Tin nhắn đã được thu hồi' WHERE message_id = ?";
 
@@ -485,19 +823,123 @@ public class MessageDAO {
         }
     }
 
+    /**
+     * Đổi media URL (ảnh đã offload lên kho ngoài) nếu tin vẫn đang dùng oldUrl
+     * - Cùng transaction bỏ tham chiếu blob của tin để BlobStore thu gom bản local
+     */
+    public static boolean updateMediaUrl(String messageId, String oldUrl, String newUrl) {
+        MessagePersistence.getInstance().awaitMessage(messageId);
+        String sql = "UPDATE messages SET media_url = ? " +
+                "WHERE message_id = ? AND media_url = ? AND is_recalled = FALSE";
+
+        try (Connection conn = DBConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, newUrl);
+                ps.setString(2, messageId);
+                ps.setString(3, oldUrl);
+                if (ps.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false;
+                }
+
+                String oldSha256 = FileBlobDAO.shaFromUrl(oldUrl);
+                if (oldSha256 != null) {
+                    FileBlobDAO.removeReference(conn, messageId, oldSha256);
+                }
+                conn.commit();
+                return true;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error updating media url: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Gắn thumbnail (blob) cho tin, cùng transaction ghi tham chiếu để blob không bị thu gom
+     */
+    public static boolean updateThumbnailUrl(String messageId, String thumbnailUrl) {
+        MessagePersistence.getInstance().awaitMessage(messageId);
+        String sql = "UPDATE messages SET thumbnail_url = ? WHERE message_id = ? AND is_recalled = FALSE";
+
+        try (Connection conn = DBConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, thumbnailUrl);
+                ps.setString(2, messageId);
+                if (ps.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false;
+                }
+
+                String sha256 = FileBlobDAO.shaFromUrl(thumbnailUrl);
+                if (sha256 != null) {
+                    FileBlobDAO.addReferences(conn, Map.of(messageId, List.of(sha256)));
+                }
+                conn.commit();
+                return true;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error updating thumbnail url: " + e.getMessage());
+            return false;
+        }
+    }
+
     // ==================== DELETE ====================
 
     /**
      * Delete message permanently
+     * Cùng transaction: trừ bộ đếm chưa đọc của thành viên còn tính tin này, sau commit invalidate cache
      */
     public static boolean deleteMessage(String messageId) {
-        String sql = "DELETE FROM messages WHERE message_id = ?";
-
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setString(1, messageId);
-            return ps.executeUpdate() > 0;
+        MessagePersistence.getInstance().awaitMessage(messageId);
+        String selectSql = "SELECT conversation_id, sender_id, timestamp FROM messages " +
+                "WHERE message_id = ? FOR UPDATE";
+        String deleteSql = "DELETE FROM messages WHERE message_id = ?";
+
+        try (Connection conn = DBConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement select = conn.prepareStatement(selectSql);
+                 PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+
+                select.setString(1, messageId);
+                ResultSet rs = select.executeQuery();
+                if (!rs.next()) {
+                    conn.rollback();
+                    return false;
+                }
+                String conversationId = rs.getString("conversation_id");
+                List<String> unreadHolders = UnreadCounterDAO.findUnreadHolders(conn, conversationId,
+                        rs.getString("sender_id"), rs.getTimestamp("timestamp"), messageId);
+                UnreadCounterDAO.removeUnread(conn, conversationId, unreadHolders);
+
+                delete.setString(1, messageId);
+                boolean deleted = delete.executeUpdate() > 0;
+                conn.commit();
+                UnreadCounterCache.getInstance().invalidate(unreadHolders);
+                return deleted;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
         } catch (SQLException e) {
             System.err.println("❌ Error deleting message: " + e.getMessage());
@@ -509,6 +951,7 @@ public class MessageDAO {
      * Delete all messages in conversation
      */
     public static boolean deleteConversationMessages(String conversationId) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         String sql = "DELETE FROM messages WHERE conversation_id = ?";
 
         try (Connection conn = DBConnection.getConnection();
@@ -529,6 +972,7 @@ public class MessageDAO {
      * ✅ Get message count with deletion filtering
      */
     public static int getMessageCount(String conversationId, String userId) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         LocalDateTime deletionTime = ConversationDeletionDAO.getDeletionTimestamp(conversationId, userId);
 
         String sql;
@@ -564,33 +1008,18 @@ public class MessageDAO {
 
     /**
      * Get unread message count for user in conversation
+     * Đọc từ bộ đếm (conversation_unread + cache), không COUNT(*) trên messages
      */
     public static int getUnreadCount(String conversationId, String userId) {
-        String sql = "SELECT COUNT(*) as count FROM messages " +
-                "WHERE conversation_id = ? AND sender_id != ? AND is_read = FALSE";
-
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setString(1, conversationId);
-            ps.setString(2, userId);
-            ResultSet rs = ps.executeQuery();
-
-            if (rs.next()) {
-                return rs.getInt("count");
-            }
-
-        } catch (SQLException e) {
-            System.err.println("❌ Error getting unread count: " + e.getMessage());
-        }
-
-        return 0;
+        MessagePersistence.getInstance().awaitConversation(conversationId);
+        return UnreadCounterCache.getInstance().getCount(userId, conversationId);
     }
 
     /**
      * Get last message in conversation
      */
     public static Message getLastMessage(String conversationId) {
+        MessagePersistence.getInstance().awaitConversation(conversationId);
         String sql = "SELECT * FROM messages WHERE conversation_id = ? " +
                 "ORDER BY timestamp DESC LIMIT 1";
 
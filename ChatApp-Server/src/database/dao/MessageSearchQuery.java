@@ -0,0 +1,69 @@
+package database.dao;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Chuẩn hóa từ khóa tìm tin nhắn cho FULLTEXT index ft_content
+ * - NFC: tiếng Việt gõ dạng tổ hợp (NFD, vd. từ macOS) khớp với nội dung đã lưu
+ * - Dấu thanh/dấu mũ so khớp theo collation utf8mb4_unicode_ci ("chao" khớp "chào")
+ * - Mỗi từ thành một cụm bắt buộc +"từ" trong BOOLEAN MODE (parser ngram cắt tiếp bên trong)
+ */
+final class MessageSearchQuery {
+
+    // Bằng ngram_token_size của server MySQL; từ ngắn hơn không có trong index
+    static final int MIN_TOKEN_LENGTH = 2;
+
+    private MessageSearchQuery() {
+    }
+
+    /**
+     * Dạng NFC, chữ thường, khoảng trắng gọn; rỗng nếu không có gì để tìm
+     */
+    static String normalize(String keyword) {
+        if (keyword == null) {
+            return "";
+        }
+        String text = Normalizer.normalize(keyword, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * +"từ1" +"từ2" ..., null nếu không có từ nào đủ dài cho index
+     */
+    static String toBooleanQuery(String normalized) {
+        StringBuilder query = new StringBuilder(normalized.length() + 16);
+        StringBuilder term = new StringBuilder();
+
+        for (int i = 0; i <= normalized.length(); i++) {
+            int ch = i < normalized.length() ? normalized.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(ch) || Character.getType(ch) == Character.NON_SPACING_MARK) {
+                term.append((char) ch);
+                continue;
+            }
+            // Ký tự toán tử (+ - " * ...) và dấu câu chỉ là chỗ ngắt từ
+            if (term.length() >= MIN_TOKEN_LENGTH) {
+                if (query.length() > 0) query.append(' ');
+                query.append("+\"").append(term).append('"');
+            }
+            term.setLength(0);
+        }
+
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    /**
+     * %từ khóa% với ! làm ký tự escape (ESCAPE '!')
+     */
+    static String toLikePattern(String normalized) {
+        StringBuilder pattern = new StringBuilder(normalized.length() + 4).append('%');
+        for (int i = 0; i < normalized.length(); i++) {
+            char ch = normalized.charAt(i);
+            if (ch == '!' || ch == '%' || ch == '_') {
+                pattern.append('!');
+            }
+            pattern.append(ch);
+        }
+        return pattern.append('%').toString();
+    }
+}
@@ -0,0 +1,174 @@
+package database.dao;
+
+import database.cache.ConversationRegistry;
+import database.connection.DBConnection;
+import models.Message;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bộ đếm tin chưa đọc theo (user, conversation) - bảng conversation_unread
+ * - Tăng khi có tin mới (cho mọi thành viên trừ người gửi)
+ * - Về 0 khi user đánh dấu đã đọc cả conversation
+ * - Giảm khi xóa một tin mà thành viên còn tính là chưa đọc
+ * - Danh sách conversation đọc một lần theo khóa chính (user_id, ...)
+ *   thay cho COUNT(*) trên messages cho từng conversation
+ */
+public class UnreadCounterDAO {
+
+    private static final String INCREMENT_SQL =
+            "INSERT INTO conversation_unread (user_id, conversation_id, unread_count) VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE unread_count = unread_count + VALUES(unread_count)";
+
+    /**
+     * conversationId -> (userId -> số tin mới) cho một lô tin nhắn
+     */
+    public static Map<String, Map<String, Integer>> collectIncrements(List<Message> messages) {
+        Map<String, Map<String, Integer>> increments = new HashMap<>();
+        ConversationRegistry registry = ConversationRegistry.getInstance();
+
+        for (Message message : messages) {
+            Set<String> members = registry.getMembers(message.getConversationId());
+            if (members == null) {
+                continue;
+            }
+            Map<String, Integer> byUser = increments.computeIfAbsent(
+                    message.getConversationId(), k -> new HashMap<>());
+            for (String memberId : members) {
+                if (!memberId.equals(message.getSenderId())) {
+                    byUser.merge(memberId, 1, Integer::sum);
+                }
+            }
+        }
+        return increments;
+    }
+
+    /**
+     * Cộng bộ đếm trong transaction của người gọi (MessageDAO.createMessages)
+     */
+    public static void addUnread(Connection conn, Map<String, Map<String, Integer>> increments) throws SQLException {
+        if (increments.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(INCREMENT_SQL)) {
+            for (Map.Entry<String, Map<String, Integer>> conversation : increments.entrySet()) {
+                for (Map.Entry<String, Integer> user : conversation.getValue().entrySet()) {
+                    ps.setString(1, user.getKey());
+                    ps.setString(2, conversation.getKey());
+                    ps.setInt(3, user.getValue());
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+    }
+
+    public static boolean addUnread(Map<String, Map<String, Integer>> increments) {
+        try (Connection conn = DBConnection.getConnection()) {
+            addUnread(conn, increments);
+            return true;
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error updating unread counters: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Thành viên còn tính tin (conversationId, timestamp, messageId) trong bộ đếm:
+     * bộ đếm của user là số tin của người khác từ lần đọc cuối, nên tin được tính
+     * khi số tin người khác gửi từ nó trở về sau không vượt quá unread_count
+     */
+    public static List<String> findUnreadHolders(Connection conn, String conversationId, String senderId,
+                                                 Timestamp timestamp, String messageId) throws SQLException {
+        String sql = "SELECT cu.user_id FROM conversation_unread cu " +
+                "WHERE cu.conversation_id = ? AND cu.user_id <> ? AND cu.unread_count > 0 " +
+                "AND cu.unread_count >= (SELECT COUNT(*) FROM messages m " +
+                "WHERE m.conversation_id = cu.conversation_id AND m.sender_id <> cu.user_id " +
+                "AND (m.timestamp > ? OR (m.timestamp = ? AND m.message_id >= ?)))";
+        List<String> userIds = new ArrayList<>();
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, conversationId);
+            ps.setString(2, senderId);
+            ps.setTimestamp(3, timestamp);
+            ps.setTimestamp(4, timestamp);
+            ps.setString(5, messageId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                userIds.add(rs.getString("user_id"));
+            }
+        }
+        return userIds;
+    }
+
+    /**
+     * Trừ một tin chưa đọc cho các user, trong transaction của người gọi (MessageDAO.deleteMessage)
+     */
+    public static void removeUnread(Connection conn, String conversationId, List<String> userIds) throws SQLException {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE conversation_unread SET unread_count = unread_count - 1 " +
+                "WHERE user_id = ? AND conversation_id = ? AND unread_count > 0";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (String userId : userIds) {
+                ps.setString(1, userId);
+                ps.setString(2, conversationId);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * User đã đọc hết conversation
+     */
+    public static boolean resetUnread(String conversationId, String userId) {
+        String sql = "UPDATE conversation_unread SET unread_count = 0 " +
+                "WHERE user_id = ? AND conversation_id = ? AND unread_count <> 0";
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, userId);
+            ps.setString(2, conversationId);
+            ps.executeUpdate();
+            return true;
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error resetting unread counter: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Mọi bộ đếm khác 0 của user (conversationId -> số tin chưa đọc), null nếu lỗi
+     */
+    public static Map<String, Integer> getUnreadCounts(String userId) {
+        String sql = "SELECT conversation_id, unread_count FROM conversation_unread " +
+                "WHERE user_id = ? AND unread_count > 0";
+        Map<String, Integer> counts = new HashMap<>();
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, userId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                counts.put(rs.getString("conversation_id"), rs.getInt("unread_count"));
+            }
+            return counts;
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error getting unread counters: " + e.getMessage());
+            return null;
+        }
+    }
+}
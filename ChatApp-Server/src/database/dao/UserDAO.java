@@ -5,7 +5,10 @@ import models.User;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Data Access Object for User table
@@ -165,6 +168,42 @@ public class UserDAO {
     }
 
 
+    /**
+     * Find many users with one query (userId -> User, missing/inactive users are absent)
+     */
+    public static Map<String, User> findByIds(Collection<String> userIds) {
+        Map<String, User> users = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return users;
+        }
+
+        List<String> ids = new ArrayList<>(userIds);
+        StringBuilder sql = new StringBuilder("SELECT * FROM users WHERE is_active = TRUE AND user_id IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setString(i + 1, ids.get(i));
+            }
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                User user = mapResultSetToUser(rs);
+                users.put(user.getUserId(), user);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("❌ Error finding users by IDs: " + e.getMessage());
+        }
+
+        return users;
+    }
+
     //online
     public static boolean updateOnlineStatus(String userId, boolean isOnline) {
         String sql = "UPDATE users SET is_online = ?, last_seen = ?, updated_at = ? WHERE user_id = ?";
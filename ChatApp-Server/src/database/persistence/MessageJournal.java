@@ -0,0 +1,360 @@
+package database.persistence;
+
+import models.Message;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * MessageJournal - Log ghi nối tiếp cho tin nhắn chưa vào MySQL
+ * - Mỗi record: int32 length + int32 crc32 + body
+ * - Ghi thẳng vào FileChannel (không buffer trong JVM) -> server crash vẫn còn
+ * - fsync = true: fsync theo nhóm trước khi ACK (chịu được mất điện)
+ * - Record cuối bị ghi dở (crc sai) được bỏ qua khi replay
+ * - Chia segment <path>.000001, .000002...: đủ segmentBytes thì sang segment mới; segment nhớ seq
+ *   của record cuối, release(persistedSeq) xóa các segment đã vào MySQL hết - journal không phình ra
+ *   khi hàng đợi không lúc nào rỗng
+ */
+public class MessageJournal {
+
+    private static final class Segment {
+        final Path path;
+        final long lastSeq;
+
+        Segment(Path path, long lastSeq) {
+            this.path = path;
+            this.lastSeq = lastSeq;
+        }
+    }
+
+    private final Path path;
+    private final boolean fsync;
+    private final long segmentBytes;
+
+    // Segment của lần chạy trước (kể cả file journal cũ không đánh số), đọc bằng readAll()
+    private final List<Path> recoveredFiles;
+    // Segment đã đóng, theo thứ tự ghi
+    private final ArrayDeque<Segment> closedSegments = new ArrayDeque<>();
+    private int nextIndex;
+
+    private volatile FileChannel channel;
+    private Path activePath;
+    private long activeBytes;
+
+    // Group fsync: một lần force() phủ mọi record đã ghi trước đó
+    private final Object syncLock = new Object();
+    private volatile long writtenSeq;
+    private volatile long syncedSeq;
+
+    public MessageJournal(Path path, boolean fsync, long segmentBytes) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.fsync = fsync;
+        this.segmentBytes = Math.max(64 * 1024, segmentBytes);
+        Path parent = this.path.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        this.recoveredFiles = findSegments();
+        for (Path file : recoveredFiles) {
+            nextIndex = Math.max(nextIndex, segmentIndex(file) + 1);
+        }
+        nextIndex = Math.max(nextIndex, 1);
+        openSegment();
+    }
+
+    /**
+     * Ghi một record. Gọi tuần tự (MessagePersistence giữ lock).
+     * Trả về số thứ tự dùng cho sync() và release().
+     */
+    public long append(Message message) throws IOException {
+        byte[] body = encode(message);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+        record.putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        activeBytes += record.limit();
+        long seq = ++writtenSeq;
+
+        if (activeBytes >= segmentBytes) {
+            rotate();
+        }
+        return seq;
+    }
+
+    /**
+     * Đảm bảo record seq đã xuống đĩa (chỉ khi bật fsync)
+     */
+    public void sync(long seq) throws IOException {
+        if (!fsync || syncedSeq >= seq) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            long target = writtenSeq;
+            channel.force(false);
+            syncedSeq = target;
+        }
+    }
+
+    /**
+     * Các record có seq <= persistedSeq đã vào MySQL: xóa segment đã đóng phủ hết,
+     * segment đang ghi thì cắt về 0 nếu mọi record của nó đều đã vào
+     */
+    public void release(long persistedSeq) throws IOException {
+        while (!closedSegments.isEmpty() && closedSegments.peekFirst().lastSeq <= persistedSeq) {
+            Files.deleteIfExists(closedSegments.pollFirst().path);
+        }
+        if (persistedSeq >= writtenSeq && activeBytes > 0) {
+            synchronized (syncLock) {
+                channel.truncate(0);
+                if (fsync) {
+                    channel.force(false);
+                }
+                activeBytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Bản ghi của lần chạy trước đã được xử lý (ghi lại vào segment mới hoặc đã có trong MySQL): xóa
+     */
+    public void dropRecovered() throws IOException {
+        if (fsync) {
+            sync(writtenSeq);
+        }
+        for (Path file : recoveredFiles) {
+            Files.deleteIfExists(file);
+        }
+        recoveredFiles.clear();
+    }
+
+    /**
+     * Tổng dung lượng các segment đang giữ
+     */
+    public long size() throws IOException {
+        long total = activeBytes;
+        for (Segment segment : closedSegments) {
+            total += Files.size(segment.path);
+        }
+        return total;
+    }
+
+    public int getSegmentCount() {
+        return closedSegments.size() + 1;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("⚠️ Lỗi đóng message journal: " + e.getMessage());
+        }
+    }
+
+    private void rotate() throws IOException {
+        synchronized (syncLock) {
+            if (fsync) {
+                channel.force(false);
+                syncedSeq = writtenSeq;
+            }
+            channel.close();
+            closedSegments.addLast(new Segment(activePath, writtenSeq));
+            openSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        activePath = path.resolveSibling(path.getFileName() + String.format(".%06d", nextIndex++));
+        channel = FileChannel.open(activePath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        activeBytes = 0;
+    }
+
+    /**
+     * File journal cũ (đúng path, trước khi chia segment) rồi các segment theo số thứ tự
+     */
+    private List<Path> findSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isRegularFile(path)) {
+            files.add(path);
+        }
+        Path dir = path.getParent();
+        if (dir == null || !Files.isDirectory(dir)) {
+            return files;
+        }
+        List<Path> numbered = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, path.getFileName() + ".*")) {
+            for (Path file : stream) {
+                if (segmentIndex(file) > 0) {
+                    numbered.add(file);
+                }
+            }
+        }
+        numbered.sort((a, b) -> Integer.compare(segmentIndex(a), segmentIndex(b)));
+        files.addAll(numbered);
+        return files;
+    }
+
+    private int segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        String prefix = path.getFileName() + ".";
+        if (!name.startsWith(prefix)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Đọc các record còn lại từ lần chạy trước, theo thứ tự segment
+     */
+    public List<Message> readAll() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        for (Path file : recoveredFiles) {
+            readSegment(file, messages);
+        }
+        return messages;
+    }
+
+    private static void readSegment(Path file, List<Message> messages) throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            return;
+        }
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream stream = Channels.newInputStream(in);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(stream))) {
+
+            while (true) {
+                int length;
+                int checksum;
+                byte[] body;
+                try {
+                    length = data.readInt();
+                    checksum = data.readInt();
+                    if (length <= 0 || length > 64 * 1024 * 1024) {
+                        System.err.println("⚠️ Journal hỏng (length " + length + "), dừng replay " + file.getFileName());
+                        break;
+                    }
+                    body = new byte[length];
+                    data.readFully(body);
+                } catch (EOFException e) {
+                    break; // record cuối ghi dở
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println("⚠️ Journal record sai CRC, dừng replay " + file.getFileName());
+                    break;
+                }
+                messages.add(decode(body));
+            }
+        }
+    }
+
+    // ==================== ENCODE / DECODE ====================
+
+    private static byte[] encode(Message m) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, m.getMessageId());
+        writeString(out, m.getConversationId());
+        writeString(out, m.getSenderId());
+        writeString(out, m.getSenderName());
+        writeString(out, m.getSenderAvatar());
+        writeString(out, m.getContent());
+        writeString(out, m.getMessageType());
+        writeString(out, m.getMediaUrl());
+        writeString(out, m.getFileName());
+        out.writeLong(m.getFileSize());
+        writeString(out, m.getThumbnailUrl());
+        out.writeInt(m.getMediaDuration());
+        writeString(out, m.getTimestamp() != null ? m.getTimestamp().toString() : null);
+        out.writeBoolean(m.isRead());
+        out.writeBoolean(m.isDelivered());
+        out.writeBoolean(m.isEdited());
+        out.writeBoolean(m.isRecalled());
+        writeString(out, m.getReplyToMessageId());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Message decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        Message m = new Message();
+        m.setMessageId(readString(in));
+        m.setConversationId(readString(in));
+        m.setSenderId(readString(in));
+        m.setSenderName(readString(in));
+        m.setSenderAvatar(readString(in));
+        m.setContent(readString(in));
+        m.setMessageType(readString(in));
+        m.setMediaUrl(readString(in));
+        m.setFileName(readString(in));
+        m.setFileSize(in.readLong());
+        m.setThumbnailUrl(readString(in));
+        m.setMediaDuration(in.readInt());
+        String timestamp = readString(in);
+        m.setTimestamp(timestamp != null ? LocalDateTime.parse(timestamp) : LocalDateTime.now());
+        m.setRead(in.readBoolean());
+        m.setDelivered(in.readBoolean());
+        m.setEdited(in.readBoolean());
+        m.setRecalled(in.readBoolean());
+        m.setReplyToMessageId(readString(in));
+        return m;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
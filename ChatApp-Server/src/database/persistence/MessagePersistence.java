@@ -0,0 +1,524 @@
+package database.persistence;
+
+import config.ServerConfig;
+import database.dao.MessageDAO;
+import models.Message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MessagePersistence - Ghi tin nhắn kiểu write-behind
+ * - submit(): ghi journal, đưa vào hàng đợi rồi trả về ngay -> handler ACK + broadcast
+ * - Một flusher thread gom tối đa batchSize tin (hoặc mỗi flushInterval ms)
+ *   và ghi bằng MessageDAO.createMessages (INSERT nhiều dòng + UPDATE gộp)
+ * - Đọc/sửa tin của một conversation còn tin chưa flush: awaitConversation()/awaitMessage()
+ *   ép flush trước để không đọc thiếu
+ * - Lỗi DB: giữ lô, thử lại với backoff; tin vẫn nằm trong journal
+ * - Lỗi dữ liệu/ràng buộc lặp lại (SQLState 22xxx/23xxx): chia đôi lô tới khi tìm ra tin gây lỗi,
+ *   tin đó bị cách ly (log rồi bỏ, không giữ trong journal) để các tin khác vẫn được ghi
+ * - Khởi động: replay journal còn sót, bỏ tin đã có trong DB (không cộng chưa đọc hai lần);
+ *   DB chưa kiểm tra được thì các tin đó được lọc lại lúc flush
+ *
+ * message.persistence.mode=sync giữ cách cũ (MessageDAO.createMessage đồng bộ)
+ */
+public class MessagePersistence {
+
+    private static final long MAX_AWAIT_MS = 5000;
+    private static final long MAX_RETRY_DELAY_MS = 5000;
+    // Lỗi dữ liệu lặp lại bao nhiêu lần thì bắt đầu chia lô
+    private static final int ISOLATE_AFTER_FAILURES = 2;
+    // messages.file_name là varchar(255)
+    private static final int MAX_FILE_NAME_CHARS = 255;
+
+    private static MessagePersistence instance;
+
+    private final boolean writeBehind;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final int maxQueued;
+    private final int maxContentBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    // Tin đã nhận nhưng chưa vào MySQL (kể cả lô đang ghi)
+    private final Map<String, Integer> pendingByConversation = new HashMap<>();
+    private final Set<String> pendingIds = new HashSet<>();
+    // Tin replay chưa kiểm tra được là đã có trong DB hay chưa
+    private final Set<String> unverifiedIds = new HashSet<>();
+    private long submittedSeq;
+    private long persistedSeq;
+    private boolean flushRequested;
+
+    private MessageJournal journal;
+    private Thread flusher;
+    private volatile boolean running;
+
+    // Thống kê
+    private long flushedMessages;
+    private long flushCount;
+    private long failedFlushes;
+    private long quarantinedMessages;
+    private int largestBatch;
+
+    private MessagePersistence() {
+        this.writeBehind = "writebehind".equalsIgnoreCase(ServerConfig.getMessagePersistenceMode());
+        this.batchSize = Math.max(1, ServerConfig.getMessageFlushBatchSize());
+        this.flushIntervalMillis = Math.max(1, ServerConfig.getMessageFlushInterval());
+        this.maxQueued = Math.max(batchSize, ServerConfig.getMessageQueueMax());
+        this.maxContentBytes = ServerConfig.getMessageContentMaxBytes();
+    }
+
+    public static synchronized MessagePersistence getInstance() {
+        if (instance == null) {
+            instance = new MessagePersistence();
+        }
+        return instance;
+    }
+
+    /**
+     * Mở journal, nạp lại tin chưa flush từ lần chạy trước và chạy flusher
+     */
+    public void start() {
+        if (!writeBehind || running) {
+            return;
+        }
+
+        try {
+            journal = new MessageJournal(Paths.get(ServerConfig.getMessageJournalPath()),
+                    ServerConfig.isMessageJournalFsync(), ServerConfig.getMessageJournalSegmentBytes());
+
+            List<Message> journaled = journal.readAll();
+            List<Message> recovered = withoutPersisted(journaled);
+            if (!recovered.isEmpty()) {
+                System.out.println("🔁 Replay " + recovered.size() + " tin nhắn từ journal");
+                lock.lock();
+                try {
+                    // Ghi lại vào segment mới để seq của journal khớp submittedSeq
+                    for (Message message : recovered) {
+                        journal.append(message);
+                        enqueue(message);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            journal.dropRecovered();
+        } catch (IOException e) {
+            System.err.println("❌ Không mở được message journal, dùng ghi đồng bộ: " + e.getMessage());
+            journal = null;
+            return;
+        }
+
+        running = true;
+        flusher = new Thread(this::flushLoop, "message-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        System.out.println("✅ Write-behind: batch " + batchSize + ", mỗi " + flushIntervalMillis
+                + "ms, journal " + journal.getPath());
+    }
+
+    /**
+     * Bỏ các tin đã vào MySQL (crash sau commit, trước khi xóa journal)
+     * để bộ đếm chưa đọc không bị cộng hai lần
+     */
+    private List<Message> withoutPersisted(List<Message> recovered) {
+        if (recovered.isEmpty()) {
+            return recovered;
+        }
+        List<String> ids = new ArrayList<>(recovered.size());
+        for (Message message : recovered) {
+            ids.add(message.getMessageId());
+        }
+        Set<String> existing = MessageDAO.findExistingIds(ids);
+        if (existing == null) {
+            // DB chưa sẵn sàng: vẫn replay, flusher lọc tin đã có trước khi ghi
+            System.err.println("⚠️ Chưa kiểm tra được " + ids.size() + " tin replay, sẽ lọc lúc flush");
+            lock.lock();
+            try {
+                unverifiedIds.addAll(ids);
+            } finally {
+                lock.unlock();
+            }
+            return recovered;
+        }
+        if (existing.isEmpty()) {
+            return recovered;
+        }
+        List<Message> pending = new ArrayList<>(recovered.size() - existing.size());
+        for (Message message : recovered) {
+            if (!existing.contains(message.getMessageId())) {
+                pending.add(message);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Tin có vừa các cột của bảng messages không (content và last_message là TEXT)
+     */
+    public boolean isWithinLimits(Message message) {
+        String content = message.getContent();
+        // Mỗi char UTF-16 tối đa 3 byte UTF-8: chỉ encode khi có thể vượt
+        if (content != null && content.length() * 3L > maxContentBytes
+                && content.getBytes(StandardCharsets.UTF_8).length > maxContentBytes) {
+            return false;
+        }
+        String fileName = message.getFileName();
+        return fileName == null || fileName.length() <= MAX_FILE_NAME_CHARS;
+    }
+
+    /**
+     * Nhận tin nhắn. true = đã ghi journal (hoặc đã vào DB ở chế độ sync), có thể ACK.
+     */
+    public boolean submit(Message message) {
+        if (!isWithinLimits(message)) {
+            // Tin quá cột sẽ làm hỏng cả lô khi flush -> chặn từ đầu
+            System.err.println("⚠️ Từ chối tin " + message.getMessageId() + ": vượt giới hạn độ dài");
+            return false;
+        }
+        if (!running) {
+            return MessageDAO.createMessage(message);
+        }
+
+        long seq;
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_AWAIT_MS);
+            while (queue.size() >= maxQueued && running) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    System.err.println("⚠️ Hàng đợi ghi tin nhắn đầy (" + queue.size() + ")");
+                    return false;
+                }
+                notFull.awaitNanos(remaining);
+            }
+            if (!running) {
+                return MessageDAO.createMessage(message);
+            }
+
+            seq = journal.append(message);
+            enqueue(message);
+            // Tin đầu tiên: đánh thức flusher bắt đầu đếm flushInterval; đủ lô: flush ngay
+            if (queue.size() == 1 || queue.size() >= batchSize) {
+                notEmpty.signal();
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Lỗi ghi journal: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            journal.sync(seq);
+        } catch (IOException e) {
+            System.err.println("⚠️ Lỗi fsync journal: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Gọi khi đang giữ lock
+     */
+    private void enqueue(Message message) {
+        queue.addLast(message);
+        pendingByConversation.merge(message.getConversationId(), 1, Integer::sum);
+        pendingIds.add(message.getMessageId());
+        submittedSeq++;
+    }
+
+    /**
+     * Chờ các tin đã nhận của conversation vào MySQL trước khi đọc/sửa
+     */
+    public void awaitConversation(String conversationId) {
+        if (!running || conversationId == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (pendingByConversation.containsKey(conversationId)) {
+                awaitSeq(submittedSeq);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void awaitMessage(String messageId) {
+        if (!running || messageId == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (pendingIds.contains(messageId)) {
+                awaitSeq(submittedSeq);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gọi khi đang giữ lock
+     */
+    private void awaitSeq(long target) {
+        flushRequested = true;
+        notEmpty.signal();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_AWAIT_MS);
+        try {
+            while (persistedSeq < target && running) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    System.err.println("⚠️ Chờ flush tin nhắn quá " + MAX_AWAIT_MS + "ms");
+                    return;
+                }
+                flushed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<Message> batch = nextBatch();
+            if (batch == null) {
+                return;
+            }
+            if (!flush(batch)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ghi lô theo thứ tự, thử lại với backoff
+     * - Lỗi kết nối/khóa: thử lại cả lô mãi (DB sẽ lên lại, tin vẫn trong journal)
+     * - Lỗi dữ liệu lặp lại ISOLATE_AFTER_FAILURES lần: ghi từng nửa; còn một tin vẫn lỗi thì cách ly
+     * false = đã dừng khi lô chưa ghi xong
+     */
+    private boolean flush(List<Message> batch) {
+        long retryDelay = 100;
+        int dataErrors = 0;
+        while (true) {
+            try {
+                MessageDAO.createMessages(batch, hasUnverified(batch));
+                markPersisted(batch, false);
+                return true;
+            } catch (SQLException e) {
+                lock.lock();
+                try {
+                    failedFlushes++;
+                } finally {
+                    lock.unlock();
+                }
+                if (!running) {
+                    // Còn trong journal, lần khởi động sau sẽ replay
+                    System.err.println("⚠️ Dừng khi còn " + batch.size() + " tin chưa ghi, giữ lại trong journal");
+                    return false;
+                }
+
+                dataErrors = isDataError(e) ? dataErrors + 1 : 0;
+                if (dataErrors >= ISOLATE_AFTER_FAILURES) {
+                    if (batch.size() == 1) {
+                        quarantine(batch.get(0), e);
+                        return true;
+                    }
+                    int half = batch.size() / 2;
+                    return flush(batch.subList(0, half)) && flush(batch.subList(half, batch.size()));
+                }
+
+                System.err.println("⚠️ Flush " + batch.size() + " tin thất bại (" + e.getMessage()
+                        + "), thử lại sau " + retryDelay + "ms");
+                sleep(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    private boolean hasUnverified(List<Message> batch) {
+        lock.lock();
+        try {
+            if (unverifiedIds.isEmpty()) {
+                return false;
+            }
+            for (Message message : batch) {
+                if (unverifiedIds.contains(message.getMessageId())) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lỗi do chính dữ liệu (quá dài, sai kiểu, khóa ngoại/ràng buộc): ghi lại cũng lỗi y như vậy
+     */
+    private static boolean isDataError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    /**
+     * Bỏ tin không ghi được: coi như đã xử lý để journal được giải phóng và lô sau không bị chặn
+     */
+    private void quarantine(Message message, SQLException e) {
+        String content = message.getContent();
+        System.err.println("❌ Cách ly tin " + message.getMessageId()
+                + " (conversation " + message.getConversationId()
+                + ", sender " + message.getSenderId()
+                + ", type " + message.getMessageType()
+                + ", content " + (content != null ? content.length() : 0) + " chars): "
+                + e.getSQLState() + " " + e.getMessage());
+        markPersisted(List.of(message), true);
+    }
+
+    /**
+     * Chờ đủ lô hoặc hết flushInterval. null = đã dừng và hết việc.
+     */
+    private List<Message> nextBatch() {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (!running) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+
+            // Có tin đầu tiên: chờ thêm tối đa flushInterval để gom lô
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+            while (queue.size() < batchSize && !flushRequested && running) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                notEmpty.awaitNanos(remaining);
+            }
+            flushRequested = false;
+
+            List<Message> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+            while (batch.size() < batchSize && !queue.isEmpty()) {
+                batch.add(queue.pollFirst());
+            }
+            notFull.signalAll();
+            return batch;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markPersisted(List<Message> batch, boolean quarantined) {
+        lock.lock();
+        try {
+            for (Message message : batch) {
+                pendingByConversation.computeIfPresent(message.getConversationId(),
+                        (id, count) -> count > 1 ? count - 1 : null);
+                pendingIds.remove(message.getMessageId());
+                if (!unverifiedIds.isEmpty()) {
+                    unverifiedIds.remove(message.getMessageId());
+                }
+            }
+            persistedSeq += batch.size();
+            if (quarantined) {
+                quarantinedMessages += batch.size();
+            } else {
+                flushedMessages += batch.size();
+                flushCount++;
+                largestBatch = Math.max(largestBatch, batch.size());
+            }
+
+            // Xóa các segment journal mà mọi tin đều đã vào MySQL
+            try {
+                journal.release(persistedSeq);
+            } catch (IOException e) {
+                System.err.println("⚠️ Lỗi xóa journal: " + e.getMessage());
+            }
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flush hết hàng đợi rồi dừng (gọi trước khi đóng pool DB)
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            flushRequested = true;
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            flusher.join(MAX_AWAIT_MS * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+        System.out.println("✅ Write-behind đã dừng (" + flushedMessages + " tin đã ghi)");
+    }
+
+    public boolean isWriteBehind() {
+        return running;
+    }
+
+    public String getStats() {
+        lock.lock();
+        try {
+            if (!running) {
+                return "Message persistence: sync";
+            }
+            return "Message persistence: write-behind, queued " + queue.size()
+                    + ", pending " + (submittedSeq - persistedSeq)
+                    + ", flushed " + flushedMessages + " in " + flushCount + " batches"
+                    + " (largest " + largestBatch + "), failed flushes " + failedFlushes
+                    + ", quarantined " + quarantinedMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameInputStream - Đọc dữ liệu nhị phân từ chuỗi DATA frame (protocol v2)
+ * MUST BE IDENTICAL TO CLIENT PROTOCOL
+ *
+ * Hai cách dùng:
+ * - pull: đọc frame trực tiếp từ stream kết nối (server, thread đang xử lý lệnh)
+ * - push: thread lắng nghe gọi offer() với payload của từng DATA frame (client)
+ */
+public class FrameInputStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private final DataInputStream source;
+    private final BlockingQueue<byte[]> pushed;
+    private final long timeoutMillis;
+
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean ended;
+
+    /**
+     * Pull mode: đọc DATA frame từ stream
+     */
+    public FrameInputStream(DataInputStream source) {
+        this.source = source;
+        this.pushed = null;
+        this.timeoutMillis = 0;
+    }
+
+    /**
+     * Push mode: nhận payload qua offer()
+     */
+    public FrameInputStream(long timeoutMillis) {
+        this.source = null;
+        this.pushed = new LinkedBlockingQueue<>();
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void offer(byte[] payload) {
+        if (pushed != null && payload.length > 0) {
+            pushed.add(payload);
+        }
+    }
+
+    /**
+     * Báo kết thúc (mất kết nối)
+     */
+    public void end() {
+        if (pushed != null) {
+            pushed.add(END);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    private boolean fill() throws IOException {
+        while (position >= current.length) {
+            if (ended) {
+                return false;
+            }
+            byte[] next = source != null ? pullNext() : pushNext();
+            if (next == null) {
+                ended = true;
+                return false;
+            }
+            current = next;
+            position = 0;
+        }
+        return true;
+    }
+
+    private byte[] pullNext() throws IOException {
+        Frame frame = Frame.read(source);
+        if (frame == null) {
+            return null;
+        }
+        if (!frame.isData()) {
+            throw new IOException("Expected DATA frame but got MESSAGE");
+        }
+        return frame.getPayload();
+    }
+
+    private byte[] pushNext() throws IOException {
+        try {
+            byte[] next = timeoutMillis > 0
+                    ? pushed.poll(timeoutMillis, TimeUnit.MILLISECONDS)
+                    : pushed.take();
+            if (next == null) {
+                throw new IOException("Timed out waiting for DATA frame");
+            }
+            return next == END ? null : next;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for DATA frame", e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * FrameOutputStream - Ghi dữ liệu nhị phân thành các DATA frame (protocol v2)
+ * MUST BE IDENTICAL TO CLIENT PROTOCOL
+ *
+ * Dữ liệu được gom thành khối DATA_CHUNK_SIZE; flush() gửi nốt phần còn lại.
+ * Nếu có lock, mỗi frame được ghi trọn trong lock để không xen với MESSAGE frame.
+ */
+public class FrameOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final Lock lock;
+    private final int requestId;
+    private final byte[] buffer = new byte[Frame.DATA_CHUNK_SIZE];
+    private int count;
+
+    public FrameOutputStream(OutputStream out, Lock lock, int requestId) {
+        this.out = out;
+        this.lock = lock;
+        this.requestId = requestId;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeChunk();
+        }
+        if (lock != null) {
+            lock.lock();
+        }
+        try {
+            out.flush();
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        if (lock != null) {
+            lock.lock();
+        }
+        try {
+            Frame.writeData(out, requestId, buffer, 0, count);
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+        count = 0;
+    }
+}
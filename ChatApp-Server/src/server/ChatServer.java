@@ -1,12 +1,12 @@
 package server;
 
 import config.ServerConfig;
+import server.nio.NioServerEngine;
 import utils.ZeroTierMonitor;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Map;
 import java.util.concurrent.*;
 
 public class ChatServer {
@@ -14,14 +14,24 @@ public class ChatServer {
     private ServerSocket serverSocket;
     private boolean isRunning;
     private ExecutorService clientThreadPool;
+    // Drain task của OutboundQueue (virtual thread: ghi chậm không tốn thread thật)
+    private ExecutorService outboundExecutor;
     private ConcurrentHashMap<String, ClientHandler> connectedClients;
     private ZeroTierMonitor zeroTierMonitor;
+    private NioServerEngine nioEngine;
+    // Tạo trong start(): không để lộ this khi constructor chưa chạy xong
+    private volatile PresenceService presenceService;
+    private volatile TypingService typingService;
 
     public ChatServer() {
         this.isRunning = false;
         this.connectedClients = new ConcurrentHashMap<>();
         // Sử dụng thread pool để quản lý nhiều client đồng thời
-        this.clientThreadPool = Executors.newCachedThreadPool();
+        // server.io.mode=virtual: mỗi ClientHandler chạy trên một virtual thread
+        this.clientThreadPool = "virtual".equalsIgnoreCase(ServerConfig.getServerIoMode())
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool();
+        this.outboundExecutor = Executors.newVirtualThreadPerTaskExecutor();
         this.zeroTierMonitor = new ZeroTierMonitor();
     }
 
@@ -58,8 +68,26 @@ public class ChatServer {
                 }
             }
 
-            // Tạo server socket với backlog để hỗ trợ nhiều kết nối đồng thời
-            serverSocket = new ServerSocket(port, 50); // backlog = 50
+            presenceService = new PresenceService(this);
+            typingService = new TypingService(this);
+
+            // Ghi tin nhắn write-behind (replay journal còn sót trước khi nhận kết nối)
+            database.persistence.MessagePersistence.getInstance().start();
+
+            // Upload dở còn hạn, lịch thu gom blob không còn tham chiếu, worker offload ảnh
+            server.storage.UploadSessions.getInstance();
+            server.storage.BlobStore.getInstance();
+            server.storage.MediaOffloader.getInstance();
+
+            // server.io.mode: blocking / virtual (mỗi client một thread) hoặc nio (selector)
+            boolean nioMode = "nio".equalsIgnoreCase(ServerConfig.getServerIoMode());
+            if (nioMode) {
+                nioEngine = new NioServerEngine(this);
+                nioEngine.bind(port);
+            } else {
+                // Tạo server socket với backlog để hỗ trợ nhiều kết nối đồng thời
+                serverSocket = new ServerSocket(port, 50); // backlog = 50
+            }
             isRunning = true;
 
             System.out.println("╔═══════════════════════════════════════════════╗");
@@ -75,6 +103,11 @@ public class ChatServer {
             }
             System.out.println("╚═══════════════════════════════════════════════╝\n");
 
+            if (nioMode) {
+                nioEngine.acceptLoop();
+                return;
+            }
+
             // Lắng nghe và chấp nhận kết nối từ client
             while (isRunning) {
                 try {
@@ -126,6 +159,18 @@ public class ChatServer {
         }
         connectedClients.clear();
 
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
+
+        outboundExecutor.shutdown();
+        if (presenceService != null) {
+            presenceService.shutdown();
+        }
+        if (typingService != null) {
+            typingService.shutdown();
+        }
+
         // Dừng thread pool
         clientThreadPool.shutdown();
         try {
@@ -136,6 +181,12 @@ public class ChatServer {
             clientThreadPool.shutdownNow();
         }
 
+        // Flush tin nhắn còn trong hàng đợi trước khi đóng pool
+        database.persistence.MessagePersistence.getInstance().shutdown();
+
+        // Đóng pool kết nối database
+        database.connection.DBConnection.closeConnection();
+
         // Dừng ZeroTier monitor
         if (zeroTierMonitor != null) {
             zeroTierMonitor.stopMonitoring();
@@ -200,6 +251,13 @@ public class ChatServer {
         }
     }
 
+    /**
+     * Executor ghi tin nhắn đi cho các kết nối blocking/virtual
+     */
+    public ExecutorService getOutboundExecutor() {
+        return outboundExecutor;
+    }
+
     /**
      * Kiểm tra client có online không
      */
@@ -239,48 +297,22 @@ public class ChatServer {
         }
     }
 
+    /**
+     * Phát trạng thái online/offline cho bạn bè và thành viên conversation chung
+     * (gom và gửi theo lô bởi PresenceService, không chặn thread gọi)
+     */
     public void broadcastUserStatus(String userId, boolean isOnline) {
-        if (userId == null) {
-            return;
-        }
-
-        System.out.println("→ Đang phát trạng thái cho người dùng " + userId + ": " +
-                (isOnline ? "TRỰC TUYẾN" : "NGOẠI TUYẾN"));
-
-        // Lấy thông tin người dùng để đưa vào bản tin broadcast
-        database.dao.UserDAO userDAO = new database.dao.UserDAO();
-        models.User user = userDAO.findById(userId);
-        if (user == null) {
-            System.err.println("⚠️ Không tìm thấy người dùng để phát trạng thái: " + userId);
+        if (userId == null || presenceService == null) {
             return;
         }
+        presenceService.publish(userId, isOnline);
+    }
 
-        // Tạo thông điệp trạng thái
-        // Định dạng: USER_STATUS_CHANGED|||userId|||isOnline|||statusText|||lastSeen
-        String statusMessage =
-                protocol.Protocol.USER_STATUS_CHANGED + protocol.Protocol.DELIMITER +
-                        userId + protocol.Protocol.DELIMITER +
-                        isOnline + protocol.Protocol.DELIMITER +
-                        user.getStatusText() + protocol.Protocol.DELIMITER +
-                        (user.getLastSeen() != null ? user.getLastSeen().toString() : "");
-
-
-        // Gửi tới tất cả client đang kết nối, ngoại trừ chính người dùng đó
-        int sentCount = 0;
-        synchronized (connectedClients) {  // ĐÃ SỬA: clients -> connectedClients
-            for (Map.Entry<String, ClientHandler> entry : connectedClients.entrySet()) {
-                String clientId = entry.getKey();
-                ClientHandler handler = entry.getValue();
-
-                // Không gửi cập nhật trạng thái cho chính người dùng
-                if (!clientId.equals(userId) && handler.isConnected()) {
-                    if (handler.sendMessage(statusMessage)) {
-                        sentCount++;
-                    }
-                }
-            }
-        }
+    public PresenceService getPresenceService() {
+        return presenceService;
+    }
 
-        System.out.println("✅ Đã gửi trạng thái tới " + sentCount + " client");
+    public TypingService getTypingService() {
+        return typingService;
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,15 @@
 package server;
 
+import config.ServerConfig;
+import database.connection.DBConnection;
 import database.dao.UserDAO;
 import models.User;
+import protocol.Frame;
+import protocol.FrameInputStream;
+import protocol.FrameOutputStream;
 import protocol.Protocol;
 import server.handlers.*;
+import server.nio.NioConnection;
 import utils.EncryptionUtil;
 import utils.ValidationUtil;
 import utils.EmailUtil;
@@ -12,6 +18,10 @@ import java.io.*;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -23,12 +33,22 @@ public class ClientHandler implements Runnable {
     private Socket socket;
     private ChatServer server;
     private BufferedReader in;
-    private PrintWriter out;
+    private OutboundQueue outboundQueue;
 
     private InputStream rawInputStream;
     private OutputStream rawOutputStream;
     private String userId;
-    private boolean isConnected;
+    private volatile boolean isConnected;
+
+    // Chỉ khác null khi server chạy ở chế độ nio
+    private NioConnection nioConnection;
+
+    // Protocol v2 (frame): thương lượng bằng HELLO, mặc định v1 (text)
+    private volatile int protocolVersion = 1;
+    private DataInputStream frameIn;
+    // Phản hồi gửi từ thread đang xử lý request v2 mang lại requestId của request đó
+    private volatile Thread requestThread;
+    private volatile int currentRequestId;
 
     // Handlers
     private ContactHandler contactHandler;
@@ -54,6 +74,19 @@ public class ClientHandler implements Runnable {
         this.callHandler = new CallHandler(this);
     }
 
+    /**
+     * Constructor cho chế độ nio: không có thread riêng, NioConnection
+     * gọi handleMessage() cho từng dòng nhận được
+     */
+    public ClientHandler(NioConnection connection, ChatServer server) {
+        this(connection.socket(), server);
+        this.nioConnection = connection;
+        this.rawInputStream = connection.getInputStream();
+        this.rawOutputStream = connection.getOutputStream();
+
+        System.out.println("Client connected from: " + socket.getInetAddress().getHostAddress());
+    }
+
     @Override
     public void run() {
         try {
@@ -63,17 +96,36 @@ public class ClientHandler implements Runnable {
 
             // Stream cho text (protocol, tin nhắn văn bản)
             this.in = new BufferedReader(new InputStreamReader(socketInputStream));
-            this.out = new PrintWriter(socketOutputStream, true);
+
+            // Text gửi đi qua hàng đợi riêng, ghi bởi writer task (không block thread gọi)
+            Writer writer = new BufferedWriter(new OutputStreamWriter(socketOutputStream, StandardCharsets.UTF_8));
+            this.outboundQueue = new OutboundQueue(
+                    OutboundQueue.lineSink(writer),
+                    server.getOutboundExecutor(),
+                    this::disconnect,
+                    ServerConfig.getOutboundMaxQueuedBytes(),
+                    ServerConfig.getOutboundMaxMessages(),
+                    ServerConfig.getOutboundDropTypingAbove(),
+                    ServerConfig.getOutboundStallTimeout()
+            );
 
             // Lưu lại stream gốc để FileHandler dùng cho file binary
+            // (stream ghi đẩy hết text đang chờ trước khi ghi byte file)
             this.rawInputStream = socketInputStream;
-            this.rawOutputStream = socketOutputStream;
+            this.rawOutputStream = outboundQueue.wrapRawStream(socketOutputStream);
 
             System.out.println("Client connected from: " + socket.getInetAddress().getHostAddress());
 
-            String message;
-            while (isConnected && (message = in.readLine()) != null) {
-                handleMessage(message);
+            while (isConnected) {
+                if (protocolVersion == 2) {
+                    Frame frame = Frame.read(frameIn);
+                    if (frame == null) break;
+                    handleFrame(frame);
+                } else {
+                    String message = in.readLine();
+                    if (message == null) break;
+                    handleMessage(message);
+                }
             }
 
         } catch (IOException e) {
@@ -88,7 +140,7 @@ public class ClientHandler implements Runnable {
     /**
      * Handle incoming messages from client
      */
-    private void handleMessage(String message) {
+    public void handleMessage(String message) {
         System.out.println("← Received: " + message);
 
         String[] parts = Protocol.parseMessage(message);
@@ -97,9 +149,58 @@ public class ClientHandler implements Runnable {
             return;
         }
 
+        if (Protocol.HELLO.equals(parts[0])) {
+            handleHello(parts);
+            return;
+        }
+
+        route(parts);
+    }
+
+    /**
+     * Handle incoming frame (protocol v2)
+     */
+    public void handleFrame(Frame frame) {
+        if (frame.isData()) {
+            System.out.println("⚠️ Unexpected DATA frame (" + frame.getPayload().length + " bytes), ignored");
+            return;
+        }
+
+        String[] parts = frame.toParts();
+        if (parts.length == 0) {
+            System.out.println("⚠️ Empty frame received");
+            return;
+        }
+        System.out.println("← Received frame #" + frame.getRequestId() + ": " + parts[0]);
+
+        requestThread = Thread.currentThread();
+        currentRequestId = frame.getRequestId();
+        try {
+            route(parts);
+        } finally {
+            requestThread = null;
+            currentRequestId = 0;
+        }
+    }
+
+    /**
+     * Route parsed message to the appropriate handler
+     */
+    private void route(String[] parts) {
         String messageType = parts[0];
         System.out.println("→ Processing: " + messageType);
 
+        DBConnection.resetThreadStatementCount();
+        dispatch(messageType, parts);
+
+        // Số SQL statement của request này (phát hiện N+1)
+        int statements = DBConnection.getThreadStatementCount();
+        if (statements > ServerConfig.getDBWarnStatementsPerRequest()) {
+            System.out.println("⚠️ " + messageType + " issued " + statements + " SQL statements");
+        }
+    }
+
+    private void dispatch(String messageType, String[] parts) {
         // Route to appropriate handler
         if (messageType.startsWith("CONTACT_")) {
             contactHandler.handle(messageType, parts);
@@ -122,6 +223,47 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Handle HELLO - thương lượng protocol v2.
+     * Client gửi HELLO|||2 và chờ phản hồi trước khi gửi frame, nên
+     * BufferedReader không thể đã đọc trước byte nào của frame.
+     */
+    private void handleHello(String[] parts) {
+        boolean supported = parts.length > 1
+                && Protocol.PROTOCOL_V2.equals(parts[1])
+                && ServerConfig.isProtocolV2Enabled();
+
+        if (!supported) {
+            sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Unsupported protocol version"
+            ));
+            return;
+        }
+
+        // Phản hồi HELLO vẫn là dòng text, sau đó mới chuyển sang frame
+        sendMessage(Protocol.buildRequest(Protocol.HELLO, Protocol.PROTOCOL_V2));
+
+        try {
+            if (nioConnection != null) {
+                nioConnection.upgradeToFrames();
+                this.rawInputStream = new FrameInputStream(new DataInputStream(nioConnection.getInputStream()));
+                this.rawOutputStream = new FrameOutputStream(nioConnection.getOutputStream(), null, 0);
+            } else {
+                OutputStream framedOut = new BufferedOutputStream(socket.getOutputStream(), 8192);
+                outboundQueue.switchSink(OutboundQueue.frameSink(framedOut));
+                this.frameIn = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+                this.rawInputStream = new FrameInputStream(frameIn);
+                this.rawOutputStream = outboundQueue.wrapRawStream(new FrameOutputStream(framedOut, null, 0));
+            }
+            protocolVersion = 2;
+            System.out.println("✅ Protocol v2 negotiated with " + socket.getInetAddress().getHostAddress());
+        } catch (IOException e) {
+            System.err.println("⚠️ Protocol upgrade failed: " + e.getMessage());
+            disconnect();
+        }
+    }
+
     /**
      * Handle auth and user commands directly
      */
@@ -738,15 +880,20 @@ public class ClientHandler implements Runnable {
      * Send message to client
      */
     public boolean sendMessage(String message) {
-        if (out != null && !socket.isClosed()) {
-            try {
-                out.println(message);
-                out.flush();
+        int requestId = Thread.currentThread() == requestThread ? currentRequestId : 0;
+
+        if (nioConnection != null) {
+            if (nioConnection.send(message, requestId)) {
+                System.out.println("→ Sent: " + message);
+                return true;
+            }
+            return false;
+        }
+
+        if (outboundQueue != null && !socket.isClosed()) {
+            if (outboundQueue.offer(message, requestId)) {
                 System.out.println("→ Sent: " + message);
                 return true;
-            } catch (Exception e) {
-                System.err.println("⚠️ Error sending message: " + e.getMessage());
-                return false;
             }
         }
         return false;
@@ -779,13 +926,18 @@ public class ClientHandler implements Runnable {
             userId = null;
         }
 
+        if (nioConnection != null) {
+            nioConnection.close();
+            return;
+        }
+
         // Close all connections
         try {
             if (in != null) {
                 in.close();
             }
-            if (out != null) {
-                out.close();
+            if (outboundQueue != null) {
+                outboundQueue.close();
             }
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -809,6 +961,20 @@ public class ClientHandler implements Runnable {
         return isConnected;
     }
 
+    /**
+     * Số byte đang chờ gửi tới client (dùng để bỏ sự kiện ít quan trọng khi client chậm)
+     */
+    public long getPendingOutboundBytes() {
+        if (nioConnection != null) {
+            return nioConnection.getPendingBytes();
+        }
+        return outboundQueue != null ? outboundQueue.getQueuedBytes() : 0;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
     // Thêm vào cuối phần GETTERS trong class ClientHandler
     public InputStream getRawInputStream() {
         return rawInputStream;
@@ -818,6 +984,32 @@ public class ClientHandler implements Runnable {
         return rawOutputStream;
     }
 
+    /**
+     * Gửi count byte của file từ position, sau các tin đã xếp hàng.
+     * Nhận quyền sở hữu file (luôn được đóng).
+     * - nio: FileChannel.transferTo thẳng ra socket, không qua heap
+     * - blocking: chép qua buffer cố định vào stream nhị phân
+     */
+    public void sendFile(FileChannel file, long position, long count) throws IOException {
+        if (nioConnection != null) {
+            nioConnection.sendFile(file, position, count);
+            return;
+        }
+
+        try (file) {
+            WritableByteChannel out = Channels.newChannel(rawOutputStream);
+            long sent = 0;
+            while (sent < count) {
+                long n = file.transferTo(position + sent, count - sent, out);
+                if (n <= 0) {
+                    throw new IOException("File truncated during transfer");
+                }
+                sent += n;
+            }
+            rawOutputStream.flush();
+        }
+    }
+
     public Socket getSocket() {
         return socket;
     }
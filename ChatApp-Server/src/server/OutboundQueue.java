@@ -0,0 +1,336 @@
+package server;
+
+import protocol.Frame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutboundQueue - Hàng đợi gửi riêng cho từng kết nối (chế độ blocking/virtual)
+ * - sendMessage() chỉ đưa tin vào hàng đợi, không block thread gọi (broadcast)
+ * - Một drain task ghi cả lô rồi flush một lần (write coalescing)
+ * - Client chậm: vượt ngưỡng mềm thì bỏ TYPING_*, vượt ngưỡng cứng hoặc
+ *   không tiến triển quá stallTimeout thì ngắt kết nối
+ */
+public class OutboundQueue {
+
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * Đích ghi: dòng text (v1) hoặc MESSAGE frame (v2)
+     */
+    public interface Sink {
+        void write(String message, int requestId) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    public static Sink lineSink(Writer writer) {
+        return new Sink() {
+            @Override
+            public void write(String message, int requestId) throws IOException {
+                writer.write(message);
+                writer.write('\n');
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    public static Sink frameSink(OutputStream out) {
+        return new Sink() {
+            @Override
+            public void write(String message, int requestId) throws IOException {
+                out.write(Frame.encodeText(requestId, message));
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    private static final class Entry {
+        final String message;
+        final int requestId;
+
+        Entry(String message, int requestId) {
+            this.message = message;
+            this.requestId = requestId;
+        }
+    }
+
+    private volatile Sink sink;
+    private final Executor executor;
+    private final Runnable onSlowConsumer;
+
+    private final long maxQueuedBytes;
+    private final int maxMessages;
+    private final long dropDroppableAbove;
+    private final long stallTimeoutMillis;
+
+    // Bảo vệ queue/queuedBytes/drainScheduled
+    private final ReentrantLock queueLock = new ReentrantLock();
+    // Bảo vệ socket: drain và ghi binary (file) không được xen nhau
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean drainScheduled;
+    private volatile long lastProgressAt;
+    private volatile boolean closed;
+
+    private long droppedCount;
+
+    public OutboundQueue(Sink sink, Executor executor, Runnable onSlowConsumer,
+                         long maxQueuedBytes, int maxMessages,
+                         long dropDroppableAbove, long stallTimeoutMillis) {
+        this.sink = sink;
+        this.executor = executor;
+        this.onSlowConsumer = onSlowConsumer;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxMessages = maxMessages;
+        this.dropDroppableAbove = dropDroppableAbove;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        this.lastProgressAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Sự kiện có thể bỏ khi client chậm (typing indicator)
+     */
+    public static boolean isDroppable(String message) {
+        return message.startsWith("TYPING_");
+    }
+
+    /**
+     * Đưa tin nhắn vào hàng đợi. Trả về false nếu bị bỏ hoặc client bị ngắt.
+     */
+    public boolean offer(String message) {
+        return offer(message, 0);
+    }
+
+    /**
+     * requestId: id của request v2 đang được xử lý (0 = push)
+     */
+    public boolean offer(String message, int requestId) {
+        if (closed) {
+            return false;
+        }
+
+        boolean evict = false;
+        String pending = null;
+        queueLock.lock();
+        try {
+            long size = message.length() + 1;
+            boolean droppable = isDroppable(message);
+
+            if (droppable && queuedBytes >= dropDroppableAbove) {
+                droppedCount++;
+                return false;
+            }
+
+            boolean stalled = !queue.isEmpty()
+                    && System.currentTimeMillis() - lastProgressAt > stallTimeoutMillis;
+
+            if (queuedBytes + size > maxQueuedBytes || queue.size() >= maxMessages) {
+                purgeDroppable();
+            }
+
+            if (stalled || queuedBytes + size > maxQueuedBytes || queue.size() >= maxMessages) {
+                closed = true;
+                evict = true;
+                pending = queue.size() + " messages / " + queuedBytes + " bytes";
+            } else {
+                if (queue.isEmpty()) {
+                    lastProgressAt = System.currentTimeMillis();
+                }
+                queue.addLast(new Entry(message, requestId));
+                queuedBytes += size;
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    executor.execute(this::drain);
+                }
+            }
+        } finally {
+            queueLock.unlock();
+        }
+
+        if (evict) {
+            System.err.println("⚠️ Slow consumer (" + pending + " pending), disconnecting");
+            executor.execute(onSlowConsumer);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gọi khi đang giữ queueLock
+     */
+    private void purgeDroppable() {
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext()) {
+            Entry queued = it.next();
+            if (isDroppable(queued.message)) {
+                it.remove();
+                queuedBytes -= queued.message.length() + 1;
+                droppedCount++;
+            }
+        }
+    }
+
+    private void drain() {
+        writeLock.lock();
+        try {
+            while (writeBatch()) {
+                // tiếp tục đến khi hàng đợi rỗng
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("⚠️ Error sending message: " + e.getMessage());
+                closed = true;
+                onSlowConsumer.run();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Ghi một lô và flush một lần. Trả về false khi hàng đợi đã rỗng.
+     * Gọi khi đang giữ writeLock.
+     */
+    private boolean writeBatch() throws IOException {
+        Entry[] batch;
+        int count = 0;
+
+        queueLock.lock();
+        try {
+            batch = new Entry[Math.min(MAX_BATCH, Math.max(1, queue.size()))];
+            while (count < batch.length && !queue.isEmpty()) {
+                Entry entry = queue.pollFirst();
+                queuedBytes -= entry.message.length() + 1;
+                batch[count++] = entry;
+            }
+            if (count == 0) {
+                drainScheduled = false;
+                return false;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+
+        Sink target = sink;
+        for (int i = 0; i < count; i++) {
+            target.write(batch[i].message, batch[i].requestId);
+        }
+        target.flush();
+        lastProgressAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Stream binary (file download): trước mỗi lần ghi, đẩy hết text đang chờ
+     * để dòng phản hồi luôn đi trước dữ liệu file.
+     */
+    public OutputStream wrapRawStream(OutputStream raw) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeLock.lock();
+                try {
+                    while (writeBatch()) {
+                        // đẩy text đang chờ
+                    }
+                    raw.write(b, off, len);
+                    lastProgressAt = System.currentTimeMillis();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writeLock.lock();
+                try {
+                    while (writeBatch()) {
+                        // đẩy text đang chờ
+                    }
+                    raw.flush();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Đổi đích ghi (nâng cấp lên v2): mọi tin đã xếp hàng trước đó được ghi bằng sink cũ
+     */
+    public void switchSink(Sink next) throws IOException {
+        writeLock.lock();
+        try {
+            while (writeBatch()) {
+                // đẩy hết bằng sink cũ
+            }
+            sink.flush();
+            sink = next;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        queueLock.lock();
+        try {
+            queue.clear();
+            queuedBytes = 0;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    public int size() {
+        queueLock.lock();
+        try {
+            return queue.size();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Số byte đang chờ gửi (ước lượng theo số ký tự)
+     */
+    public long getQueuedBytes() {
+        queueLock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        queueLock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+}
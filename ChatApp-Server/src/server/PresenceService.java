@@ -0,0 +1,194 @@
+package server;
+
+import config.ServerConfig;
+import database.cache.ConversationRegistry;
+import database.dao.ContactDAO;
+import database.dao.UserDAO;
+import models.User;
+import protocol.Protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PresenceService - Phát trạng thái online/offline có chọn lọc
+ * - Chỉ gửi cho người đang online có liên quan: bạn bè (contacts accepted)
+ *   và thành viên các conversation chung (ConversationRegistry)
+ * - Gom thay đổi trong coalesceMillis: chỉ phát trạng thái cuối cùng,
+ *   bỏ hẳn nếu user quay lại trạng thái đã phát (reconnect nhanh)
+ * - Mỗi người nhận một message cho cả đợt:
+ *   1 thay đổi  -> USER_STATUS_CHANGED|||userId|||isOnline|||statusText|||lastSeen (như cũ)
+ *   >1 thay đổi -> USER_STATUS_BATCH|||userId,isOnline,statusText,lastSeen::...
+ */
+public class PresenceService {
+
+    private final ChatServer server;
+    private final long coalesceMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // userId -> trạng thái mới nhất chưa phát
+    private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<>();
+    // User đã được phát là online (vắng mặt = offline)
+    private final Set<String> announcedOnline = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // Thống kê
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+
+    public PresenceService(ChatServer server) {
+        this.server = server;
+        this.coalesceMillis = Math.max(0, ServerConfig.getPresenceCoalesceMillis());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Ghi nhận thay đổi trạng thái, phát sau coalesceMillis (không chặn thread login/logout)
+     */
+    public void publish(String userId, boolean isOnline) {
+        if (userId == null) {
+            return;
+        }
+        changes.incrementAndGet();
+        if (pending.put(userId, isOnline) != null) {
+            coalesced.incrementAndGet();
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+
+        Map<String, Boolean> batch = new HashMap<>();
+        for (String userId : pending.keySet()) {
+            Boolean state = pending.remove(userId);
+            if (state != null) {
+                batch.put(userId, state);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            // Người nhận -> các item trạng thái của đợt này
+            Map<String, List<String[]>> byRecipient = new HashMap<>();
+            for (Map.Entry<String, Boolean> change : batch.entrySet()) {
+                String userId = change.getKey();
+                boolean isOnline = change.getValue();
+
+                boolean changed = isOnline ? announcedOnline.add(userId) : announcedOnline.remove(userId);
+                if (!changed) {
+                    suppressed.incrementAndGet();
+                    continue;
+                }
+
+                User user = UserDAO.findById(userId);
+                if (user == null) {
+                    System.err.println("⚠️ Không tìm thấy người dùng để phát trạng thái: " + userId);
+                    continue;
+                }
+                String[] item = {
+                        userId,
+                        String.valueOf(isOnline),
+                        user.getStatusText(),
+                        user.getLastSeen() != null ? user.getLastSeen().toString() : ""
+                };
+
+                for (String recipient : resolveAudience(userId)) {
+                    byRecipient.computeIfAbsent(recipient, k -> new ArrayList<>(2)).add(item);
+                }
+            }
+
+            for (Map.Entry<String, List<String[]>> entry : byRecipient.entrySet()) {
+                if (server.sendToClient(entry.getKey(), buildMessage(entry.getValue()))) {
+                    messagesSent.incrementAndGet();
+                }
+            }
+
+            if (!byRecipient.isEmpty()) {
+                System.out.println("→ Trạng thái " + batch.size() + " người dùng gửi tới "
+                        + byRecipient.size() + " client");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("❌ Lỗi phát trạng thái: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Người đang online có liên quan tới userId (không gồm chính userId)
+     */
+    private Set<String> resolveAudience(String userId) {
+        Set<String> audience = new HashSet<>();
+        Map<String, ClientHandler> online = server.getConnectedClients();
+
+        for (String watcherId : ContactDAO.getWatcherIds(userId)) {
+            if (online.containsKey(watcherId)) {
+                audience.add(watcherId);
+            }
+        }
+
+        ConversationRegistry registry = ConversationRegistry.getInstance();
+        for (String conversationId : new ArrayList<>(registry.getUserConversationIds(userId))) {
+            Set<String> members = registry.getMembers(conversationId);
+            if (members == null) {
+                continue;
+            }
+            for (String memberId : members) {
+                if (online.containsKey(memberId)) {
+                    audience.add(memberId);
+                }
+            }
+        }
+
+        audience.remove(userId);
+        return audience;
+    }
+
+    private static String buildMessage(List<String[]> items) {
+        if (items.size() == 1) {
+            String[] item = items.get(0);
+            return Protocol.buildRequest(Protocol.USER_STATUS_CHANGED, item[0], item[1], item[2], item[3]);
+        }
+
+        Protocol.MessageBuilder builder = new Protocol.MessageBuilder(64 * items.size());
+        builder.start(Protocol.USER_STATUS_BATCH).beginParam();
+        for (int i = 0; i < items.size(); i++) {
+            String[] item = items.get(i);
+            if (i > 0) {
+                builder.nextItem();
+            }
+            builder.field(item[0]).field(item[1])
+                    .field(Protocol.encode(item[2])).field(item[3]);
+        }
+        return builder.build();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public String getStats() {
+        return "Presence: " + changes.get() + " changes, " + coalesced.get() + " coalesced, "
+                + suppressed.get() + " suppressed, " + messagesSent.get() + " messages sent, "
+                + announcedOnline.size() + " online";
+    }
+}
@@ -1,5 +1,14 @@
 package server;
 
+import server.handlers.CallHandler;
+import server.storage.BlobStore;
+import server.storage.FileStorage;
+import server.storage.MediaOffloader;
+import server.storage.UploadSessions;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
 import java.util.Scanner;
 
 public class ServerMain {
@@ -60,6 +69,14 @@ public class ServerMain {
                     printClients();
                     break;
 
+                case "threads":
+                    printThreads();
+                    break;
+
+                case "db":
+                    printDatabasePool();
+                    break;
+
                 case "config":
                     printConfig();
                     break;
@@ -99,6 +116,8 @@ public class ServerMain {
         System.out.println("║  help     - Show this help message              ║");
         System.out.println("║  status   - Show server status                  ║");
         System.out.println("║  clients  - List connected clients              ║");
+        System.out.println("║  threads  - Show thread count and memory usage  ║");
+        System.out.println("║  db       - Show database pool statistics       ║");
         System.out.println("║  config   - Show server configuration           ║");
         System.out.println("║  reload   - Reload configuration                ║");
         System.out.println("║  clear    - Clear console                       ║");
@@ -114,6 +133,17 @@ public class ServerMain {
             System.out.println("\n╔════════════════ Server Status ════════════════╗");
             System.out.println("║  Status: " + (server.isRunning() ? "RUNNING" : "STOPPED"));
             System.out.println("║  Connected Clients: " + server.getConnectedClientsCount());
+            if (server.getPresenceService() != null) {
+                System.out.println("║  " + server.getPresenceService().getStats());
+            }
+            if (server.getTypingService() != null) {
+                System.out.println("║  " + server.getTypingService().getStats());
+            }
+            System.out.println("║  " + FileStorage.getInstance().getStats());
+            System.out.println("║  " + UploadSessions.getInstance().getStats());
+            System.out.println("║  " + BlobStore.getInstance().getStats());
+            System.out.println("║  " + MediaOffloader.getInstance().getStats());
+            System.out.println("║  " + CallHandler.getMediaStats());
             System.out.println("║  Thread Status: " + (serverThread.isAlive() ? "ALIVE" : "DEAD"));
             System.out.println("╚═══════════════════════════════════════════════╝");
         }
@@ -140,6 +170,37 @@ public class ServerMain {
         }
     }
 
+    /**
+     * Print thread count and heap usage (so sánh các chế độ server.io.mode)
+     */
+    private static void printThreads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Runtime runtime = Runtime.getRuntime();
+
+        System.out.println("\n╔════════════════ Threads / Memory ═════════════╗");
+        System.out.println("║  I/O Mode: " + config.ServerConfig.getServerIoMode());
+        System.out.println("║  Connected Clients: " + (server != null ? server.getConnectedClientsCount() : 0));
+        System.out.println("║  Platform Threads: " + threads.getThreadCount()
+                + " (peak " + threads.getPeakThreadCount() + ")");
+        System.out.println("║  Heap Used: " + (heap.getUsed() / (1024 * 1024)) + " MB / "
+                + (heap.getCommitted() / (1024 * 1024)) + " MB");
+        System.out.println("║  Total JVM Memory: " + (runtime.totalMemory() / (1024 * 1024)) + " MB");
+        System.out.println("╚═══════════════════════════════════════════════╝");
+    }
+
+    /**
+     * Print database connection pool metrics
+     */
+    private static void printDatabasePool() {
+        System.out.println("\n╔════════════════ Database Pool ════════════════╗");
+        System.out.println("║  " + database.connection.DBConnection.getPoolStats());
+        System.out.println("║  " + database.persistence.MessagePersistence.getInstance().getStats());
+        System.out.println("║  " + database.cache.ConversationRegistry.getInstance().getStats());
+        System.out.println("║  " + database.cache.UnreadCounterCache.getInstance().getStats());
+        System.out.println("╚═══════════════════════════════════════════════╝");
+    }
+
     /**
      * Print server configuration
      */
@@ -0,0 +1,268 @@
+package server;
+
+import config.ServerConfig;
+import database.cache.ConversationRegistry;
+import protocol.Protocol;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TypingService - Trạng thái "đang nhập" chỉ trong bộ nhớ, không đụng DB
+ * - Mỗi (conversation, user) một trạng thái có hạn ttlMillis
+ * - TYPING_START khi đang nhập: chỉ gia hạn, không phát lại
+ * - TYPING_STOP chỉ phát khi có trạng thái; hết hạn thì tự phát TYPING_STOP
+ * - Thành viên lấy từ cache ConversationRegistry (chưa có trong cache thì bỏ qua)
+ * - Mỗi người nhận tối đa maxPerRecipient TYPING_START/giây;
+ *   client đang có hàng đợi gửi lớn thì không nhận sự kiện typing
+ * - START bị giới hạn không mất: người nhận được ghi vào pending của trạng thái,
+ *   gửi lại mỗi RETRY_MS khi đã có budget (nếu người kia vẫn đang nhập)
+ */
+public class TypingService {
+
+    // Chu kỳ gửi lại START cho người nhận bị giới hạn
+    private static final long RETRY_MS = 200;
+
+    private static final class State {
+        final String conversationId;
+        final String userId;
+        volatile long expiresAt;
+        // Người nhận chưa nhận được START (bị giới hạn)
+        final Set<String> pending = ConcurrentHashMap.newKeySet();
+        // Đã phát STOP: không gửi lại START nữa (guarded by this)
+        boolean ended;
+
+        State(String conversationId, String userId, long expiresAt) {
+            this.conversationId = conversationId;
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Đếm số sự kiện gửi tới một client trong cửa sổ 1 giây
+     */
+    private static final class Budget {
+        private long windowStart;
+        private int count;
+
+        synchronized boolean tryAcquire(long now, int max) {
+            if (now - windowStart >= 1000) {
+                windowStart = now;
+                count = 0;
+            }
+            if (count >= max) {
+                return false;
+            }
+            count++;
+            return true;
+        }
+
+        synchronized boolean isIdle(long now) {
+            return now - windowStart >= 1000;
+        }
+    }
+
+    private final ChatServer server;
+    private final long ttlMillis;
+    private final int maxPerRecipient;
+    private final long skipBacklogBytes;
+    private final ScheduledExecutorService sweeper;
+
+    // conversationId + '\0' + userId -> trạng thái
+    private final ConcurrentHashMap<String, State> typing = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Budget> budgets = new ConcurrentHashMap<>();
+
+    // Thống kê
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong resent = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    public TypingService(ChatServer server) {
+        this.server = server;
+        this.ttlMillis = Math.max(500, ServerConfig.getTypingTtlMillis());
+        this.maxPerRecipient = Math.max(1, ServerConfig.getTypingMaxPerRecipient());
+        this.skipBacklogBytes = ServerConfig.getTypingSkipBacklogBytes();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "typing-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, ttlMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+        sweeper.scheduleWithFixedDelay(this::retryPending, RETRY_MS, RETRY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void start(String conversationId, String userId) {
+        if (!isMember(conversationId, userId)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        State fresh = new State(conversationId, userId, now + ttlMillis);
+        State current = typing.putIfAbsent(key(conversationId, userId), fresh);
+        if (current != null) {
+            // Đang nhập: chỉ gia hạn
+            current.expiresAt = fresh.expiresAt;
+            suppressed.incrementAndGet();
+            return;
+        }
+
+        fanOut(Protocol.TYPING_START, fresh);
+    }
+
+    public void stop(String conversationId, String userId) {
+        if (conversationId == null || userId == null) {
+            return;
+        }
+        State state = typing.remove(key(conversationId, userId));
+        if (state == null) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        end(state);
+        fanOut(Protocol.TYPING_STOP, state);
+    }
+
+    /**
+     * Chặn gửi lại START sau khi đã quyết định phát STOP
+     */
+    private void end(State state) {
+        synchronized (state) {
+            state.ended = true;
+            state.pending.clear();
+        }
+    }
+
+    private boolean isMember(String conversationId, String userId) {
+        if (conversationId == null || userId == null) {
+            return false;
+        }
+        Set<String> members = ConversationRegistry.getInstance().peekMembers(conversationId);
+        return members != null && members.contains(userId);
+    }
+
+    /**
+     * START áp giới hạn mỗi người nhận, người bị giới hạn vào state.pending;
+     * STOP không bị giới hạn vì mỗi STOP đi sau đúng một START
+     */
+    private void fanOut(String command, State state) {
+        Set<String> members = ConversationRegistry.getInstance().peekMembers(state.conversationId);
+        if (members == null) {
+            return;
+        }
+
+        boolean throttle = Protocol.TYPING_START.equals(command);
+        String message = Protocol.buildRequest(command, state.conversationId, state.userId);
+        long now = System.currentTimeMillis();
+        for (String memberId : members) {
+            if (memberId.equals(state.userId)) {
+                continue;
+            }
+            ClientHandler handler = server.getClientHandler(memberId);
+            if (handler == null) {
+                continue;
+            }
+            if (throttle && !canSend(handler, memberId, now)) {
+                throttled.incrementAndGet();
+                state.pending.add(memberId);
+                continue;
+            }
+            if (!throttle && handler.getPendingOutboundBytes() > skipBacklogBytes) {
+                throttled.incrementAndGet();
+                continue;
+            }
+            if (handler.sendMessage(message)) {
+                sent.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean canSend(ClientHandler handler, String memberId, long now) {
+        return handler.getPendingOutboundBytes() <= skipBacklogBytes
+                && budgets.computeIfAbsent(memberId, k -> new Budget()).tryAcquire(now, maxPerRecipient);
+    }
+
+    /**
+     * Gửi START còn nợ cho người nhận đã có lại budget; người nhận offline thì bỏ
+     */
+    private void retryPending() {
+        try {
+            long now = System.currentTimeMillis();
+            for (State state : typing.values()) {
+                if (state.pending.isEmpty()) {
+                    continue;
+                }
+                String message = Protocol.buildRequest(Protocol.TYPING_START, state.conversationId, state.userId);
+                for (Iterator<String> it = state.pending.iterator(); it.hasNext(); ) {
+                    String memberId = it.next();
+                    ClientHandler handler = server.getClientHandler(memberId);
+                    if (handler == null) {
+                        it.remove();
+                        continue;
+                    }
+                    if (!canSend(handler, memberId, now)) {
+                        continue;
+                    }
+                    synchronized (state) {
+                        if (state.ended) {
+                            break;
+                        }
+                        it.remove();
+                        if (handler.sendMessage(message)) {
+                            sent.incrementAndGet();
+                            resent.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("⚠️ Lỗi gửi lại typing: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Phát TYPING_STOP cho trạng thái hết hạn, dọn bộ đếm không còn dùng
+     */
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<String, State>> it = typing.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, State> entry = it.next();
+                State state = entry.getValue();
+                if (state.expiresAt <= now && typing.remove(entry.getKey(), state)) {
+                    expired.incrementAndGet();
+                    end(state);
+                    fanOut(Protocol.TYPING_STOP, state);
+                }
+            }
+            budgets.values().removeIf(budget -> budget.isIdle(now));
+        } catch (RuntimeException e) {
+            System.err.println("⚠️ Lỗi dọn trạng thái typing: " + e.getMessage());
+        }
+    }
+
+    private static String key(String conversationId, String userId) {
+        return conversationId + '\0' + userId;
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+        typing.clear();
+        budgets.clear();
+    }
+
+    public String getStats() {
+        return "Typing: " + typing.size() + " active, " + sent.get() + " sent, "
+                + suppressed.get() + " suppressed, " + throttled.get() + " throttled, " + resent.get() + " resent, "
+                + expired.get() + " expired";
+    }
+}
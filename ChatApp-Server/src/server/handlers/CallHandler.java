@@ -53,6 +53,10 @@ public class CallHandler {
         }
     }
 
+    public static String getMediaStats() {
+        return mediaServer != null ? mediaServer.getStats() : "UDP relay: not started";
+    }
+
     public void handle(String command, String[] parts) {
         switch (command) {
             case Protocol.CALL_START:
@@ -85,6 +89,8 @@ public class CallHandler {
         String conversationId = parts[1];
         String callerId = parts[2];
         String callType = parts[3];
+        // Client cũ không gửi danh sách codec: chỉ có PCM
+        List<String> callerCodecs = parseCodecList(parts.length > 4 ? parts[4] : null);
 
         try {
             Conversation conv = ConversationDAO.getConversationById(conversationId);
@@ -99,9 +105,10 @@ public class CallHandler {
 
             // Tạo session cuộc gọi
             CallSession session = new CallSession(
-                    callId, conversationId, callerId, callType, udpPort
+                    callId, conversationId, callerId, callType, udpPort, callerCodecs
             );
             activeCalls.put(callId, session);
+            String audioCodec = session.getAudioCodec();
 
             // ✅ LƯU CALL HISTORY
             String callerName = getUserName(callerId);
@@ -134,10 +141,14 @@ public class CallHandler {
             // Get server IP for client
             String serverIP = getServerIPForClient(clientHandler);
 
-            String responseData = String.format("%s%s%s%s%d",
+            int mediaToken = issueMediaToken(callId, callerId);
+
+            String responseData = String.format("%s%s%s%s%d%s%d%s%s",
                     callId, Protocol.DELIMITER,
                     serverIP, Protocol.DELIMITER,
-                    udpPort);
+                    udpPort, Protocol.DELIMITER,
+                    mediaToken, Protocol.DELIMITER,
+                    audioCodec);
 
             clientHandler.sendMessage(Protocol.buildSuccessResponse(
                     "Call started", responseData));
@@ -147,6 +158,7 @@ public class CallHandler {
             System.out.println("   Server IP: " + serverIP);
             System.out.println("   UDP Port: " + udpPort);
             System.out.println("   Type: " + callType);
+            System.out.println("   Audio codec: " + audioCodec);
             System.out.println("   ✓ Saved to call_history");
 
         } catch (Exception e) {
@@ -175,7 +187,12 @@ public class CallHandler {
             return;
         }
 
-        session.addParticipant(userId);
+        // Chọn lại codec chung của mọi người đã vào call (client cũ không gửi danh sách: chỉ giải mã được PCM)
+        boolean codecChanged = session.addParticipant(userId, parseCodecList(parts.length > 3 ? parts[3] : null));
+        String audioCodec = session.getAudioCodec();
+        if (codecChanged) {
+            notifyCodecChanged(session, userId, audioCodec);
+        }
 
         // ✅ CẬP NHẬT PARTICIPANT ACTION
         CallParticipantDAO.updateParticipantAction(callId, userId, "answered");
@@ -191,16 +208,21 @@ public class CallHandler {
 
         String serverIP = getServerIPForClient(clientHandler);
 
-        String responseData = String.format("%s%s%d%s%s",
+        int mediaToken = issueMediaToken(callId, userId);
+
+        String responseData = String.format("%s%s%d%s%s%s%d%s%s",
                 serverIP, Protocol.DELIMITER,
                 session.getUdpPort(), Protocol.DELIMITER,
-                session.getCallType());
+                session.getCallType(), Protocol.DELIMITER,
+                mediaToken, Protocol.DELIMITER,
+                audioCodec);
 
         clientHandler.sendMessage(Protocol.buildSuccessResponse(
                 "Call answered", responseData));
 
         System.out.println("✅ Call answered: " + callId);
         System.out.println("   Answerer: " + userId);
+        System.out.println("   Audio codec: " + audioCodec + (codecChanged ? " (changed)" : ""));
         System.out.println("   ✓ Updated call_participants");
     }
 
@@ -295,16 +317,73 @@ public class CallHandler {
         }
     }
 
+    /**
+     * Báo codec mới cho những người đã ở trong call (trừ người vừa vào - nhận codec trong phản hồi CALL_ANSWER)
+     */
+    private void notifyCodecChanged(CallSession session, String joinedUserId, String audioCodec) {
+        for (String participantId : session.getParticipants().keySet()) {
+            if (participantId.equals(joinedUserId)) {
+                continue;
+            }
+            ClientHandler handler = clientHandler.getServer().getClientHandler(participantId);
+            if (handler != null) {
+                handler.sendMessage(Protocol.buildRequest(
+                        Protocol.CALL_CODEC, session.getCallId(), audioCodec));
+            }
+        }
+    }
+
     private String generateCallId() {
         return "CALL_" + System.currentTimeMillis();
     }
 
+    /**
+     * Cổng của shard relay được chọn cho call (ít call nhất); trong shard, packet vẫn phân theo media token
+     */
     private int allocateUdpPort(String callId) {
-        int port = ServerConfig.getUdpBasePort() + activeCalls.size();
         if (mediaServer != null) {
-            mediaServer.registerCall(callId, port);
+            return mediaServer.registerCall(callId);
         }
-        return port;
+        return ServerConfig.getUdpBasePort();
+    }
+
+    /**
+     * Codec đầu tiên trong call.audio_codecs mà mọi người trong call đều có trong danh sách gửi lên;
+     * không có codec chung thì PCM (client nào cũng giải mã được)
+     */
+    private static String negotiateAudioCodec(Collection<List<String>> offers) {
+        for (String codec : ServerConfig.getCallAudioCodecs()) {
+            boolean supportedByAll = true;
+            for (List<String> offered : offers) {
+                if (!offered.contains(codec)) {
+                    supportedByAll = false;
+                    break;
+                }
+            }
+            if (supportedByAll) {
+                return codec;
+            }
+        }
+        return "pcm";
+    }
+
+    private static List<String> parseCodecList(String codecs) {
+        List<String> result = new ArrayList<>();
+        if (codecs != null) {
+            for (String codec : codecs.split(",")) {
+                if (!codec.trim().isEmpty()) {
+                    result.add(codec.trim().toLowerCase());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Token media của user trong call, client gắn vào mọi packet UDP (0 = không có media server)
+     */
+    private int issueMediaToken(String callId, String userId) {
+        return mediaServer != null ? mediaServer.issueToken(callId, userId) : 0;
     }
 
     private void releaseUdpPort(String callId) {
@@ -512,9 +591,12 @@ public class CallHandler {
         private final String callType;
         private final int udpPort;
         private final ConcurrentHashMap<String, Boolean> participants;
+        // userId -> codec người đó giải mã được (ngoài PCM); codec của call là phần chung của mọi người
+        private final Map<String, List<String>> codecOffers = new HashMap<>();
+        private volatile String audioCodec;
 
         public CallSession(String callId, String conversationId,
-                           String callerId, String callType, int udpPort) {
+                           String callerId, String callType, int udpPort, List<String> callerCodecs) {
             this.callId = callId;
             this.conversationId = conversationId;
             this.callerId = callerId;
@@ -522,10 +604,22 @@ public class CallHandler {
             this.udpPort = udpPort;
             this.participants = new ConcurrentHashMap<>();
             this.participants.put(callerId, true);
+            this.codecOffers.put(callerId, callerCodecs);
+            this.audioCodec = negotiateAudioCodec(codecOffers.values());
         }
 
-        public void addParticipant(String userId) {
+        /**
+         * Thêm người vào call và chọn lại codec; true nếu codec đổi (người đã vào cần được báo)
+         */
+        public synchronized boolean addParticipant(String userId, List<String> codecs) {
             participants.put(userId, true);
+            codecOffers.put(userId, codecs);
+            String codec = negotiateAudioCodec(codecOffers.values());
+            if (codec.equals(audioCodec)) {
+                return false;
+            }
+            audioCodec = codec;
+            return true;
         }
 
         public String getCallId() { return callId; }
@@ -533,6 +627,7 @@ public class CallHandler {
         public String getCallerId() { return callerId; }
         public String getCallType() { return callType; }
         public int getUdpPort() { return udpPort; }
+        public String getAudioCodec() { return audioCodec; }
         public ConcurrentHashMap<String, Boolean> getParticipants() {
             return participants;
         }
@@ -2,10 +2,7 @@ package server.handlers;
 
 import database.dao.ConversationDAO;
 import database.dao.ConversationDeletionDAO;
-import database.dao.UserDAO;
-import database.dao.MessageDAO;
 import models.Conversation;
-import models.User;
 import models.Message;
 import protocol.Protocol;
 import server.ClientHandler;
@@ -20,9 +17,11 @@ import java.util.ArrayList;
 public class ConversationHandler {
 
     private final ClientHandler clientHandler;
+    private final ConversationListAssembler assembler;
 
     public ConversationHandler(ClientHandler clientHandler) {
         this.clientHandler = clientHandler;
+        this.assembler = new ConversationListAssembler(clientHandler.getServer());
     }
 
     /**
@@ -90,19 +89,10 @@ public class ConversationHandler {
 
         List<Conversation> conversations = ConversationDAO.getUserConversations(userId);
 
-        StringBuilder data = new StringBuilder();
-        for (int i = 0; i < conversations.size(); i++) {
-            if (i > 0) {
-                data.append(Protocol.FIELD_DELIMITER);
-            }
-
-            Conversation conv = conversations.get(i);
-            data.append(buildConversationData(conv, userId));
-        }
-
+        // Cả danh sách trong một lượt: một truy vấn hồ sơ, một lần đọc bộ đếm chưa đọc
         clientHandler.sendMessage(Protocol.buildSuccessResponse(
                 "Conversations retrieved successfully",
-                data.toString()
+                assembler.build(conversations, userId)
         ));
 
         System.out.println("✅ Sent " + conversations.size() + " conversations to user: " + userId);
@@ -525,95 +515,6 @@ public class ConversationHandler {
      * Format: conversationId,type,name,avatar,lastMsg,lastMsgTime,unread,memberCount,isOnline,lastSeen,memberIds
      */
     private String buildConversationData(Conversation conversation, String currentUserId) {
-        StringBuilder data = new StringBuilder();
-
-        data.append(conversation.getConversationId())
-                .append(Protocol.LIST_DELIMITER);
-
-        data.append(conversation.getType())
-                .append(Protocol.LIST_DELIMITER);
-
-        String otherUserId = null;
-
-        if (conversation.isPrivate()) {
-            for (String memberId : conversation.getMemberIds()) {
-                if (!memberId.equals(currentUserId)) {
-                    otherUserId = memberId;
-                    break;
-                }
-            }
-
-            if (otherUserId != null) {
-                User otherUser = UserDAO.findById(otherUserId);
-                if (otherUser != null) {
-                    data.append(otherUser.getDisplayName())
-                            .append(Protocol.LIST_DELIMITER);
-                    data.append(otherUser.getAvatarUrl() != null ? otherUser.getAvatarUrl() : "");
-                } else {
-                    data.append("Unknown")
-                            .append(Protocol.LIST_DELIMITER)
-                            .append("");
-                }
-            } else {
-                data.append("Unknown")
-                        .append(Protocol.LIST_DELIMITER)
-                        .append("");
-            }
-        } else {
-            data.append(conversation.getName() != null ? conversation.getName() : "Group Chat")
-                    .append(Protocol.LIST_DELIMITER);
-            data.append(conversation.getAvatarUrl() != null ? conversation.getAvatarUrl() : "");
-        }
-
-        data.append(Protocol.LIST_DELIMITER);
-
-        data.append(conversation.getLastMessage() != null ? conversation.getLastMessage() : "")
-                .append(Protocol.LIST_DELIMITER);
-
-        data.append(conversation.getLastMessageTime() != null ?
-                        conversation.getLastMessageTime().toString() : "")
-                .append(Protocol.LIST_DELIMITER);
-
-        int unreadCount = MessageDAO.getUnreadCount(conversation.getConversationId(), currentUserId);
-        data.append(unreadCount)
-                .append(Protocol.LIST_DELIMITER);
-
-        data.append(conversation.getMemberCount())
-                .append(Protocol.LIST_DELIMITER);
-
-        boolean isOnline = false;
-        String lastSeenStr = "";
-
-        if (conversation.isPrivate() && otherUserId != null) {
-            isOnline = clientHandler.getServer().isClientOnline(otherUserId);
-
-            User otherUser = UserDAO.findById(otherUserId);
-            if (otherUser != null) {
-                if (!isOnline) {
-                    isOnline = otherUser.isOnline();
-                }
-
-                if (otherUser.getLastSeen() != null) {
-                    lastSeenStr = otherUser.getLastSeen().toString();
-                }
-            }
-        }
-
-        data.append(isOnline)
-                .append(Protocol.LIST_DELIMITER);
-
-        data.append(lastSeenStr)
-                .append(Protocol.LIST_DELIMITER);
-
-        if (conversation.getMemberIds() != null && !conversation.getMemberIds().isEmpty()) {
-            data.append(String.join(";", conversation.getMemberIds()));
-        } else {
-            data.append("");
-        }
-
-        String result = data.toString();
-        System.out.println("  → Built conversation data: " + result);
-
-        return result;
+        return assembler.build(conversation, currentUserId);
     }
 }
\ No newline at end of file
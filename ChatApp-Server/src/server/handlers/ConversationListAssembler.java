@@ -0,0 +1,131 @@
+package server.handlers;
+
+import database.cache.UnreadCounterCache;
+import database.dao.UserDAO;
+import database.persistence.MessagePersistence;
+import models.Conversation;
+import models.User;
+import protocol.Protocol;
+import server.ChatServer;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ghép dữ liệu conversation cho một user trong một lượt
+ * - Hồ sơ người còn lại của các private chat: một truy vấn UserDAO.findByIds
+ * - Số tin chưa đọc: một lần đọc UnreadCounterCache cho cả danh sách
+ * - Online: từ connectedClients trong bộ nhớ
+ *
+ * Item: conversationId,type,name,avatar,lastMsg,lastMsgTime,unread,memberCount,isOnline,lastSeen,memberIds
+ */
+class ConversationListAssembler {
+
+    private final ChatServer server;
+
+    ConversationListAssembler(ChatServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Các item nối bằng FIELD_DELIMITER
+     */
+    String build(List<Conversation> conversations, String currentUserId) {
+        if (conversations.isEmpty()) {
+            return "";
+        }
+
+        Set<String> peerIds = new HashSet<>();
+        MessagePersistence persistence = MessagePersistence.getInstance();
+        for (Conversation conversation : conversations) {
+            String peerId = findPeerId(conversation, currentUserId);
+            if (peerId != null) {
+                peerIds.add(peerId);
+            }
+            // Tin chưa flush của conversation phải được đếm
+            persistence.awaitConversation(conversation.getConversationId());
+        }
+
+        Map<String, User> peers = peerIds.isEmpty() ? Collections.emptyMap() : UserDAO.findByIds(peerIds);
+        Map<String, Integer> unread = UnreadCounterCache.getInstance().getCounts(currentUserId);
+
+        StringBuilder data = new StringBuilder(conversations.size() * 160);
+        for (int i = 0; i < conversations.size(); i++) {
+            if (i > 0) {
+                data.append(Protocol.FIELD_DELIMITER);
+            }
+            append(data, conversations.get(i), currentUserId, peers, unread);
+        }
+        return data.toString();
+    }
+
+    String build(Conversation conversation, String currentUserId) {
+        return build(Collections.singletonList(conversation), currentUserId);
+    }
+
+    private void append(StringBuilder data, Conversation conversation, String currentUserId,
+                        Map<String, User> peers, Map<String, Integer> unread) {
+        char sep = Protocol.LIST_DELIMITER.charAt(0);
+
+        data.append(conversation.getConversationId()).append(sep);
+        data.append(conversation.getType()).append(sep);
+
+        String peerId = findPeerId(conversation, currentUserId);
+        User peer = peerId != null ? peers.get(peerId) : null;
+
+        if (conversation.isPrivate()) {
+            if (peer != null) {
+                data.append(peer.getDisplayName()).append(sep);
+                data.append(peer.getAvatarUrl() != null ? peer.getAvatarUrl() : "");
+            } else {
+                data.append("Unknown").append(sep);
+            }
+        } else {
+            data.append(conversation.getName() != null ? conversation.getName() : "Group Chat").append(sep);
+            data.append(conversation.getAvatarUrl() != null ? conversation.getAvatarUrl() : "");
+        }
+        data.append(sep);
+
+        data.append(conversation.getLastMessage() != null ? conversation.getLastMessage() : "").append(sep);
+        if (conversation.getLastMessageTime() != null) {
+            data.append(conversation.getLastMessageTime());
+        }
+        data.append(sep);
+
+        data.append(unread.getOrDefault(conversation.getConversationId(), 0)).append(sep);
+        data.append(conversation.getMemberCount()).append(sep);
+
+        boolean isOnline = peerId != null && server.isClientOnline(peerId);
+        data.append(isOnline).append(sep);
+        if (peer != null && peer.getLastSeen() != null) {
+            data.append(peer.getLastSeen());
+        }
+        data.append(sep);
+
+        List<String> memberIds = conversation.getMemberIds();
+        if (memberIds != null && !memberIds.isEmpty()) {
+            for (int i = 0; i < memberIds.size(); i++) {
+                if (i > 0) data.append(';');
+                data.append(memberIds.get(i));
+            }
+        }
+    }
+
+    /**
+     * Người còn lại của private chat (null với group)
+     */
+    private static String findPeerId(Conversation conversation, String currentUserId) {
+        if (!conversation.isPrivate() || conversation.getMemberIds() == null) {
+            return null;
+        }
+        for (String memberId : conversation.getMemberIds()) {
+            if (!memberId.equals(currentUserId)) {
+                return memberId;
+            }
+        }
+        return null;
+    }
+}
@@ -1,26 +1,28 @@
 package server.handlers;
 
+import config.ServerConfig;
+import database.cache.ConversationRegistry;
 import database.dao.MessageDAO;
-import database.dao.ConversationDAO;
 import database.dao.UserDAO;
+import database.persistence.MessagePersistence;
 import models.Message;
-import models.Conversation;
 import models.User;
 import protocol.Protocol;
 import server.ClientHandler;
-
-import com.cloudinary.Cloudinary;
-import com.cloudinary.utils.ObjectUtils;
+import server.storage.BlobStore;
+import server.storage.FileStorage;
+import server.storage.MediaOffloader;
+import server.storage.RemoteMediaStore;
+import server.storage.UploadSessions;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 
 public class FileHandler {
 
     private final ClientHandler clientHandler;
-    private static final String UPLOAD_DIR = "uploads/";
 
     // Giới hạn kích thước file theo loại
     private static final long MAX_IMAGE_SIZE = 10 * 1024 * 1024;
@@ -29,21 +31,7 @@ public class FileHandler {
     private static final long MAX_DOCUMENT_SIZE = 50 * 1024 * 1024;
     private static final long MAX_ARCHIVE_SIZE = 100 * 1024 * 1024;
 
-    // Cloudinary instance
-    private static Cloudinary cloudinary;
-
-    static {
-        try {
-            cloudinary = new Cloudinary(ObjectUtils.asMap(
-                    "cloud_name", "dnkjhbw9m",
-                    "api_key", "791292363868727",
-                    "api_secret", "_5aBOAaLNCUabVPcyZMxwH-j1yY"
-            ));
-            System.out.println("✓ Cloudinary đã được khởi tạo");
-        } catch (Exception e) {
-            System.err.println("⚠️ Lỗi khởi tạo Cloudinary: " + e.getMessage());
-        }
-    }
+    private static final String DOWNLOAD_WITH_CRC = "crc";
 
     public FileHandler(ClientHandler clientHandler) {
         this.clientHandler = clientHandler;
@@ -52,7 +40,7 @@ public class FileHandler {
 
     private void initializeUploadDirectory() {
         try {
-            Path uploadPath = Paths.get(UPLOAD_DIR);
+            Path uploadPath = FileStorage.getInstance().getRoot();
             if (!Files.exists(uploadPath)) {
                 Files.createDirectories(uploadPath);
                 Files.createDirectories(uploadPath.resolve("videos"));
@@ -70,6 +58,18 @@ public class FileHandler {
             case Protocol.FILE_UPLOAD:
                 handleFileUpload(parts);
                 break;
+            case Protocol.FILE_UPLOAD_INIT:
+                handleUploadInit(parts);
+                break;
+            case Protocol.FILE_UPLOAD_STATUS:
+                handleUploadStatus(parts);
+                break;
+            case Protocol.FILE_UPLOAD_CHUNK:
+                handleUploadChunk(parts);
+                break;
+            case Protocol.FILE_UPLOAD_COMPLETE:
+                handleUploadComplete(parts);
+                break;
             case Protocol.FILE_DOWNLOAD:
                 handleFileDownload(parts);
                 break;
@@ -107,145 +107,358 @@ public class FileHandler {
         String fileType = parts[4];
         long fileSize = Long.parseLong(parts[5]);
 
+        Set<String> members = checkUpload(conversationId, senderId, fileType, fileSize);
+        if (members == null) {
+            return;
+        }
+
+        FileStorage storage = FileStorage.getInstance();
+        FileStorage.StagedFile staged = null;
+        try {
+            // Nhận file thẳng xuống thư mục tạm
+            System.out.println("→ Đang nhận file: " + fileSize + " bytes");
+            staged = storage.receive(clientHandler.getRawInputStream(), fileSize);
+            System.out.println("✓ Đã nhận " + staged.getSize() + " bytes, sha256=" + staged.getSha256());
+
+            publishUpload(conversationId, senderId, fileName, fileType, members, staged);
+
+        } catch (IOException e) {
+            System.err.println("Lỗi upload file: " + e.getMessage());
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Upload file thất bại: " + e.getMessage()
+            ));
+        } finally {
+            if (staged != null) {
+                storage.discard(staged);
+            }
+        }
+    }
+
+    /**
+     * Kiểm tra quyền và kích thước; trả về members, null nếu đã gửi lỗi cho client
+     */
+    private Set<String> checkUpload(String conversationId, String senderId, String fileType, long fileSize) {
         // Kiểm tra quyền truy cập
-        Conversation conversation = ConversationDAO.findById(conversationId);
-        if (conversation == null) {
+        Set<String> members = ConversationRegistry.getInstance().getMembers(conversationId);
+        if (members == null) {
             clientHandler.sendMessage(Protocol.buildErrorResponse(
                     Protocol.ERR_NOT_FOUND,
                     "Không tìm thấy cuộc trò chuyện"
             ));
-            return;
+            return null;
         }
 
-        if (!conversation.hasMember(senderId)) {
+        if (!members.contains(senderId)) {
             clientHandler.sendMessage(Protocol.buildErrorResponse(
                     Protocol.FORBIDDEN,
                     "Bạn không phải thành viên"
             ));
-            return;
+            return null;
         }
 
         // Kiểm tra kích thước
-        if (!validateFileSize(fileType, fileSize)) {
+        if (fileSize <= 0 || !validateFileSize(fileType, fileSize)) {
             clientHandler.sendMessage(Protocol.buildErrorResponse(
                     Protocol.ERR_SERVER_ERROR,
                     "Kích thước file vượt quá giới hạn"
             ));
+            return null;
+        }
+        return members;
+    }
+
+    /**
+     * File đã nhận đủ: đưa vào BlobStore, lưu message, trả URL và broadcast;
+     * ảnh được đẩy lên kho ngoài sau đó (MediaOffloader)
+     * (staged vẫn do người gọi discard)
+     */
+    private void publishUpload(String conversationId, String senderId, String fileName, String fileType,
+                               Set<String> members, FileStorage.StagedFile staged) throws IOException {
+        // Vào kho blob theo nội dung (trùng nội dung thì dùng lại file cũ)
+        BlobStore.getInstance().store(staged);
+        String fileUrl = generateBlobUrl(staged.getSha256());
+        System.out.println("✓ File đã lưu blob: " + fileUrl);
+
+        Message message = saveFileMessage(conversationId, senderId, fileName, fileType, fileUrl, staged.getSize());
+        if (message == null) {
+            return;
+        }
+
+        // Gửi SUCCESS response cho người gửi
+        clientHandler.sendMessage(Protocol.buildSuccessResponse(
+                "Upload file thành công",
+                fileUrl
+        ));
+
+        // ===== QUAN TRỌNG: BROADCAST CHO TẤT CẢ (bao gồm người gửi) =====
+        broadcastFileMessageToAll(members, message);
+        offloadImage(message, fileType, staged.getSha256());
+
+        System.out.println("✓ File đã upload và broadcast: " + fileName);
+    }
+
+    /**
+     * Ảnh: xếp hàng đẩy lên kho ngoài, members nhận MESSAGE_UPDATE khi xong
+     */
+    private void offloadImage(Message message, String fileType, String sha256) {
+        if (!fileType.equalsIgnoreCase("image")) {
+            return;
+        }
+        MediaOffloader.getInstance().submit(
+                clientHandler.getServer(),
+                message.getMessageId(),
+                message.getConversationId(),
+                message.getMediaUrl(),
+                BlobStore.getInstance().pathFor(sha256),
+                message.getFileName()
+        );
+    }
+
+    /**
+     * Tạo và lưu message file; null nếu đã gửi lỗi cho client
+     * (blob không có tin tham chiếu sẽ được BlobStore thu gom)
+     */
+    private Message saveFileMessage(String conversationId, String senderId, String fileName, String fileType,
+                                    String fileUrl, long fileSize) {
+        // Lấy thông tin người gửi
+        User sender = UserDAO.findById(senderId);
+        if (sender == null) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Không tìm thấy người gửi"
+            ));
+            return null;
+        }
+
+        // Tạo message
+        Message message = new Message(conversationId, senderId, "");
+        message.setMessageType(getMessageType(fileType));
+        message.setMediaUrl(fileUrl);
+        message.setFileName(fileName);
+        message.setFileSize(fileSize);
+        message.setSenderName(sender.getDisplayName());
+        message.setSenderAvatar(sender.getAvatarUrl());
+
+        // Lưu vào database
+        if (!MessagePersistence.getInstance().submit(message)) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_DATABASE_ERROR,
+                    "Lỗi lưu message file"
+            ));
+            return null;
+        }
+        return message;
+    }
+
+    // ==================== CHUNKED UPLOAD ====================
+
+    /**
+     * FILE_UPLOAD_INIT|||conv|||sender|||fileName|||fileType|||fileSize[|||sha256]
+     * -> SUCCESS|||msg|||uploadId|||receivedOffset|||chunkSize
+     * -> SUCCESS|||msg|||""|||fileSize|||chunkSize|||fileUrl nếu blob đã có (tin nhắn đã được gửi)
+     */
+    private void handleUploadInit(String[] parts) {
+        if (parts.length < 6) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Dữ liệu upload không hợp lệ"
+            ));
             return;
         }
 
+        String conversationId = parts[1];
+        String senderId = parts[2];
+        String fileName = parts[3];
+        String fileType = parts[4];
+        long fileSize;
         try {
-            // Đọc file data
-            byte[] fileData = readFileData(fileSize);
-
-            String fileUrl;
-
-            // Upload ảnh lên Cloudinary
-            if (fileType.equalsIgnoreCase("image")) {
-                fileUrl = uploadImageToCloudinary(fileData, fileName);
-                if (fileUrl == null) {
-                    clientHandler.sendMessage(Protocol.buildErrorResponse(
-                            Protocol.ERR_SERVER_ERROR,
-                            "Lỗi upload ảnh lên Cloudinary"
-                    ));
-                    return;
-                }
-                System.out.println("✓ Ảnh đã upload lên Cloudinary: " + fileUrl);
-            }
-            // Lưu file khác vào local
-            else {
-                String fileId = UUID.randomUUID().toString();
-                String extension = getFileExtension(fileName);
-                String storedFileName = fileId + extension;
-                String subDir = getSubDirectory(fileType);
-                Path filePath = Paths.get(UPLOAD_DIR, subDir, storedFileName);
-
-                Files.write(filePath, fileData);
-                fileUrl = generateLocalFileUrl(subDir, storedFileName);
-                System.out.println("✓ File đã lưu local: " + filePath);
-            }
+            fileSize = Long.parseLong(parts[5]);
+        } catch (NumberFormatException e) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Kích thước file không hợp lệ"
+            ));
+            return;
+        }
+        String sha256 = parts.length > 6 ? parts[6].toLowerCase() : "";
 
-            // Lấy thông tin người gửi
-            User sender = UserDAO.findById(senderId);
-            if (sender == null) {
-                clientHandler.sendMessage(Protocol.buildErrorResponse(
-                        Protocol.ERR_SERVER_ERROR,
-                        "Không tìm thấy người gửi"
-                ));
+        Set<String> members = checkUpload(conversationId, senderId, fileType, fileSize);
+        if (members == null) {
+            return;
+        }
+
+        // Server đã có nội dung này: gửi luôn tin nhắn, client không cần truyền dữ liệu
+        if (BlobStore.getInstance().reuse(sha256, fileSize)) {
+            String fileUrl = generateBlobUrl(sha256);
+            Message message = saveFileMessage(conversationId, senderId, fileName, fileType, fileUrl, fileSize);
+            if (message == null) {
                 return;
             }
 
-            // Tạo message
-            Message message = new Message(conversationId, senderId, "");
-            message.setMessageType(getMessageType(fileType));
-            message.setMediaUrl(fileUrl);
-            message.setFileName(fileName);
-            message.setFileSize(fileSize);
-            message.setSenderName(sender.getDisplayName());
-            message.setSenderAvatar(sender.getAvatarUrl());
+            clientHandler.sendMessage(Protocol.buildSuccessResponse(
+                    "File đã có trên server",
+                    "",
+                    String.valueOf(fileSize),
+                    String.valueOf(ServerConfig.getUploadChunkBytes()),
+                    fileUrl
+            ));
+            broadcastFileMessageToAll(members, message);
+            offloadImage(message, fileType, sha256);
+            System.out.println("✓ Upload trùng nội dung, dùng lại blob: " + fileName + " (" + fileSize + " bytes)");
+            return;
+        }
 
-            // Lưu vào database
-            if (MessageDAO.createMessage(message)) {
+        try {
+            UploadSessions.Session session = UploadSessions.getInstance()
+                    .create(conversationId, senderId, fileName, fileType, fileSize, sha256);
+            System.out.println("→ Mở phiên upload " + session.getUploadId() + ": " + fileName
+                    + " (" + fileSize + " bytes)");
 
-                // Gửi SUCCESS response cho người gửi
-                clientHandler.sendMessage(Protocol.buildSuccessResponse(
-                        "Upload file thành công",
-                        fileUrl
-                ));
+            clientHandler.sendMessage(Protocol.buildSuccessResponse(
+                    "Đã tạo phiên upload",
+                    session.getUploadId(),
+                    String.valueOf(session.getReceived()),
+                    String.valueOf(ServerConfig.getUploadChunkBytes())
+            ));
+        } catch (IOException e) {
+            System.err.println("Lỗi tạo phiên upload: " + e.getMessage());
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Không tạo được phiên upload"
+            ));
+        }
+    }
+
+    /**
+     * FILE_UPLOAD_STATUS|||uploadId -> SUCCESS|||msg|||receivedOffset|||fileSize
+     */
+    private void handleUploadStatus(String[] parts) {
+        UploadSessions.Session session = findUploadSession(parts);
+        if (session == null) {
+            return;
+        }
 
-                // ===== QUAN TRỌNG: BROADCAST CHO TẤT CẢ (bao gồm người gửi) =====
-                broadcastFileMessageToAll(conversation, message);
+        clientHandler.sendMessage(Protocol.buildSuccessResponse(
+                "Trạng thái upload",
+                String.valueOf(session.getReceived()),
+                String.valueOf(session.getFileSize())
+        ));
+    }
 
-                System.out.println("✓ File đã upload và broadcast: " + fileName);
+    /**
+     * FILE_UPLOAD_CHUNK|||uploadId|||offset|||length|||crc32, sau đó là length byte dữ liệu
+     * -> SUCCESS|||msg|||receivedOffset
+     */
+    private void handleUploadChunk(String[] parts) {
+        long offset;
+        long length;
+        long crc;
+        try {
+            offset = Long.parseLong(parts[2]);
+            length = Long.parseLong(parts[3]);
+            crc = Long.parseLong(parts[4]);
+        } catch (RuntimeException e) {
+            // Không biết độ dài dữ liệu theo sau: luồng mất đồng bộ
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Khối upload không hợp lệ"
+            ));
+            return;
+        }
+
+        try {
+            UploadSessions.Session session = findUploadSession(parts);
+            if (session == null) {
+                FileStorage.getInstance().skip(clientHandler.getRawInputStream(), length);
+                return;
+            }
+
+            boolean accepted = UploadSessions.getInstance()
+                    .appendChunk(session, clientHandler.getRawInputStream(), offset, length, crc);
+            if (accepted) {
+                clientHandler.sendMessage(Protocol.buildSuccessResponse(
+                        "Đã nhận khối",
+                        String.valueOf(session.getReceived())
+                ));
             } else {
-                // Xóa file nếu lưu message thất bại
-                if (!fileType.equalsIgnoreCase("image")) {
-                    Path filePath = getFilePathFromUrl(fileUrl);
-                    Files.deleteIfExists(filePath);
-                }
+                // Client hỏi FILE_UPLOAD_STATUS rồi gửi lại từ offset server đang giữ
                 clientHandler.sendMessage(Protocol.buildErrorResponse(
-                        Protocol.ERR_DATABASE_ERROR,
-                        "Lỗi lưu message file"
+                        Protocol.ERR_SERVER_ERROR,
+                        "Khối bị từ chối, server đang ở offset " + session.getReceived()
                 ));
             }
-
         } catch (IOException e) {
-            System.err.println("Lỗi upload file: " + e.getMessage());
+            System.err.println("Lỗi nhận khối upload: " + e.getMessage());
             clientHandler.sendMessage(Protocol.buildErrorResponse(
                     Protocol.ERR_SERVER_ERROR,
-                    "Upload file thất bại: " + e.getMessage()
+                    "Nhận khối thất bại: " + e.getMessage()
             ));
         }
     }
 
-    // ==================== CLOUDINARY ====================
+    /**
+     * FILE_UPLOAD_COMPLETE|||uploadId -> như FILE_UPLOAD (SUCCESS|||msg|||fileUrl + broadcast)
+     */
+    private void handleUploadComplete(String[] parts) {
+        UploadSessions.Session session = findUploadSession(parts);
+        if (session == null) {
+            return;
+        }
 
-    private String uploadImageToCloudinary(byte[] imageData, String fileName) {
-        if (cloudinary == null) {
-            System.err.println("⚠️ Cloudinary chưa được cấu hình");
-            return null;
+        // Thành viên có thể đã bị xóa khỏi nhóm trong lúc upload
+        Set<String> members = checkUpload(session.getConversationId(), session.getSenderId(),
+                session.getFileType(), session.getFileSize());
+        if (members == null) {
+            UploadSessions.getInstance().remove(session);
+            return;
         }
 
+        FileStorage.StagedFile staged = null;
         try {
-            String publicId = "chat_images/" + UUID.randomUUID().toString();
-
-            Map uploadResult = cloudinary.uploader().upload(imageData, ObjectUtils.asMap(
-                    "public_id", publicId,
-                    "folder", "chat_images",
-                    "resource_type", "image",
-                    "overwrite", false,
-                    "use_filename", false
+            staged = UploadSessions.getInstance().complete(session);
+            System.out.println("✓ Phiên upload " + session.getUploadId() + " đủ " + staged.getSize()
+                    + " bytes, sha256=" + staged.getSha256());
+
+            publishUpload(session.getConversationId(), session.getSenderId(), session.getFileName(),
+                    session.getFileType(), members, staged);
+
+        } catch (IOException e) {
+            System.err.println("Lỗi hoàn tất upload: " + e.getMessage());
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Upload file thất bại: " + e.getMessage()
             ));
+        } finally {
+            if (staged != null) {
+                FileStorage.getInstance().discard(staged);
+            }
+        }
+    }
 
-            String imageUrl = (String) uploadResult.get("secure_url");
-            System.out.println("✓ Upload Cloudinary thành công: " + imageUrl);
-            return imageUrl;
+    /**
+     * Phiên theo parts[1]; null nếu đã gửi lỗi cho client
+     * (uploadId là bí mật của người tạo; kết nối đã đăng nhập bằng user khác thì bị từ chối)
+     */
+    private UploadSessions.Session findUploadSession(String[] parts) {
+        UploadSessions.Session session = parts.length > 1 ? UploadSessions.getInstance().get(parts[1]) : null;
+        if (session == null) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_NOT_FOUND,
+                    "Phiên upload không tồn tại hoặc đã hết hạn"
+            ));
+            return null;
+        }
 
-        } catch (Exception e) {
-            System.err.println("⚠️ Lỗi upload lên Cloudinary: " + e.getMessage());
-            e.printStackTrace();
+        String userId = clientHandler.getUserId();
+        if (userId != null && !userId.equals(session.getSenderId())) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.FORBIDDEN,
+                    "Phiên upload thuộc người dùng khác"
+            ));
             return null;
         }
+        return session;
     }
 
     // ==================== DOWNLOAD FILE ====================
@@ -270,11 +483,26 @@ public class FileHandler {
             return;
         }
 
-        // Download file local
+        // Download file local: FILE_DOWNLOAD|||url[|||offset|||length[|||crc]]
+        long offset;
+        long length;
+        boolean withCrc = parts.length > 4 && DOWNLOAD_WITH_CRC.equals(parts[4]);
+        try {
+            offset = parts.length > 2 && !parts[2].isEmpty() ? Long.parseLong(parts[2]) : 0;
+            length = parts.length > 3 && !parts[3].isEmpty() ? Long.parseLong(parts[3]) : -1;
+        } catch (NumberFormatException e) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Khoảng byte không hợp lệ"
+            ));
+            return;
+        }
+
+        FileChannel file = null;
         try {
             Path filePath = getFilePathFromUrl(fileUrl);
 
-            if (!Files.exists(filePath)) {
+            if (!Files.isRegularFile(filePath)) {
                 clientHandler.sendMessage(Protocol.buildErrorResponse(
                         Protocol.ERR_NOT_FOUND,
                         "Không tìm thấy file"
@@ -282,14 +510,29 @@ public class FileHandler {
                 return;
             }
 
-            byte[] fileData = Files.readAllBytes(filePath);
+            file = FileChannel.open(filePath, StandardOpenOption.READ);
+            long totalSize = file.size();
+            if (offset < 0 || offset > totalSize) {
+                clientHandler.sendMessage(Protocol.buildErrorResponse(
+                        Protocol.ERR_SERVER_ERROR,
+                        "Khoảng byte không hợp lệ"
+                ));
+                return;
+            }
+            long count = length < 0 ? totalSize - offset : Math.min(length, totalSize - offset);
 
-            clientHandler.sendMessage(Protocol.buildSuccessResponse(
-                    "File sẵn sàng download",
-                    String.valueOf(fileData.length)
-            ));
+            // SUCCESS|||msg|||số byte gửi|||kích thước file|||offset[|||crc32], sau đó là count byte dữ liệu
+            // crc32 để client tải nối tiếp kiểm tra từng khoảng trước khi ghi vào file .partial
+            String[] data = withCrc
+                    ? new String[]{String.valueOf(count), String.valueOf(totalSize), String.valueOf(offset),
+                            String.valueOf(FileStorage.getInstance().crc32(file, offset, count))}
+                    : new String[]{String.valueOf(count), String.valueOf(totalSize), String.valueOf(offset)};
+            clientHandler.sendMessage(Protocol.buildSuccessResponse("File sẵn sàng download", data));
 
-            sendFileData(fileData);
+            // sendFile nhận quyền đóng file
+            FileChannel transferred = file;
+            file = null;
+            clientHandler.sendFile(transferred, offset, count);
 
         } catch (IOException e) {
             System.err.println("Lỗi download file: " + e.getMessage());
@@ -297,6 +540,13 @@ public class FileHandler {
                     Protocol.ERR_SERVER_ERROR,
                     "Download file thất bại: " + e.getMessage()
             ));
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
 
@@ -313,8 +563,9 @@ public class FileHandler {
 
         String fileUrl = parts[1];
 
-        if (fileUrl.contains("cloudinary.com")) {
-            boolean deleted = deleteImageFromCloudinary(fileUrl);
+        RemoteMediaStore remoteStore = MediaOffloader.getInstance().getStore();
+        if (remoteStore != null && remoteStore.owns(fileUrl)) {
+            boolean deleted = remoteStore.delete(fileUrl);
             if (deleted) {
                 clientHandler.sendMessage(Protocol.buildSuccessResponse("Đã xóa ảnh"));
             } else {
@@ -329,6 +580,15 @@ public class FileHandler {
         try {
             Path filePath = getFilePathFromUrl(fileUrl);
 
+            if (BlobStore.isBlobPath(filePath)) {
+                // Blob có thể đang được tin nhắn khác dùng; hết tham chiếu thì BlobStore tự thu gom
+                clientHandler.sendMessage(Protocol.buildErrorResponse(
+                        Protocol.FORBIDDEN,
+                        "File dùng chung không xóa trực tiếp được"
+                ));
+                return;
+            }
+
             if (Files.exists(filePath)) {
                 Files.delete(filePath);
                 clientHandler.sendMessage(Protocol.buildSuccessResponse("Đã xóa file"));
@@ -348,41 +608,6 @@ public class FileHandler {
         }
     }
 
-    private boolean deleteImageFromCloudinary(String imageUrl) {
-        if (cloudinary == null) return false;
-
-        try {
-            String publicId = extractPublicIdFromUrl(imageUrl);
-            if (publicId != null) {
-                Map result = cloudinary.uploader().destroy(publicId, ObjectUtils.emptyMap());
-                return "ok".equals(result.get("result"));
-            }
-            return false;
-        } catch (Exception e) {
-            System.err.println("⚠️ Lỗi xóa ảnh: " + e.getMessage());
-            return false;
-        }
-    }
-
-    private String extractPublicIdFromUrl(String url) {
-        try {
-            String[] parts = url.split("/upload/");
-            if (parts.length < 2) return null;
-
-            String afterUpload = parts[1];
-            afterUpload = afterUpload.replaceFirst("v\\d+/", "");
-
-            int lastDot = afterUpload.lastIndexOf('.');
-            if (lastDot > 0) {
-                afterUpload = afterUpload.substring(0, lastDot);
-            }
-
-            return afterUpload;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     // ==================== FILE INFO ====================
 
     private void handleFileInfo(String[] parts) {
@@ -446,16 +671,6 @@ public class FileHandler {
         };
     }
 
-    private String getSubDirectory(String fileType) {
-        return switch (fileType.toLowerCase()) {
-            case "video" -> "videos";
-            case "audio" -> "audio";
-            case "document" -> "documents";
-            case "archive" -> "archives";
-            default -> "files";
-        };
-    }
-
     private String getMessageType(String fileType) {
         return switch (fileType.toLowerCase()) {
             case "image" -> "image";
@@ -465,55 +680,26 @@ public class FileHandler {
         };
     }
 
-    private String getFileExtension(String fileName) {
-        int dotIndex = fileName.lastIndexOf('.');
-        return dotIndex > 0 ? fileName.substring(dotIndex) : "";
-    }
-
-    private String generateLocalFileUrl(String subDir, String fileName) {
-        return "http://localhost:8080/uploads/" + subDir + "/" + fileName;
+    private String generateBlobUrl(String sha256) {
+        return BlobStore.urlFor(sha256);
     }
 
-    private Path getFilePathFromUrl(String fileUrl) {
+    private Path getFilePathFromUrl(String fileUrl) throws IOException {
         String relativePath = fileUrl.substring(fileUrl.indexOf("/uploads/") + 9);
-        return Paths.get(UPLOAD_DIR, relativePath);
-    }
-
-    private byte[] readFileData(long fileSize) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        InputStream in = clientHandler.getRawInputStream();
-        byte[] buffer = new byte[8192];
-        long totalRead = 0;
-
-        System.out.println("→ Đang đọc file data: " + fileSize + " bytes");
-
-        while (totalRead < fileSize) {
-            int toRead = (int) Math.min(buffer.length, fileSize - totalRead);
-            int read = in.read(buffer, 0, toRead);
-
-            if (read == -1) {
-                throw new IOException("Client ngắt kết nối. Đã nhận " + totalRead + "/" + fileSize + " bytes");
-            }
-
-            baos.write(buffer, 0, read);
-            totalRead += read;
+        Path root = FileStorage.getInstance().getRoot().toAbsolutePath().normalize();
+        Path path = root.resolve(relativePath).normalize();
+        // Không cho "../" thoát ra ngoài thư mục uploads
+        if (!path.startsWith(root)) {
+            throw new IOException("Đường dẫn file không hợp lệ");
         }
-
-        System.out.println("✓ Đã đọc xong " + totalRead + " bytes");
-        return baos.toByteArray();
-    }
-
-    private void sendFileData(byte[] data) throws IOException {
-        OutputStream out = clientHandler.getRawOutputStream();
-        out.write(data);
-        out.flush();
+        return path;
     }
 
     /**
      * FIXED: Broadcast MESSAGE_RECEIVE cho TẤT CẢ members (bao gồm người gửi)
      * Điều này đảm bảo người gửi cũng nhận được message và hiển thị đồng bộ
      */
-    private void broadcastFileMessageToAll(Conversation conversation, Message message) {
+    private void broadcastFileMessageToAll(Set<String> members, Message message) {
         String broadcastMsg = Protocol.buildRequest(
                 Protocol.MESSAGE_RECEIVE,
                 message.getMessageId(),
@@ -525,13 +711,14 @@ public class FileHandler {
                 message.getSenderName(),
                 message.getSenderAvatar() != null ? message.getSenderAvatar() : "",
                 message.getFileName() != null ? message.getFileName() : "",
-                String.valueOf(message.getFileSize())
+                String.valueOf(message.getFileSize()),
+                message.getThumbnailUrl() != null ? message.getThumbnailUrl() : ""
         );
 
         System.out.println("→ Broadcasting MESSAGE_RECEIVE to all members:");
 
         // Broadcast cho TẤT CẢ members (KHÔNG loại trừ người gửi)
-        for (String memberId : conversation.getMemberIds()) {
+        for (String memberId : members) {
             ClientHandler handler = clientHandler.getServer().getClientHandler(memberId);
             if (handler != null) {
                 handler.sendMessage(broadcastMsg);
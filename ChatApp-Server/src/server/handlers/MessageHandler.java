@@ -1,17 +1,18 @@
 package server.handlers;
 
+import database.cache.ConversationRegistry;
 import database.dao.MessageDAO;
-import database.dao.ConversationDAO;
 import database.dao.UserDAO;
+import database.persistence.MessagePersistence;
 import database.dao.StickerDAO;
 import models.Message;
-import models.Conversation;
 import models.User;
 import protocol.Protocol;
 import server.ClientHandler;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Handler for message operations - Complete with Sticker/Emoji support
@@ -19,6 +20,9 @@ import java.util.List;
 public class MessageHandler {
 
     private final ClientHandler clientHandler;
+    // Handler của một kết nối chạy tuần tự -> dùng lại một builder
+    private final Protocol.MessageBuilder builder = new Protocol.MessageBuilder();
+    private static final int MAX_PAGE_SIZE = 200;
 
     public MessageHandler(ClientHandler clientHandler) {
         this.clientHandler = clientHandler;
@@ -32,6 +36,12 @@ public class MessageHandler {
             case Protocol.MESSAGE_GET_HISTORY:
                 handleGetHistory(parts);
                 break;
+            case Protocol.MESSAGE_GET_HISTORY_PAGE:
+                handleGetHistoryPage(parts);
+                break;
+            case Protocol.MESSAGE_SEARCH:
+                handleSearch(parts);
+                break;
             case Protocol.MESSAGE_MARK_READ:
                 handleMarkRead(parts);
                 break;
@@ -91,8 +101,8 @@ public class MessageHandler {
         System.out.println("→ Processing message - Type: " + messageType + ", Conv: " + conversationId);
 
         // Validate conversation
-        Conversation conversation = ConversationDAO.findById(conversationId);
-        if (conversation == null) {
+        Set<String> members = ConversationRegistry.getInstance().getMembers(conversationId);
+        if (members == null) {
             clientHandler.sendMessage(Protocol.buildErrorResponse(
                     Protocol.ERR_SERVER_ERROR,
                     "Conversation not found"
@@ -101,7 +111,7 @@ public class MessageHandler {
         }
 
         // Validate membership
-        if (!conversation.hasMember(senderId)) {
+        if (!members.contains(senderId)) {
             clientHandler.sendMessage(Protocol.buildErrorResponse(
                     Protocol.FORBIDDEN,
                     "You are not a member of this conversation"
@@ -190,23 +200,27 @@ public class MessageHandler {
             message.setReplyToMessageId(replyToId);
         }
 
-        // Save to database
-        if (MessageDAO.createMessage(message)) {
-            System.out.println("  ✅ Message saved to DB: " + message.getMessageId());
+        if (!MessagePersistence.getInstance().isWithinLimits(message)) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.INVALID_REQUEST,
+                    "Message is too long"
+            ));
+            return;
+        }
 
-            // Build message data for response
-            String messageData = buildMessageData(message);
+        // Save to database
+        if (MessagePersistence.getInstance().submit(message)) {
+            System.out.println("  ✅ Message accepted: " + message.getMessageId());
 
             // Send success confirmation to sender
-            clientHandler.sendMessage(Protocol.buildSuccessResponse(
-                    "Message sent",
-                    messageData
-            ));
+            builder.start(Protocol.SUCCESS).param("Message sent").beginParam();
+            appendMessageData(builder, message);
+            clientHandler.sendMessage(builder.build());
 
             // Broadcast to all conversation members (except sender)
-            broadcastMessage(conversation, message, senderId);
+            broadcastMessage(members, message, senderId);
 
-            System.out.println("  ✅ Message broadcasted to " + conversation.getMemberIds().size() + " members");
+            System.out.println("  ✅ Message broadcasted to " + members.size() + " members");
         } else {
             clientHandler.sendMessage(Protocol.buildErrorResponse(
                     Protocol.ERR_DATABASE_ERROR,
@@ -266,20 +280,149 @@ public class MessageHandler {
                 conversationId, offset, limit, userId
         );
 
-        StringBuilder data = new StringBuilder();
+        builder.start(Protocol.SUCCESS).param("Message history retrieved").beginParam();
         for (int i = 0; i < messages.size(); i++) {
-            if (i > 0) data.append(Protocol.FIELD_DELIMITER);
-            data.append(buildMessageData(messages.get(i)));
+            if (i > 0) builder.nextItem();
+            appendMessageData(builder, messages.get(i));
         }
 
-        clientHandler.sendMessage(Protocol.buildSuccessResponse(
-                "Message history retrieved",
-                data.toString()
-        ));
+        clientHandler.sendMessage(builder.build());
 
         System.out.println("✅ Sent " + messages.size() + " messages (filtered by deletion timestamp)");
     }
 
+    /**
+     * MESSAGE_GET_HISTORY_PAGE|||conversationId|||before/after|||cursor|||limit
+     * cursor = "timestamp/messageId" của tin cuối trang trước, rỗng = trang đầu
+     * Trả về SUCCESS|||...|||messages|||nextCursor (rỗng khi hết)
+     */
+    private void handleGetHistoryPage(String[] parts) {
+        if (parts.length < 5) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Invalid request"
+            ));
+            return;
+        }
+
+        String conversationId = parts[1];
+        boolean before = !Protocol.HISTORY_AFTER.equals(parts[2]);
+        String userId = clientHandler.getUserId();
+
+        LocalDateTime cursorTime = null;
+        String cursorId = null;
+        int limit;
+        try {
+            limit = Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(parts[4])));
+            if (!parts[3].isEmpty()) {
+                int slash = parts[3].indexOf('/');
+                cursorTime = LocalDateTime.parse(parts[3].substring(0, slash));
+                cursorId = parts[3].substring(slash + 1);
+            }
+        } catch (RuntimeException e) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Invalid cursor"
+            ));
+            return;
+        }
+
+        // Lấy dư một tin để biết còn trang sau hay không
+        List<Message> messages = MessageDAO.getMessagesPageForUser(
+                conversationId, userId, cursorTime, cursorId, before, limit + 1
+        );
+        String nextCursor = "";
+        if (messages.size() > limit) {
+            messages = messages.subList(0, limit);
+            Message last = messages.get(limit - 1);
+            nextCursor = last.getTimestamp() + "/" + last.getMessageId();
+        }
+
+        builder.start(Protocol.SUCCESS).param("Message history retrieved").beginParam();
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) builder.nextItem();
+            appendMessageData(builder, messages.get(i));
+        }
+        builder.param(nextCursor);
+
+        clientHandler.sendMessage(builder.build());
+    }
+
+    // ==================== SEARCH ====================
+
+    /**
+     * MESSAGE_SEARCH|||conversationId|||keyword|||relevance/time|||cursor|||limit
+     * cursor: offset (relevance) hoặc "timestamp/messageId" (time), rỗng = trang đầu
+     * Trả về SUCCESS|||...|||messages|||nextCursor (rỗng khi hết)
+     */
+    private void handleSearch(String[] parts) {
+        if (parts.length < 6) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Invalid request"
+            ));
+            return;
+        }
+
+        String conversationId = parts[1];
+        String keyword = Protocol.decode(parts[2]);
+        boolean byRelevance = !Protocol.SEARCH_BY_TIME.equals(parts[3]);
+        String userId = clientHandler.getUserId();
+
+        Set<String> members = ConversationRegistry.getInstance().getMembers(conversationId);
+        if (members == null || !members.contains(userId)) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.FORBIDDEN,
+                    "You are not a member of this conversation"
+            ));
+            return;
+        }
+
+        int offset = 0;
+        LocalDateTime cursorTime = null;
+        String cursorId = null;
+        int limit;
+        try {
+            limit = Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(parts[5])));
+            if (!parts[4].isEmpty()) {
+                if (byRelevance) {
+                    offset = Math.max(0, Integer.parseInt(parts[4]));
+                } else {
+                    int slash = parts[4].indexOf('/');
+                    cursorTime = LocalDateTime.parse(parts[4].substring(0, slash));
+                    cursorId = parts[4].substring(slash + 1);
+                }
+            }
+        } catch (RuntimeException e) {
+            clientHandler.sendMessage(Protocol.buildErrorResponse(
+                    Protocol.ERR_SERVER_ERROR,
+                    "Invalid cursor"
+            ));
+            return;
+        }
+
+        List<Message> messages = MessageDAO.searchMessages(
+                conversationId, userId, keyword, byRelevance, offset, cursorTime, cursorId, limit + 1
+        );
+        String nextCursor = "";
+        if (messages.size() > limit) {
+            messages = messages.subList(0, limit);
+            Message last = messages.get(limit - 1);
+            nextCursor = byRelevance
+                    ? String.valueOf(offset + limit)
+                    : last.getTimestamp() + "/" + last.getMessageId();
+        }
+
+        builder.start(Protocol.SUCCESS).param("Search results").beginParam();
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) builder.nextItem();
+            appendMessageData(builder, messages.get(i));
+        }
+        builder.param(nextCursor);
+
+        clientHandler.sendMessage(builder.build());
+    }
+
     // ==================== MARK READ ====================
 
     private void handleMarkRead(String[] parts) {
@@ -366,15 +509,15 @@ public class MessageHandler {
             message.editContent(newContent);
 
             // Broadcast update to conversation members
-            Conversation conversation = ConversationDAO.findById(message.getConversationId());
-            if (conversation != null) {
+            Set<String> members = ConversationRegistry.getInstance().getMembers(message.getConversationId());
+            if (members != null) {
                 String updateMsg = Protocol.buildRequest(
                         Protocol.MESSAGE_EDIT,
                         messageId,
                         newContent
                 );
 
-                for (String memberId : conversation.getMemberIds()) {
+                for (String memberId : members) {
                     ClientHandler handler = clientHandler.getServer().getClientHandler(memberId);
                     if (handler != null) {
                         handler.sendMessage(updateMsg);
@@ -427,14 +570,14 @@ public class MessageHandler {
         // Recall message
         if (MessageDAO.recallMessage(messageId)) {
             // Broadcast recall to conversation members
-            Conversation conversation = ConversationDAO.findById(message.getConversationId());
-            if (conversation != null) {
+            Set<String> members = ConversationRegistry.getInstance().getMembers(message.getConversationId());
+            if (members != null) {
                 String recallMsg = Protocol.buildRequest(
                         Protocol.MESSAGE_RECALL,
                         messageId
                 );
 
-                for (String memberId : conversation.getMemberIds()) {
+                for (String memberId : members) {
                     ClientHandler handler = clientHandler.getServer().getClientHandler(memberId);
                     if (handler != null) {
                         handler.sendMessage(recallMsg);
@@ -511,16 +654,17 @@ public class MessageHandler {
         forwardedMessage.setMediaUrl(originalMessage.getMediaUrl());
         forwardedMessage.setFileName(originalMessage.getFileName());
         forwardedMessage.setFileSize(originalMessage.getFileSize());
+        forwardedMessage.setThumbnailUrl(originalMessage.getThumbnailUrl());
 
-        if (MessageDAO.createMessage(forwardedMessage)) {
+        if (MessagePersistence.getInstance().submit(forwardedMessage)) {
             clientHandler.sendMessage(Protocol.buildSuccessResponse(
                     "Message forwarded"
             ));
 
             // Broadcast to target conversation
-            Conversation targetConv = ConversationDAO.findById(targetConversationId);
-            if (targetConv != null) {
-                broadcastMessage(targetConv, forwardedMessage, null);
+            Set<String> targetMembers = ConversationRegistry.getInstance().getMembers(targetConversationId);
+            if (targetMembers != null) {
+                broadcastMessage(targetMembers, forwardedMessage, null);
             }
         } else {
             clientHandler.sendMessage(Protocol.buildErrorResponse(
@@ -548,8 +692,8 @@ public class MessageHandler {
 
         Message message = MessageDAO.findById(messageId);
         if (message != null) {
-            Conversation conversation = ConversationDAO.findById(message.getConversationId());
-            if (conversation != null) {
+            Set<String> members = ConversationRegistry.getInstance().getMembers(message.getConversationId());
+            if (members != null) {
                 String reactionMsg = Protocol.buildRequest(
                         Protocol.MESSAGE_REACT,
                         messageId,
@@ -557,7 +701,7 @@ public class MessageHandler {
                         emoji
                 );
 
-                for (String memberId : conversation.getMemberIds()) {
+                for (String memberId : members) {
                     ClientHandler handler = clientHandler.getServer().getClientHandler(memberId);
                     if (handler != null) {
                         handler.sendMessage(reactionMsg);
@@ -569,104 +713,59 @@ public class MessageHandler {
 
     // ==================== TYPING INDICATORS ====================
 
+    /**
+     * Chỉ trạng thái trong bộ nhớ (TypingService), không truy vấn DB
+     */
     private void handleTypingStart(String[] parts) {
-        if (parts.length < 3) return;
+        if (parts.length < 3 || !parts[2].equals(clientHandler.getUserId())) return;
 
-        String conversationId = parts[1];
-        String userId = parts[2];
-
-        // Broadcast to conversation members
-        Conversation conversation = ConversationDAO.findById(conversationId);
-        if (conversation != null) {
-            String typingMsg = Protocol.buildRequest(
-                    Protocol.TYPING_START,
-                    conversationId,
-                    userId
-            );
-
-            for (String memberId : conversation.getMemberIds()) {
-                if (!memberId.equals(userId)) {
-                    ClientHandler handler = clientHandler.getServer().getClientHandler(memberId);
-                    if (handler != null) {
-                        handler.sendMessage(typingMsg);
-                    }
-                }
-            }
-        }
+        clientHandler.getServer().getTypingService().start(parts[1], parts[2]);
     }
 
     private void handleTypingStop(String[] parts) {
-        if (parts.length < 3) return;
+        if (parts.length < 3 || !parts[2].equals(clientHandler.getUserId())) return;
 
-        String conversationId = parts[1];
-        String userId = parts[2];
-
-        // Broadcast to conversation members
-        Conversation conversation = ConversationDAO.findById(conversationId);
-        if (conversation != null) {
-            String typingMsg = Protocol.buildRequest(
-                    Protocol.TYPING_STOP,
-                    conversationId,
-                    userId
-            );
-
-            for (String memberId : conversation.getMemberIds()) {
-                if (!memberId.equals(userId)) {
-                    ClientHandler handler = clientHandler.getServer().getClientHandler(memberId);
-                    if (handler != null) {
-                        handler.sendMessage(typingMsg);
-                    }
-                }
-            }
-        }
+        clientHandler.getServer().getTypingService().stop(parts[1], parts[2]);
     }
 
     // ==================== HELPER METHODS ====================
 
-    private String buildMessageData(Message message) {
-        return String.format("%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s",
-                message.getMessageId(),
-                Protocol.LIST_DELIMITER,
-                message.getSenderId(),
-                Protocol.LIST_DELIMITER,
-                message.getSenderName() != null ? message.getSenderName() : "",
-                Protocol.LIST_DELIMITER,
-                message.getContent() != null ? message.getContent() : "",
-                Protocol.LIST_DELIMITER,
-                message.getMessageType() != null ? message.getMessageType() : Message.TYPE_TEXT,
-                Protocol.LIST_DELIMITER,
-                message.getMediaUrl() != null ? message.getMediaUrl() : "",
-                Protocol.LIST_DELIMITER,
-                message.getTimestamp() != null ? message.getTimestamp().toString() : "",
-                Protocol.LIST_DELIMITER,
-                message.isRead(),
-                Protocol.LIST_DELIMITER,
-                message.getSenderAvatar() != null ? message.getSenderAvatar() : "",
-                Protocol.LIST_DELIMITER,
-                message.getFileName() != null ? message.getFileName() : "",
-                Protocol.LIST_DELIMITER,
-                message.getFileSize()
-        );
+    /**
+     * id,senderId,senderName,content,type,mediaUrl,timestamp,isRead,avatar,fileName,fileSize,thumbnailUrl
+     */
+    private static void appendMessageData(Protocol.MessageBuilder builder, Message message) {
+        builder.field(message.getMessageId())
+                .field(message.getSenderId())
+                .field(message.getSenderName())
+                .field(message.getContent())
+                .field(message.getMessageType() != null ? message.getMessageType() : Message.TYPE_TEXT)
+                .field(message.getMediaUrl())
+                .field(message.getTimestamp())
+                .field(message.isRead())
+                .field(message.getSenderAvatar())
+                .field(message.getFileName())
+                .field(message.getFileSize())
+                .field(message.getThumbnailUrl());
     }
 
-    private void broadcastMessage(Conversation conversation, Message message, String excludeUserId) {
-        String broadcastMsg = Protocol.buildRequest(
-                Protocol.MESSAGE_RECEIVE,
-                message.getMessageId(),
-                message.getConversationId(),
-                message.getSenderId(),
-                message.getContent() != null ? message.getContent() : "",
-                message.getMessageType() != null ? message.getMessageType() : Message.TYPE_TEXT,
-                message.getMediaUrl() != null ? message.getMediaUrl() : "",
-                message.getSenderName() != null ? message.getSenderName() : "",
-                message.getSenderAvatar() != null ? message.getSenderAvatar() : "",
-                message.getFileName() != null ? message.getFileName() : "",
-                String.valueOf(message.getFileSize())
-        );
+    private void broadcastMessage(Set<String> members, Message message, String excludeUserId) {
+        String broadcastMsg = builder.start(Protocol.MESSAGE_RECEIVE)
+                .param(message.getMessageId())
+                .param(message.getConversationId())
+                .param(message.getSenderId())
+                .param(message.getContent())
+                .param(message.getMessageType() != null ? message.getMessageType() : Message.TYPE_TEXT)
+                .param(message.getMediaUrl())
+                .param(message.getSenderName())
+                .param(message.getSenderAvatar())
+                .param(message.getFileName())
+                .param(message.getFileSize())
+                .param(message.getThumbnailUrl())
+                .build();
 
         System.out.println("  → Broadcasting: " + broadcastMsg);
 
-        for (String memberId : conversation.getMemberIds()) {
+        for (String memberId : members) {
             if (excludeUserId == null || !memberId.equals(excludeUserId)) {
                 ClientHandler handler = clientHandler.getServer().getClientHandler(memberId);
                 if (handler != null) {
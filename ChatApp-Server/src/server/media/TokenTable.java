@@ -0,0 +1,107 @@
+package server.media;
+
+import java.util.Arrays;
+
+/**
+ * Bảng int -> giá trị cho token media (key 0 = ô trống)
+ * - Đọc không khóa, không boxing: thread relay tra token của từng packet
+ * - Ghi (thêm/bớt participant, hiếm) tạo bảng mới rồi thay cả bảng (copy-on-write)
+ */
+final class TokenTable<V> {
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int size;
+
+        Table(int capacity, int size) {
+            this.keys = new int[capacity];
+            this.values = new Object[capacity];
+            this.size = size;
+        }
+    }
+
+    private volatile Table table = new Table(16, 0);
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            int k = t.keys[i];
+            if (k == key) {
+                return (V) t.values[i];
+            }
+            if (k == 0) {
+                return null;
+            }
+        }
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    synchronized void put(int key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("token 0 is reserved");
+        }
+        Table t = table;
+        int size = t.size + (containsKey(key) ? 0 : 1);
+        // Giữ hệ số tải <= 1/2 để dãy dò luôn ngắn
+        int capacity = t.keys.length;
+        while (size * 2 > capacity) {
+            capacity <<= 1;
+        }
+        table = rebuild(t, capacity, size, key, value);
+    }
+
+    synchronized void remove(int key) {
+        Table t = table;
+        if (!containsKey(key)) {
+            return;
+        }
+        table = rebuild(t, t.keys.length, t.size - 1, key, null);
+    }
+
+    int size() {
+        return table.size;
+    }
+
+    /**
+     * Chép các entry sang bảng mới; key được gán value (null = bỏ)
+     */
+    private static Table rebuild(Table from, int capacity, int size, int key, Object value) {
+        Table to = new Table(capacity, size);
+        for (int i = 0; i < from.keys.length; i++) {
+            int k = from.keys[i];
+            if (k != 0 && k != key) {
+                insert(to, k, from.values[i]);
+            }
+        }
+        if (value != null) {
+            insert(to, key, value);
+        }
+        return to;
+    }
+
+    private static void insert(Table t, int key, Object value) {
+        int mask = t.keys.length - 1;
+        int i = mix(key) & mask;
+        while (t.keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        t.keys[i] = key;
+        t.values[i] = value;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenTable" + Arrays.toString(Arrays.stream(table.keys).filter(k -> k != 0).toArray());
+    }
+}
@@ -1,22 +1,46 @@
 package server.media;
 
+import config.ServerConfig;
+
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * UDP Media Server - Relay audio/video giữa các client trong call - FIXED
+ * - inline (mặc định): một thread nhận trên DatagramChannel và gửi tiếp ngay từ cùng một direct buffer;
+ *   không cấp phát hay chuyển thread cho từng packet, giữ nguyên thứ tự packet.
+ *   Chia shard: N channel trên cổng basePort + i, mỗi channel một thread relay;
+ *   call mới vào shard đang ít call nhất, client gửi tới cổng của shard đó
+ * - executor: đường cũ, mỗi packet được chép ra và xử lý trên cached thread pool
+ * Định tuyến theo token: mỗi participant nhận một token khi CALL_START/CALL_ANSWER,
+ * client gắn [0x7E][token int] trước header media; server tra token -> participant (O(1)),
+ * ghi nhớ địa chỉ gửi rồi ghi đè 5 byte đó thành [0x7D][sourceId int] khi relay - sourceId là số thứ tự
+ * participant trong call (không lộ token), bên nhận tách jitter buffer/video theo nguồn cho call nhóm.
+ * Packet không token chỉ được nhận từ địa chỉ đã gắn với một token và relay nguyên trạng (không có nguồn);
+ * token lạ thì bỏ - không còn đoán session theo địa chỉ
  */
 public class UdpMediaServer {
 
     private final String bindAddress;
     private final int basePort;
+    private final boolean inline;
+    private final int shardCount;
     private DatagramSocket socket;
+    private RelayShard[] shards = new RelayShard[0];
 
     private final ExecutorService executor;
     private final AtomicBoolean running;
@@ -27,15 +51,42 @@ public class UdpMediaServer {
     // Map: "ip:port" -> callId for quick lookup
     private final Map<String, String> addressToCallId;
 
+    // Đường inline: địa chỉ gửi -> session (InetSocketAddress so sánh theo ip + port, không tạo chuỗi)
+    private final Map<InetSocketAddress, CallMediaSession> sessionBySender;
+
+    // token -> participant của mọi call đang diễn ra
+    private final TokenTable<MediaMember> members = new TokenTable<>();
+    private final SecureRandom tokenRandom = new SecureRandom();
+    private final AtomicLong droppedPackets = new AtomicLong();
+
     private static final int MAX_PACKET_SIZE = 65507;
+    // Header media: type(1) + seq(4) + timestamp(8) + length(4)
+    private static final int MIN_PACKET_SIZE = 17;
+
+    // Tiền tố định tuyến: magic (1 byte) + token (4 byte), không trùng byte type 0x01/0x02 của header media
+    public static final byte TOKEN_MAGIC = 0x7E;
+    public static final int TOKEN_PREFIX_SIZE = 5;
+    // Tiền tố nguồn trên packet relay: magic (1 byte) + sourceId (4 byte), cùng độ dài tiền tố token
+    public static final byte SOURCE_MAGIC = 0x7D;
 
     public UdpMediaServer(String bindAddress, int basePort) {
+        this(bindAddress, basePort, !"executor".equalsIgnoreCase(ServerConfig.getUdpRelayMode()));
+    }
+
+    public UdpMediaServer(String bindAddress, int basePort, boolean inline) {
+        this(bindAddress, basePort, inline, ServerConfig.getUdpRelayShards());
+    }
+
+    public UdpMediaServer(String bindAddress, int basePort, boolean inline, int shardCount) {
         this.bindAddress = bindAddress;
         this.basePort = basePort;
+        this.inline = inline;
+        this.shardCount = inline ? Math.max(1, shardCount) : 1;
         this.executor = Executors.newCachedThreadPool();
         this.running = new AtomicBoolean(false);
         this.activeSessions = new ConcurrentHashMap<>();
         this.addressToCallId = new ConcurrentHashMap<>();
+        this.sessionBySender = new ConcurrentHashMap<>();
     }
 
     // ==================== START/STOP ====================
@@ -46,14 +97,52 @@ public class UdpMediaServer {
             return;
         }
 
-        socket = new DatagramSocket(basePort, InetAddress.getByName(bindAddress));
-        socket.setReuseAddress(true);
-        running.set(true);
+        if (inline) {
+            int bufferBytes = ServerConfig.getUdpSocketBufferBytes();
+            InetAddress address = InetAddress.getByName(bindAddress);
+            RelayShard[] opened = new RelayShard[shardCount];
+            try {
+                for (int i = 0; i < shardCount; i++) {
+                    DatagramChannel channel = DatagramChannel.open();
+                    try {
+                        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                        channel.setOption(StandardSocketOptions.SO_RCVBUF, bufferBytes);
+                        channel.setOption(StandardSocketOptions.SO_SNDBUF, bufferBytes);
+                        // basePort = 0: mỗi shard một cổng do hệ điều hành chọn
+                        channel.bind(new InetSocketAddress(address, basePort == 0 ? 0 : basePort + i));
+                    } catch (Exception e) {
+                        channel.close();
+                        throw e;
+                    }
+                    opened[i] = new RelayShard(i, channel);
+                }
+            } catch (Exception e) {
+                for (RelayShard shard : opened) {
+                    if (shard != null) {
+                        shard.channel.close();
+                    }
+                }
+                throw e;
+            }
+            shards = opened;
+            running.set(true);
+
+            for (RelayShard shard : shards) {
+                Thread relayThread = new Thread(() -> relayLoop(shard), "udp-relay-" + shard.index);
+                relayThread.setDaemon(true);
+                relayThread.start();
+            }
+        } else {
+            socket = new DatagramSocket(basePort, InetAddress.getByName(bindAddress));
+            socket.setReuseAddress(true);
+            running.set(true);
 
-        // Bắt đầu receive loop
-        executor.submit(this::receiveLoop);
+            // Bắt đầu receive loop
+            executor.submit(this::receiveLoop);
+        }
 
-        System.out.println("✅ UDP Media Server listening on " + bindAddress + ":" + basePort);
+        System.out.println("✅ UDP Media Server listening on " + bindAddress + ":" + getLocalPort()
+                + " (" + (inline ? "inline, " + shardCount + " shard(s)" : "executor") + ")");
     }
 
     public void stop() {
@@ -65,36 +154,278 @@ public class UdpMediaServer {
         if (socket != null && !socket.isClosed()) {
             socket.close();
         }
+        for (RelayShard shard : shards) {
+            try {
+                shard.channel.close();
+            } catch (Exception e) {
+                System.err.println("⚠️ Error closing UDP channel: " + e.getMessage());
+            }
+        }
 
         executor.shutdownNow();
+        for (CallMediaSession session : activeSessions.values()) {
+            for (MediaMember member : session.members) {
+                members.remove(member.token);
+            }
+        }
         activeSessions.clear();
         addressToCallId.clear();
+        sessionBySender.clear();
 
         System.out.println("✅ UDP Media Server stopped");
     }
 
     // ==================== CALL MANAGEMENT ====================
 
-    public void registerCall(String callId, int port) {
-        CallMediaSession session = new CallMediaSession(callId, port);
-        activeSessions.put(callId, session);
+    /**
+     * Đăng ký call và chọn shard ít call nhất; trả về cổng UDP client cần gửi tới
+     */
+    public int registerCall(String callId) {
+        RelayShard shard = null;
+        int port;
+        synchronized (this) {
+            for (RelayShard candidate : shards) {
+                if (shard == null || candidate.calls.get() < shard.calls.get()) {
+                    shard = candidate;
+                }
+            }
+            if (shard != null) {
+                shard.calls.incrementAndGet();
+                port = shard.port;
+            } else {
+                port = getLocalPort();
+            }
+        }
+
+        CallMediaSession session = new CallMediaSession(callId, port, shard);
+        CallMediaSession previous = activeSessions.put(callId, session);
+        if (previous != null && previous.shard != null) {
+            previous.shard.calls.decrementAndGet();
+        }
         System.out.println("📞 Registered call: " + callId + " on port " + port);
         System.out.println("   Active sessions: " + activeSessions.size());
+        return port;
     }
 
     public void unregisterCall(String callId) {
         CallMediaSession session = activeSessions.remove(callId);
         if (session != null) {
-            // Remove address mappings
-            for (Participant p : session.getParticipants()) {
-                String key = p.address.getHostAddress() + ":" + p.port;
-                addressToCallId.remove(key);
+            if (session.shard != null) {
+                session.shard.calls.decrementAndGet();
+            }
+            // Remove token + address mappings
+            synchronized (session) {
+                for (MediaMember member : session.members) {
+                    members.remove(member.token);
+                }
+                for (Participant p : session.getParticipants()) {
+                    String key = p.address.getHostAddress() + ":" + p.port;
+                    addressToCallId.remove(key);
+                    sessionBySender.remove(p.endpoint);
+                }
             }
             System.out.println("📞 Unregistered call: " + callId);
             System.out.println("   Remaining sessions: " + activeSessions.size());
         }
     }
 
+    /**
+     * Cấp token media cho user trong call (gửi kèm response CALL_START/CALL_ANSWER);
+     * user đã có token trong call thì trả lại token cũ. 0 nếu call không tồn tại
+     */
+    public int issueToken(String callId, String userId) {
+        CallMediaSession session = activeSessions.get(callId);
+        if (session == null) {
+            return 0;
+        }
+
+        synchronized (session) {
+            for (MediaMember member : session.members) {
+                if (member.userId.equals(userId)) {
+                    return member.token;
+                }
+            }
+
+            int token;
+            synchronized (members) {
+                do {
+                    token = tokenRandom.nextInt();
+                } while (token == 0 || members.containsKey(token));
+                // sourceId: số thứ tự trong call, bên nhận dùng để tách nguồn
+                MediaMember member = new MediaMember(token, session.members.size() + 1, userId, session);
+                members.put(token, member);
+                session.members.add(member);
+            }
+
+            // Call đã kết thúc trong lúc cấp token
+            if (activeSessions.get(callId) != session) {
+                members.remove(token);
+                return 0;
+            }
+
+            System.out.println("🎫 Media token issued for " + userId + " in call " + callId);
+            return token;
+        }
+    }
+
+    /**
+     * Packet có tiền tố token: tìm participant, ghi nhớ (hoặc cập nhật khi NAT đổi port) địa chỉ gửi
+     */
+    private MediaMember bindToken(int token, InetSocketAddress sender) {
+        MediaMember member = members.get(token);
+        if (member == null) {
+            if (droppedPackets.incrementAndGet() % 100 == 1) {
+                System.err.println("⚠️ Unknown media token from " + sender.getAddress().getHostAddress() + ":" + sender.getPort()
+                        + " (dropped " + droppedPackets.get() + ")");
+            }
+            return null;
+        }
+
+        if (!sender.equals(member.endpoint)) {
+            CallMediaSession session = member.session;
+            synchronized (session) {
+                // Call vừa kết thúc
+                if (members.get(token) != member) {
+                    return null;
+                }
+                InetSocketAddress previous = member.endpoint;
+                if (previous != null) {
+                    session.removeParticipant(previous);
+                    addressToCallId.remove(previous.getAddress().getHostAddress() + ":" + previous.getPort());
+                    sessionBySender.remove(previous);
+                }
+                member.endpoint = sender;
+                session.addParticipant(sender.getAddress(), sender.getPort());
+                addressToCallId.put(sender.getAddress().getHostAddress() + ":" + sender.getPort(), session.getCallId());
+                sessionBySender.put(sender, session);
+            }
+            System.out.println("🔗 " + member.userId + " bound to " + sender.getAddress().getHostAddress() + ":" + sender.getPort()
+                    + " in call " + session.getCallId());
+        }
+        return member;
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    /**
+     * Local port thực tế của shard đầu (basePort = 0 thì hệ điều hành chọn)
+     */
+    public int getLocalPort() {
+        if (shards.length > 0) {
+            return shards[0].port;
+        }
+        return socket != null ? socket.getLocalPort() : basePort;
+    }
+
+    public String getStats() {
+        StringBuilder stats = new StringBuilder("UDP relay: ")
+                .append(activeSessions.size()).append(" calls, ")
+                .append(droppedPackets.get()).append(" dropped");
+        for (RelayShard shard : shards) {
+            stats.append(" | :").append(shard.port).append(' ')
+                    .append(shard.calls.get()).append(" calls ")
+                    .append(shard.packets.get()).append(" pkts");
+        }
+        return stats.toString();
+    }
+
+    // ==================== INLINE RELAY ====================
+
+    /**
+     * Nhận và gửi tiếp trên cùng một thread, cùng một direct buffer:
+     * packet ra theo đúng thứ tự vào, không tạo DatagramPacket/byte[]/task cho từng packet
+     */
+    private void relayLoop(RelayShard shard) {
+        DatagramChannel channel = shard.channel;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        long packetCount = 0;
+
+        System.out.println("🔊 UDP relay loop started on port " + shard.port);
+
+        while (running.get()) {
+            try {
+                buffer.clear();
+                SocketAddress source = channel.receive(buffer);
+                if (!(source instanceof InetSocketAddress sender)) {
+                    continue;
+                }
+
+                packetCount++;
+                shard.packets.lazySet(packetCount);
+                if (packetCount % 100 == 0) {
+                    System.out.println("📊 Received " + packetCount + " UDP packets");
+                }
+
+                int length = buffer.position();
+                int offset = length > 0 && buffer.get(0) == TOKEN_MAGIC ? TOKEN_PREFIX_SIZE : 0;
+                if (length - offset < MIN_PACKET_SIZE) {
+                    System.err.println("⚠️ Invalid packet (too short): " + length + " bytes");
+                    continue;
+                }
+
+                MediaMember member = offset > 0 ? bindToken(buffer.getInt(1), sender) : null;
+                CallMediaSession session = member != null
+                        ? member.session
+                        : offset == 0 ? sessionBySender.get(sender) : null;
+                if (session == null) {
+                    if (offset == 0) {
+                        droppedPackets.incrementAndGet();
+                    }
+                    continue;
+                }
+                if (member != null) {
+                    // Thay token bằng id nguồn ngay trong buffer, gửi cả tiền tố
+                    buffer.put(0, SOURCE_MAGIC).putInt(1, member.sourceId);
+                    offset = 0;
+                }
+
+                // Gửi ra từ channel vừa nhận: peer thấy đúng cổng nó đang gửi tới
+                relayInline(channel, session, buffer, offset, length, sender);
+
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (Exception e) {
+                if (running.get()) {
+                    System.err.println("⚠️ Error relaying UDP packet: " + e.getMessage());
+                }
+            }
+        }
+
+        System.out.println("🔊 UDP relay loop stopped on port " + shard.port + ". Total packets: " + packetCount);
+    }
+
+    private void relayInline(DatagramChannel channel, CallMediaSession session, ByteBuffer buffer,
+                             int offset, int length, InetSocketAddress sender) {
+        int relayCount = 0;
+
+        for (InetSocketAddress peer : session.endpoints) {
+            // Không gửi lại cho sender
+            if (peer.equals(sender)) {
+                continue;
+            }
+
+            try {
+                buffer.limit(length).position(offset);
+                channel.send(buffer, peer);
+                relayCount++;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (Exception e) {
+                System.err.println("⚠️ Failed to relay to " + peer.getAddress().getHostAddress() + ":" + peer.getPort());
+            }
+        }
+
+        if (relayCount > 0) {
+            // Log every 50 relays
+            if (session.packetCount.incrementAndGet() % 50 == 0) {
+                System.out.println("📤 Relayed " + session.packetCount.get() +
+                        " packets for call " + session.getCallId());
+            }
+        }
+    }
+
     // ==================== RECEIVE & RELAY ====================
 
     private void receiveLoop() {
@@ -141,25 +472,34 @@ public class UdpMediaServer {
 
             byte[] data = receivedPacket.getData();
             int length = receivedPacket.getLength();
+            int offset = length > 0 && data[0] == TOKEN_MAGIC ? TOKEN_PREFIX_SIZE : 0;
 
             // Validate packet
-            if (length < 13) {
+            if (length - offset < MIN_PACKET_SIZE) {
                 System.err.println("⚠️ Invalid packet (too short): " + length + " bytes");
                 return;
             }
 
             // Find call session
-            CallMediaSession session = findOrCreateSessionForSender(senderAddress, senderPort);
+            CallMediaSession session;
+            if (offset > 0) {
+                int token = ByteBuffer.wrap(data, 1, 4).getInt();
+                MediaMember member = bindToken(token, new InetSocketAddress(senderAddress, senderPort));
+                session = member != null ? member.session : null;
+                if (member != null) {
+                    ByteBuffer.wrap(data).put(0, SOURCE_MAGIC).putInt(1, member.sourceId);
+                    offset = 0;
+                }
+            } else {
+                String callId = addressToCallId.get(senderKey);
+                session = callId != null ? activeSessions.get(callId) : null;
+            }
 
             if (session != null) {
-                // Add sender to session if not already there
-                session.addParticipant(senderAddress, senderPort);
-                addressToCallId.put(senderKey, session.getCallId());
-
                 // Relay packet to other participants
-                relayPacket(session, data, length, senderAddress, senderPort);
-            } else {
-                System.err.println("⚠️ No session found for " + senderKey);
+                relayPacket(session, data, offset, length, senderAddress, senderPort);
+            } else if (offset == 0) {
+                droppedPackets.incrementAndGet();
             }
 
         } catch (Exception e) {
@@ -168,7 +508,7 @@ public class UdpMediaServer {
         }
     }
 
-    private void relayPacket(CallMediaSession session, byte[] data, int length,
+    private void relayPacket(CallMediaSession session, byte[] data, int offset, int length,
                              InetAddress senderAddr, int senderPort) {
         int relayCount = 0;
 
@@ -180,7 +520,7 @@ public class UdpMediaServer {
 
             try {
                 DatagramPacket packet = new DatagramPacket(
-                        data, length, p.address, p.port
+                        data, offset, length - offset, p.address, p.port
                 );
                 socket.send(packet);
                 relayCount++;
@@ -199,57 +539,70 @@ public class UdpMediaServer {
         }
     }
 
-    private CallMediaSession findOrCreateSessionForSender(InetAddress address, int port) {
-        String key = address.getHostAddress() + ":" + port;
-
-        // Check if we already know this address
-        String callId = addressToCallId.get(key);
-        if (callId != null) {
-            return activeSessions.get(callId);
-        }
-
-        // Find by existing participant
-        for (CallMediaSession session : activeSessions.values()) {
-            if (session.hasParticipant(address, port)) {
-                addressToCallId.put(key, session.getCallId());
-                return session;
-            }
-        }
+    // ==================== CALL MEDIA SESSION ====================
 
-        // Assign to first available session (if client hasn't been registered yet)
-        if (!activeSessions.isEmpty()) {
-            CallMediaSession firstSession = activeSessions.values().iterator().next();
-            System.out.println("📍 Assigning " + key + " to call " + firstSession.getCallId());
-            return firstSession;
+    /**
+     * Một socket relay và thread nhận của nó
+     */
+    private static class RelayShard {
+        final int index;
+        final DatagramChannel channel;
+        final int port;
+        final java.util.concurrent.atomic.AtomicInteger calls = new java.util.concurrent.atomic.AtomicInteger();
+        final AtomicLong packets = new AtomicLong();
+
+        RelayShard(int index, DatagramChannel channel) {
+            this.index = index;
+            this.channel = channel;
+            this.port = channel.socket().getLocalPort();
         }
-
-        return null;
     }
 
-    // ==================== CALL MEDIA SESSION ====================
-
     private static class CallMediaSession {
         private final String callId;
         private final int port;
+        private final RelayShard shard;
         private final ConcurrentHashMap<String, Participant> participants;
         private final java.util.concurrent.atomic.AtomicInteger packetCount;
 
-        public CallMediaSession(String callId, int port) {
+        // Bản chụp địa chỉ participants cho đường inline (copy-on-write, đọc không khóa)
+        private volatile InetSocketAddress[] endpoints = new InetSocketAddress[0];
+
+        // Participant đã được cấp token
+        private final java.util.List<MediaMember> members = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+        public CallMediaSession(String callId, int port, RelayShard shard) {
             this.callId = callId;
             this.port = port;
+            this.shard = shard;
             this.participants = new ConcurrentHashMap<>();
             this.packetCount = new java.util.concurrent.atomic.AtomicInteger(0);
         }
 
-        public void addParticipant(InetAddress address, int port) {
+        public synchronized void addParticipant(InetAddress address, int port) {
             String key = address.getHostAddress() + ":" + port;
             if (!participants.containsKey(key)) {
-                participants.put(key, new Participant(address, port));
+                Participant participant = new Participant(address, port);
+                participants.put(key, participant);
+
+                InetSocketAddress[] next = java.util.Arrays.copyOf(endpoints, endpoints.length + 1);
+                next[endpoints.length] = participant.endpoint;
+                endpoints = next;
+
                 System.out.println("➕ Participant added to call " + callId + ": " + key);
                 System.out.println("   Total participants: " + participants.size());
             }
         }
 
+        public synchronized void removeParticipant(InetSocketAddress endpoint) {
+            String key = endpoint.getAddress().getHostAddress() + ":" + endpoint.getPort();
+            if (participants.remove(key) != null) {
+                endpoints = java.util.Arrays.stream(endpoints)
+                        .filter(e -> !e.equals(endpoint))
+                        .toArray(InetSocketAddress[]::new);
+            }
+        }
+
         public boolean hasParticipant(InetAddress address, int port) {
             String key = address.getHostAddress() + ":" + port;
             return participants.containsKey(key);
@@ -263,13 +616,32 @@ public class UdpMediaServer {
         public int getPort() { return port; }
     }
 
+    private static class MediaMember {
+        final int token;
+        final int sourceId;
+        final String userId;
+        final CallMediaSession session;
+
+        // Địa chỉ UDP lấy từ packet đầu tiên mang token (relay thread ghi, đọc không khóa)
+        volatile InetSocketAddress endpoint;
+
+        MediaMember(int token, int sourceId, String userId, CallMediaSession session) {
+            this.token = token;
+            this.sourceId = sourceId;
+            this.userId = userId;
+            this.session = session;
+        }
+    }
+
     private static class Participant {
         public final InetAddress address;
         public final int port;
+        public final InetSocketAddress endpoint;
 
         public Participant(InetAddress address, int port) {
             this.address = address;
             this.port = port;
+            this.endpoint = new InetSocketAddress(address, port);
         }
 
         @Override
@@ -0,0 +1,696 @@
+package server.nio;
+
+import config.ServerConfig;
+import protocol.Frame;
+import server.ClientHandler;
+import server.OutboundQueue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Một kết nối non-blocking.
+ * - Loop I/O chỉ đọc byte vào buffer vào và ghi buffer ra, không bao giờ block.
+ * - Việc cắt dòng và gọi ClientHandler.handleMessage chạy trên worker pool,
+ *   tuần tự theo từng kết nối (tối đa một drain task tại một thời điểm).
+ * - Dữ liệu file nhị phân đi sau một dòng lệnh được đọc qua getInputStream()
+ *   từ cùng buffer vào, nên FileHandler dùng được như ở chế độ blocking.
+ * - File download đi bằng sendFile(): FileChannel.transferTo thẳng ra socket.
+ */
+public class NioConnection {
+
+    private static final int INITIAL_INBOUND_SIZE = 1024;
+    private static final int RETAINED_INBOUND_SIZE = 64 * 1024;
+    private static final long MAX_PENDING_STREAM_BYTES = 1024 * 1024;
+    // Kích thước DATA frame khi gửi file ở protocol v2
+    private static final int FILE_FRAME_SIZE = 1024 * 1024;
+
+    /**
+     * Vùng file trong hàng đợi ra, ghi bằng transferTo (không qua heap).
+     * Không tính vào pendingBytes: ngưỡng client chậm chỉ áp cho tin text.
+     * v2: header DATA frame đi cùng vùng và được ghi trước nó, nên cả frame là một
+     * phần tử hàng đợi - send() từ thread khác không chen vào giữa header và dữ liệu.
+     */
+    private static final class FileRegion {
+        final ByteBuffer header;
+        final FileChannel file;
+        long position;
+        final long end;
+        final boolean closeWhenDone;
+
+        FileRegion(ByteBuffer header, FileChannel file, long position, long count, boolean closeWhenDone) {
+            this.header = header;
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+            this.closeWhenDone = closeWhenDone;
+        }
+
+        void release() {
+            if (closeWhenDone) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final Executor workers;
+    private final int maxInboundBytes;
+    private final long readTimeoutMillis;
+
+    private SelectionKey key;
+    private ClientHandler handler;
+
+    // ===== Inbound (guarded by inboundLock) =====
+    private final Object inboundLock = new Object();
+    private byte[] inbound;
+    private int inStart;
+    private int inEnd;
+    private int scannedLength;
+    private boolean endOfStream;
+    private boolean readSuspended;
+    // Sau HELLO (protocol v2): đọc/ghi theo frame thay vì theo dòng
+    private volatile boolean framed;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    // ===== Outbound =====
+    // ByteBuffer hoặc FileRegion, ghi đúng thứ tự
+    private final Queue<Object> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+    private final Object outboundLock = new Object();
+    private final long maxQueuedBytes = ServerConfig.getOutboundMaxQueuedBytes();
+    private final long dropTypingAbove = ServerConfig.getOutboundDropTypingAbove();
+    private final long stallTimeoutMillis = ServerConfig.getOutboundStallTimeout();
+    private volatile long lastWriteProgressAt = System.currentTimeMillis();
+
+    private volatile boolean closed;
+    private volatile long lastReadAt;
+
+    private final InputStream inputStream = new InboundStream();
+    private final OutputStream outputStream = new OutboundStream();
+
+    public NioConnection(SocketChannel channel, NioEventLoop loop, Executor workers,
+                         int maxInboundBytes, long readTimeoutMillis) {
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+        this.maxInboundBytes = maxInboundBytes;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.lastReadAt = System.currentTimeMillis();
+    }
+
+    public void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    void attachKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    public Socket socket() {
+        return channel.socket();
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    long getLastReadAt() {
+        return lastReadAt;
+    }
+
+    String getRemoteAddress() {
+        Socket s = channel.socket();
+        return s.getInetAddress() != null ? s.getInetAddress().getHostAddress() + ":" + s.getPort() : "?";
+    }
+
+    // ==================== INBOUND (loop thread) ====================
+
+    /**
+     * Nhận byte từ loop. Trả về false nếu buffer vào đã đầy (tạm ngưng đọc).
+     */
+    boolean onBytesRead(ByteBuffer data) {
+        lastReadAt = System.currentTimeMillis();
+        boolean full;
+
+        synchronized (inboundLock) {
+            int n = data.remaining();
+            ensureInboundCapacity(n);
+            data.get(inbound, inEnd, n);
+            inEnd += n;
+            inboundLock.notifyAll();
+
+            full = inEnd - inStart >= maxInboundBytes;
+            if (full && key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                readSuspended = true;
+            }
+        }
+
+        scheduleDrain();
+        return !full;
+    }
+
+    void onEndOfStream() {
+        synchronized (inboundLock) {
+            endOfStream = true;
+            inboundLock.notifyAll();
+        }
+        if (key != null) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        scheduleDrain();
+    }
+
+    private void ensureInboundCapacity(int extra) {
+        if (inbound == null) {
+            inbound = new byte[Math.max(INITIAL_INBOUND_SIZE, extra)];
+            return;
+        }
+        if (inEnd + extra <= inbound.length) {
+            return;
+        }
+        int used = inEnd - inStart;
+        if (used + extra <= inbound.length && inStart > 0) {
+            System.arraycopy(inbound, inStart, inbound, 0, used);
+        } else {
+            byte[] grown = new byte[Math.max(inbound.length * 2, used + extra)];
+            System.arraycopy(inbound, inStart, grown, 0, used);
+            inbound = grown;
+        }
+        inStart = 0;
+        inEnd = used;
+    }
+
+    // ==================== INBOUND (worker thread) ====================
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            workers.execute(this::drain);
+        }
+    }
+
+    /**
+     * Chuyển sang frame (protocol v2). Gọi trên worker đang xử lý HELLO,
+     * nên drain() đọc frame ngay từ đơn vị tiếp theo.
+     */
+    public void upgradeToFrames() {
+        framed = true;
+    }
+
+    /**
+     * Cắt từng dòng (hoặc frame) hoàn chỉnh và chuyển cho ClientHandler
+     */
+    private void drain() {
+        try {
+            while (handler.isConnected()) {
+                if (framed) {
+                    Frame frame = pollFrame();
+                    if (frame == null) break;
+                    handler.handleFrame(frame);
+                } else {
+                    String line = pollLine();
+                    if (line == null) break;
+                    handler.handleMessage(line);
+                }
+            }
+
+            if (isExhausted()) {
+                handler.disconnect();
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Client handler error: " + e.getMessage());
+            handler.disconnect();
+        } finally {
+            drainScheduled.set(false);
+            if (!closed && hasCompleteUnit()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private String pollLine() {
+        synchronized (inboundLock) {
+            int available = inEnd - inStart;
+            for (int i = scannedLength; i < available; i++) {
+                if (inbound[inStart + i] == '\n') {
+                    int length = i;
+                    if (length > 0 && inbound[inStart + length - 1] == '\r') {
+                        length--;
+                    }
+                    String line = new String(inbound, inStart, length, StandardCharsets.UTF_8);
+                    consume(i + 1);
+                    return line;
+                }
+            }
+            scannedLength = available;
+
+            // Dòng cuối không có '\n' trước khi client đóng kết nối
+            if (endOfStream && available > 0) {
+                String line = new String(inbound, inStart, available, StandardCharsets.UTF_8);
+                consume(available);
+                return line;
+            }
+            return null;
+        }
+    }
+
+    private Frame pollFrame() throws IOException {
+        synchronized (inboundLock) {
+            int available = inEnd - inStart;
+            if (available == 0) {
+                return null;
+            }
+            int size = Frame.completeFrameSize(inbound, inStart, available);
+            if (size < 0) {
+                if (available >= Frame.LENGTH_SIZE && peekFrameSize() > maxInboundBytes) {
+                    throw new IOException("Frame too large for inbound buffer");
+                }
+                return null;
+            }
+            Frame frame = Frame.decode(inbound, inStart);
+            consume(size);
+            return frame;
+        }
+    }
+
+    private int peekFrameSize() {
+        return Frame.LENGTH_SIZE + (((inbound[inStart] & 0xFF) << 24) | ((inbound[inStart + 1] & 0xFF) << 16)
+                | ((inbound[inStart + 2] & 0xFF) << 8) | (inbound[inStart + 3] & 0xFF));
+    }
+
+    private boolean hasCompleteUnit() {
+        synchronized (inboundLock) {
+            if (framed) {
+                int available = inEnd - inStart;
+                try {
+                    return available > 0 && Frame.completeFrameSize(inbound, inStart, available) >= 0;
+                } catch (IOException e) {
+                    return true; // để drain() gặp lỗi và đóng kết nối
+                }
+            }
+            for (int i = inStart + scannedLength; i < inEnd; i++) {
+                if (inbound[i] == '\n') {
+                    return true;
+                }
+            }
+            return endOfStream && inEnd > inStart;
+        }
+    }
+
+    private boolean isExhausted() {
+        synchronized (inboundLock) {
+            if (!endOfStream && !closed) {
+                return false;
+            }
+            if (inEnd == inStart) {
+                return true;
+            }
+            // Frame dở dang khi client đã đóng kết nối
+            try {
+                return framed && Frame.completeFrameSize(inbound, inStart, inEnd - inStart) < 0;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gọi khi đang giữ inboundLock
+     */
+    private void consume(int count) {
+        inStart += count;
+        scannedLength = Math.max(0, scannedLength - count);
+
+        if (inStart == inEnd) {
+            inStart = 0;
+            inEnd = 0;
+            scannedLength = 0;
+            if (inbound.length > RETAINED_INBOUND_SIZE) {
+                inbound = null;
+            }
+        }
+
+        if (readSuspended && inEnd - inStart < maxInboundBytes / 2) {
+            readSuspended = false;
+            loop.execute(() -> {
+                if (key != null && key.isValid() && !endOfStream) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            });
+        }
+    }
+
+    // ==================== OUTBOUND ====================
+
+    /**
+     * Gửi một dòng text (không block).
+     * Cùng chính sách client chậm với OutboundQueue: bỏ TYPING_* trước, sau đó ngắt.
+     */
+    public boolean send(String message) {
+        return send(message, 0);
+    }
+
+    public boolean send(String message, int requestId) {
+        if (closed) {
+            return false;
+        }
+
+        long pending = pendingBytes.get();
+        if (pending >= dropTypingAbove && OutboundQueue.isDroppable(message)) {
+            return false;
+        }
+        boolean stalled = pending > 0
+                && System.currentTimeMillis() - lastWriteProgressAt > stallTimeoutMillis;
+        if (pending > maxQueuedBytes || stalled) {
+            System.err.println("⚠️ Slow consumer (" + pending + " bytes pending), disconnecting: "
+                    + getRemoteAddress());
+            loop.execute(this::closeFromLoop);
+            return false;
+        }
+
+        byte[] bytes = framed
+                ? Frame.encodeText(requestId, message)
+                : (message + "\n").getBytes(StandardCharsets.UTF_8);
+        enqueue(ByteBuffer.wrap(bytes));
+        return true;
+    }
+
+    /**
+     * Gửi count byte của file từ position, sau các tin đã xếp hàng.
+     * Nhận quyền sở hữu file: đóng khi gửi xong hoặc khi kết nối đóng.
+     * v2: chia thành các DATA frame (requestId 0) như FrameOutputStream.
+     */
+    public void sendFile(FileChannel file, long position, long count) throws IOException {
+        if (closed) {
+            file.close();
+            throw new IOException("Connection closed");
+        }
+
+        if (!framed) {
+            enqueueRegion(new FileRegion(null, file, position, count, true));
+            return;
+        }
+
+        long sent = 0;
+        do {
+            int chunk = (int) Math.min(FILE_FRAME_SIZE, count - sent);
+            enqueueRegion(new FileRegion(ByteBuffer.wrap(Frame.encodeDataHeader(0, chunk)),
+                    file, position + sent, chunk, sent + chunk == count));
+            sent += chunk;
+        } while (sent < count);
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    private void enqueueRegion(FileRegion region) {
+        outbound.add(region);
+        if (closed && outbound.remove(region)) {
+            region.release();
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flushFromLoop);
+        }
+    }
+
+    private void enqueue(ByteBuffer buffer) {
+        if (pendingBytes.getAndAdd(buffer.remaining()) == 0) {
+            lastWriteProgressAt = System.currentTimeMillis();
+        }
+        outbound.add(buffer);
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flushFromLoop);
+        }
+    }
+
+    /**
+     * Ghi gộp (gathering write) toàn bộ hàng đợi ra socket. Chạy trên loop thread.
+     */
+    void flushFromLoop() {
+        flushScheduled.set(false);
+        if (closed || key == null || !key.isValid()) {
+            return;
+        }
+
+        ByteBuffer[] batch = loop.writeBatch();
+        try {
+            while (true) {
+                Object head = outbound.peek();
+                if (head == null) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    break;
+                }
+
+                if (head instanceof FileRegion region) {
+                    if (!transferRegion(region)) {
+                        // Socket buffer đầy, chờ OP_WRITE
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        break;
+                    }
+                    outbound.poll();
+                    region.release();
+                    continue;
+                }
+
+                int n = 0;
+                for (Object item : outbound) {
+                    if (n == batch.length || !(item instanceof ByteBuffer)) break;
+                    batch[n++] = (ByteBuffer) item;
+                }
+
+                long written = channel.write(batch, 0, n);
+                boolean blocked = false;
+                for (int i = 0; i < n; i++) {
+                    if (batch[i].hasRemaining()) {
+                        blocked = true;
+                        break;
+                    }
+                    outbound.poll();
+                }
+                Arrays.fill(batch, 0, n, null);
+                releasePending(written);
+
+                if (blocked) {
+                    // Socket buffer đầy, chờ OP_WRITE
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Arrays.fill(batch, null);
+            closeFromLoop();
+        }
+    }
+
+    /**
+     * Ghi header (nếu có) rồi transferTo tới khi hết vùng (true) hoặc socket không nhận thêm (false)
+     */
+    private boolean transferRegion(FileRegion region) throws IOException {
+        if (region.header != null && region.header.hasRemaining()) {
+            if (channel.write(region.header) > 0) {
+                lastWriteProgressAt = System.currentTimeMillis();
+            }
+            if (region.header.hasRemaining()) {
+                return false;
+            }
+        }
+        while (region.position < region.end) {
+            long sent = region.file.transferTo(region.position, region.end - region.position, channel);
+            if (sent == 0) {
+                if (region.position >= region.file.size()) {
+                    // File bị cắt ngắn sau khi đã báo kích thước cho client
+                    throw new IOException("File truncated during transfer");
+                }
+                return false;
+            }
+            region.position += sent;
+            lastWriteProgressAt = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    private void releasePending(long written) {
+        if (written > 0) {
+            lastWriteProgressAt = System.currentTimeMillis();
+        }
+        long pending = pendingBytes.addAndGet(-written);
+        if (pending < MAX_PENDING_STREAM_BYTES) {
+            synchronized (outboundLock) {
+                outboundLock.notifyAll();
+            }
+        }
+    }
+
+    // ==================== CLOSE ====================
+
+    /**
+     * Đóng kết nối sau khi đã cố gắng ghi nốt dữ liệu đang chờ
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        loop.execute(() -> {
+            flushFromLoop();
+            closeFromLoop();
+        });
+    }
+
+    void closeFromLoop() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+
+        synchronized (inboundLock) {
+            inboundLock.notifyAll();
+        }
+        synchronized (outboundLock) {
+            outboundLock.notifyAll();
+        }
+        for (Object item : outbound) {
+            if (item instanceof FileRegion region) {
+                region.release();
+            }
+        }
+        outbound.clear();
+
+        // Cập nhật trạng thái user (DB) trên worker, không chặn loop
+        if (handler != null && handler.isConnected()) {
+            workers.execute(handler::disconnect);
+        }
+    }
+
+    // ==================== STREAM ADAPTERS ====================
+
+    /**
+     * Đọc byte nhị phân (file upload) từ buffer vào. Chạy trên worker thread.
+     */
+    private class InboundStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (inboundLock) {
+                long deadline = System.currentTimeMillis() + readTimeoutMillis;
+                while (inEnd == inStart) {
+                    if (endOfStream || closed) {
+                        return -1;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (readTimeoutMillis > 0 && remaining <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    try {
+                        inboundLock.wait(readTimeoutMillis > 0 ? remaining : 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while reading", e);
+                    }
+                }
+
+                int n = Math.min(len, inEnd - inStart);
+                System.arraycopy(inbound, inStart, b, off, n);
+                consume(n);
+                return n;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (inboundLock) {
+                return inEnd - inStart;
+            }
+        }
+    }
+
+    /**
+     * Ghi byte nhị phân (file download) vào hàng đợi ra.
+     * Block worker khi hàng đợi vượt ngưỡng để file lớn không nằm hết trong heap.
+     */
+    private class OutboundStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            awaitWritable();
+            enqueue(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+        }
+
+        private void awaitWritable() throws IOException {
+            synchronized (outboundLock) {
+                long deadline = System.currentTimeMillis() + readTimeoutMillis;
+                while (pendingBytes.get() >= MAX_PENDING_STREAM_BYTES && !closed) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (readTimeoutMillis > 0 && remaining <= 0) {
+                        throw new SocketTimeoutException("Write timed out");
+                    }
+                    try {
+                        outboundLock.wait(readTimeoutMillis > 0 ? remaining : 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing", e);
+                    }
+                }
+            }
+        }
+    }
+}
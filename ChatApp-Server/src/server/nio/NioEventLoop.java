@@ -0,0 +1,185 @@
+package server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Một vòng lặp I/O: một Selector + một thread, phục vụ nhiều kết nối.
+ * Mọi thao tác trên SelectionKey/Channel đều chạy trên thread của loop.
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer[] writeBatch = new ByteBuffer[64];
+    private final long idleTimeoutMillis;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public NioEventLoop(String name, int readBufferSize, long idleTimeoutMillis) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        // Buffer đọc dùng chung cho cả loop -> kết nối idle không giữ buffer riêng
+        this.readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Chạy task trên thread của loop
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Đăng ký kết nối mới vào selector
+     */
+    void register(NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = connection.channel().register(selector, SelectionKey.OP_READ, connection);
+                connection.attachKey(key);
+            } catch (IOException e) {
+                System.err.println("⚠️ Không thể đăng ký kết nối: " + e.getMessage());
+                connection.closeFromLoop();
+            }
+        });
+    }
+
+    /**
+     * Mảng tạm cho gathering write, chỉ dùng trên thread của loop
+     */
+    ByteBuffer[] writeBatch() {
+        return writeBatch;
+    }
+
+    public int getConnectionCount() {
+        return selector.keys().size();
+    }
+
+    @Override
+    public void run() {
+        long lastIdleCheck = System.currentTimeMillis();
+
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MS);
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    processKey(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if (idleTimeoutMillis > 0 && now - lastIdleCheck >= SELECT_TIMEOUT_MS) {
+                    closeIdleConnections(now);
+                    lastIdleCheck = now;
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("⚠️ Lỗi selector (" + name + "): " + e.getMessage());
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).closeFromLoop();
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("⚠️ Lỗi task I/O (" + name + "): " + e.getMessage());
+            }
+        }
+    }
+
+    private void processKey(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                readFrom(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flushFromLoop();
+            }
+        } catch (CancelledKeyException e) {
+            connection.closeFromLoop();
+        } catch (IOException e) {
+            connection.closeFromLoop();
+        }
+    }
+
+    private void readFrom(NioConnection connection) throws IOException {
+        SocketChannel channel = connection.channel();
+        while (true) {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                connection.onEndOfStream();
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+            readBuffer.flip();
+            if (!connection.onBytesRead(readBuffer)) {
+                // Buffer vào đã đầy, chờ worker tiêu thụ
+                return;
+            }
+        }
+    }
+
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection != null && now - connection.getLastReadAt() > idleTimeoutMillis) {
+                System.out.println("⏱ Đóng kết nối idle: " + connection.getRemoteAddress());
+                connection.closeFromLoop();
+            }
+        }
+    }
+}
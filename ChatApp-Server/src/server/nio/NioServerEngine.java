@@ -0,0 +1,148 @@
+package server.nio;
+
+import config.ServerConfig;
+import server.ChatServer;
+import server.ClientHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NioServerEngine - Chế độ server.io.mode=nio
+ * Một thread accept + N event loop (Selector) + worker pool chạy logic handler.
+ * Số thread cố định, không phụ thuộc số client đang kết nối.
+ */
+public class NioServerEngine {
+
+    private final ChatServer server;
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] loops;
+    private ExecutorService workers;
+    private int nextLoop;
+    private volatile boolean running;
+
+    public NioServerEngine(ChatServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Mở port và khởi động các event loop
+     */
+    public void bind(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), 50);
+
+        int loopCount = ServerConfig.getNioEventLoops();
+        int readBufferSize = ServerConfig.getNioReadBufferSize();
+        long idleTimeout = ServerConfig.getServerTimeout();
+
+        loops = new NioEventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i, readBufferSize, idleTimeout);
+            loops[i].start();
+        }
+
+        workers = Executors.newFixedThreadPool(ServerConfig.getNioWorkerThreads(), namedThreads("nio-worker-"));
+        running = true;
+
+        System.out.println("✅ NIO engine: " + loopCount + " event loop, "
+                + ServerConfig.getNioWorkerThreads() + " worker");
+    }
+
+    /**
+     * Vòng lặp accept, chạy trên thread gọi (giống ServerSocket.accept ở chế độ blocking)
+     */
+    public void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+
+                // Kiểm tra số lượng client đã kết nối
+                if (server.getConnectedClientsCount() >= ServerConfig.getMaxClients()) {
+                    System.err.println("⚠️ Đã đạt số lượng client tối đa. Từ chối kết nối từ: "
+                            + channel.socket().getInetAddress().getHostAddress());
+                    channel.close();
+                    continue;
+                }
+
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                System.out.println("📥 Kết nối mới từ: " + channel.socket().getInetAddress().getHostAddress()
+                        + ":" + channel.socket().getPort());
+
+                NioEventLoop loop = loops[nextLoop++ % loops.length];
+                NioConnection connection = new NioConnection(channel, loop, workers,
+                        ServerConfig.getNioMaxInboundBytes(), ServerConfig.getServerTimeout());
+                connection.setHandler(new ClientHandler(connection, server));
+                loop.register(connection);
+
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("⚠️ Lỗi khi chấp nhận kết nối: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Lỗi khi đóng server channel: " + e.getMessage());
+        }
+
+        if (loops != null) {
+            for (NioEventLoop loop : loops) {
+                loop.stop();
+            }
+        }
+
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Tổng số kết nối TCP (kể cả chưa đăng nhập)
+     */
+    public int getConnectionCount() {
+        int total = 0;
+        if (loops != null) {
+            for (NioEventLoop loop : loops) {
+                total += loop.getConnectionCount();
+            }
+        }
+        return total;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
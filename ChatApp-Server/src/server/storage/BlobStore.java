@@ -0,0 +1,180 @@
+package server.storage;
+
+import config.ServerConfig;
+import database.dao.FileBlobDAO;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlobStore - File upload lưu theo nội dung: uploads/blobs/<2 ký tự đầu>/<sha256>
+ * - Cùng nội dung (PDF chuyển tiếp cho nhiều nhóm, gửi lại...) chỉ có một file trên đĩa
+ * - Client gửi SHA-256 trước; server đã có blob thì không cần truyền dữ liệu
+ * - Tham chiếu từ tin nhắn nằm ở message_blobs (MessageDAO ghi khi lưu tin)
+ * - Thu gom: blob không còn tin nào tham chiếu sau thời gian chờ thì bị xóa
+ */
+public class BlobStore {
+
+    private static BlobStore instance;
+
+    private static final String BLOB_DIR = "blobs";
+    private static final int GC_BATCH = 500;
+
+    // Thêm blob và thu gom cùng một sha256 không được xen nhau
+    private final Object[] locks = new Object[64];
+
+    private final long gcGraceMinutes;
+    private final ScheduledExecutorService collector;
+
+    // Thống kê
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+
+    private BlobStore() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.gcGraceMinutes = Math.max(1, ServerConfig.getBlobGcGraceMinutes());
+
+        this.collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "blob-collector");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, ServerConfig.getBlobGcIntervalMinutes());
+        collector.scheduleWithFixedDelay(this::collectGarbage, interval, interval, TimeUnit.MINUTES);
+    }
+
+    public static synchronized BlobStore getInstance() {
+        if (instance == null) {
+            instance = new BlobStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Thư mục con (so với uploads/) chứa blob
+     */
+    public static String subDirFor(String sha256) {
+        return BLOB_DIR + "/" + sha256.substring(0, 2);
+    }
+
+    /**
+     * URL của blob trong tin nhắn (FILE_DOWNLOAD đọc lại theo /uploads/...)
+     */
+    public static String urlFor(String sha256) {
+        return "http://localhost:8080/uploads/" + subDirFor(sha256) + "/" + sha256;
+    }
+
+    /**
+     * Đưa file đã nhận vào kho; nội dung đã có thì giữ file cũ (staged vẫn do người gọi discard)
+     */
+    public void store(FileStorage.StagedFile staged) throws IOException {
+        String sha256 = staged.getSha256();
+
+        synchronized (lockFor(sha256)) {
+            if (!FileBlobDAO.touch(sha256, staged.getSize())) {
+                throw new IOException("Không lưu được thông tin blob");
+            }
+
+            Path target = pathFor(sha256);
+            if (Files.isRegularFile(target) && Files.size(target) == staged.getSize()) {
+                deduplicated.incrementAndGet();
+                bytesSaved.addAndGet(staged.getSize());
+                return;
+            }
+
+            FileStorage.getInstance().commit(staged, subDirFor(sha256), sha256);
+            stored.incrementAndGet();
+        }
+    }
+
+    /**
+     * Server đã có nội dung này (cùng sha256 và kích thước): đánh dấu đang dùng để không bị
+     * thu gom trước khi tin nhắn được lưu, trả về true; client khỏi phải gửi dữ liệu
+     */
+    public boolean reuse(String sha256, long size) {
+        if (sha256 == null || !sha256.matches("[0-9a-f]{64}")) {
+            return false;
+        }
+
+        synchronized (lockFor(sha256)) {
+            try {
+                Path target = pathFor(sha256);
+                if (FileBlobDAO.findSize(sha256) != size
+                        || !Files.isRegularFile(target) || Files.size(target) != size) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+
+            if (!FileBlobDAO.touch(sha256, size)) {
+                return false;
+            }
+            deduplicated.incrementAndGet();
+            bytesSaved.addAndGet(size);
+            return true;
+        }
+    }
+
+    public String getStats() {
+        return "Blobs: " + stored.get() + " stored, " + deduplicated.get() + " deduplicated ("
+                + bytesSaved.get() / 1024 + " KB saved), " + collected.get() + " collected";
+    }
+
+    /**
+     * Xóa blob không còn tham chiếu và không được dùng trong gcGraceMinutes
+     * (thời gian chờ che khoảng giữa lúc upload xong và lúc MessagePersistence ghi tin)
+     */
+    void collectGarbage() {
+        try {
+            LocalDateTime unusedSince = LocalDateTime.now().minusMinutes(gcGraceMinutes);
+            List<String> candidates = FileBlobDAO.findUnreferenced(unusedSince, GC_BATCH);
+
+            for (String sha256 : candidates) {
+                synchronized (lockFor(sha256)) {
+                    if (!FileBlobDAO.deleteIfUnreferenced(sha256, unusedSince)) {
+                        continue;
+                    }
+                    Files.deleteIfExists(pathFor(sha256));
+                    collected.incrementAndGet();
+                }
+            }
+
+            if (!candidates.isEmpty()) {
+                System.out.println("🧹 Thu gom blob: " + candidates.size() + " ứng viên, tổng đã xóa " + collected.get());
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("⚠️ Lỗi thu gom blob: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Đường dẫn (đã normalize) nằm trong kho blob: file dùng chung, chỉ bộ thu gom được xóa
+     */
+    public static boolean isBlobPath(Path path) {
+        Path blobRoot = FileStorage.getInstance().getRoot().toAbsolutePath().normalize().resolve(BLOB_DIR);
+        return path.toAbsolutePath().normalize().startsWith(blobRoot);
+    }
+
+    /**
+     * File trên đĩa của blob
+     */
+    public Path pathFor(String sha256) {
+        return FileStorage.getInstance().getRoot().resolve(subDirFor(sha256)).resolve(sha256);
+    }
+
+    private Object lockFor(String sha256) {
+        return locks[Integer.parseInt(sha256.substring(0, 2), 16) % locks.length];
+    }
+}
@@ -0,0 +1,118 @@
+package server.storage;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.utils.ObjectUtils;
+import config.ServerConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Ảnh chat trên Cloudinary (thư mục chat_images)
+ * Thông tin đăng nhập lấy từ cấu hình/biến môi trường (ServerConfig.getCloudinary*)
+ */
+public class CloudinaryMediaStore implements RemoteMediaStore {
+
+    private final Cloudinary cloudinary;
+
+    public CloudinaryMediaStore() {
+        Cloudinary client = null;
+        String cloudName = ServerConfig.getCloudinaryCloudName();
+        String apiKey = ServerConfig.getCloudinaryApiKey();
+        String apiSecret = ServerConfig.getCloudinaryApiSecret();
+        try {
+            if (cloudName == null || apiKey == null || apiSecret == null) {
+                System.err.println("⚠️ Thiếu media.cloudinary.* (hoặc CLOUDINARY_*), không upload được lên Cloudinary");
+            } else {
+                client = new Cloudinary(ObjectUtils.asMap(
+                        "cloud_name", cloudName,
+                        "api_key", apiKey,
+                        "api_secret", apiSecret
+                ));
+                System.out.println("✓ Cloudinary đã được khởi tạo");
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Lỗi khởi tạo Cloudinary: " + e.getMessage());
+        }
+        this.cloudinary = client;
+    }
+
+    @Override
+    public String getName() {
+        return "cloudinary";
+    }
+
+    @Override
+    public String upload(Path file, String fileName) throws IOException {
+        if (cloudinary == null) {
+            throw new IOException("Cloudinary chưa được cấu hình");
+        }
+
+        try {
+            String publicId = "chat_images/" + UUID.randomUUID().toString();
+
+            Map uploadResult = cloudinary.uploader().upload(file.toFile(), ObjectUtils.asMap(
+                    "public_id", publicId,
+                    "folder", "chat_images",
+                    "resource_type", "image",
+                    "overwrite", false,
+                    "use_filename", false
+            ));
+
+            String imageUrl = (String) uploadResult.get("secure_url");
+            if (imageUrl == null) {
+                throw new IOException("Cloudinary không trả về secure_url");
+            }
+            System.out.println("✓ Upload Cloudinary thành công: " + imageUrl);
+            return imageUrl;
+
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Lỗi upload lên Cloudinary: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean owns(String url) {
+        return url != null && url.contains("cloudinary.com");
+    }
+
+    @Override
+    public boolean delete(String url) {
+        if (cloudinary == null) return false;
+
+        try {
+            String publicId = extractPublicIdFromUrl(url);
+            if (publicId != null) {
+                Map result = cloudinary.uploader().destroy(publicId, ObjectUtils.emptyMap());
+                return "ok".equals(result.get("result"));
+            }
+            return false;
+        } catch (Exception e) {
+            System.err.println("⚠️ Lỗi xóa ảnh: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private String extractPublicIdFromUrl(String url) {
+        try {
+            String[] parts = url.split("/upload/");
+            if (parts.length < 2) return null;
+
+            String afterUpload = parts[1];
+            afterUpload = afterUpload.replaceFirst("v\\d+/", "");
+
+            int lastDot = afterUpload.lastIndexOf('.');
+            if (lastDot > 0) {
+                afterUpload = afterUpload.substring(0, lastDot);
+            }
+
+            return afterUpload;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package server.storage;
+
+import config.ServerConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * FileStorage - Nhận file upload thẳng từ socket xuống đĩa
+ * - Đọc vào buffer cố định (mỗi worker thread một buffer dùng lại), ghi qua FileChannel
+ *   vào file tạm -> bộ nhớ mỗi upload không phụ thuộc kích thước file
+ * - Kích thước và SHA-256 tính trong lúc nhận
+ * - commit: move nguyên tử file tạm vào uploads/<subDir>/
+ */
+public class FileStorage {
+
+    private static FileStorage instance;
+
+    /**
+     * File đã nhận đủ, đang nằm trong thư mục tạm
+     */
+    public static final class StagedFile {
+        private final Path path;
+        private final long size;
+        private final String sha256;
+
+        StagedFile(Path path, long size, String sha256) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        public Path getPath() { return path; }
+        public long getSize() { return size; }
+        public String getSha256() { return sha256; }
+    }
+
+    private final Path root;
+    private final Path tempDir;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    // Thống kê
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private FileStorage() {
+        this.root = Paths.get(ServerConfig.getUploadDir());
+        this.tempDir = Paths.get(ServerConfig.getUploadTempDir());
+        int bufferSize = Math.max(4096, ServerConfig.getUploadBufferBytes());
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(bufferSize));
+
+        try {
+            Files.createDirectories(tempDir);
+            cleanTempDir();
+        } catch (IOException e) {
+            System.err.println("⚠️ Không tạo được thư mục tạm upload: " + e.getMessage());
+        }
+    }
+
+    public static synchronized FileStorage getInstance() {
+        if (instance == null) {
+            instance = new FileStorage();
+        }
+        return instance;
+    }
+
+    /**
+     * Đọc đúng expectedSize byte từ in vào một file tạm
+     * Lỗi giữa chừng (client ngắt kết nối...) thì file tạm bị xóa
+     */
+    public StagedFile receive(InputStream in, long expectedSize) throws IOException {
+        Path temp = Files.createTempFile(tempDir, "upload-", ".part");
+        MessageDigest digest = newSha256();
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            copy(in, channel, 0, expectedSize, digest, null);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        uploads.incrementAndGet();
+        bytesReceived.addAndGet(expectedSize);
+        return new StagedFile(temp, expectedSize, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * File do server tạo ra (thumbnail...) vào thư mục tạm như một file nhận được
+     */
+    public StagedFile stage(byte[] data) throws IOException {
+        Path temp = Files.createTempFile(tempDir, "upload-", ".part");
+        try {
+            Files.write(temp, data);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        MessageDigest digest = newSha256();
+        return new StagedFile(temp, data.length, HexFormat.of().formatHex(digest.digest(data)));
+    }
+
+    /**
+     * Chép đúng count byte từ in vào out tại position qua buffer của thread,
+     * cập nhật digest/checksum nếu có
+     */
+    void copy(InputStream in, FileChannel out, long position, long count,
+              MessageDigest digest, Checksum checksum) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        byte[] array = buffer.array();
+        long totalRead = 0;
+
+        while (totalRead < count) {
+            int read = in.read(array, 0, (int) Math.min(array.length, count - totalRead));
+            if (read == -1) {
+                throw new IOException("Client ngắt kết nối. Đã nhận " + totalRead + "/" + count + " bytes");
+            }
+
+            if (digest != null) digest.update(array, 0, read);
+            if (checksum != null) checksum.update(array, 0, read);
+            buffer.clear().limit(read);
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+            totalRead += read;
+        }
+    }
+
+    /**
+     * Đọc bỏ count byte (dữ liệu của lệnh bị từ chối) để giữ đồng bộ luồng
+     */
+    public void skip(InputStream in, long count) throws IOException {
+        byte[] array = buffers.get().array();
+        long skipped = 0;
+        while (skipped < count) {
+            int read = in.read(array, 0, (int) Math.min(array.length, count - skipped));
+            if (read == -1) {
+                throw new IOException("Client ngắt kết nối");
+            }
+            skipped += read;
+        }
+    }
+
+    /**
+     * CRC32 của count byte trong file từ position (kiểm tra từng khối khi tải)
+     */
+    public long crc32(FileChannel file, long position, long count) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        CRC32 crc = new CRC32();
+        long end = position + count;
+
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = file.read(buffer, position);
+            if (read == -1) {
+                throw new IOException("File ngắn hơn khoảng yêu cầu");
+            }
+            crc.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * SHA-256 của cả file (hex)
+     */
+    String sha256(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = buffers.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read == -1) break;
+                digest.update(buffer.array(), 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Chuyển file tạm vào uploads/<subDir>/<fileName>, trả về đường dẫn cuối
+     */
+    public Path commit(StagedFile staged, String subDir, String fileName) throws IOException {
+        Path target = root.resolve(subDir).resolve(fileName);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(staged.getPath(), target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Thư mục tạm nằm khác ổ đĩa
+            Files.move(staged.getPath(), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    /**
+     * Xóa file tạm nếu còn (không lỗi nếu đã commit)
+     */
+    public void discard(StagedFile staged) {
+        try {
+            Files.deleteIfExists(staged.getPath());
+        } catch (IOException e) {
+            System.err.println("⚠️ Không xóa được file tạm " + staged.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public String getStats() {
+        return "Uploads: " + uploads.get() + " received (" + bytesReceived.get() / 1024 + " KB), "
+                + failed.get() + " failed";
+    }
+
+    /**
+     * File .part còn sót lại từ lần chạy trước (server dừng giữa lúc nhận)
+     */
+    private void cleanTempDir() throws IOException {
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(tempDir, "upload-*.part")) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+}
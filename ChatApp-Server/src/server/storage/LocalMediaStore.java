@@ -0,0 +1,91 @@
+package server.storage;
+
+import config.ServerConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Kho thay thế chạy trên đĩa local (dev/test không có mạng hay tài khoản Cloudinary)
+ * - Chép file vào media.local_store_dir, URL là media.local_store_url/<tên>
+ * - media.local_store_delay_ms giả lập độ trễ của kho thật
+ */
+public class LocalMediaStore implements RemoteMediaStore {
+
+    private final Path dir;
+    private final String baseUrl;
+    private final long delayMillis;
+
+    public LocalMediaStore() {
+        this.dir = Paths.get(ServerConfig.getMediaLocalStoreDir());
+        this.baseUrl = ServerConfig.getMediaLocalStoreUrl().replaceAll("/+$", "");
+        this.delayMillis = ServerConfig.getMediaLocalStoreDelayMillis();
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.err.println("⚠️ Không tạo được thư mục kho media local: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public String upload(Path file, String fileName) throws IOException {
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Bị ngắt khi upload");
+            }
+        }
+
+        String name = UUID.randomUUID() + extensionOf(fileName);
+        Path tmp = dir.resolve(name + ".tmp");
+        try {
+            Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return baseUrl + "/" + name;
+    }
+
+    @Override
+    public boolean owns(String url) {
+        return url != null && url.startsWith(baseUrl + "/");
+    }
+
+    @Override
+    public boolean delete(String url) {
+        if (!owns(url)) {
+            return false;
+        }
+        String name = url.substring(baseUrl.length() + 1);
+        if (name.contains("/") || name.contains("..")) {
+            return false;
+        }
+        try {
+            return Files.deleteIfExists(dir.resolve(name));
+        } catch (IOException e) {
+            System.err.println("⚠️ Lỗi xóa ảnh: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static String extensionOf(String fileName) {
+        int dot = fileName != null ? fileName.lastIndexOf('.') : -1;
+        if (dot < 0) {
+            return "";
+        }
+        String ext = fileName.substring(dot).toLowerCase();
+        return ext.matches("\\.[a-z0-9]{1,8}") ? ext : "";
+    }
+}
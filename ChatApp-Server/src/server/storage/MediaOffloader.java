@@ -0,0 +1,261 @@
+package server.storage;
+
+import config.ServerConfig;
+import database.cache.ConversationRegistry;
+import database.dao.MessageDAO;
+import protocol.Protocol;
+import server.ChatServer;
+import server.ClientHandler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MediaOffloader - Hậu xử lý ảnh sau khi tin nhắn đã gửi: thumbnail rồi đẩy lên kho ngoài (RemoteMediaStore)
+ * - Tin nhắn được lưu và broadcast ngay với URL local (blob); thread đọc của client không chờ
+ * - Thumbnail JPEG (ThumbnailGenerator) lưu như một blob, ghi vào messages.thumbnail_url
+ * - Worker pool và hàng đợi có giới hạn; đầy thì bỏ qua, ảnh giữ URL local
+ * - Lỗi thì thử lại sau retry_base_ms * 2^n, tối đa max_attempts lần
+ * - Mỗi bước xong: cập nhật DB rồi gửi MESSAGE_UPDATE cho members
+ */
+public class MediaOffloader {
+
+    private static MediaOffloader instance;
+
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    private final RemoteMediaStore store;
+    private final ThumbnailGenerator thumbnails;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService retryScheduler;
+    private final int maxAttempts;
+    private final long retryBaseMillis;
+
+    // Thống kê
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong thumbnailed = new AtomicLong();
+    private final AtomicLong offloaded = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private static final class Job {
+        final ChatServer server;
+        final String messageId;
+        final String conversationId;
+        final String localUrl;
+        final Path file;
+        final String fileName;
+        String thumbnailUrl;
+        boolean thumbnailDone;
+        int attempts;
+
+        Job(ChatServer server, String messageId, String conversationId, String localUrl, Path file, String fileName) {
+            this.server = server;
+            this.messageId = messageId;
+            this.conversationId = conversationId;
+            this.localUrl = localUrl;
+            this.file = file;
+            this.fileName = fileName;
+        }
+    }
+
+    private MediaOffloader() {
+        this.store = RemoteMediaStore.fromConfig(ServerConfig.getMediaRemoteStore());
+        int thumbnailPx = ServerConfig.getMediaThumbnailMaxPx();
+        this.thumbnails = thumbnailPx > 0
+                ? new ThumbnailGenerator(thumbnailPx, ServerConfig.getMediaThumbnailQuality())
+                : null;
+        this.maxAttempts = Math.max(1, ServerConfig.getMediaOffloadMaxAttempts());
+        this.retryBaseMillis = Math.max(100, ServerConfig.getMediaOffloadRetryBaseMillis());
+
+        int threads = Math.max(1, ServerConfig.getMediaOffloadThreads());
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, ServerConfig.getMediaOffloadQueueSize())),
+                r -> {
+                    Thread t = new Thread(r, "media-offload-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "media-offload-retry");
+            t.setDaemon(true);
+            return t;
+        });
+
+        System.out.println("✓ Media offload: " + (store != null ? store.getName() : "tắt")
+                + ", thumbnail: " + (thumbnails != null ? thumbnails.getMaxPx() + "px" : "tắt")
+                + " (" + threads + " threads)");
+    }
+
+    public static synchronized MediaOffloader getInstance() {
+        if (instance == null) {
+            instance = new MediaOffloader();
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return store != null || thumbnails != null;
+    }
+
+    /**
+     * Kho ngoài đang dùng, null nếu tắt
+     */
+    public RemoteMediaStore getStore() {
+        return store;
+    }
+
+    /**
+     * Xếp hàng hậu xử lý ảnh của tin nhắn; false nếu tắt hoặc hàng đợi đầy (giữ URL local, không thumbnail)
+     */
+    public boolean submit(ChatServer server, String messageId, String conversationId,
+                          String localUrl, Path file, String fileName) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Job job = new Job(server, messageId, conversationId, localUrl, file, fileName);
+        if (!execute(job)) {
+            rejected.incrementAndGet();
+            System.err.println("⚠️ Hàng đợi offload đầy, giữ URL local cho tin " + messageId);
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    public String getStats() {
+        return "Media offload: " + submitted.get() + " submitted, " + thumbnailed.get() + " thumbnails, "
+                + offloaded.get() + " offloaded, "
+                + retried.get() + " retried, " + failed.get() + " failed, " + rejected.get() + " rejected, "
+                + workers.getQueue().size() + " queued";
+    }
+
+    private boolean execute(Job job) {
+        try {
+            workers.execute(() -> process(job));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void process(Job job) {
+        // Thumbnail chạy một lần, trước lần upload đầu tiên; các lần thử lại chỉ upload
+        if (!job.thumbnailDone) {
+            job.thumbnailDone = true;
+            if (!attachThumbnail(job)) {
+                return;
+            }
+        }
+        if (store == null) {
+            return;
+        }
+
+        job.attempts++;
+        String remoteUrl;
+        try {
+            remoteUrl = store.upload(job.file, job.fileName);
+        } catch (IOException | RuntimeException e) {
+            retryOrGiveUp(job, e.getMessage());
+            return;
+        }
+
+        // Tin đã bị xóa/thu hồi hoặc URL đã đổi: bỏ bản trên kho ngoài
+        if (!MessageDAO.updateMediaUrl(job.messageId, job.localUrl, remoteUrl)) {
+            store.delete(remoteUrl);
+            System.out.println("ℹ️ Tin " + job.messageId + " không còn dùng URL local, bỏ bản offload");
+            return;
+        }
+
+        offloaded.incrementAndGet();
+        broadcastUpdate(job, remoteUrl);
+        System.out.println("✓ Đã offload ảnh của tin " + job.messageId + " -> " + remoteUrl);
+    }
+
+    /**
+     * Tạo thumbnail, lưu blob, gắn vào tin và báo members; false nếu tin không còn (bỏ các bước sau)
+     * Lỗi giải mã ảnh không thử lại: ảnh vẫn hiển thị bằng bản gốc
+     */
+    private boolean attachThumbnail(Job job) {
+        if (thumbnails == null) {
+            return true;
+        }
+
+        String thumbnailUrl;
+        try {
+            byte[] jpeg = thumbnails.generate(job.file);
+            if (jpeg == null) {
+                return true;
+            }
+
+            FileStorage storage = FileStorage.getInstance();
+            FileStorage.StagedFile staged = storage.stage(jpeg);
+            try {
+                BlobStore.getInstance().store(staged);
+            } finally {
+                storage.discard(staged);
+            }
+            thumbnailUrl = BlobStore.urlFor(staged.getSha256());
+
+        } catch (IOException | RuntimeException e) {
+            System.err.println("⚠️ Không tạo được thumbnail cho tin " + job.messageId + ": " + e.getMessage());
+            return true;
+        }
+
+        if (!MessageDAO.updateThumbnailUrl(job.messageId, thumbnailUrl)) {
+            System.out.println("ℹ️ Tin " + job.messageId + " không còn, bỏ hậu xử lý ảnh");
+            return false;
+        }
+
+        job.thumbnailUrl = thumbnailUrl;
+        thumbnailed.incrementAndGet();
+        broadcastUpdate(job, job.localUrl);
+        return true;
+    }
+
+    private void retryOrGiveUp(Job job, String error) {
+        if (job.attempts >= maxAttempts) {
+            failed.incrementAndGet();
+            System.err.println("⚠️ Offload ảnh thất bại sau " + job.attempts + " lần, giữ URL local ("
+                    + job.messageId + "): " + error);
+            return;
+        }
+
+        long delay = Math.min(MAX_RETRY_DELAY_MS, retryBaseMillis << Math.min(job.attempts - 1, 20));
+        retried.incrementAndGet();
+        System.err.println("⚠️ Offload ảnh lỗi (lần " + job.attempts + "), thử lại sau " + delay + "ms: " + error);
+
+        retryScheduler.schedule(() -> {
+            if (!execute(job)) {
+                rejected.incrementAndGet();
+                System.err.println("⚠️ Hàng đợi offload đầy, giữ URL local cho tin " + job.messageId);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * MESSAGE_UPDATE|||messageId|||conversationId|||mediaUrl|||thumbnailUrl cho members đang online
+     */
+    private void broadcastUpdate(Job job, String mediaUrl) {
+        Set<String> members = ConversationRegistry.getInstance().getMembers(job.conversationId);
+        if (members == null) {
+            return;
+        }
+
+        String update = Protocol.buildRequest(Protocol.MESSAGE_UPDATE, job.messageId, job.conversationId,
+                mediaUrl, job.thumbnailUrl != null ? job.thumbnailUrl : "");
+        for (String memberId : members) {
+            ClientHandler handler = job.server.getClientHandler(memberId);
+            if (handler != null) {
+                handler.sendMessage(update);
+            }
+        }
+    }
+}
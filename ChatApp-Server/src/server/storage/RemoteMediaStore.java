@@ -0,0 +1,37 @@
+package server.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Kho media bên ngoài (Cloudinary...) mà MediaOffloader đẩy ảnh lên sau khi tin nhắn đã gửi
+ * - Chạy trên worker của MediaOffloader, không bao giờ trên thread đọc của client
+ * - upload() lỗi thì ném IOException, MediaOffloader sẽ thử lại
+ */
+public interface RemoteMediaStore {
+
+    String getName();
+
+    /**
+     * Đưa file lên kho, trả URL công khai
+     */
+    String upload(Path file, String fileName) throws IOException;
+
+    /**
+     * URL này có thuộc kho không
+     */
+    boolean owns(String url);
+
+    boolean delete(String url);
+
+    /**
+     * Chọn kho theo media.remote_store: cloudinary | local | none (null = giữ URL local)
+     */
+    static RemoteMediaStore fromConfig(String name) {
+        return switch (name.toLowerCase()) {
+            case "cloudinary" -> new CloudinaryMediaStore();
+            case "local" -> new LocalMediaStore();
+            default -> null;
+        };
+    }
+}
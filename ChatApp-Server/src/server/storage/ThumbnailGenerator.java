@@ -0,0 +1,107 @@
+package server.storage;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Thumbnail JPEG cho ảnh chat (chỉ dùng ImageIO của JDK)
+ * - Cạnh dài nhất thu về maxPx; ảnh đã nhỏ hơn thì không cần thumbnail
+ * - Ảnh lớn được giải mã thưa (subsampling) trước khi thu nhỏ: không phải bung cả ảnh gốc vào bộ nhớ
+ */
+public class ThumbnailGenerator {
+
+    private final int maxPx;
+    private final float quality;
+
+    public ThumbnailGenerator(int maxPx, float quality) {
+        this.maxPx = maxPx;
+        this.quality = Math.max(0.1f, Math.min(1f, quality));
+    }
+
+    public int getMaxPx() {
+        return maxPx;
+    }
+
+    /**
+     * JPEG đã thu nhỏ, null nếu ảnh không lớn hơn maxPx
+     */
+    public byte[] generate(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                throw new IOException("Không đọc được file ảnh");
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Định dạng ảnh không hỗ trợ");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                if (longest <= maxPx) {
+                    return null;
+                }
+
+                // Giữ lại khoảng gấp đôi kích thước đích để bước thu nhỏ cuối vẫn mịn
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longest / (maxPx * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+
+                return encodeJpeg(scale(reader.read(0, param)));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        double ratio = (double) maxPx / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        // JPEG không có kênh alpha: nền trắng cho ảnh PNG/GIF trong suốt
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
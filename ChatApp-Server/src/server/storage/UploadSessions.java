@@ -0,0 +1,360 @@
+package server.storage;
+
+import config.ServerConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * UploadSessions - Upload nhiều khối, nối tiếp được sau khi mất kết nối
+ * - Mỗi phiên: uploads/.partial/<id>.part (dữ liệu) + <id>.meta (thông tin, offset đã nhận)
+ * - Khối chỉ được nhận đúng tại offset hiện tại và khi CRC32 khớp; sai thì cắt về offset cũ
+ * - Server khởi động lại vẫn nạp lại các phiên còn hạn từ đĩa
+ * - uploadId ngẫu nhiên 128 bit, chỉ người tạo phiên biết (dùng lại được trên kết nối mới)
+ */
+public class UploadSessions {
+
+    private static UploadSessions instance;
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{32}");
+
+    /**
+     * Một phiên upload đang dở
+     */
+    public static final class Session {
+        private final String uploadId;
+        private final String conversationId;
+        private final String senderId;
+        private final String fileName;
+        private final String fileType;
+        private final long fileSize;
+        private final String sha256;
+        private final Path partPath;
+        private final Path metaPath;
+
+        // Kết nối cũ có thể còn treo giữa một khối khi client đã nối lại
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        private volatile long received;
+        private volatile long lastActivity;
+
+        private Session(String uploadId, String conversationId, String senderId, String fileName,
+                        String fileType, long fileSize, String sha256, Path dir) {
+            this.uploadId = uploadId;
+            this.conversationId = conversationId;
+            this.senderId = senderId;
+            this.fileName = fileName;
+            this.fileType = fileType;
+            this.fileSize = fileSize;
+            this.sha256 = sha256;
+            this.partPath = dir.resolve(uploadId + ".part");
+            this.metaPath = dir.resolve(uploadId + ".meta");
+            this.lastActivity = System.currentTimeMillis();
+        }
+
+        public String getUploadId() { return uploadId; }
+        public String getConversationId() { return conversationId; }
+        public String getSenderId() { return senderId; }
+        public String getFileName() { return fileName; }
+        public String getFileType() { return fileType; }
+        public long getFileSize() { return fileSize; }
+        public long getReceived() { return received; }
+    }
+
+    private final Path dir;
+    private final long ttlMillis;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    // Thống kê
+    private final AtomicLong chunksAccepted = new AtomicLong();
+    private final AtomicLong chunksRejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private UploadSessions() {
+        this.dir = Paths.get(ServerConfig.getUploadPartialDir());
+        this.ttlMillis = TimeUnit.HOURS.toMillis(Math.max(1, ServerConfig.getUploadPartialTtlHours()));
+
+        try {
+            Files.createDirectories(dir);
+            loadSessions();
+        } catch (IOException e) {
+            System.err.println("⚠️ Không tạo được thư mục upload dở: " + e.getMessage());
+        }
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, 10, 10, TimeUnit.MINUTES);
+    }
+
+    public static synchronized UploadSessions getInstance() {
+        if (instance == null) {
+            instance = new UploadSessions();
+        }
+        return instance;
+    }
+
+    /**
+     * Tạo phiên mới với file .part rỗng; sha256 có thể rỗng (không kiểm tra khi hoàn tất)
+     */
+    public Session create(String conversationId, String senderId, String fileName, String fileType,
+                          long fileSize, String sha256) throws IOException {
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        Session session = new Session(uploadId, conversationId, senderId, fileName, fileType,
+                fileSize, sha256 != null ? sha256.toLowerCase() : "", dir);
+
+        Files.createFile(session.partPath);
+        try {
+            writeMeta(session);
+        } catch (IOException e) {
+            Files.deleteIfExists(session.partPath);
+            throw e;
+        }
+        sessions.put(uploadId, session);
+        return session;
+    }
+
+    /**
+     * null nếu không có hoặc đã hết hạn
+     */
+    public Session get(String uploadId) {
+        if (uploadId == null || !ID_PATTERN.matcher(uploadId).matches()) {
+            return null;
+        }
+        return sessions.get(uploadId);
+    }
+
+    /**
+     * Nhận length byte của khối tại offset từ in (luôn đọc hết để giữ đồng bộ luồng).
+     * false nếu kết nối khác đang ghi, offset không phải offset hiện tại, vượt kích thước file,
+     * hoặc CRC32 sai;
+     * khi đó dữ liệu của khối bị bỏ và phiên giữ nguyên offset cũ.
+     */
+    public boolean appendChunk(Session session, InputStream in, long offset, long length,
+                               long expectedCrc) throws IOException {
+        FileStorage storage = FileStorage.getInstance();
+
+        if (!session.writeLock.tryLock()) {
+            storage.skip(in, length);
+            chunksRejected.incrementAndGet();
+            return false;
+        }
+        try {
+            if (offset != session.received || length <= 0 || offset + length > session.fileSize
+                    || !sessions.containsKey(session.uploadId)) {
+                storage.skip(in, length);
+                chunksRejected.incrementAndGet();
+                return false;
+            }
+
+            session.lastActivity = System.currentTimeMillis();
+            try (FileChannel channel = FileChannel.open(session.partPath, StandardOpenOption.WRITE)) {
+                CRC32 crc = new CRC32();
+                try {
+                    storage.copy(in, channel, offset, length, null, crc);
+                } catch (IOException e) {
+                    // Mất kết nối giữa khối: bỏ phần đã ghi, lần sau nối tiếp từ offset cũ
+                    channel.truncate(offset);
+                    throw e;
+                }
+
+                if (crc.getValue() != expectedCrc) {
+                    channel.truncate(offset);
+                    chunksRejected.incrementAndGet();
+                    return false;
+                }
+            }
+
+            session.received = offset + length;
+            writeMeta(session);
+            chunksAccepted.incrementAndGet();
+            return true;
+        } finally {
+            session.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Đã nhận đủ: kiểm tra SHA-256 (nếu client gửi), đóng phiên và trả file cho FileStorage.commit
+     */
+    public FileStorage.StagedFile complete(Session session) throws IOException {
+        if (!session.writeLock.tryLock()) {
+            throw new IOException("Phiên upload đang nhận dữ liệu");
+        }
+        try {
+            if (!sessions.containsKey(session.uploadId)) {
+                throw new IOException("Phiên upload không còn");
+            }
+            if (session.received != session.fileSize) {
+                throw new IOException("Chưa nhận đủ file: " + session.received + "/" + session.fileSize);
+            }
+
+            String actual = FileStorage.getInstance().sha256(session.partPath);
+            if (!session.sha256.isEmpty() && !session.sha256.equals(actual)) {
+                // Dữ liệu hỏng dù từng khối đã khớp CRC: phải upload lại từ đầu
+                remove(session);
+                throw new IOException("SHA-256 không khớp");
+            }
+
+            sessions.remove(session.uploadId);
+            Files.deleteIfExists(session.metaPath);
+            completed.incrementAndGet();
+            return new FileStorage.StagedFile(session.partPath, session.fileSize, actual);
+        } finally {
+            session.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Hủy phiên và xóa file dở
+     */
+    public void remove(Session session) {
+        sessions.remove(session.uploadId);
+        try {
+            Files.deleteIfExists(session.partPath);
+            Files.deleteIfExists(session.metaPath);
+        } catch (IOException e) {
+            System.err.println("⚠️ Không xóa được upload dở " + session.uploadId + ": " + e.getMessage());
+        }
+    }
+
+    public String getStats() {
+        return "Upload sessions: " + sessions.size() + " open, " + completed.get() + " completed, "
+                + chunksAccepted.get() + " chunks accepted, " + chunksRejected.get() + " rejected, "
+                + expired.get() + " expired";
+    }
+
+    // ==================== PERSISTENCE ====================
+
+    private void writeMeta(Session session) throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty("conversationId", session.conversationId);
+        meta.setProperty("senderId", session.senderId);
+        meta.setProperty("fileName", session.fileName);
+        meta.setProperty("fileType", session.fileType);
+        meta.setProperty("fileSize", String.valueOf(session.fileSize));
+        meta.setProperty("sha256", session.sha256);
+        meta.setProperty("received", String.valueOf(session.received));
+
+        // Ghi file tạm rồi move: .meta không bao giờ bị ghi dở
+        Path temp = dir.resolve(session.uploadId + ".meta.tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            meta.store(new OutputStreamWriter(out, StandardCharsets.UTF_8), null);
+        }
+        try {
+            Files.move(temp, session.metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, session.metaPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Nạp các phiên còn hạn; .part dài hơn offset trong .meta (ghi dở lúc dừng) bị cắt lại
+     */
+    private void loadSessions() throws IOException {
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+
+        try (DirectoryStream<Path> metas = Files.newDirectoryStream(dir, "*.meta")) {
+            for (Path metaPath : metas) {
+                String fileName = metaPath.getFileName().toString();
+                String uploadId = fileName.substring(0, fileName.length() - ".meta".length());
+                Path partPath = dir.resolve(uploadId + ".part");
+
+                try {
+                    long modified = Files.getLastModifiedTime(metaPath).toMillis();
+                    if (!ID_PATTERN.matcher(uploadId).matches() || !Files.exists(partPath)
+                            || now - modified > ttlMillis) {
+                        Files.deleteIfExists(partPath);
+                        Files.deleteIfExists(metaPath);
+                        continue;
+                    }
+
+                    Properties meta = new Properties();
+                    try (Reader reader = Files.newBufferedReader(metaPath, StandardCharsets.UTF_8)) {
+                        meta.load(reader);
+                    }
+
+                    Session session = new Session(uploadId,
+                            meta.getProperty("conversationId"),
+                            meta.getProperty("senderId"),
+                            meta.getProperty("fileName"),
+                            meta.getProperty("fileType"),
+                            Long.parseLong(meta.getProperty("fileSize")),
+                            meta.getProperty("sha256", ""),
+                            dir);
+                    session.received = Long.parseLong(meta.getProperty("received", "0"));
+                    session.lastActivity = modified;
+
+                    try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+                        if (channel.size() < session.received) {
+                            session.received = channel.size();
+                        } else {
+                            channel.truncate(session.received);
+                        }
+                    }
+
+                    sessions.put(uploadId, session);
+                    loaded++;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("⚠️ Bỏ upload dở hỏng " + uploadId + ": " + e.getMessage());
+                    Files.deleteIfExists(partPath);
+                    Files.deleteIfExists(metaPath);
+                }
+            }
+        }
+
+        // .part mồ côi (không có .meta) và .meta.tmp còn sót
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(dir, "*.{part,tmp}")) {
+            for (Path leftover : leftovers) {
+                String name = leftover.getFileName().toString();
+                String uploadId = name.substring(0, name.indexOf('.'));
+                if (name.endsWith(".tmp") || !sessions.containsKey(uploadId)) {
+                    Files.deleteIfExists(leftover);
+                }
+            }
+        }
+
+        if (loaded > 0) {
+            System.out.println("✓ Nạp lại " + loaded + " upload dở từ " + dir);
+        }
+    }
+
+    private void sweep() {
+        long deadline = System.currentTimeMillis() - ttlMillis;
+        for (Session session : sessions.values()) {
+            if (session.lastActivity < deadline) {
+                remove(session);
+                expired.incrementAndGet();
+                System.out.println("⏱ Upload dở hết hạn: " + session.uploadId + " (" + session.fileName + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package database.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver giả cho test: không cần MySQL
+ * - install(): gỡ mọi driver đã đăng ký (kể cả MySQL) rồi nhận mọi URL jdbc:mysql:
+ * - Câu SELECT trả về các dòng do Responder quyết định theo SQL + tham số đã bind
+ * - UPDATE/INSERT/batch không làm gì (0 dòng)
+ * Connection/Statement/ResultSet là proxy (như ConnectionPool), nên DBConnection, pool
+ * và bộ đếm statement chạy đúng code thật
+ */
+public final class StubJdbcDriver implements Driver {
+
+    /**
+     * Dòng trả về cho một câu truy vấn; key là tên cột
+     */
+    @FunctionalInterface
+    public interface Responder {
+        List<Map<String, Object>> query(String sql, List<Object> params);
+    }
+
+    private static final StubJdbcDriver INSTANCE = new StubJdbcDriver();
+    private static volatile Responder responder = (sql, params) -> Collections.emptyList();
+
+    public static synchronized void install(Responder queries) throws SQLException {
+        responder = queries;
+        try {
+            // Nạp trước để static init của MySQL driver không tự đăng ký lại sau khi bị gỡ
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException ignored) {
+        }
+        for (Enumeration<Driver> drivers = DriverManager.getDrivers(); drivers.hasMoreElements(); ) {
+            Driver driver = drivers.nextElement();
+            if (driver != INSTANCE) {
+                DriverManager.deregisterDriver(driver);
+            }
+        }
+        DriverManager.registerDriver(INSTANCE);
+    }
+
+    /**
+     * Dòng kết quả: row("user_id", "u1", "display_name", "An")
+     */
+    public static Map<String, Object> row(Object... columnsAndValues) {
+        Map<String, Object> row = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i + 1 < columnsAndValues.length; i += 2) {
+            row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        return row;
+    }
+
+    // ==================== DRIVER ====================
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        return acceptsURL(url) ? connection() : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith("jdbc:mysql:");
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    // ==================== PROXIES ====================
+
+    private static Connection connection() {
+        boolean[] autoCommit = {true};
+        return proxy(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+            case "prepareStatement" -> statement((String) args[0]);
+            case "createStatement" -> statement(null);
+            case "isValid" -> true;
+            case "getAutoCommit" -> autoCommit[0];
+            case "setAutoCommit" -> {
+                autoCommit[0] = (Boolean) args[0];
+                yield null;
+            }
+            default -> defaultValue(proxy, method.getReturnType(), method.getName(), args);
+        });
+    }
+
+    /**
+     * sql = null: Statement thường, câu SQL truyền vào execute*()
+     */
+    private static PreparedStatement statement(String preparedSql) {
+        List<Object> params = new ArrayList<>();
+        return proxy(PreparedStatement.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                while (params.size() < index) {
+                    params.add(null);
+                }
+                params.set(index - 1, args[1]);
+                return null;
+            }
+            return switch (name) {
+                case "executeQuery" -> resultSet(responder.query(
+                        preparedSql != null ? preparedSql : (String) args[0], List.copyOf(params)));
+                case "executeUpdate" -> 0;
+                case "executeBatch" -> new int[0];
+                case "execute" -> false;
+                case "clearParameters" -> {
+                    params.clear();
+                    yield null;
+                }
+                default -> defaultValue(proxy, method.getReturnType(), name, args);
+            };
+        });
+    }
+
+    private static ResultSet resultSet(List<Map<String, Object>> rows) {
+        int[] cursor = {-1};
+        Object[] last = {null};
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("next")) {
+                return ++cursor[0] < rows.size();
+            }
+            if (name.equals("wasNull")) {
+                return last[0] == null;
+            }
+            if (name.startsWith("get") && args != null && args.length == 1
+                    && cursor[0] >= 0 && cursor[0] < rows.size()) {
+                Object value = args[0] instanceof String column ? rows.get(cursor[0]).get(column) : null;
+                last[0] = value;
+                return convert(value, method.getReturnType());
+            }
+            return defaultValue(proxy, method.getReturnType(), name, args);
+        });
+    }
+
+    private static Object convert(Object value, Class<?> type) {
+        if (type == String.class) {
+            return value != null ? value.toString() : null;
+        }
+        if (type == Timestamp.class) {
+            return value;
+        }
+        if (type == boolean.class) {
+            return value instanceof Boolean b ? b : value instanceof Number n && n.intValue() != 0;
+        }
+        if (type == int.class) {
+            return value instanceof Number n ? n.intValue() : 0;
+        }
+        if (type == long.class) {
+            return value instanceof Number n ? n.longValue() : 0L;
+        }
+        return value;
+    }
+
+    private static Object defaultValue(Object proxy, Class<?> type, String name, Object[] args) {
+        switch (name) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Stub" + proxy.getClass().getInterfaces()[0].getSimpleName();
+            default:
+                break;
+        }
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubJdbcDriver.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
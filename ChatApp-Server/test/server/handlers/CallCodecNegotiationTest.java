@@ -0,0 +1,170 @@
+package server.handlers;
+
+import database.connection.DBConnection;
+import database.connection.StubJdbcDriver;
+import models.Conversation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import protocol.Protocol;
+import server.ChatServer;
+import server.ClientHandler;
+
+import java.net.Socket;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Codec audio của cuộc gọi là phần chung của mọi người đã vào call
+ * - CALL_START chọn theo danh sách của caller
+ * - CALL_ANSWER chọn lại; client cũ không gửi danh sách nên chỉ có PCM
+ * - Codec đổi thì những người đã ở trong call nhận CALL_CODEC
+ * Chạy trên StubJdbcDriver; chạy từ thư mục ChatApp-Server (ServerConfig đọc resources/config/*.properties)
+ */
+class CallCodecNegotiationTest {
+
+    private static final String ALL_CODECS = "ima-adpcm,pcmu,pcma,pcm";
+    private static final String CONVERSATION_ID = "conv-call";
+
+    private static ChatServer server;
+
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+    private String callId;
+
+    @BeforeAll
+    static void installDriver() throws SQLException {
+        StubJdbcDriver.install(CallCodecNegotiationTest::respond);
+        server = new ChatServer();
+    }
+
+    @AfterAll
+    static void closePool() {
+        DBConnection.closeConnection();
+    }
+
+    @AfterEach
+    void endCall() {
+        if (callId != null) {
+            handle("caller", Protocol.CALL_END, callId, "caller");
+        }
+    }
+
+    @Test
+    void sameOffersKeepCodecWithoutNotification() {
+        assertEquals("ima-adpcm", startCall(ALL_CODECS));
+
+        assertEquals("ima-adpcm", answer("callee", ALL_CODECS));
+        assertEquals(List.of(), codecEvents("caller"));
+    }
+
+    @Test
+    void answerNarrowsToCommonCodec() {
+        assertEquals("ima-adpcm", startCall("ima-adpcm,pcmu,pcm"));
+
+        assertEquals("pcmu", answer("callee", "pcmu,pcma,pcm"));
+        assertEquals(List.of("pcmu"), codecEvents("caller"));
+    }
+
+    @Test
+    void legacyCalleeFallsBackToPcm() {
+        assertEquals("ima-adpcm", startCall(ALL_CODECS));
+
+        // Client cũ: CALL_ANSWER|||callId|||userId
+        assertEquals("pcm", answer("callee", null));
+        assertEquals(List.of("pcm"), codecEvents("caller"));
+    }
+
+    @Test
+    void legacyGroupMemberMovesEveryoneToPcm() {
+        assertEquals("ima-adpcm", startCall(ALL_CODECS));
+        assertEquals("ima-adpcm", answer("callee", ALL_CODECS));
+
+        assertEquals("pcm", answer("legacy", null));
+        assertEquals(List.of("pcm"), codecEvents("caller"));
+        assertEquals(List.of("pcm"), codecEvents("callee"));
+        assertEquals(List.of(), codecEvents("legacy"));
+    }
+
+    // ==================== HELPERS ====================
+
+    /**
+     * Trả về codec trong phản hồi CALL_START: callId|||serverIP|||udpPort|||token|||codec
+     */
+    private String startCall(String offered) {
+        String response = handle("caller", Protocol.CALL_START, CONVERSATION_ID, "caller", "AUDIO", offered);
+        assertTrue(Protocol.isSuccess(response), response);
+        String[] parts = Protocol.parseMessage(response);
+        callId = parts[2];
+        return parts[6];
+    }
+
+    /**
+     * Trả về codec trong phản hồi CALL_ANSWER: serverIP|||udpPort|||callType|||token|||codec
+     */
+    private String answer(String userId, String offered) {
+        String response = offered != null
+                ? handle(userId, Protocol.CALL_ANSWER, callId, userId, offered)
+                : handle(userId, Protocol.CALL_ANSWER, callId, userId);
+        assertTrue(Protocol.isSuccess(response), response);
+        return Protocol.parseMessage(response)[6];
+    }
+
+    private List<String> codecEvents(String userId) {
+        List<String> codecs = new ArrayList<>();
+        for (String message : received.getOrDefault(userId, List.of())) {
+            String[] parts = Protocol.parseMessage(message);
+            if (Protocol.CALL_CODEC.equals(parts[0])) {
+                assertEquals(callId, parts[1]);
+                codecs.add(parts[2]);
+            }
+        }
+        return codecs;
+    }
+
+    /**
+     * Gửi lệnh như user đó (đăng ký client với server), trả về phản hồi cuối cùng gửi cho user
+     */
+    private String handle(String userId, String command, String... args) {
+        List<String> messages = received.computeIfAbsent(userId, id -> new ArrayList<>());
+        ClientHandler client = new ClientHandler((Socket) null, server) {
+            @Override
+            public boolean sendMessage(String message) {
+                messages.add(message);
+                return true;
+            }
+        };
+        server.addClient(userId, client);
+
+        String[] parts = new String[args.length + 1];
+        parts[0] = command;
+        System.arraycopy(args, 0, parts, 1, args.length);
+        int before = messages.size();
+        new CallHandler(client).handle(command, parts);
+        return messages.size() > before ? messages.get(messages.size() - 1) : null;
+    }
+
+    private static List<Map<String, Object>> respond(String sql, List<Object> params) {
+        if (sql.startsWith("SELECT * FROM conversations")) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            return List.of(StubJdbcDriver.row(
+                    "conversation_id", CONVERSATION_ID,
+                    "type", Conversation.TYPE_GROUP,
+                    "name", "Call",
+                    "member_ids", "caller,callee,legacy",
+                    "creator_id", "caller",
+                    "is_active", true,
+                    "created_at", now,
+                    "updated_at", now));
+        }
+        return List.of();
+    }
+}
@@ -0,0 +1,166 @@
+package server.handlers;
+
+import database.connection.DBConnection;
+import database.connection.StubJdbcDriver;
+import models.Conversation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import protocol.Protocol;
+import server.ChatServer;
+import server.ClientHandler;
+
+import java.net.Socket;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Số SQL statement của CONVERSATION_GET_ALL không được tăng theo số conversation (N+1)
+ * - Chạy trên StubJdbcDriver: đếm bằng bộ đếm thật của ConnectionPool (như ClientHandler)
+ * - Cache lạnh: ConversationRegistry + danh sách conversation + hồ sơ peer + bộ đếm chưa đọc
+ * - Cache nóng: chỉ danh sách conversation + hồ sơ peer
+ * Mỗi lần chạy dùng user khác nhau để cache không lẫn giữa các test
+ *
+ * Chạy từ thư mục ChatApp-Server (ServerConfig đọc resources/config/*.properties)
+ */
+class ConversationListStatementBudgetTest {
+
+    private static final int COLD_STATEMENT_BUDGET = 4;
+    private static final int WARM_STATEMENT_BUDGET = 2;
+
+    // userId -> conversations của user đó
+    private static final Map<String, List<Map<String, Object>>> conversationsByUser =
+            new ConcurrentHashMap<>();
+
+    private static ChatServer server;
+
+    @BeforeAll
+    static void installDriver() throws SQLException {
+        StubJdbcDriver.install(ConversationListStatementBudgetTest::respond);
+        server = new ChatServer();
+    }
+
+    @AfterAll
+    static void closePool() {
+        DBConnection.closeConnection();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 20, 200})
+    void coldRequestStaysWithinBudget(int conversationCount) {
+        String userId = seedUser("cold" + conversationCount, conversationCount);
+
+        List<String> responses = new ArrayList<>();
+        int statements = getAll(userId, responses);
+
+        assertConversations(responses, conversationCount);
+        assertTrue(statements <= COLD_STATEMENT_BUDGET,
+                "CONVERSATION_GET_ALL (" + conversationCount + " conversations) issued " + statements
+                        + " SQL statements, budget " + COLD_STATEMENT_BUDGET);
+    }
+
+    @Test
+    void warmRequestStaysWithinBudget() {
+        String userId = seedUser("warm", 200);
+        getAll(userId, new ArrayList<>());
+
+        List<String> responses = new ArrayList<>();
+        int statements = getAll(userId, responses);
+
+        assertConversations(responses, 200);
+        assertTrue(statements <= WARM_STATEMENT_BUDGET,
+                "Warm CONVERSATION_GET_ALL issued " + statements + " SQL statements, budget "
+                        + WARM_STATEMENT_BUDGET);
+    }
+
+    // ==================== HELPERS ====================
+
+    private static int getAll(String userId, List<String> responses) {
+        ClientHandler client = new ClientHandler((Socket) null, server) {
+            @Override
+            public boolean sendMessage(String message) {
+                responses.add(message);
+                return true;
+            }
+        };
+        ConversationHandler handler = new ConversationHandler(client);
+
+        DBConnection.resetThreadStatementCount();
+        handler.handle(Protocol.CONVERSATION_GET_ALL, new String[]{Protocol.CONVERSATION_GET_ALL, userId});
+        return DBConnection.getThreadStatementCount();
+    }
+
+    private static void assertConversations(List<String> responses, int expected) {
+        assertEquals(1, responses.size());
+        String response = responses.get(0);
+        assertTrue(Protocol.isSuccess(response), response);
+
+        List<String> items = Protocol.parseDataList(Protocol.getData(response));
+        assertEquals(expected, items.size());
+        for (String item : items) {
+            String[] fields = Protocol.parseFields(item);
+            assertTrue(!"Unknown".equals(fields[2]), "Peer profile missing: " + item);
+        }
+    }
+
+    /**
+     * 3/4 private chat (mỗi cái một peer), còn lại group 5 người
+     */
+    private static String seedUser(String name, int count) {
+        String userId = "user-" + name;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean group = i % 4 == 3;
+            String members = group
+                    ? userId + ",g" + i + "-a,g" + i + "-b,g" + i + "-c,g" + i + "-d"
+                    : userId + ",peer-" + name + "-" + i;
+            rows.add(StubJdbcDriver.row(
+                    "conversation_id", "conv-" + name + "-" + i,
+                    "type", group ? Conversation.TYPE_GROUP : Conversation.TYPE_PRIVATE,
+                    "name", group ? "Group " + i : null,
+                    "member_ids", members,
+                    "creator_id", userId,
+                    "is_active", true,
+                    "last_message", "tin nhắn " + i,
+                    "last_message_time", now,
+                    "created_at", now,
+                    "updated_at", now));
+        }
+        conversationsByUser.put(userId, rows);
+        return userId;
+    }
+
+    private static List<Map<String, Object>> respond(String sql, List<Object> params) {
+        if (sql.contains("FIND_IN_SET")) {
+            // ConversationRegistry: chỉ mục conversation của user
+            return conversationsByUser.getOrDefault((String) params.get(0), List.of());
+        }
+        if (sql.startsWith("SELECT c.* FROM conversations")) {
+            // Tham số cuối là userId (NOT EXISTS conversation_deletions)
+            return conversationsByUser.getOrDefault((String) params.get(params.size() - 1), List.of());
+        }
+        if (sql.contains("FROM users")) {
+            List<Map<String, Object>> users = new ArrayList<>(params.size());
+            for (Object id : params) {
+                users.add(StubJdbcDriver.row(
+                        "user_id", id,
+                        "username", id,
+                        "display_name", "Display " + id,
+                        "is_active", true));
+            }
+            return users;
+        }
+        return List.of();
+    }
+}
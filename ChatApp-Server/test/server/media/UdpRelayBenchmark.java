@@ -0,0 +1,280 @@
+package server.media;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Benchmark relay UDP: packets/s và độ trễ relay (p50/p99) của hai chế độ
+ * - executor: DatagramSocket + một task cho mỗi packet (udp.relay.mode=executor)
+ * - inline: nhận và gửi tiếp trên thread của shard (mặc định)
+ * Mỗi phase: một call hai người trên loopback, người gửi có token media như client thật,
+ * người nhận đo độ trễ từ nanoTime ghi trong trường timestamp của header
+ * - burst: gửi liên tục, đo thông lượng và tỉ lệ packet tới nơi
+ * - paced: nghỉ 50 µs giữa hai packet, đo độ trễ khi relay không bị dồn
+ * Kịch bản shards: SHARD_CALLS call cùng gửi liên tục trong SHARD_DURATION_MS,
+ * so sánh 1, 2 và 4 shard inline (udp.relay.shards): tổng packet/s tới nơi và tỉ lệ tới nơi
+ * Vòng đầu là warmup. Log của server bị tắt trong lúc đo.
+ *
+ * Chạy từ thư mục ChatApp-Server (ServerConfig đọc resources/config/server.properties):
+ *   java -cp <server classes>:<test classes> server.media.UdpRelayBenchmark [relay|shards] [rounds]
+ */
+public class UdpRelayBenchmark {
+
+    // Frame audio cỡ thường gặp: tiền tố token + header + payload
+    private static final int PACKET_SIZE = 172;
+    private static final int HEADER_OFFSET = UdpMediaServer.TOKEN_PREFIX_SIZE;
+    private static final int SEQ_OFFSET = HEADER_OFFSET + 1;
+    private static final int TIMESTAMP_OFFSET = HEADER_OFFSET + 5;
+    private static final int LENGTH_OFFSET = HEADER_OFFSET + 13;
+    private static final int PAYLOAD_LENGTH = PACKET_SIZE - HEADER_OFFSET - 17;
+
+    private static final int BURST_PACKETS = 300_000;
+    private static final int PACED_PACKETS = 100_000;
+    private static final long PACED_INTERVAL_NANOS = 50_000;
+
+    private static final int SHARD_CALLS = 8;
+    private static final long SHARD_DURATION_MS = 3000;
+    private static final int[] SHARD_COUNTS = {1, 2, 4};
+
+    public static void main(String[] args) throws Exception {
+        boolean shards = args.length > 0 && "shards".equalsIgnoreCase(args[0]);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        PrintStream out = System.out;
+        silenceServerLogs();
+
+        out.println("UDP relay, " + PACKET_SIZE + "-byte packets, "
+                + Runtime.getRuntime().availableProcessors() + " CPU(s)");
+        for (int round = 0; round < rounds; round++) {
+            String warmup = round == 0 ? "[warmup] " : "";
+            if (shards) {
+                for (int shardCount : SHARD_COUNTS) {
+                    out.println(warmup + shardCount + " shard(s), " + SHARD_CALLS + " calls  "
+                            + shardScaling(shardCount, SHARD_CALLS, SHARD_DURATION_MS));
+                }
+                continue;
+            }
+            for (boolean inline : new boolean[]{false, true}) {
+                String mode = inline ? "inline  " : "executor";
+                out.println(warmup + mode + " burst  " + relay(inline, BURST_PACKETS, 0));
+                out.println(warmup + mode + " paced  " + relay(inline, PACED_PACKETS, PACED_INTERVAL_NANOS));
+            }
+        }
+    }
+
+    /**
+     * Một call, một người gửi, một người nhận
+     */
+    private static String relay(boolean inline, int packets, long intervalNanos) throws Exception {
+        UdpMediaServer server = new UdpMediaServer("127.0.0.1", 0, inline, 1);
+        server.start();
+        CallPair call = CallPair.open(server, "bench");
+
+        long[] latencies = new long[packets];
+        int[] received = {0};
+        long[] reordered = {0};
+        long[] lastArrival = {0};
+        Thread receiver = new Thread(() -> {
+            ByteBuffer packet = ByteBuffer.allocate(PACKET_SIZE);
+            int maxSeq = -1;
+            try {
+                while (received[0] < packets) {
+                    call.receiver.receive(packet.clear());
+                    long now = System.nanoTime();
+                    latencies[received[0]++] = now - packet.getLong(TIMESTAMP_OFFSET);
+                    int seq = packet.getInt(SEQ_OFFSET);
+                    if (seq < maxSeq) {
+                        reordered[0]++;
+                    } else {
+                        maxSeq = seq;
+                    }
+                    lastArrival[0] = now;
+                }
+            } catch (IOException ignored) {
+                // Đóng channel khi hết thời gian chờ packet cuối
+            }
+        }, "bench-receiver");
+        receiver.start();
+
+        long start = System.nanoTime();
+        ByteBuffer packet = call.packet();
+        for (int seq = 0; seq < packets; seq++) {
+            if (intervalNanos > 0) {
+                LockSupport.parkNanos(intervalNanos);
+            } else if ((seq & 31) == 0) {
+                Thread.yield();
+            }
+            packet.clear().putInt(SEQ_OFFSET, seq).putLong(TIMESTAMP_OFFSET, System.nanoTime());
+            call.sender.send(packet, call.target);
+        }
+
+        receiver.join(2000);
+        call.close();
+        receiver.join();
+        server.stop();
+        Thread.sleep(100);
+
+        int count = received[0];
+        if (count == 0) {
+            return "0/" + packets + " delivered";
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        double seconds = (lastArrival[0] - start) / 1e9;
+        return String.format("%6d/%d delivered (%5.1f%%), %7.0f pkt/s, p50 %7.1f us, p99 %8.1f us, %d reordered",
+                count, packets, 100.0 * count / packets, count / seconds,
+                sorted[count / 2] / 1e3, sorted[(int) (count * 0.99)] / 1e3, reordered[0]);
+    }
+
+    /**
+     * Nhiều call cùng lúc trên relay inline có shardCount shard; mỗi call một thread gửi liên tục
+     */
+    private static String shardScaling(int shardCount, int calls, long durationMillis) throws Exception {
+        UdpMediaServer server = new UdpMediaServer("127.0.0.1", 0, true, shardCount);
+        server.start();
+        CallPair[] pairs = new CallPair[calls];
+        for (int i = 0; i < calls; i++) {
+            pairs[i] = CallPair.open(server, "bench-" + i);
+        }
+
+        // Mỗi thread ghi ô của nó; đọc sau join
+        long[] sent = new long[calls];
+        long[] received = new long[calls];
+        Thread[] senders = new Thread[calls];
+        Thread[] receivers = new Thread[calls];
+        long deadline = System.nanoTime() + durationMillis * 1_000_000;
+
+        for (int i = 0; i < calls; i++) {
+            int index = i;
+            CallPair call = pairs[i];
+            receivers[i] = new Thread(() -> {
+                ByteBuffer packet = ByteBuffer.allocate(PACKET_SIZE);
+                try {
+                    while (true) {
+                        call.receiver.receive(packet.clear());
+                        received[index]++;
+                    }
+                } catch (IOException ignored) {
+                    // Channel đóng khi hết phase
+                }
+            }, "bench-receiver-" + i);
+            senders[i] = new Thread(() -> {
+                ByteBuffer packet = call.packet();
+                try {
+                    for (int seq = 0; System.nanoTime() < deadline; seq++) {
+                        if ((seq & 31) == 0) {
+                            Thread.yield();
+                        }
+                        packet.clear().putInt(SEQ_OFFSET, seq).putLong(TIMESTAMP_OFFSET, System.nanoTime());
+                        call.sender.send(packet, call.target);
+                        sent[index]++;
+                    }
+                } catch (IOException ignored) {
+                    // Dừng gửi
+                }
+            }, "bench-sender-" + i);
+        }
+        for (Thread receiver : receivers) {
+            receiver.start();
+        }
+        for (Thread sender : senders) {
+            sender.start();
+        }
+
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        // Cho relay xả nốt packet đang nằm trong buffer socket
+        Thread.sleep(500);
+        for (CallPair call : pairs) {
+            call.close();
+        }
+        for (Thread receiver : receivers) {
+            receiver.join();
+        }
+        server.stop();
+        Thread.sleep(100);
+
+        long totalSent = Arrays.stream(sent).sum();
+        long totalReceived = Arrays.stream(received).sum();
+        return String.format("%8d/%d delivered (%5.1f%%), %7.0f pkt/s",
+                totalReceived, totalSent, 100.0 * totalReceived / Math.max(1, totalSent),
+                totalReceived / (durationMillis / 1000.0));
+    }
+
+    // ==================== HELPERS ====================
+
+    /**
+     * Hai endpoint của một call, cả hai đã gửi packet có token nên server đã ghi nhớ địa chỉ
+     */
+    static final class CallPair implements AutoCloseable {
+        final DatagramChannel sender;
+        final DatagramChannel receiver;
+        final InetSocketAddress target;
+        final int senderToken;
+
+        private CallPair(DatagramChannel sender, DatagramChannel receiver, InetSocketAddress target, int senderToken) {
+            this.sender = sender;
+            this.receiver = receiver;
+            this.target = target;
+            this.senderToken = senderToken;
+        }
+
+        static CallPair open(UdpMediaServer server, String callId) throws Exception {
+            int port = server.registerCall(callId);
+            int senderToken = server.issueToken(callId, callId + "-sender");
+            int receiverToken = server.issueToken(callId, callId + "-receiver");
+            InetSocketAddress target = new InetSocketAddress("127.0.0.1", port);
+
+            DatagramChannel sender = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            DatagramChannel receiver = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            receiver.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20);
+
+            CallPair call = new CallPair(sender, receiver, target, senderToken);
+            // Người nhận bind trước để packet đầu của người gửi được relay tới nó
+            receiver.send(packet(receiverToken), target);
+            Thread.sleep(100);
+            sender.send(call.packet(), target);
+            Thread.sleep(100);
+
+            receiver.configureBlocking(false);
+            ByteBuffer drain = ByteBuffer.allocate(PACKET_SIZE);
+            while (receiver.receive(drain.clear()) != null) {
+                // Bỏ packet bind
+            }
+            receiver.configureBlocking(true);
+            return call;
+        }
+
+        ByteBuffer packet() {
+            return packet(senderToken);
+        }
+
+        private static ByteBuffer packet(int token) {
+            ByteBuffer packet = ByteBuffer.allocate(PACKET_SIZE);
+            packet.put(0, UdpMediaServer.TOKEN_MAGIC).putInt(1, token)
+                    .put(HEADER_OFFSET, (byte) 0x01)
+                    .putInt(LENGTH_OFFSET, PAYLOAD_LENGTH);
+            return packet;
+        }
+
+        @Override
+        public void close() throws IOException {
+            receiver.close();
+            sender.close();
+        }
+    }
+
+    static void silenceServerLogs() {
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(sink);
+        System.setErr(sink);
+    }
+}
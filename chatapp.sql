@@ -73,6 +73,18 @@ CREATE TABLE IF NOT EXISTS `conversation_members` (
 
 -- Dumping data for table chatapp.conversation_members: ~6 rows (approximately)
 
+-- Dumping structure for table chatapp.conversation_unread
+-- Unread counter per (user, conversation), maintained by the server
+CREATE TABLE IF NOT EXISTS `conversation_unread` (
+  `user_id` varchar(36) COLLATE utf8mb4_unicode_ci NOT NULL,
+  `conversation_id` varchar(36) COLLATE utf8mb4_unicode_ci NOT NULL,
+  `unread_count` int NOT NULL DEFAULT '0',
+  PRIMARY KEY (`user_id`,`conversation_id`),
+  KEY `conversation_id` (`conversation_id`),
+  CONSTRAINT `conversation_unread_ibfk_1` FOREIGN KEY (`user_id`) REFERENCES `users` (`user_id`) ON DELETE CASCADE,
+  CONSTRAINT `conversation_unread_ibfk_2` FOREIGN KEY (`conversation_id`) REFERENCES `conversations` (`conversation_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
 -- Dumping structure for procedure chatapp.GetConversationMessages
 DELIMITER //
 CREATE PROCEDURE `GetConversationMessages`(
@@ -136,6 +148,11 @@ END//
 DELIMITER ;
 
 -- Dumping structure for table chatapp.messages
+-- idx_conversation_time serves keyset history paging; on existing databases:
+--   ALTER TABLE `messages` DROP INDEX `conversation_id`,
+--     ADD KEY `idx_conversation_time` (`conversation_id`,`timestamp`,`message_id`);
+-- ft_content serves MESSAGE_SEARCH (ngram parser, ngram_token_size = 2); on existing databases:
+--   ALTER TABLE `messages` ADD FULLTEXT KEY `ft_content` (`content`) WITH PARSER ngram;
 CREATE TABLE IF NOT EXISTS `messages` (
   `message_id` varchar(36) COLLATE utf8mb4_unicode_ci NOT NULL,
   `conversation_id` varchar(36) COLLATE utf8mb4_unicode_ci NOT NULL,
@@ -156,9 +173,10 @@ CREATE TABLE IF NOT EXISTS `messages` (
   `is_recalled` tinyint(1) DEFAULT '0',
   `reply_to_message_id` varchar(36) COLLATE utf8mb4_unicode_ci DEFAULT NULL,
   PRIMARY KEY (`message_id`),
-  KEY `conversation_id` (`conversation_id`),
+  KEY `idx_conversation_time` (`conversation_id`,`timestamp`,`message_id`),
   KEY `sender_id` (`sender_id`),
   KEY `reply_to_message_id` (`reply_to_message_id`),
+  FULLTEXT KEY `ft_content` (`content`) /*!50100 WITH PARSER `ngram` */ ,
   CONSTRAINT `messages_ibfk_1` FOREIGN KEY (`conversation_id`) REFERENCES `conversations` (`conversation_id`) ON DELETE CASCADE,
   CONSTRAINT `messages_ibfk_2` FOREIGN KEY (`sender_id`) REFERENCES `users` (`user_id`) ON DELETE CASCADE,
   CONSTRAINT `messages_ibfk_3` FOREIGN KEY (`reply_to_message_id`) REFERENCES `messages` (`message_id`) ON DELETE SET NULL
@@ -309,6 +327,41 @@ INSERT INTO `messages` (`message_id`, `conversation_id`, `sender_id`, `sender_na
 	('f779224f-633c-4811-9c10-2f96ad19a17e', '7683c268-bed6-4429-b1ad-0cfc98ec495d', '8bdb744d-4ea2-40e2-84eb-5b59e0e2552c', 'hoangke', NULL, 'â', 'text', NULL, NULL, 0, NULL, '2025-12-03 02:28:42', 0, 1, 1, 0, 0, NULL),
 	('fec198bd-9f8c-470a-93aa-345e73904a56', '7683c268-bed6-4429-b1ad-0cfc98ec495d', '8bdb744d-4ea2-40e2-84eb-5b59e0e2552c', 'hoangke', NULL, 'aaaaaaaaaaaaaa', 'text', NULL, NULL, 0, NULL, '2025-12-03 12:19:15', 0, 1, 1, 0, 0, NULL);
 
+-- Initial unread counters from existing messages (run once when adding conversation_unread)
+INSERT INTO `conversation_unread` (`user_id`, `conversation_id`, `unread_count`)
+SELECT u.`user_id`, m.`conversation_id`, COUNT(*)
+FROM `messages` m
+JOIN `conversations` c ON c.`conversation_id` = m.`conversation_id`
+JOIN `users` u ON FIND_IN_SET(u.`user_id`, c.`member_ids`) > 0
+WHERE m.`is_read` = 0 AND m.`sender_id` <> u.`user_id`
+GROUP BY u.`user_id`, m.`conversation_id`
+ON DUPLICATE KEY UPDATE `unread_count` = VALUES(`unread_count`);
+
+-- Dumping structure for table chatapp.file_blobs
+-- Content-addressed upload store (uploads/blobs/<2 hex>/<sha256>); unreferenced blobs are collected by BlobStore
+CREATE TABLE IF NOT EXISTS `file_blobs` (
+  `sha256` char(64) COLLATE utf8mb4_unicode_ci NOT NULL,
+  `size` bigint NOT NULL,
+  `created_at` datetime DEFAULT CURRENT_TIMESTAMP,
+  `last_used_at` datetime DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`sha256`),
+  KEY `idx_last_used` (`last_used_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- Dumping data for table chatapp.file_blobs: ~0 rows (approximately)
+
+-- Dumping structure for table chatapp.message_blobs
+-- One row per blob a message uses (media_url, thumbnail_url); deleting the message drops the references
+CREATE TABLE IF NOT EXISTS `message_blobs` (
+  `message_id` varchar(36) COLLATE utf8mb4_unicode_ci NOT NULL,
+  `sha256` char(64) COLLATE utf8mb4_unicode_ci NOT NULL,
+  PRIMARY KEY (`message_id`,`sha256`),
+  KEY `sha256` (`sha256`),
+  CONSTRAINT `message_blobs_ibfk_1` FOREIGN KEY (`message_id`) REFERENCES `messages` (`message_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- Dumping data for table chatapp.message_blobs: ~0 rows (approximately)
+
 -- Dumping structure for table chatapp.message_reactions
 CREATE TABLE IF NOT EXISTS `message_reactions` (
   `message_id` varchar(36) COLLATE utf8mb4_unicode_ci NOT NULL,